@@ -0,0 +1,49 @@
+package net.cellar;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Ancestry}.
+ */
+@SmallTest
+public class AncestryTest {
+
+    @Test
+    public void testEscape() {
+        final String[] samples = new String[] {"", "plain.txt", "tab\there", "line\nbreak\r", "back\\slash\\t", "\\"};
+        for (String sample : samples) {
+            final String escaped = Ancestry.escape(sample);
+            assertFalse(escaped.indexOf('\t') >= 0 || escaped.indexOf('\n') >= 0 || escaped.indexOf('\r') >= 0);
+            assertEquals(sample, Ancestry.unescape(escaped));
+        }
+        assertEquals("", Ancestry.escape(null));
+    }
+
+    @Test
+    public void testMatches() {
+        final Ancestry.Record record = new Ancestry.Record("example.com", "\"abc\"", 1_000_000L, 5000L, "https://example.com/file");
+        assertTrue(record.hasValidator());
+        assertTrue(record.matches("example.com", "\"abc\"", 1_000_000L, 5000L));
+        // a record with validators does not match a resource without any
+        assertFalse(record.matches("example.com", null, 0L, -1L));
+        assertFalse(record.matches("example.com", null, 0L, 5000L));
+        assertFalse(record.matches("example.com", "W/\"abc\"", 0L, 5000L));
+        // one validator is enough
+        assertTrue(record.matches("example.com", "\"abc\"", 0L, -1L));
+        assertTrue(record.matches("example.com", null, 1_000_000L, 5000L));
+        assertFalse(record.matches("example.org", "\"abc\"", 1_000_000L, 5000L));
+        assertFalse(record.matches("example.com", "\"abd\"", 1_000_000L, 5000L));
+        assertFalse(record.matches("example.com", "\"abc\"", 2_000_000L, 5000L));
+        assertFalse(record.matches("example.com", "\"abc\"", 1_000_000L, 5001L));
+        final Ancestry.Record hostOnly = new Ancestry.Record("example.com", null, 0L, -1L, null);
+        assertFalse(hostOnly.hasValidator());
+        assertTrue(hostOnly.matches("example.com", "\"xyz\"", 3L, 4L));
+        assertFalse(new Ancestry.Record("example.com", "W/\"abc\"", 0L, -1L, null).hasValidator());
+    }
+}
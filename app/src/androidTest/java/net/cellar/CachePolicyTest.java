@@ -0,0 +1,103 @@
+package net.cellar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.filters.SmallTest;
+
+import net.cellar.net.CachePolicy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link CachePolicy}.
+ */
+@SmallTest
+public class CachePolicyTest {
+
+    /**
+     * Passes a fake response through the CachePolicy without any network access.
+     * @param contentType Content-Type header value (optional)
+     * @param length Content-Length header value; -1 to omit it
+     * @param headers further response headers as name-value pairs
+     * @return the Cache-Control header after the CachePolicy has been applied
+     * @throws IOException if the fake call fails
+     */
+    @Nullable
+    private static String cacheControl(@Nullable String contentType, long length, @NonNull String... headers) throws IOException {
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new CachePolicy())
+                .addInterceptor(chain -> {
+                    final Response.Builder rb = new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(new byte[0], (MediaType)null));
+                    if (contentType != null) rb.header("Content-Type", contentType);
+                    if (length >= 0L) rb.header("Content-Length", String.valueOf(length));
+                    for (int i = 0; i < headers.length; i += 2) rb.header(headers[i], headers[i + 1]);
+                    return rb.build();
+                })
+                .build();
+        try (Response response = client.newCall(new Request.Builder().url("https://www.example.com/").build()).execute()) {
+            return response.header("Cache-Control");
+        }
+    }
+
+    @Test
+    public void testIsMetadata() {
+        assertTrue(CachePolicy.isMetadata(MediaType.parse("text/html; charset=utf-8")));
+        assertTrue(CachePolicy.isMetadata(MediaType.parse("application/json")));
+        assertTrue(CachePolicy.isMetadata(MediaType.parse("application/ld+json")));
+        assertTrue(CachePolicy.isMetadata(MediaType.parse("application/rss+xml")));
+        assertTrue(CachePolicy.isMetadata(MediaType.parse("application/vnd.apple.mpegurl")));
+        assertFalse(CachePolicy.isMetadata(MediaType.parse("video/mp4")));
+        assertFalse(CachePolicy.isMetadata(MediaType.parse("image/jpeg")));
+        assertFalse(CachePolicy.isMetadata(MediaType.parse("application/zip")));
+        assertFalse(CachePolicy.isMetadata(MediaType.parse("application/octet-stream")));
+        assertFalse(CachePolicy.isMetadata(null));
+    }
+
+    @Test
+    public void testMedia() throws IOException {
+        assertEquals("no-store", cacheControl("video/mp4", 10_000L, "ETag", "\"1\"", "Cache-Control", "max-age=3600"));
+        assertEquals("no-store", cacheControl("audio/mpeg", 10_000L));
+        assertEquals("no-store", cacheControl(null, 10_000L, "ETag", "\"1\""));
+    }
+
+    @Test
+    public void testMetadata() throws IOException {
+        // explicit freshness is kept
+        assertEquals("max-age=60", cacheControl("application/json", 500L, "Cache-Control", "max-age=60"));
+        // validators without freshness: revalidate each time
+        assertEquals("no-cache", cacheControl("text/html", 500L, "ETag", "\"1\""));
+        assertEquals("public, no-cache", cacheControl("text/html", 500L, "Last-Modified", "Fri, 31 Dec 1999 23:59:59 GMT", "Cache-Control", "public"));
+        // neither freshness nor validators
+        assertEquals("no-store", cacheControl("application/xml", 500L));
+    }
+
+    @Test
+    public void testOversized() throws IOException {
+        assertEquals("no-cache", cacheControl("text/html", CachePolicy.MAX_CACHEABLE_LENGTH, "ETag", "\"1\""));
+        assertEquals("no-store", cacheControl("text/html", CachePolicy.MAX_CACHEABLE_LENGTH + 1L, "ETag", "\"1\""));
+    }
+
+    @Test
+    public void testUnknownLength() throws IOException {
+        assertEquals("no-store", cacheControl("application/json", -1L, "ETag", "\"1\"", "Cache-Control", "max-age=60"));
+        assertEquals("no-store", cacheControl("text/plain", -1L, "Last-Modified", "Fri, 31 Dec 1999 23:59:59 GMT"));
+    }
+}
@@ -0,0 +1,35 @@
+package net.cellar;
+
+import androidx.test.filters.SmallTest;
+
+import net.cellar.worker.CancellationToken;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link CancellationToken}.
+ */
+@SmallTest
+public class CancellationTokenTest {
+
+    @Test
+    public void testFlags() {
+        final CancellationToken token = new CancellationToken();
+        assertFalse(token.isCancelled());
+        assertFalse(token.isDeferred());
+        assertFalse(token.isStopRequested());
+        assertTrue(token.stop());
+        assertFalse(token.stop());
+        assertTrue(token.isStopRequested());
+        assertFalse(token.isCancelled());
+        assertTrue(token.defer());
+        assertTrue(token.isCancelled());
+        assertTrue(token.isDeferred());
+        // already cancelled via defer()
+        assertFalse(token.cancel());
+        assertTrue(token.isStopRequested());
+    }
+}
@@ -0,0 +1,99 @@
+package net.cellar;
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.cellar.supp.Util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ContentIndex}.
+ */
+@SmallTest
+public class ContentIndexTest {
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    /**
+     * ETags are assigned by the server per resource; two resources of the same host may carry the same ETag.
+     * Only the url that a file has been delivered from may identify it.
+     */
+    @Test
+    public void testEtagOfOtherUrl() throws IOException {
+        final Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final ContentIndex contentIndex = ContentIndex.getInstance();
+        final File file = new File(App.getDownloadsDir(ctx), "contentindextest_" + System.currentTimeMillis() + ".bin");
+        final byte[] data = new byte[1000];
+        new Random(5).nextBytes(data);
+        final String etag = "\"1000-5\"";
+        try {
+            write(file, data);
+            contentIndex.add(file, null, "https://www.example.com/a.bin", etag);
+            assertEquals(file, contentIndex.findByEtag("https://www.example.com/a.bin", etag, data.length));
+            assertNull(contentIndex.findByEtag("https://www.example.com/b.bin", etag, data.length));
+            assertNull(contentIndex.findByEtag("www.example.com", etag, data.length));
+            assertNull(contentIndex.findByEtag("https://www.example.com/a.bin", "W/" + etag, data.length));
+        } finally {
+            Util.deleteFile(file);
+        }
+    }
+
+    @Test
+    public void testLink() throws IOException, ErrnoException {
+        final Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File dir = new File(ctx.getCacheDir(), "contentindextest");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        final byte[] data = new byte[200_000];
+        new Random(4).nextBytes(data);
+        final File a = new File(dir, "a.bin");
+        final File b = new File(dir, "b.bin");
+        final File c = new File(dir, "c.bin");
+        try {
+            write(a, data);
+            write(b, data);
+            data[100_000] ^= 1;
+            write(c, data);
+            final ContentIndex.Fingerprint fa = ContentIndex.fingerprintOf(a);
+            assertEquals(fa, ContentIndex.fingerprintOf(b));
+            assertNotEquals(fa, ContentIndex.fingerprintOf(c));
+            assertTrue(ContentIndex.contentEquals(a, b));
+            assertFalse(ContentIndex.contentEquals(a, c));
+
+            assertTrue(ContentIndex.link(a, b));
+            assertEquals(Os.stat(a.getAbsolutePath()).st_ino, Os.stat(b.getAbsolutePath()).st_ino);
+            assertEquals(2L, Os.stat(a.getAbsolutePath()).st_nlink);
+
+            // appending to b must not modify a
+            ContentIndex.detach(b, true);
+            assertEquals(1L, Os.stat(a.getAbsolutePath()).st_nlink);
+            assertTrue(ContentIndex.contentEquals(a, b));
+            try (FileOutputStream out = new FileOutputStream(b, true)) {
+                out.write(1);
+            }
+            assertEquals(data.length, a.length());
+            assertEquals(data.length + 1, b.length());
+        } finally {
+            Util.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.cellar;
+
+import androidx.test.filters.SmallTest;
+
+import net.cellar.net.DnsCache;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link DnsCache}.
+ */
+@SmallTest
+public class DnsCacheTest {
+
+    private static InetAddress v4(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {(byte)192, 0, 2, (byte)last});
+    }
+
+    private static InetAddress v6(int last) throws UnknownHostException {
+        final byte[] a = new byte[16];
+        a[0] = 0x20; a[1] = 0x01; a[2] = 0x0d; a[3] = (byte)0xb8;
+        a[15] = (byte)last;
+        return InetAddress.getByAddress(a);
+    }
+
+    @Test
+    public void testInterleave() throws UnknownHostException {
+        assertEquals(Collections.emptyList(), DnsCache.interleave(new InetAddress[0]));
+        assertEquals(Collections.singletonList(v4(1)), DnsCache.interleave(new InetAddress[] {v4(1)}));
+        // one family only: the order is kept
+        assertEquals(Arrays.asList(v4(1), v4(2), v4(3)), DnsCache.interleave(new InetAddress[] {v4(1), v4(2), v4(3)}));
+        // the family of the first address comes first
+        assertEquals(Arrays.asList(v6(1), v4(1), v6(2), v4(2), v6(3)), DnsCache.interleave(new InetAddress[] {v6(1), v6(2), v6(3), v4(1), v4(2)}));
+        assertEquals(Arrays.asList(v4(1), v6(1), v4(2), v6(2), v6(3)), DnsCache.interleave(new InetAddress[] {v4(1), v4(2), v6(1), v6(2), v6(3)}));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testInterleaveUnmodifiable() throws UnknownHostException {
+        final List<InetAddress> ordered = DnsCache.interleave(new InetAddress[] {v4(1), v6(1)});
+        ordered.add(v4(2));
+    }
+
+    /**
+     * Address literals are not sent to a resolver, so this works offline.
+     */
+    @Test
+    public void testLookup() throws UnknownHostException {
+        final DnsCache dnsCache = new DnsCache();
+        final List<InetAddress> first = dnsCache.lookup("192.0.2.1");
+        assertEquals(Collections.singletonList(v4(1)), first);
+        assertSame(first, dnsCache.lookup("192.0.2.1"));
+        dnsCache.clear();
+        assertNotSame(first, dnsCache.lookup("192.0.2.1"));
+    }
+}
@@ -0,0 +1,129 @@
+package net.cellar;
+
+import androidx.annotation.NonNull;
+
+import org.apache.ftpserver.DataConnectionConfigurationFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A local ftp server that serves the files in a directory.<br>
+ * The latency applies to each command, the bandwidth to each transfer.<br>
+ * Dependency: 'org.apache.ftpserver:ftpserver-core:*'
+ */
+final class FtpStandIn extends DefaultFtplet implements Closeable {
+
+    static final String USER = "bench";
+    static final String PASSWORD = "bench";
+
+    private final File root;
+    private final int port;
+    private final UserManager userManager;
+    private final FtpServer server;
+    /** delay before each command is executed [ms] */
+    private volatile long latency;
+
+    /**
+     * Constructor.
+     * @param root directory that contains the files to serve
+     * @param usersFile file to store the users in
+     * @throws IOException if the server could not be started
+     */
+    FtpStandIn(@NonNull File root, @NonNull File usersFile) throws IOException {
+        super();
+        this.root = root;
+        // ftpserver 1.1 does not tell which port it got if asked for port 0
+        try (ServerSocket ss = new ServerSocket(0)) {
+            this.port = ss.getLocalPort();
+        }
+        final FtpServerFactory serverFactory = new FtpServerFactory();
+        final ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(this.port);
+        listenerFactory.setDataConnectionConfiguration(new DataConnectionConfigurationFactory().createDataConnectionConfiguration());
+        serverFactory.addListener("default", listenerFactory.createListener());
+        final PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
+        userManagerFactory.setFile(usersFile);
+        userManagerFactory.setPasswordEncryptor(new ClearTextPasswordEncryptor());
+        this.userManager = userManagerFactory.createUserManager();
+        serverFactory.setUserManager(this.userManager);
+        serverFactory.getFtplets().put("latency", this);
+        this.server = serverFactory.createServer();
+        try {
+            configure(0L, 0);
+            this.server.start();
+        } catch (FtpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+        final long latency = this.latency;
+        if (latency > 0L) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return super.beforeCommand(session, request);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        this.server.stop();
+    }
+
+    /**
+     * Limits the response speed.<br>
+     * The bandwidth is granted at login, so clients that are logged in already are not affected.
+     * @param latency delay before each command is executed [ms]
+     * @param bandwidth maximum number of bytes per second; 0 for no limit
+     * @throws FtpException if the user could not be updated
+     */
+    void configure(long latency, int bandwidth) throws FtpException {
+        this.latency = latency;
+        final BaseUser user = new BaseUser();
+        user.setName(USER);
+        user.setPassword(PASSWORD);
+        user.setHomeDirectory(this.root.getAbsolutePath());
+        final List<Authority> authorities = new ArrayList<>(2);
+        authorities.add(new ConcurrentLoginPermission(0, 0));
+        authorities.add(new TransferRatePermission(bandwidth, 0));
+        user.setAuthorities(authorities);
+        this.userManager.save(user);
+    }
+
+    /**
+     * Returns the url of a file.
+     * @param name file name
+     * @return url
+     */
+    @NonNull
+    String url(@NonNull String name) {
+        return "ftp://" + USER + ':' + PASSWORD + "@127.0.0.1:" + this.port + '/' + name;
+    }
+}
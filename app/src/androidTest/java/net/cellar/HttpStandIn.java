@@ -0,0 +1,203 @@
+package net.cellar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * A local http server that serves byte arrays.<br>
+ * Supports HEAD requests, byte ranges (with If-Range) and gzip; latency and bandwidth can be limited.<br>
+ * Dependency: 'com.squareup.okhttp3:mockwebserver:*'
+ */
+final class HttpStandIn extends Dispatcher implements Closeable {
+
+    /** the Last-Modified header value of all resources */
+    private static final String LAST_MODIFIED = "Fri, 01 Oct 2021 12:00:00 GMT";
+    /** {@link #LAST_MODIFIED} in ms since the epoch */
+    static final long LAST_MODIFIED_MS = 1_633_089_600_000L;
+
+    private final MockWebServer server = new MockWebServer();
+    /** key: path; value: content */
+    private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    /** key: path; value: gzipped content */
+    private final Map<String, byte[]> gzipped = new ConcurrentHashMap<>();
+    /** delay before the response headers are sent [ms] */
+    private volatile long latency;
+    /** maximum number of bytes per second; 0 for no limit */
+    private volatile long bandwidth;
+    /** {@code true} to compress the response body if the client accepts gzip */
+    private volatile boolean gzip;
+
+    /**
+     * Constructor.
+     * @throws IOException if the server could not be started
+     */
+    HttpStandIn() throws IOException {
+        super();
+        this.server.setDispatcher(this);
+        this.server.start();
+    }
+
+    /**
+     * Makes a resource available.
+     * @param path path, e.g. "/data.bin"
+     * @param data content
+     */
+    void add(@NonNull String path, @NonNull byte[] data) {
+        this.resources.put(path, data);
+        this.gzipped.remove(path);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        this.server.shutdown();
+    }
+
+    /**
+     * Returns the ETag of a resource.<br>
+     * The query is part of it so that the Downloader does not take the resources for identical ones that it has got already.
+     * @param url resource url
+     * @param length content length
+     * @return ETag header value
+     */
+    @NonNull
+    static String etag(@NonNull String url, int length) {
+        final HttpUrl httpUrl = HttpUrl.get(url);
+        final String query = httpUrl.encodedQuery();
+        return etagOfPath(query != null ? httpUrl.encodedPath() + '?' + query : httpUrl.encodedPath(), length);
+    }
+
+    /**
+     * Returns the ETag of a resource.
+     * @param requestPath request path including the query
+     * @param length content length
+     * @return ETag header value
+     */
+    @NonNull
+    private static String etagOfPath(@NonNull String requestPath, int length) {
+        return "\"" + Integer.toHexString(requestPath.hashCode()) + '-' + length + "\"";
+    }
+
+    /**
+     * Limits the response speed.
+     * @param latency delay before the response headers are sent [ms]
+     * @param bandwidth maximum number of bytes per second; 0 for no limit
+     */
+    void configure(long latency, long bandwidth) {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public MockResponse dispatch(@NonNull RecordedRequest request) {
+        final String requestPath = request.getPath() != null ? request.getPath() : "/";
+        final int q = requestPath.indexOf('?');
+        final String path = q >= 0 ? requestPath.substring(0, q) : requestPath;
+        final byte[] data = this.resources.get(path);
+        final MockResponse response = new MockResponse();
+        if (this.latency > 0L) response.setHeadersDelay(this.latency, TimeUnit.MILLISECONDS);
+        if (data == null) {
+            return response.setResponseCode(404);
+        }
+        final String etag = etagOfPath(requestPath, data.length);
+        response.setHeader("ETag", etag).setHeader("Last-Modified", LAST_MODIFIED).setHeader("Accept-Ranges", "bytes").setHeader("Content-Type", "application/octet-stream");
+        if ("HEAD".equals(request.getMethod())) {
+            return response.setHeader("Content-Length", data.length);
+        }
+        // "bytes=<start>-" is all that the Downloader asks for
+        final long start = parseRangeStart(request.getHeader("Range"));
+        final String ifRange = request.getHeader("If-Range");
+        final Buffer body = new Buffer();
+        if (start >= 0L && start < data.length && (ifRange == null || ifRange.equals(etag) || ifRange.equals(LAST_MODIFIED))) {
+            response.setResponseCode(206).setHeader("Content-Range", "bytes " + start + '-' + (data.length - 1) + '/' + data.length);
+            body.write(data, (int)start, data.length - (int)start);
+        } else if (this.gzip && acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            response.setHeader("Content-Encoding", "gzip");
+            body.write(gzipped(path, data));
+        } else {
+            body.write(data);
+        }
+        response.setBody(body);
+        final long bandwidth = this.bandwidth;
+        // 10 portions per second
+        if (bandwidth > 0L) response.throttleBody(Math.max(1L, bandwidth / 10L), 100L, TimeUnit.MILLISECONDS);
+        return response;
+    }
+
+    /**
+     * @param acceptEncoding Accept-Encoding header value
+     * @return {@code true} if gzip is acceptable
+     */
+    private static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    /**
+     * Returns the compressed variant of a resource.
+     * @param path path
+     * @param data content
+     * @return gzipped content
+     */
+    @NonNull
+    private byte[] gzipped(@NonNull String path, @NonNull byte[] data) {
+        byte[] z = this.gzipped.get(path);
+        if (z != null) return z;
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(bout)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        z = bout.toByteArray();
+        this.gzipped.put(path, z);
+        return z;
+    }
+
+    /**
+     * Parses a Range header of the form "bytes=&lt;start&gt;-".
+     * @param range Range header value
+     * @return start offset, -1 if not given or not understood
+     */
+    private static long parseRangeStart(@Nullable String range) {
+        if (range == null || !range.startsWith("bytes=") || !range.endsWith("-")) return -1L;
+        try {
+            return Long.parseLong(range.substring(6, range.length() - 1).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * @param enabled {@code true} to compress the response body if the client accepts gzip
+     */
+    void setGzip(boolean enabled) {
+        this.gzip = enabled;
+    }
+
+    /**
+     * Returns the url of a resource.
+     * @param path path, e.g. "/data.bin"
+     * @return url
+     */
+    @NonNull
+    String url(@NonNull String path) {
+        return this.server.url(path).toString();
+    }
+}
@@ -13,60 +13,54 @@ import net.cellar.supp.Util;
 import net.cellar.worker.Downloader;
 import net.cellar.worker.LoaderListener;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 
 /**
  * Tests a download via https.<br>
  * Succeeded 2021-07-02
  */
-@SuppressWarnings("BusyWait")
 @SmallTest
 public class HttpsTest implements LoaderListener {
 
     private static final String URL = "https://archive.org/download/mma_cypresses_437980/437980.jpg";
+    private static final long TIMEOUT_SECONDS = 60L;
     private final int downloadId = 1001;
     private Context ctx;
-    private volatile boolean done;
+    private ExecutorService executor;
 
     @Before
     public void init() {
         ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void exit() {
+        executor.shutdownNow();
     }
 
     @Test
-    public void testHttps() {
-        done = false;
+    public void testHttps() throws Exception {
         App app = (App)ctx.getApplicationContext();
         Downloader loader = new Downloader(downloadId, app.getOkHttpClient(),this);
         Order order = new Order(Uri.parse(URL));
         order.setDestinationFolder(App.getDownloadsDir(app).getAbsolutePath());
         order.setDestinationFilename("cypresses.jpg");
         order.setMime("image/jpg");
-        loader.execute(order);
-        while (!done) {
-            try {
-                Thread.sleep(250L);
-            } catch (InterruptedException e) {
-                fail(e.toString());
-            }
-        }
-    }
-
-    @Override
-    public void done(int id, boolean complete, @NonNull Set<Delivery> deliveries) {
+        final Set<Delivery> deliveries = loader.start(executor, order).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
         java.io.File file = null;
         try {
-            assertEquals(downloadId, id);
-            assertTrue(complete);
-            assertNotNull(deliveries);
             assertEquals(1, deliveries.size());
             Delivery delivery = deliveries.iterator().next();
             assertNotNull(delivery);
@@ -77,7 +71,11 @@ public class HttpsTest implements LoaderListener {
             assertEquals(200, delivery.getRc());
         } finally {
             Util.deleteFile(file);
-            done = true;
         }
     }
+
+    @Override
+    public void done(int id, boolean complete, @NonNull Set<Delivery> deliveries) {
+        // the Deliveries are evaluated via the Future
+    }
 }
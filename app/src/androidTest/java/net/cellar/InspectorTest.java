@@ -1,13 +1,12 @@
 package net.cellar;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
-import androidx.preference.PreferenceManager;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import net.cellar.supp.Log;
 import net.cellar.supp.Util;
+import net.cellar.worker.InspectionStore;
 import net.cellar.worker.Inspector;
 
 import org.junit.Assume;
@@ -16,15 +15,24 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -37,6 +45,40 @@ public class InspectorTest {
     private Context ctx;
     private Map<File, String> suggestions;
 
+    /**
+     * Builds the first page of an Ogg stream.
+     * @param packet the first header packet
+     * @return page data
+     */
+    private static byte[] oggPage(byte[] packet) {
+        final byte[] page = new byte[28 + packet.length];
+        page[0] = 'O'; page[1] = 'g'; page[2] = 'g'; page[3] = 'S';
+        // beginning of stream
+        page[5] = 2;
+        // one segment in the segment table, followed by the packet
+        page[26] = 1;
+        page[27] = (byte)packet.length;
+        System.arraycopy(packet, 0, page, 28, packet.length);
+        return page;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static void writeOdf(File file, String mimeType) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("mimetype"));
+            out.write(mimeType.getBytes(StandardCharsets.US_ASCII));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("content.xml"));
+            out.write("<?xml version=\"1.0\"?><office:document-content/>".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
     @Before
     public void init() {
         this.ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
@@ -73,16 +115,99 @@ public class InspectorTest {
         assertTrue(msg.toString(), fails.isEmpty());
     }
 
+    /**
+     * Tests that Ogg files are identified by their codec.
+     */
+    @Test
+    public void testOgg() throws IOException {
+        final File dir = new File(ctx.getCacheDir(), "inspectortest");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        try {
+            final byte[] vorbis = new byte[30];
+            vorbis[0] = 0x01;
+            System.arraycopy("vorbis".getBytes(StandardCharsets.US_ASCII), 0, vorbis, 1, 6);
+            final byte[] theora = new byte[42];
+            theora[0] = (byte)0x80;
+            System.arraycopy("theora".getBytes(StandardCharsets.US_ASCII), 0, theora, 1, 6);
+            final byte[] opus = new byte[19];
+            System.arraycopy("OpusHead".getBytes(StandardCharsets.US_ASCII), 0, opus, 0, 8);
+            final File vorbisFile = new File(dir, "vorbis.ogg");
+            final File theoraFile = new File(dir, "theora.ogv");
+            final File opusFile = new File(dir, "opus.ogg");
+            write(vorbisFile, oggPage(vorbis));
+            write(theoraFile, oggPage(theora));
+            write(opusFile, oggPage(opus));
+            assertEquals(".ogg", Inspector.inspectFile(vorbisFile, suggestions));
+            assertEquals(".ogv", Inspector.inspectFile(theoraFile, suggestions));
+            assertEquals(".opus", Inspector.inspectFile(opusFile, suggestions));
+            assertNull(suggestions.get(vorbisFile));
+            assertNull(suggestions.get(theoraFile));
+            assertEquals(".opus", suggestions.get(opusFile));
+        } finally {
+            Util.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Tests that zip files that are inspected at the same time do not interfere with each other.
+     */
+    @Test
+    public void testZipsInParallel() throws Exception {
+        final File dir = new File(ctx.getCacheDir(), "inspectortest");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        final File text = new File(dir, "text.zip");
+        final File spreadsheet = new File(dir, "spreadsheet.zip");
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            writeOdf(text, "application/vnd.oasis.opendocument.text");
+            writeOdf(spreadsheet, "application/vnd.oasis.opendocument.spreadsheet");
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(executor.submit(() -> Inspector.inspectFile(text, new HashMap<>())));
+                futures.add(executor.submit(() -> Inspector.inspectFile(spreadsheet, new HashMap<>())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals((i & 1) == 0 ? ".odt" : ".ods", futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+            Util.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Tests that more files than toybox is given at once are all inspected.
+     */
+    @Test
+    public void testManyFiles() throws IOException {
+        Assume.assumeTrue("toybox is not available", Inspector.testToybox());
+        final File dir = new File(ctx.getCacheDir(), "inspectortest");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        // JPEG files are identified by toybox, not by their signature
+        final byte[] jpeg = new byte[64];
+        final int[] header = new int[] {0xff, 0xd8, 0xff, 0xe0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00};
+        for (int i = 0; i < header.length; i++) jpeg[i] = (byte)header[i];
+        final File[] files = new File[150];
+        final long now = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new File(dir, "many" + now + '_' + i + ".bin");
+                write(files[i], jpeg);
+            }
+            final Map<File, String> suggestions = new Inspector(ctx, () -> {}).doInBackground(files);
+            assertNotNull(suggestions);
+            for (File file : files) assertEquals(file.getName(), ".jpg", suggestions.get(file));
+        } finally {
+            for (File file : files) InspectionStore.getInstance().remove(file);
+            Util.deleteDirectory(dir);
+        }
+    }
+
     /**
      * Tests the capability of Inspector to ignore user-specified files.
      */
     @Test
     public void testIgnored() {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-
-        SharedPreferences.Editor ed;
-        Set<String> existing = prefs.getStringSet(Inspector.PREF_INSPECTOR_IGNORED, null);
-        Set<String> temp;
         final Inspector inspector = new Inspector(ctx, () -> {});
 
         // a) create a file where extension and content do not match, add it to the ignore list and expect to get no suggestion
@@ -94,17 +219,17 @@ public class InspectorTest {
             out.write("%PDF-xxxxxx".getBytes());   // that would be a .pdf file
             Util.close(out);
             out = null;
-            temp = new HashSet<>();
-            if (existing != null) temp.addAll(existing);
-            temp.add(tmpFile.getName());
-            ed = prefs.edit();
-            ed.putStringSet(Inspector.PREF_INSPECTOR_IGNORED, temp);
-            ed.commit();
-            // allow Inspector to reload
-            Thread.sleep(1000);
-            //
+            Inspector.toggleIgnoreFile(tmpFile.getName(), true);
+            assertTrue(InspectionStore.getInstance().isIgnored(tmpFile.getName()));
             Map<File, String> suggestions = inspector.doInBackground(tmpFile);
             assertTrue("Did get suggestions: " + suggestions.values(), suggestions.isEmpty());
+            // the file must be inspected once it is not ignored any more
+            Inspector.toggleIgnoreFile(tmpFile.getName(), false);
+            suggestions = new Inspector(ctx, () -> {}).doInBackground(tmpFile);
+            assertEquals(".pdf", suggestions.get(tmpFile));
+            // the result of the inspection must have been remembered
+            suggestions = new Inspector(ctx, () -> {}).doInBackground(tmpFile);
+            assertEquals(".pdf", suggestions.get(tmpFile));
         } catch (Exception e) {
             fail(e.toString());
         } finally {
@@ -113,17 +238,10 @@ public class InspectorTest {
         }
 
         // b) make sure that entries for non-existing files are removed
-        existing = prefs.getStringSet(Inspector.PREF_INSPECTOR_IGNORED, null);
-        temp = new HashSet<>();
-        if (existing != null) temp.addAll(existing);
         final String nonExistingFile = String.valueOf(System.currentTimeMillis());
-        ed = prefs.edit();
-        temp.add(nonExistingFile);
-        ed.putStringSet(Inspector.PREF_INSPECTOR_IGNORED, temp);
-        ed.commit();
-        int removed = inspector.cleanIgnoreSet(ctx);
+        Inspector.toggleIgnoreFile(nonExistingFile, true);
+        int removed = InspectionStore.getInstance().cleanup();
         assertTrue("Inspector did not remove entry for " + nonExistingFile,removed > 0);
-        existing = prefs.getStringSet(Inspector.PREF_INSPECTOR_IGNORED, null);
-        assertTrue(existing == null || !existing.contains(nonExistingFile));
+        assertFalse(InspectionStore.getInstance().isIgnored(nonExistingFile));
     }
 }
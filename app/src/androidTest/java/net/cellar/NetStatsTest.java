@@ -0,0 +1,82 @@
+package net.cellar;
+
+import androidx.test.filters.MediumTest;
+
+import net.cellar.net.NetStats;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link NetStats}.
+ */
+@MediumTest
+public class NetStatsTest {
+
+    @Test
+    public void testCalls() throws Exception {
+        final NetStats netStats = new NetStats();
+        final byte[] data = new byte[10_000];
+        try (HttpStandIn server = new HttpStandIn()) {
+            server.add("/data.bin", data);
+            server.configure(20L, 0L);
+            final OkHttpClient client = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(2, 1, TimeUnit.MINUTES))
+                    .eventListenerFactory(netStats.wrap(null))
+                    .build();
+            netStats.setConnectionPool(client.connectionPool());
+            for (int i = 0; i < 3; i++) {
+                try (Response response = client.newCall(new Request.Builder().url(server.url("/data.bin")).build()).execute()) {
+                    assertEquals(200, response.code());
+                    assertEquals(data.length, response.body().bytes().length);
+                }
+            }
+            final List<NetStats.HostStats> list = netStats.getHostStats();
+            assertEquals(1, list.size());
+            final NetStats.HostStats s = list.get(0);
+            assertEquals(3L, s.getCalls());
+            assertEquals(0L, s.getFailures());
+            assertEquals(3L, s.getAcquired());
+            // the connection has been set up once and re-used twice
+            assertEquals(2f / 3f, s.getReuseRatio(), 0.01f);
+            assertEquals(0f, s.getHttp2Ratio(), 0.01f);
+            assertEquals(1L, s.getConnect().getCount());
+            assertEquals(0L, s.getTls().getCount());
+            assertEquals(3L, s.getTtfb().getCount());
+            assertTrue(s.getTtfb().getPercentile(0.5f) >= 20L);
+            assertTrue(s.getBytesIn() >= 3L * data.length);
+            assertTrue(s.getBytesOut() > 0L);
+            assertEquals(1, netStats.getPoolConnectionCount());
+            assertEquals(1, netStats.getPoolIdleCount());
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final NetStats netStats = new NetStats();
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .connectTimeout(1, TimeUnit.SECONDS)
+                .eventListenerFactory(netStats.wrap(null))
+                .build();
+        try {
+            // nothing listens on port 9 (discard) on the device
+            client.newCall(new Request.Builder().url("http://127.0.0.1:9/").build()).execute().close();
+        } catch (java.io.IOException expected) {
+        }
+        final NetStats.HostStats s = netStats.getHostStats().get(0);
+        assertEquals(1L, s.getCalls());
+        assertEquals(1L, s.getFailures());
+        assertTrue(s.getConnectFailures() >= 1L);
+        assertEquals(-1L, s.getCall().getPercentile(0.5f));
+    }
+}
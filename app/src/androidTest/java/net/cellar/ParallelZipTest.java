@@ -0,0 +1,142 @@
+package net.cellar;
+
+import android.content.Context;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.cellar.supp.ParallelZip;
+import net.cellar.supp.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ParallelZip} and the choice between storing and deflating in {@link BackupService}.
+ */
+@SmallTest
+public class ParallelZipTest {
+
+    private static byte[] read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Util.copy(in, out, 8192);
+        return out.toByteArray();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    @Test
+    public void testIsCompressible() {
+        final byte[] text = new byte[4096];
+        Arrays.fill(text, (byte)'a');
+        final byte[] noise = new byte[4096];
+        new Random(1).nextBytes(noise);
+        assertTrue(BackupService.isCompressible("text/plain", noise, noise.length));
+        assertFalse(BackupService.isCompressible("video/mp4", text, text.length));
+        assertFalse(BackupService.isCompressible("application/zip", text, text.length));
+        assertTrue(BackupService.isCompressible("application/octet-stream", text, text.length));
+        assertFalse(BackupService.isCompressible("application/octet-stream", noise, noise.length));
+        assertTrue(ParallelZip.entropy(noise, noise.length) > 7.5);
+        assertEquals(0., ParallelZip.entropy(text, text.length), 0.001);
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        final Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File dir = new File(ctx.getCacheDir(), "parallelziptest");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) sb.append("Line ").append(i % 99).append('\n');
+        final byte[] text = sb.toString().getBytes();
+        final byte[] noise = new byte[300_001];
+        new Random(2).nextBytes(noise);
+        final File textFile = new File(dir, "text.txt");
+        final File noiseFile = new File(dir, "noise.bin");
+        final File zipFile = new File(dir, "test.zip");
+        write(textFile, text);
+        write(noiseFile, noise);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            try (ParallelZip zip = new ParallelZip(zipFile, executor, 3, 6)) {
+                zip.add(textFile, textFile.getName(), ParallelZip.METHOD_DEFLATED);
+                zip.add(noiseFile, noiseFile.getName(), ParallelZip.METHOD_STORED);
+            }
+            try (ZipFile zf = new ZipFile(zipFile)) {
+                final ZipEntry textEntry = zf.getEntry(textFile.getName());
+                assertNotNull(textEntry);
+                assertTrue(textEntry.getCompressedSize() < text.length / 10);
+                assertArrayEquals(text, read(zf.getInputStream(textEntry)));
+                final ZipEntry noiseEntry = zf.getEntry(noiseFile.getName());
+                assertNotNull(noiseEntry);
+                assertEquals(ZipEntry.STORED, noiseEntry.getMethod());
+                assertArrayEquals(noise, read(zf.getInputStream(noiseEntry)));
+            }
+        } finally {
+            executor.shutdownNow();
+            Util.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testUnreadableAndAbort() throws IOException {
+        final Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File dir = new File(ctx.getCacheDir(), "parallelziptest2");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        final byte[] data = new byte[400_000];
+        new Random(3).nextBytes(data);
+        final File a = new File(dir, "a.bin");
+        final File b = new File(dir, "b.bin");
+        final File missing = new File(dir, "missing.bin");
+        final File zipFile = new File(dir, "test.zip");
+        write(a, data);
+        write(b, data);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final ParallelZip.Entry skipped;
+            try (ParallelZip zip = new ParallelZip(zipFile, executor, 2, 6)) {
+                zip.add(a, a.getName(), ParallelZip.METHOD_STORED);
+                skipped = zip.add(missing, missing.getName(), ParallelZip.METHOD_DEFLATED);
+                zip.add(b, b.getName(), ParallelZip.METHOD_DEFLATED);
+            }
+            assertTrue(skipped.isSkipped());
+            try (ZipFile zf = new ZipFile(zipFile)) {
+                assertEquals(2, zf.size());
+                assertArrayEquals(data, read(zf.getInputStream(zf.getEntry(a.getName()))));
+                assertArrayEquals(data, read(zf.getInputStream(zf.getEntry(b.getName()))));
+            }
+            // an aborted archive lacks the central directory
+            final ParallelZip zip = new ParallelZip(zipFile, executor, 2, 6);
+            zip.add(a, a.getName(), ParallelZip.METHOD_DEFLATED);
+            zip.abort();
+            try (ZipFile zf = new ZipFile(zipFile)) {
+                fail("Aborted archive has been completed: " + zf.size() + " entries");
+            } catch (IOException expected) {
+            }
+        } finally {
+            executor.shutdownNow();
+            Util.deleteDirectory(dir);
+        }
+    }
+}
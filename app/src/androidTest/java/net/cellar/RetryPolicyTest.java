@@ -0,0 +1,50 @@
+package net.cellar;
+
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+
+import net.cellar.model.Delivery;
+import net.cellar.model.Order;
+import net.cellar.worker.RetryPolicy;
+
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RetryPolicy}.
+ */
+@SmallTest
+public class RetryPolicyTest {
+
+    @Test
+    public void testIsTransient() {
+        final Order order = new Order(Uri.parse("https://www.example.com/file.mp4"));
+        assertTrue(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_CANNOT_CONNECT, null, null)));
+        assertTrue(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_INTERRUPTED, null, null)));
+        assertTrue(RetryPolicy.isTransient(new Delivery(order, 503, null, null)));
+        assertTrue(RetryPolicy.isTransient(new Delivery(order, 429, null, null)));
+        assertTrue(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_OTHER, null, null, new SocketTimeoutException(), null)));
+        assertFalse(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_OTHER, null, null, new SSLHandshakeException("Chain validation failed"), null)));
+        assertFalse(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_OTHER, null, null)));
+        assertFalse(RetryPolicy.isTransient(new Delivery(order, LoaderService.ERROR_CANCELLED, null, null)));
+        assertFalse(RetryPolicy.isTransient(new Delivery(order, 200, null, null)));
+        assertFalse(RetryPolicy.isTransient(new Delivery(order, 404, null, null)));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120_000L, RetryPolicy.parseRetryAfter("120"));
+        assertEquals(0L, RetryPolicy.parseRetryAfter(null));
+        assertEquals(0L, RetryPolicy.parseRetryAfter("soon"));
+        // a date in the past
+        assertEquals(0L, RetryPolicy.parseRetryAfter("Fri, 31 Dec 1999 23:59:59 GMT"));
+    }
+}
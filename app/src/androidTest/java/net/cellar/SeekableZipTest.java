@@ -0,0 +1,102 @@
+package net.cellar;
+
+import android.content.Context;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.cellar.supp.SeekableZip;
+import net.cellar.supp.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link SeekableZip}.
+ */
+@SmallTest
+public class SeekableZipTest {
+
+    private static byte[] read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Util.copy(in, out, 8192);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        final Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File zipFile = new File(ctx.getCacheDir(), "seekableziptest.zip");
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) sb.append("Line ").append(i % 77).append('\n');
+        final byte[] text = sb.toString().getBytes();
+        final byte[] noise = new byte[100_003];
+        new Random(3).nextBytes(noise);
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+                out.putNextEntry(new ZipEntry("text.txt"));
+                out.write(text);
+                out.closeEntry();
+                out.putNextEntry(new ZipEntry("folder/"));
+                out.closeEntry();
+                final ZipEntry stored = new ZipEntry("noise.bin");
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(noise.length);
+                final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                crc.update(noise);
+                stored.setCrc(crc.getValue());
+                out.putNextEntry(stored);
+                out.write(noise);
+                out.closeEntry();
+            }
+            try (FileInputStream in = new FileInputStream(zipFile)) {
+                final SeekableZip zip = new SeekableZip(in.getChannel());
+                assertTrue(zip.isSupported());
+                assertFalse(zip.isEncrypted());
+                final List<SeekableZip.Entry> entries = zip.getEntries();
+                assertEquals(3, entries.size());
+                assertEquals("text.txt", entries.get(0).getName());
+                assertEquals(text.length, entries.get(0).getSize());
+                assertTrue(entries.get(1).isDirectory());
+                // read the entries in reverse order to make sure that the positional reads are independent
+                assertArrayEquals(noise, read(zip.openStream(entries.get(2))));
+                assertArrayEquals(text, read(zip.openStream(entries.get(0))));
+            }
+            // corrupt the stored entry
+            try (RandomAccessFile raf = new RandomAccessFile(zipFile, "rw")) {
+                raf.seek(zipFile.length() - 1000);
+                final int b = raf.read();
+                raf.seek(zipFile.length() - 1000);
+                raf.write(b ^ 1);
+            }
+            try (FileInputStream in = new FileInputStream(zipFile)) {
+                final SeekableZip zip = new SeekableZip(in.getChannel());
+                try {
+                    read(zip.openStream(zip.getEntries().get(2)));
+                    fail("Corrupted data not detected");
+                } catch (java.util.zip.ZipException expected) {
+                    // expected
+                }
+            }
+        } finally {
+            Util.deleteFile(zipFile);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.cellar;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * A local sftp server that serves the files in a directory.<br>
+ * Apache SSHD needs java.nio.file, which is available from API level 26 on.<br>
+ * Dependency: 'org.apache.sshd:sshd-sftp:*'
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+final class SftpStandIn implements Closeable {
+
+    static final String USER = "bench";
+    static final String PASSWORD = "bench";
+
+    private final SshServer server;
+
+    /**
+     * Constructor.
+     * @param root directory that contains the files to serve
+     * @param hostKeyFile file to store the host key in
+     * @throws IOException if the server could not be started
+     */
+    SftpStandIn(@NonNull File root, @NonNull File hostKeyFile) throws IOException {
+        super();
+        // SSHD looks for ~/.ssh which would otherwise resolve to the root directory
+        System.setProperty("user.home", root.getAbsolutePath());
+        this.server = SshServer.setUpDefaultServer();
+        this.server.setHost("127.0.0.1");
+        this.server.setPort(0);
+        this.server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(hostKeyFile.toPath()));
+        this.server.setPasswordAuthenticator((username, password, session) -> USER.equals(username) && PASSWORD.equals(password));
+        this.server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        this.server.setFileSystemFactory(new VirtualFileSystemFactory(root.toPath()));
+        this.server.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        this.server.stop(true);
+    }
+
+    /**
+     * Returns the url of a file.
+     * @param name file name
+     * @return url
+     */
+    @NonNull
+    String url(@NonNull String name) {
+        return "sftp://" + USER + ':' + PASSWORD + "@127.0.0.1:" + this.server.getPort() + '/' + name;
+    }
+}
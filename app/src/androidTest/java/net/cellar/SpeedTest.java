@@ -0,0 +1,39 @@
+package net.cellar;
+
+import androidx.test.filters.SmallTest;
+
+import net.cellar.worker.Loader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Loader.Speed}.
+ */
+@SmallTest
+public class SpeedTest {
+
+    @Test
+    public void testEstimate() {
+        final Loader.Speed speed = new Loader.Speed();
+        speed.calculate(Loader.Speed.UNIT_BYTES, 0., 10_000., 0L);
+        assertEquals(Float.MAX_VALUE, speed.getRemainingSec(), 0f);
+        // 1000 bytes per second
+        speed.calculate(Loader.Speed.UNIT_BYTES, 1_000., 10_000., 1_000L);
+        assertEquals(1_000f, speed.getSpeed(), 0.01f);
+        assertEquals(9f, speed.getRemainingSec(), 0.01f);
+        // measurements that are too close to the previous one are ignored
+        speed.calculate(Loader.Speed.UNIT_BYTES, 1_100., 10_000., 1_010L);
+        assertEquals(1_000f, speed.getSpeed(), 0.01f);
+        // a stall does not let the estimate collapse immediately
+        speed.calculate(Loader.Speed.UNIT_BYTES, 1_000., 10_000., 2_000L);
+        speed.calculate(Loader.Speed.UNIT_BYTES, 1_000., 10_000., 3_000L);
+        assertTrue(speed.getSpeed() > 500f);
+        // a decreasing value means that a new Order has begun
+        speed.calculate(Loader.Speed.UNIT_BYTES, 0., 10_000., 4_000L);
+        assertEquals(0f, speed.getSpeed(), 0f);
+        assertEquals(Float.MAX_VALUE, speed.getRemainingSec(), 0f);
+    }
+}
@@ -0,0 +1,44 @@
+package net.cellar;
+
+import androidx.test.filters.SmallTest;
+
+import net.cellar.worker.Throttle;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Throttle}.
+ */
+@SmallTest
+public class ThrottleTest {
+
+    @Test
+    public void testBucket() {
+        final Throttle.Bucket unlimited = new Throttle.Bucket(0L);
+        assertEquals(0L, unlimited.take(10_000_000, 1_000L));
+        // 128 KB/s
+        final Throttle.Bucket bucket = new Throttle.Bucket(131_072L);
+        // a full bucket allows a burst of one second
+        assertEquals(0L, bucket.take(131_072, 1_000L));
+        // the next 64 KB have to wait half a second
+        assertEquals(500L, bucket.take(65_536, 1_000L));
+        // after half a second the debt has been paid off
+        assertEquals(500L, bucket.take(65_536, 1_500L));
+        assertEquals(0L, bucket.take(0, 2_500L));
+    }
+
+    @Test
+    public void testIsWithin() {
+        assertTrue(Throttle.isWithin(12, 0, 0));
+        assertTrue(Throttle.isWithin(8, 8, 17));
+        assertFalse(Throttle.isWithin(17, 8, 17));
+        assertFalse(Throttle.isWithin(3, 8, 17));
+        assertTrue(Throttle.isWithin(23, 22, 6));
+        assertTrue(Throttle.isWithin(2, 22, 6));
+        assertFalse(Throttle.isWithin(12, 22, 6));
+    }
+}
@@ -0,0 +1,435 @@
+package net.cellar;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.cellar.auth.AuthManager;
+import net.cellar.model.Credential;
+import net.cellar.model.Delivery;
+import net.cellar.model.Order;
+import net.cellar.supp.Util;
+import net.cellar.worker.Copier;
+import net.cellar.worker.Downloader;
+import net.cellar.worker.FtpClientPool;
+import net.cellar.worker.FtpLoader;
+import net.cellar.worker.Loader;
+import net.cellar.worker.SftpLoader;
+import net.cellar.worker.SftpSessionPool;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the end-to-end throughput of {@link Downloader}, {@link FtpLoader}, {@link SftpLoader} and {@link Copier}
+ * against local stand-ins for http, ftp and sftp servers.<br>
+ * For each protocol, file size and number of concurrent downloads, the median of {@link #ROUNDS} rounds is reported:
+ * <ul>
+ * <li>MB/s: bytes of all downloads divided by the time until the last one had finished</li>
+ * <li>TTFB: time until a Loader had received the first bytes</li>
+ * <li>CPU/MB: cpu time of the Loader threads; for sftp this does not include JSch's session thread</li>
+ * <li>process CPU/MB: cpu time of the whole process, including the stand-in servers</li>
+ * <li>alloc: bytes allocated by the whole process per second (API level 23 and later)</li>
+ * </ul>
+ * The results are logged and written to {@code <external files dir>/benchmark/throughput.csv}.<br>
+ * The benchmark is skipped unless the instrumentation argument "benchmark" is given:
+ * <pre>
+ * ./gradlew connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=net.cellar.ThroughputBenchmark -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ * </pre>
+ */
+@LargeTest
+public class ThroughputBenchmark {
+
+    private static final String TAG = "ThroughputBenchmark";
+    private static final int[] SIZES = new int[] {65_536, 1_048_576, 16_777_216};
+    private static final int[] CONCURRENCY = new int[] {1, 4};
+    /** the number of measured rounds per combination; each combination is preceded by one round that is not measured */
+    private static final int ROUNDS = 3;
+    private static final long TIMEOUT_SECONDS = 300L;
+    private static final String HEADER = "scenario,size,concurrency,MB/s,TTFB ms,CPU ms/MB,process CPU ms/MB,alloc MB/s";
+    private static final List<String> RESULTS = new ArrayList<>();
+    private static final AtomicLong IDS = new AtomicLong(80_000L);
+
+    private static Context ctx;
+    private static File serverDir;
+    private static File downloadDir;
+    private static OkHttpClient client;
+    private static HttpStandIn http;
+    private static FtpStandIn ftp;
+    @Nullable private static SftpStandIn sftp;
+
+    @BeforeClass
+    public static void initclass() throws Exception {
+        final Bundle args = InstrumentationRegistry.getArguments();
+        Assume.assumeTrue("Benchmarks are not enabled", Boolean.parseBoolean(args.getString("benchmark")));
+        ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final File base = new File(ctx.getCacheDir(), "throughputbenchmark");
+        serverDir = new File(base, "server");
+        downloadDir = new File(base, "downloads");
+        assertTrue(serverDir.isDirectory() || serverDir.mkdirs());
+        assertTrue(downloadDir.isDirectory() || downloadDir.mkdirs());
+        // the cache would answer the repeated requests
+        client = ((App)ctx.getApplicationContext()).getOkHttpClient().newBuilder().cache(null).build();
+        http = new HttpStandIn();
+        final Random r = new Random(48L);
+        for (int size : SIZES) {
+            final byte[] binary = new byte[size];
+            r.nextBytes(binary);
+            write(new File(serverDir, binaryName(size)), binary);
+            http.add('/' + binaryName(size), binary);
+            http.add('/' + textName(size), text(r, size));
+        }
+        ftp = new FtpStandIn(serverDir, new File(base, "ftpusers.properties"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            sftp = new SftpStandIn(serverDir, new File(base, "hostkey.ser"));
+        }
+    }
+
+    @AfterClass
+    public static void exitclass() {
+        if (ctx == null) return;
+        Util.close(http, ftp, sftp);
+        FtpClientPool.getInstance().evictAll();
+        SftpSessionPool.getInstance().evictAll();
+        // the loaders remember the credentials that were part of the urls
+        final AuthManager authManager = AuthManager.getInstance();
+        for (Credential c = authManager.findUsable("127.0.0.1", Credential.TYPE_UNKNOWN, FtpStandIn.USER); c != null; c = authManager.findUsable("127.0.0.1", Credential.TYPE_UNKNOWN, FtpStandIn.USER)) {
+            if (!authManager.removeCredential(c)) break;
+        }
+        Util.deleteDirectory(serverDir.getParentFile());
+        if (RESULTS.isEmpty()) return;
+        final File dir = new File(ctx.getExternalFilesDir(null), "benchmark");
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        final StringBuilder sb = new StringBuilder(HEADER.length() * (RESULTS.size() + 1));
+        sb.append(HEADER).append('\n');
+        for (String line : RESULTS) sb.append(line).append('\n');
+        try {
+            write(new File(dir, "throughput.csv"), sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Failed to store the results: " + e);
+        }
+    }
+
+    /**
+     * @return bytes allocated by this process so far, -1 if unknown
+     */
+    private static long allocated() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return -1L;
+        return Util.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"), -1L);
+    }
+
+    @NonNull
+    private static String binaryName(int size) {
+        return "b" + size + ".bin";
+    }
+
+    /**
+     * Calculates the median.
+     * @param values values (will be sorted)
+     * @return median
+     */
+    private static double median(@NonNull double[] values) {
+        Arrays.sort(values);
+        final int n = values.length;
+        return (n & 1) == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2.;
+    }
+
+    /**
+     * Downloads the same resource concurrently and records the results.
+     * @param scenario scenario name
+     * @param size resource size
+     * @param concurrency number of concurrent downloads
+     * @param urls provides the url for each download
+     * @param factory creates the Loaders
+     * @param preparation prepares each destination file (optional)
+     * @throws Exception if a download fails
+     */
+    private static void measure(@NonNull String scenario, int size, int concurrency, @NonNull UrlProvider urls, @NonNull LoaderFactory factory,
+                                @Nullable Preparation preparation) throws Exception {
+        final double[] mbps = new double[ROUNDS];
+        final double[] ttfb = new double[ROUNDS];
+        final double[] cpu = new double[ROUNDS];
+        final double[] processCpu = new double[ROUNDS];
+        final double[] alloc = new double[ROUNDS];
+        final double mb = (double)size * concurrency / 1_048_576.;
+        for (int round = -1; round < ROUNDS; round++) {
+            final Order[] orders = new Order[concurrency];
+            for (int i = 0; i < concurrency; i++) {
+                final File destination = new File(downloadDir, scenario + '-' + i + ".bin");
+                Util.deleteFile(destination);
+                Ancestry.getInstance().remove(destination);
+                final String url = urls.url(i);
+                if (preparation != null) preparation.prepare(destination, url);
+                orders[i] = new Order(Uri.parse(url));
+                orders[i].setDestinationFolder(downloadDir.getAbsolutePath());
+                orders[i].setDestinationFilename(destination.getName());
+            }
+            final ThreadTimer executor = new ThreadTimer(concurrency);
+            final Loader[] loaders = new Loader[concurrency];
+            @SuppressWarnings("unchecked") final Future<Set<Delivery>>[] futures = new Future[concurrency];
+            final long cpu0 = Process.getElapsedCpuTime();
+            final long alloc0 = allocated();
+            final long t0 = System.nanoTime();
+            for (int i = 0; i < concurrency; i++) {
+                loaders[i] = factory.create((int)IDS.incrementAndGet());
+                futures[i] = loaders[i].start(executor, orders[i]);
+            }
+            for (int i = 0; i < concurrency; i++) {
+                final Set<Delivery> deliveries = futures[i].get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertEquals(1, deliveries.size());
+                final Delivery delivery = deliveries.iterator().next();
+                assertTrue(scenario + " failed with " + delivery.getRc(), delivery.getRc() == 200 || delivery.getRc() == 206);
+                assertNotNull(delivery.getFile());
+                assertEquals(size, delivery.getFile().length());
+            }
+            final long t1 = System.nanoTime();
+            final long cpu1 = Process.getElapsedCpuTime();
+            final long alloc1 = allocated();
+            final long threadCpu = executor.stop();
+            if (round < 0) continue;
+            final double[] firstBytes = new double[concurrency];
+            for (int i = 0; i < concurrency; i++) firstBytes[i] = (loaders[i].getFirstByteAt() - t0) / 1_000_000.;
+            final double seconds = (t1 - t0) / 1_000_000_000.;
+            mbps[round] = mb / seconds;
+            ttfb[round] = median(firstBytes);
+            cpu[round] = threadCpu / 1_000_000. / mb;
+            processCpu[round] = (cpu1 - cpu0) / mb;
+            alloc[round] = alloc0 >= 0L && alloc1 >= 0L ? (alloc1 - alloc0) / 1_048_576. / seconds : -1.;
+        }
+        for (int i = 0; i < concurrency; i++) Util.deleteFile(new File(downloadDir, scenario + '-' + i + ".bin"));
+        final String line = String.format(Locale.US, "%s,%d,%d,%.2f,%.1f,%.1f,%.1f,%.1f", scenario, size, concurrency,
+                median(mbps), median(ttfb), median(cpu), median(processCpu), median(alloc));
+        android.util.Log.i(TAG, HEADER + "\n" + line);
+        synchronized (RESULTS) {
+            RESULTS.add(line);
+        }
+    }
+
+    /**
+     * Generates compressible text.
+     * @param r Random
+     * @param size number of bytes
+     * @return text
+     */
+    @NonNull
+    private static byte[] text(@NonNull Random r, int size) {
+        final byte[] text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // words of 1 to 8 letters, lines of about 70 characters
+            final int k = r.nextInt(70);
+            text[i] = k == 0 ? (byte)'\n' : k < 9 ? (byte)' ' : (byte)('a' + r.nextInt(16));
+        }
+        return text;
+    }
+
+    @NonNull
+    private static String textName(int size) {
+        return "t" + size + ".txt";
+    }
+
+    private static void write(@NonNull File file, @NonNull byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    @Test
+    public void testCopier() throws Exception {
+        for (int size : SIZES) {
+            final Uri uri = Uri.fromFile(new File(serverDir, binaryName(size)));
+            for (int n : CONCURRENCY) {
+                measure("copy", size, n, i -> uri.toString(), id -> new Copier(id, ctx, null), null);
+            }
+        }
+    }
+
+    @Test
+    public void testFtp() throws Exception {
+        ftp.configure(0L, 0);
+        for (int size : SIZES) {
+            for (int n : CONCURRENCY) {
+                measure("ftp", size, n, i -> ftp.url(binaryName(size)), id -> new FtpLoader(id, null), null);
+            }
+        }
+    }
+
+    /**
+     * 20 ms per command, 2 MB/s per transfer.
+     */
+    @Test
+    public void testFtpSlow() throws Exception {
+        ftp.configure(20L, 2_000_000);
+        // pooled clients keep the rate they got at login
+        FtpClientPool.getInstance().evictAll();
+        try {
+            for (int n : CONCURRENCY) {
+                measure("ftp-slow", SIZES[1], n, i -> ftp.url(binaryName(SIZES[1])), id -> new FtpLoader(id, null), null);
+            }
+        } finally {
+            ftp.configure(0L, 0);
+            FtpClientPool.getInstance().evictAll();
+        }
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        http.configure(0L, 0L);
+        http.setGzip(false);
+        for (int size : SIZES) {
+            for (int n : CONCURRENCY) {
+                measure("http", size, n, i -> http.url('/' + binaryName(size) + "?w=" + i), id -> new Downloader(id, client, null), null);
+            }
+        }
+    }
+
+    @Test
+    public void testHttpGzip() throws Exception {
+        http.configure(0L, 0L);
+        http.setGzip(true);
+        try {
+            for (int size : SIZES) {
+                for (int n : CONCURRENCY) {
+                    measure("http-gzip", size, n, i -> http.url('/' + textName(size) + "?w=" + i), id -> new Downloader(id, client, null), null);
+                }
+            }
+        } finally {
+            http.setGzip(false);
+        }
+    }
+
+    /**
+     * Resumes downloads of which the first half is present already.
+     */
+    @Test
+    public void testHttpResume() throws Exception {
+        http.configure(0L, 0L);
+        for (int size : SIZES) {
+            final String path = '/' + binaryName(size);
+            final byte[] half = new byte[size / 2];
+            try (RandomAccessFile raf = new RandomAccessFile(new File(serverDir, binaryName(size)), "r")) {
+                raf.readFully(half);
+            }
+            final Preparation preparation = (destination, url) -> {
+                write(destination, half);
+                Ancestry.getInstance().put(destination, new Ancestry.Record("127.0.0.1", HttpStandIn.etag(url, size), HttpStandIn.LAST_MODIFIED_MS, size, url));
+            };
+            for (int n : CONCURRENCY) {
+                measure("http-resume", size, n, i -> http.url(path + "?w=" + i), id -> new Downloader(id, client, null), preparation);
+            }
+        }
+    }
+
+    /**
+     * 50 ms latency, 2 MB/s per connection.
+     */
+    @Test
+    public void testHttpSlow() throws Exception {
+        http.configure(50L, 2_000_000L);
+        try {
+            for (int n : CONCURRENCY) {
+                measure("http-slow", SIZES[1], n, i -> http.url('/' + binaryName(SIZES[1]) + "?w=" + i), id -> new Downloader(id, client, null), null);
+            }
+        } finally {
+            http.configure(0L, 0L);
+        }
+    }
+
+    @Test
+    public void testSftp() throws Exception {
+        Assume.assumeTrue("The sftp server needs API level 26", sftp != null);
+        final App app = (App)ctx.getApplicationContext();
+        for (int size : SIZES) {
+            for (int n : CONCURRENCY) {
+                measure("sftp", size, n, i -> sftp.url(binaryName(size)), id -> new SftpLoader(id, app, null), null);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LoaderFactory {
+        @NonNull Loader create(int id);
+    }
+
+    @FunctionalInterface
+    private interface Preparation {
+        void prepare(@NonNull File destination, @NonNull String url) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface UrlProvider {
+        @NonNull String url(int index);
+    }
+
+    /**
+     * Runs the Loaders on threads of its own and adds up the cpu time that these threads use.
+     */
+    private static final class ThreadTimer implements Executor {
+
+        private final ExecutorService executor;
+        private final AtomicLong cpu = new AtomicLong();
+
+        private ThreadTimer(int threads) {
+            super();
+            this.executor = Executors.newFixedThreadPool(threads);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void execute(@NonNull Runnable command) {
+            this.executor.execute(() -> {
+                final long t0 = Debug.threadCpuTimeNanos();
+                try {
+                    command.run();
+                } finally {
+                    this.cpu.addAndGet(Debug.threadCpuTimeNanos() - t0);
+                }
+            });
+        }
+
+        /**
+         * Waits for the threads to finish.
+         * @return cpu time used by the threads [ns]
+         * @throws InterruptedException if the current thread has been interrupted while waiting
+         */
+        private long stop() throws InterruptedException {
+            this.executor.shutdown();
+            this.executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return this.cpu.get();
+        }
+    }
+}
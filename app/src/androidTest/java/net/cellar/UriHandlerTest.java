@@ -1,16 +1,23 @@
 package net.cellar;
 
+import android.net.Uri;
+
 import androidx.annotation.NonNull;
 import androidx.test.filters.SmallTest;
 
 import net.cellar.supp.UriHandler;
+import net.cellar.worker.ImgurLoader;
+import net.cellar.worker.YtVideoLoader;
 
 import org.junit.Test;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @SmallTest
@@ -117,4 +124,27 @@ public class UriHandlerTest {
         testPattern(UriHandler.PATTERN_ZVIDEOX, "https://zvideox.net/", false);
     }
 
+    @Test
+    public void testRegistrableDomain() {
+        assertEquals("imgur.com", UriHandler.registrableDomain("i.imgur.com"));
+        assertEquals("bundesarchiv.de", UriHandler.registrableDomain("www.filmothek.bundesarchiv.de"));
+        assertEquals("youtu.be", UriHandler.registrableDomain("youtu.be"));
+        assertEquals("localhost", UriHandler.registrableDomain("localhost"));
+    }
+
+    @Test
+    public void testUriHandlerRouting() {
+        UriHandler uh = UriHandler.checkUri(Uri.parse("https://youtu.be/AB1CabDcdEe"));
+        assertNotNull(uh);
+        assertEquals(YtVideoLoader.class, uh.getLoaderClass());
+        uh = UriHandler.checkUri(Uri.parse("https://www.youtube.com/watch?v=AB1CabDcdEe"));
+        assertNotNull(uh);
+        assertEquals(YtVideoLoader.class, uh.getLoaderClass());
+        uh = UriHandler.checkUri(Uri.parse("https://i.imgur.com/4kYsf7E.gifv"));
+        assertNotNull(uh);
+        assertEquals(ImgurLoader.class, uh.getLoaderClass());
+        // right pattern, wrong host
+        assertNull(UriHandler.checkUri(Uri.parse("https://www.example.com/watch?v=AB1CabDcdEe")));
+        assertNull(UriHandler.checkUri(Uri.parse("https://www.example.com/some/file.txt")));
+    }
 }
@@ -13,39 +13,133 @@ import android.text.TextUtils;
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import net.cellar.supp.Log;
 import net.cellar.supp.Util;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
 
 /**
- * Remembers the host that a file has been downloaded from.<br>
+ * Remembers the host that a file has been downloaded from, along with the validators that the host had given for the resource.<br>
+ * The records are kept in a journal that new records are appended to; each line carries a checksum so that a line
+ * that had been written only partially when the process died is recognised and ignored.
+ * Appended lines are synced to disk in batches; once the journal contains much more lines than there are records,
+ * it is replaced by a compacted version.<br>
  * Must be initialised once via {@link #setup(Context)}!
  */
 public class Ancestry {
-    private static final String FILE = "ancestry.txt";
+    /** the journal */
+    private static final String FILE = "ancestry.journal";
+    /** the file that records had been stored in by earlier versions */
+    private static final String FILE_LEGACY = "ancestry.txt";
+    /** the journal will not be compacted as long as it has fewer lines than this */
+    private static final int COMPACT_MIN_LINES = 256;
+    private static final char OP_PUT = '+';
+    private static final char OP_REMOVE = '-';
     private static final long SAVE_DELAY = 1_000L;
-    private static final char SEP = ' ';
+    private static final char SEP = '\t';
+    private static final char SEP_LEGACY = ' ';
     private static final String TAG = "Ancestry";
     private static Ancestry instance;
 
+    /**
+     * Appends the CRC32 of the given line to that line.
+     * @param line line without line terminator
+     */
+    private static void appendChecksum(@NonNull StringBuilder line) {
+        final CRC32 crc = new CRC32();
+        crc.update(line.toString().getBytes(StandardCharsets.UTF_8));
+        line.append(SEP).append(Long.toHexString(crc.getValue())).append('\n');
+    }
+
+    /**
+     * Escapes tabs, line breaks and backslashes.
+     * @param s String to escape
+     * @return escaped String, empty if {@code s} is {@code null}
+     */
+    @VisibleForTesting
+    @NonNull
+    public static String escape(@Nullable String s) {
+        if (s == null) return "";
+        final int n = s.length();
+        StringBuilder sb = null;
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            final char replacement;
+            switch (c) {
+                case '\\': replacement = '\\'; break;
+                case '\t': replacement = 't'; break;
+                case '\n': replacement = 'n'; break;
+                case '\r': replacement = 'r'; break;
+                default: replacement = 0;
+            }
+            if (replacement == 0) {
+                if (sb != null) sb.append(c);
+                continue;
+            }
+            if (sb == null) sb = new StringBuilder(n + 8).append(s, 0, i);
+            sb.append('\\').append(replacement);
+        }
+        return sb != null ? sb.toString() : s;
+    }
+
     @NonNull
     public static Ancestry getInstance() {
         assert instance != null;
         return instance;
     }
 
+    /**
+     * Parses a journal line.
+     * @param line line
+     * @param map Map to apply the line to
+     * @return {@code true} if the line was valid
+     */
+    private static boolean parse(@NonNull String line, @NonNull Map<String, Record> map) {
+        final int crcSep = line.lastIndexOf(SEP);
+        if (crcSep < 2) return false;
+        final String content = line.substring(0, crcSep);
+        final CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        try {
+            if (Long.parseLong(line.substring(crcSep + 1), 16) != crc.getValue()) return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        final String[] fields = content.split(String.valueOf(SEP), -1);
+        if (fields.length < 2) return false;
+        final String fileName = unescape(fields[1]);
+        if (fields[0].length() != 1 || fileName.length() == 0) return false;
+        final char op = fields[0].charAt(0);
+        if (op == OP_REMOVE) {
+            map.remove(fileName);
+            return true;
+        }
+        if (op != OP_PUT || fields.length != 7) return false;
+        final String host = unescape(fields[2]);
+        if (host.length() == 0) return false;
+        final String etag = unescape(fields[3]);
+        final String url = unescape(fields[6]);
+        map.put(fileName, new Record(host, etag.length() > 0 ? etag : null, Util.parseLong(fields[4], 0L), Util.parseLong(fields[5], -1L), url.length() > 0 ? url : null));
+        return true;
+    }
+
     /**
      * Initialises the instance.
      * @param ctx Context
@@ -56,12 +150,49 @@ public class Ancestry {
         instance = new Ancestry(ctx);
     }
 
-    /** key: file name; value: host */
-    private final Map<String, String> map = new HashMap<>();
+    /**
+     * Reverts {@link #escape(String)}.
+     * @param s escaped String
+     * @return unescaped String
+     */
+    @VisibleForTesting
+    @NonNull
+    public static String unescape(@NonNull String s) {
+        int backslash = s.indexOf('\\');
+        if (backslash < 0) return s;
+        final int n = s.length();
+        final StringBuilder sb = new StringBuilder(n).append(s, 0, backslash);
+        for (int i = backslash; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i < n - 1) {
+                c = s.charAt(++i);
+                if (c == 't') c = '\t';
+                else if (c == 'n') c = '\n';
+                else if (c == 'r') c = '\r';
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** key: file name; value: record */
+    private final Map<String, Record> map = new HashMap<>();
+    /** lines that have not been written to the journal yet; guarded by {@link #map} */
+    private final StringBuilder pending = new StringBuilder();
     private final File file;
     private final File downloadsDir;
-    private final Runnable saver = this::save;
+    /** writes the journal; being single-threaded, it serialises appending and compacting */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setDaemon(true);
+        return t;
+    });
+    private final Runnable saver = () -> this.writer.execute(this::flush);
     private final Handler handler = new Handler();
+    /** number of lines in the journal; accessed only by {@link #writer} */
+    private int journalLines;
+    /** set if the journal should be compacted during the next {@link #flush()}; guarded by {@link #map} */
+    private boolean compactionRequested;
 
     /**
      * Constructor.
@@ -72,17 +203,15 @@ public class Ancestry {
         super();
         this.file = new File(ctx.getFilesDir(), FILE);
         this.downloadsDir = App.getDownloadsDir(ctx);
-        new Thread() {
-            @Override
-            public void run() {
-                load();
-                cleanup();
-            }
-        }.start();
+        this.writer.execute(() -> {
+            load(new File(ctx.getFilesDir(), FILE_LEGACY));
+            cleanup();
+            flush();
+        });
     }
 
     /**
-     * Adds an entry. The host should be a remote one.
+     * Adds an entry unless there is one for the given file already. The host should be a remote one.
      * @param host host that supplied the file identified by {@code fileName}
      * @param fileName the file that {@code host} supplied
      */
@@ -94,46 +223,148 @@ public class Ancestry {
             return;
         }
         synchronized (this.map) {
-            if (this.map.containsKey(fileName)) {
-                if (BuildConfig.DEBUG) Log.i(TAG, "Will not overwrite origin \"" + this.map.get(fileName) + "\" of \"" + fileName + "\" with \"" + host + "\"");
+            final Record existing = this.map.get(fileName);
+            if (existing != null) {
+                if (BuildConfig.DEBUG && !host.equals(existing.host)) Log.i(TAG, "Will not overwrite origin \"" + existing.host + "\" of \"" + fileName + "\" with \"" + host + "\"");
                 return;
             }
-            this.map.put(fileName, host);
+            final Record record = new Record(host, null, 0L, -1L, null);
+            this.map.put(fileName, record);
+            appendPut(fileName, record);
         }
-        this.handler.removeCallbacks(this.saver);
-        this.handler.postDelayed(this.saver, SAVE_DELAY);
+        scheduleSave();
+    }
+
+    /**
+     * Appends a line that stores the given record.<br>
+     * Must be called while holding the lock on {@link #map}.
+     * @param fileName file name
+     * @param record Record
+     */
+    private void appendPut(@NonNull String fileName, @NonNull Record record) {
+        final StringBuilder line = new StringBuilder(64)
+                .append(OP_PUT).append(SEP)
+                .append(escape(fileName)).append(SEP)
+                .append(escape(record.host)).append(SEP)
+                .append(escape(record.etag)).append(SEP)
+                .append(record.lastModified).append(SEP)
+                .append(record.length).append(SEP)
+                .append(escape(record.url));
+        appendChecksum(line);
+        this.pending.append(line);
+    }
+
+    /**
+     * Appends a line that removes the record for the given file.<br>
+     * Must be called while holding the lock on {@link #map}.
+     * @param fileName file name
+     */
+    private void appendRemove(@NonNull String fileName) {
+        final StringBuilder line = new StringBuilder(32).append(OP_REMOVE).append(SEP).append(escape(fileName));
+        appendChecksum(line);
+        this.pending.append(line);
     }
 
     /**
      * Removes entries of files that do not exist any more.
      */
-    @AnyThread
+    @WorkerThread
     private void cleanup() {
-        this.handler.removeCallbacks(this.saver);
         File[] downloads = this.downloadsDir.listFiles();
-        if (downloads == null || downloads.length == 0) {
-            synchronized (this.map) {
-                this.map.clear();
-                Util.deleteFile(this.file);
+        final Set<String> namesOfExistingFiles = new HashSet<>(downloads != null ? downloads.length : 0);
+        if (downloads != null) {
+            for (File download : downloads) {
+                namesOfExistingFiles.add(download.getName());
             }
-            return;
         }
-        final Set<String> namesOfExistingFiles = new HashSet<>(downloads.length);
-        for (File download : downloads) {
-            namesOfExistingFiles.add(download.getName());
+        synchronized (this.map) {
+            if (this.map.keySet().retainAll(namesOfExistingFiles)) {
+                this.compactionRequested = true;
+            }
         }
-        boolean modified = false;
+    }
+
+    /**
+     * Replaces the journal with a version that contains exactly one line per record.<br>
+     * Must be called by {@link #writer}.
+     * @throws IOException if the journal could not be replaced
+     */
+    @WorkerThread
+    private void compact() throws IOException {
+        final StringBuilder content;
+        final int lines;
         synchronized (this.map) {
-            final Set<String> fileNames = new HashSet<>(this.map.keySet());
-            for (String fileName : fileNames) {
-                if (!namesOfExistingFiles.contains(fileName)) {
-                    this.map.remove(fileName);
-                    modified = true;
-                }
+            // the snapshot includes everything that is pending
+            this.pending.setLength(0);
+            this.compactionRequested = false;
+            for (Map.Entry<String, Record> entry : this.map.entrySet()) {
+                appendPut(entry.getKey(), entry.getValue());
+            }
+            content = new StringBuilder(this.pending);
+            this.pending.setLength(0);
+            lines = this.map.size();
+        }
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Util.close(out);
+            Util.deleteFile(tmp);
+            throw e;
+        }
+        Util.close(out);
+        if (!tmp.renameTo(this.file)) {
+            Util.deleteFile(tmp);
+            throw new IOException("Cannot replace " + this.file);
+        }
+        this.journalLines = lines;
+        if (BuildConfig.DEBUG) Log.i(TAG, "Compacted journal to " + lines + " line(s)");
+    }
+
+    /**
+     * Writes pending lines to the journal and compacts it if it has become too large.<br>
+     * Must be called by {@link #writer}.
+     */
+    @WorkerThread
+    private void flush() {
+        final String lines;
+        final boolean compact;
+        final int records;
+        synchronized (this.map) {
+            records = this.map.size();
+            compact = this.compactionRequested;
+            lines = compact ? null : this.pending.toString();
+            if (!compact) this.pending.setLength(0);
+        }
+        try {
+            if (compact) {
+                compact();
+                return;
+            }
+            if (lines.length() == 0) return;
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(this.file, true);
+                out.write(lines.getBytes(StandardCharsets.UTF_8));
+                // one sync for the whole batch
+                out.getFD().sync();
+            } finally {
+                Util.close(out);
+            }
+            for (int i = lines.indexOf('\n'); i >= 0; i = lines.indexOf('\n', i + 1)) this.journalLines++;
+            if (this.journalLines >= COMPACT_MIN_LINES && this.journalLines > 2 * records) {
+                compact();
+            }
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+            // a partially written line must not be followed by another line
+            synchronized (this.map) {
+                this.compactionRequested = true;
             }
         }
-        if (!modified) return;
-        this.handler.postDelayed(this.saver, SAVE_DELAY);
     }
 
     /**
@@ -143,12 +374,21 @@ public class Ancestry {
      */
     @Nullable
     public String getHost(File file) {
+        final Record record = getRecord(file);
+        return record != null ? record.host : null;
+    }
+
+    /**
+     * Returns the record for the given file.
+     * @param file download file
+     * @return Record
+     */
+    @Nullable
+    public Record getRecord(@Nullable File file) {
         if (file == null) return null;
-        String host;
         synchronized (this.map) {
-            host = this.map.get(file.getName());
+            return this.map.get(file.getName());
         }
-        return host;
     }
 
     /**
@@ -165,31 +405,84 @@ public class Ancestry {
         return knows;
     }
 
-    @AnyThread
-    private void load() {
-        if (!this.file.isFile()) return;
+    /**
+     * Loads the journal, or the file written by earlier versions if there is no journal yet.
+     * @param legacy file written by earlier versions
+     */
+    @WorkerThread
+    private void load(@NonNull final File legacy) {
+        final boolean fromLegacy = !this.file.isFile();
+        if (fromLegacy && !legacy.isFile()) return;
+        final Map<String, Record> loaded = new HashMap<>();
+        int lines = 0;
+        boolean damaged = false;
         BufferedReader reader = null;
         try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file)));
-            synchronized (this.map) {
-                this.map.clear();
-                for (; ; ) {
-                    String line = reader.readLine();
-                    if (line == null) break;
-                    int sep = line.lastIndexOf(SEP);
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(fromLegacy ? legacy : this.file), StandardCharsets.UTF_8));
+            for (; ; ) {
+                String line = reader.readLine();
+                if (line == null) break;
+                lines++;
+                if (fromLegacy) {
+                    int sep = line.lastIndexOf(SEP_LEGACY);
                     if (sep <= 0) continue;
                     String filename = line.substring(0, sep);
                     String host = line.substring(sep + 1);
                     if (!TextUtils.isEmpty(filename) && !TextUtils.isEmpty(host)) {
-                        this.map.put(filename, host);
+                        loaded.put(filename, new Record(host, null, 0L, -1L, null));
                     }
+                } else if (!parse(line, loaded)) {
+                    if (BuildConfig.DEBUG) Log.w(TAG, "Skipping damaged line " + lines);
+                    damaged = true;
                 }
             }
         } catch (Exception e) {
             if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+            damaged = true;
         } finally {
             Util.close(reader);
         }
+        if (!fromLegacy && !damaged) {
+            // if the process died after a line had been written without its line terminator, the next line must not be appended to it
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                final long length = raf.length();
+                if (length > 0L) {
+                    raf.seek(length - 1L);
+                    damaged = raf.read() != '\n';
+                }
+            } catch (IOException e) {
+                damaged = true;
+            }
+        }
+        synchronized (this.map) {
+            // records added before loading has finished take precedence
+            for (Map.Entry<String, Record> entry : loaded.entrySet()) {
+                if (!this.map.containsKey(entry.getKey())) this.map.put(entry.getKey(), entry.getValue());
+            }
+            if (fromLegacy || damaged) this.compactionRequested = true;
+        }
+        this.journalLines = lines;
+        if (fromLegacy) {
+            // the records will be written to the journal during the following flush()
+            Util.deleteFile(legacy);
+        }
+    }
+
+    /**
+     * Stores the given record for the given file, replacing any previous one.<br>
+     * To be called when a download (re)starts so that the validators are known when the download is to be resumed later.
+     * @param file download file
+     * @param record Record
+     */
+    @AnyThread
+    public void put(@NonNull File file, @NonNull Record record) {
+        final String fileName = file.getName();
+        synchronized (this.map) {
+            if (record.equals(this.map.get(fileName))) return;
+            this.map.put(fileName, record);
+            appendPut(fileName, record);
+        }
+        scheduleSave();
     }
 
     /**
@@ -203,33 +496,23 @@ public class Ancestry {
             return;
         }
         synchronized (this.map) {
-            String removed = this.map.remove(file.getName());
+            Record removed = this.map.remove(file.getName());
             if (removed == null) {
                 if (BuildConfig.DEBUG) Log.w(TAG, "No origin for " + file.getName() + " had been stored!");
                 return;
             }
+            appendRemove(file.getName());
         }
-        this.handler.removeCallbacks(this.saver);
-        this.handler.postDelayed(this.saver, SAVE_DELAY);
+        scheduleSave();
     }
 
-    private void save() {
-        BufferedWriter writer = null;
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file)));
-            final Set<Map.Entry<String, String>> entries;
-            synchronized (this.map) {
-                entries = this.map.entrySet();
-            }
-            for (Map.Entry<String, String> entry : entries) {
-                writer.write(entry.getKey() + SEP + entry.getValue());
-                writer.newLine();
-            }
-        } catch (Exception e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
-        } finally {
-            Util.close(writer);
-        }
+    /**
+     * Writes pending lines after a short delay, so that lines written in quick succession are synced together.
+     */
+    @AnyThread
+    private void scheduleSave() {
+        this.handler.removeCallbacks(this.saver);
+        this.handler.postDelayed(this.saver, SAVE_DELAY);
     }
 
     /**
@@ -240,12 +523,95 @@ public class Ancestry {
     public void transfer(@Nullable final File old, @Nullable final File renamed) {
         if (old == null || renamed == null) return;
         synchronized (this.map) {
-            String host = this.map.get(old.getName());
-            if (host == null) return;
-            this.map.remove(old.getName());
-            this.map.put(renamed.getName(), host);
+            Record record = this.map.remove(old.getName());
+            if (record == null) return;
+            this.map.put(renamed.getName(), record);
+            appendRemove(old.getName());
+            appendPut(renamed.getName(), record);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * The origin of a download file.
+     */
+    public static final class Record {
+        /** the host that the file has been downloaded from */
+        @NonNull public final String host;
+        /** the ETag that the host had given for the resource */
+        @Nullable public final String etag;
+        /** the modification time that the host had given for the resource (0 if unknown) */
+        public final long lastModified;
+        /** the size of the resource (-1 if unknown) */
+        public final long length;
+        /** the url that the resource had been delivered from, after any redirects */
+        @Nullable public final String url;
+
+        /**
+         * Constructor.
+         * @param host host
+         * @param etag ETag
+         * @param lastModified modification time of the remote resource in ms (0 if unknown)
+         * @param length size of the remote resource (-1 if unknown)
+         * @param url final url
+         */
+        public Record(@NonNull String host, @Nullable String etag, long lastModified, long length, @Nullable String url) {
+            super();
+            this.host = host;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.url = url;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Record record = (Record) o;
+            return lastModified == record.lastModified && length == record.length && host.equals(record.host)
+                    && TextUtils.equals(etag, record.etag) && TextUtils.equals(url, record.url);
+        }
+
+        /**
+         * Tells whether this record contains a validator that identifies a particular version of the remote resource.
+         * @return true / false
+         */
+        public boolean hasValidator() {
+            return (this.etag != null && !this.etag.startsWith("W/")) || this.lastModified > 0L;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return host.hashCode() * 31 + (int)(lastModified ^ (lastModified >>> 32));
+        }
+
+        /**
+         * Tells whether the given properties of a remote resource match this record.
+         * Single values that are unknown on either side are not held against the resource,
+         * but if this record has a validator, the resource must provide one, too - otherwise it cannot be told apart from a different one.
+         * @param host host
+         * @param etag ETag
+         * @param lastModified modification time in ms (0 if unknown)
+         * @param length size (-1 if unknown)
+         * @return true / false
+         */
+        public boolean matches(@Nullable String host, @Nullable String etag, long lastModified, long length) {
+            if (!this.host.equals(host)) return false;
+            if (hasValidator() && (etag == null || etag.startsWith("W/")) && lastModified <= 0L) return false;
+            // weak ETags are not fit for byte ranges (https://tools.ietf.org/html/rfc7232#section-2.1)
+            if (this.etag != null && etag != null && !this.etag.startsWith("W/") && !this.etag.equals(etag)) return false;
+            if (this.lastModified > 0L && lastModified > 0L && this.lastModified != lastModified) return false;
+            return this.length <= 0L || length <= 0L || this.length == length;
+        }
+
+        /** {@inheritDoc} */
+        @NonNull
+        @Override
+        public String toString() {
+            return "Record{host='" + host + "', etag=" + etag + ", lastModified=" + lastModified + ", length=" + length + ", url=" + url + '}';
         }
-        this.handler.removeCallbacks(this.saver);
-        this.handler.postDelayed(this.saver, SAVE_DELAY);
     }
 }
@@ -24,7 +24,6 @@ import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.text.TextUtils;
@@ -48,17 +47,26 @@ import net.cellar.auth.AuthManager;
 import net.cellar.model.Credential;
 import net.cellar.model.Order;
 import net.cellar.model.UnsupportedAuthChallengeException;
+import net.cellar.net.AdaptiveTimeouts;
+import net.cellar.net.CachePolicy;
+import net.cellar.net.CallTimings;
+import net.cellar.net.DnsCache;
 import net.cellar.net.EvilBlocker;
+import net.cellar.net.NetStats;
 import net.cellar.net.NetworkChangedReceiver;
 import net.cellar.net.ProxyPicker;
+import net.cellar.net.TlsSessions;
 import net.cellar.queue.QueueManager;
 import net.cellar.supp.IdSupply;
 import net.cellar.supp.Log;
 import net.cellar.supp.ThreadLocalFFmpegMediaMetadataRetriever;
 import net.cellar.supp.UiUtil;
 import net.cellar.supp.Util;
+import net.cellar.worker.ActiveDestinations;
+import net.cellar.worker.InspectionStore;
 import net.cellar.worker.Loader;
 import net.cellar.worker.LoaderFactory;
+import net.cellar.worker.Throttle;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -77,8 +85,11 @@ import java.util.concurrent.TimeUnit;
 
 import okhttp3.Cache;
 import okhttp3.Challenge;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Dns;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
@@ -122,18 +133,41 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     public static final String PREF_CLIPSPY = "pref_clipspy";
     /** must be false as it does not work from API 30 on */
     public static final boolean PREF_CLIPSPY_DEFAULT = false;
+    /** boolean: replace downloads that are identical to existing files by hard links to those files */
+    public static final String PREF_DEDUP_LINK = "pref_dedup_link";
+    public static final boolean PREF_DEDUP_LINK_DEFAULT = false;
     /** boolean: if true, adjust night mode according to time of day; if false, follow the system rules - the default value comes from {@link R.bool#night_mode_by_time} */
     public static final String PREF_NIGHT = "pref_night";
     /** int [0..23] */
     public static final String PREF_NIGHT_FROM = "pref_night_from";
     /** int [0..23] */
     public static final String PREF_NIGHT_TO = "pref_night_to";
+    /** boolean: bundle the notifications of running downloads under a summary */
+    public static final String PREF_GROUP_PROGRESS = "pref_group_progress";
+    /** default value for {@link #PREF_GROUP_PROGRESS} */
+    public static final boolean PREF_GROUP_PROGRESS_DEFAULT = true;
+    /** <em>String</em>: size of the HTTP cache in MB; takes effect after a restart */
+    public static final String PREF_HTTP_CACHE_SIZE = "pref_http_cache_size";
+    /** default value for {@link #PREF_HTTP_CACHE_SIZE} */
+    public static final int PREF_HTTP_CACHE_SIZE_DEFAULT = 10;
     /** String: list of endings of host names that the proxy should be used for */
     public static final String PREF_PROXY_RESTRICT = "pref_proxy_restrict";
     /** String: proxyserver:port */
     public static final String PREF_PROXY_SERVER = "pref_proxy_server";
     /** String: DIRECT, HTTP or SOCKS */
     public static final String PREF_PROXY_TYPE = "pref_proxy_type";
+    /** <em>String</em>: max. total download speed in KB/s; 0 means unlimited */
+    public static final String PREF_RATE_LIMIT = "pref_rate_limit";
+    /** <em>String</em>: max. download speed per download in KB/s; 0 means unlimited */
+    public static final String PREF_RATE_LIMIT_DOWNLOAD = "pref_rate_limit_download";
+    /** int [0..23]: hour from which the rate limits apply */
+    public static final String PREF_RATE_LIMIT_FROM = "pref_rate_limit_from";
+    /** <em>String</em>: max. download speed per host in KB/s; 0 means unlimited */
+    public static final String PREF_RATE_LIMIT_HOST = "pref_rate_limit_host";
+    /** <em>String</em>: max. total download speed in KB/s while the network is metered; 0 means the same as {@link #PREF_RATE_LIMIT} */
+    public static final String PREF_RATE_LIMIT_METERED = "pref_rate_limit_metered";
+    /** int [0..23]: hour until which the rate limits apply; if equal to {@link #PREF_RATE_LIMIT_FROM}, the limits apply all day */
+    public static final String PREF_RATE_LIMIT_TO = "pref_rate_limit_to";
     /** int: preferred quality level when asking the user is not possible */
     public static final String PREF_QUALITY = "pref_quality";
     /** int */
@@ -213,6 +247,14 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     @SortMode static final int SORT_DATE = 0;
     @SortMode static final int SORT_NAME = 1;
     @SortMode static final int SORT_SIZE = 2;
+    /** period after which idle HTTP connections are closed */
+    private static final long HTTP_KEEP_ALIVE = 5 * 60_000L;
+    /** max. number of idle HTTP connections */
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = 16;
+    /** max. number of concurrent asynchronous HTTP calls */
+    private static final int HTTP_MAX_REQUESTS = 64;
+    /** max. number of concurrent asynchronous HTTP calls per host */
+    private static final int HTTP_MAX_REQUESTS_PER_HOST = 6;
     private static final char[] ILLEGAL_FILENAME_CHARS = new char[] {':', '>', '<', '\\'};
     private static final String TAG = "App";
     /** timeout for write operations in milliseconds */
@@ -295,11 +337,23 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     private final SparseArray<Loader> loaders = new SparseArray<>(4);
     private final SparseArray<Notification.Builder> nbuilders = new SparseArray<>(4);
     private final Object okhttpclientLock = new Object();
+    private final DnsCache dnsCache = new DnsCache();
+    private final AdaptiveTimeouts adaptiveTimeouts = new AdaptiveTimeouts(TIMEOUT_CONNECT, TIMEOUT_READ);
     private ThumbsManager thumbsManager;
     private NotificationChannel nc;
     private NotificationChannel ncImportant;
     @GuardedBy("okhttpclientLock")
     private OkHttpClient okHttpClient;
+    /** shared by all OkHttpClients so that the limits apply across rebuilds */
+    @GuardedBy("okhttpclientLock")
+    private Dispatcher dispatcher;
+    /** shared by all OkHttpClients because there must be only one Cache per directory */
+    @GuardedBy("okhttpclientLock")
+    private Cache httpCache;
+    /** shared by all OkHttpClients so that TLS sessions can be resumed */
+    private volatile TlsSessions tlsSessions;
+    /** shared by all OkHttpClients so that the statistics survive rebuilds */
+    private final NetStats netStats = new NetStats();
     private LoaderFactory loaderFactory;
     private ProxyPicker proxyPicker;
     private EvilBlocker evilBlocker;
@@ -365,10 +419,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
             if (BuildConfig.DEBUG) Log.e(TAG, msg);
             throw new UnsupportedAuthChallengeException(msg);
         }
-        final Credential credential;
-        synchronized (AuthManager.getInstance().getCredentials()) {
-            credential = Credential.findUsable(AuthManager.getInstance().getCredentials(), realm);
-        }
+        final Credential credential = AuthManager.getInstance().findUsable(realm, Credential.TYPE_UNKNOWN, null);
         if (credential != null && credential.getUserid() != null) {
             if (BuildConfig.DEBUG) Log.i(TAG, "Authenticating with " + credential);
             CharSequence pwd = credential.getPassword();
@@ -394,7 +445,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
             final int n = this.loaders.size();
             for (int i = 0; i < n; i++) {
                 Loader loader = this.loaders.valueAt(i);
-                if (loader == null || loader.getStatus() == AsyncTask.Status.FINISHED || loader.isDeferred()) continue;
+                if (loader == null || loader.isFinished() || loader.isDeferred()) continue;
                 loader.cancel(true);
                 counter++;
             }
@@ -413,7 +464,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
             final int n = this.loaders.size();
             for (int i = 0; i < n; i++) {
                 Loader loader = this.loaders.valueAt(i);
-                if (loader == null || loader.getStatus() == AsyncTask.Status.FINISHED || loader.isDeferred()) continue;
+                if (loader == null || loader.isFinished() || loader.isDeferred()) continue;
                 Order[] orders = loader.getOrders();
                 loader.defer();
                 if (orders != null && orders.length > 0) {
@@ -514,6 +565,29 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
         return ohc;
     }
 
+    @NonNull
+    public DnsCache getDnsCache() {
+        return this.dnsCache;
+    }
+
+    /**
+     * Returns the statistics of the http calls.
+     * @return NetStats
+     */
+    @NonNull
+    public NetStats getNetStats() {
+        return this.netStats;
+    }
+
+    /**
+     * Returns the TlsSessions which are available once the OkHttpClient has been created.
+     * @return TlsSessions
+     */
+    @Nullable
+    public TlsSessions getTlsSessions() {
+        return this.tlsSessions;
+    }
+
     public ProxyPicker getProxyPicker() {
         return this.proxyPicker;
     }
@@ -524,7 +598,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     }
 
     /**
-     * @return {@code true} if there are any Loaders that are not yet in the {@link AsyncTask.Status#FINISHED FINISHED} state
+     * @return {@code true} if there are any Loaders that are not yet in the {@link Loader#STATE_FINISHED FINISHED} state
      */
     @AnyThread
     public boolean hasActiveLoaders() {
@@ -532,7 +606,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
             final int n = this.loaders.size();
             for (int i = 0; i < n; i++) {
                 Loader loader = this.loaders.valueAt(i);
-                if (loader != null && loader.getStatus() != AsyncTask.Status.FINISHED) return true;
+                if (loader != null && !loader.isFinished()) return true;
             }
         }
         return false;
@@ -549,23 +623,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
             if (BuildConfig.DEBUG) Log.e(TAG, "isBeingDownloaded(null)");
             return false;
         }
-        synchronized (this.loaders) {
-            final int n = this.loaders.size();
-            for (int i = 0; i < n; i++) {
-                Loader loader = this.loaders.valueAt(i);
-                if (loader.getStatus() == AsyncTask.Status.FINISHED) continue;
-                Order[] orders = loader.getOrders();
-                if (orders == null) continue;
-                for (Order order : orders) {
-                    File orderDestination = new File(order.getDestinationFolder(), order.getDestinationFilename());
-                    if (destination.equals(orderDestination)) {
-                        if (BuildConfig.DEBUG) Log.i(TAG, "File \"" + orderDestination.getName() + "\" is currently the target of " + order.getUrl() + " being downloaded (id " + loader.getId() + ")");
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return ActiveDestinations.getInstance().contains(destination);
     }
 
     /**
@@ -575,15 +633,26 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     @AnyThread
     private void makeOkhttpClient() {
         synchronized (okhttpclientLock) {
-            if (this.okHttpClient != null) {
+            // the previous client is not shut down - calls that are still running keep using it
+            final ConnectionPool previousPool = this.okHttpClient != null ? this.okHttpClient.connectionPool() : null;
+            if (this.proxyPicker == null) this.proxyPicker = new ProxyPicker(this);
+            if (this.dispatcher == null) {
+                this.dispatcher = new Dispatcher();
+                this.dispatcher.setMaxRequests(HTTP_MAX_REQUESTS);
+                this.dispatcher.setMaxRequestsPerHost(HTTP_MAX_REQUESTS_PER_HOST);
+            }
+            if (this.httpCache == null) {
+                final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+                final int cacheSize = Util.parseInt(prefs.getString(PREF_HTTP_CACHE_SIZE, String.valueOf(PREF_HTTP_CACHE_SIZE_DEFAULT)), PREF_HTTP_CACHE_SIZE_DEFAULT);
+                this.httpCache = new Cache(new File(getCacheDir(), "okcache"), cacheSize * 1_048_576L);
+            }
+            if (this.tlsSessions == null) {
                 try {
-                    this.okHttpClient.dispatcher().executorService().shutdown();
-                    this.okHttpClient.connectionPool().evictAll();
+                    this.tlsSessions = new TlsSessions(this);
                 } catch (Exception e) {
-                    if (BuildConfig.DEBUG) Log.e(App.class.getSimpleName(), e.toString());
+                    if (BuildConfig.DEBUG) Log.e(TAG, "Failed to set up TLS: " + e.toString());
                 }
             }
-            if (this.proxyPicker == null) this.proxyPicker = new ProxyPicker(this);
             final OkHttpClient.Builder builder = new OkHttpClient.Builder()
                     .connectTimeout(TIMEOUT_CONNECT, TimeUnit.MILLISECONDS)
                     .readTimeout(TIMEOUT_READ, TimeUnit.MILLISECONDS)
@@ -593,13 +662,27 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
                     .authenticator(this)
                     .proxySelector(this.proxyPicker)
                     .dns(new Hal(this))
-                    .cache(new okhttp3.Cache(new File(getCacheDir(), "okcache"), 10_000_000L));
+                    .addInterceptor(this.adaptiveTimeouts)
+                    .connectionPool(new ConnectionPool(HTTP_MAX_IDLE_CONNECTIONS, HTTP_KEEP_ALIVE, TimeUnit.MILLISECONDS))
+                    .dispatcher(this.dispatcher)
+                    // requests to the same host share one connection if the server speaks HTTP/2
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .cache(this.httpCache)
+                    .addNetworkInterceptor(new CachePolicy());
+            if (this.tlsSessions != null) {
+                builder.sslSocketFactory(this.tlsSessions.getSocketFactory(), this.tlsSessions.getTrustManager());
+            }
+            // CallTimings -> NetStats -> TlsSessions
+            builder.eventListenerFactory(new CallTimings(this.netStats.wrap(this.tlsSessions)));
             //
             if (BuildConfig.DEBUG) {
                 net.cellar.supp.HttpLogger.enable(builder);
             }
             //
             this.okHttpClient = builder.build();
+            this.netStats.setConnectionPool(this.okHttpClient.connectionPool());
+            // idle connections might have been established with different proxy settings; connections in use are closed by their pool when they become idle
+            if (previousPool != null) previousPool.evictAll();
         }
     }
 
@@ -614,7 +697,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
                 final int n = this.loaders.size();
                 for (int i = 0; i < n; i++) {
                     Loader d = this.loaders.valueAt(i);
-                    if (d.getStatus() != AsyncTask.Status.RUNNING) continue;
+                    if (d.getState() != Loader.STATE_RUNNING) continue;
                     d.holdon();
                 }
             }
@@ -640,6 +723,10 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
 
         NetworkChangedReceiver ncr = NetworkChangedReceiver.getInstance();
         ncr.init(this);
+        ncr.addListener(this.dnsCache);
+        Throttle throttle = Throttle.getInstance();
+        throttle.configure(prefs);
+        ncr.addListener(throttle);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             registerReceiver(ncr, new IntentFilter(ConnectivityManager.ACTION_RESTRICT_BACKGROUND_CHANGED));
         }
@@ -647,6 +734,10 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
         this.proxyPicker = new ProxyPicker(this);
 
         Ancestry.setup(this);
+        ContentIndex.setup(this);
+        InspectionStore.setup(this);
+        MetricsStore.setup(this);
+        MetricsStore.getInstance().setNetStats(this.netStats);
 
         AlarmManager am = (AlarmManager)getSystemService(ALARM_SERVICE);
 
@@ -759,8 +850,11 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
     @Override
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
         //if (BuildConfig.DEBUG) Log.i(TAG, "onSharedPreferenceChanged(…, \"" + key + "\")");
-        if (PREF_PROXY_TYPE.equals(key) || PREF_PROXY_SERVER.equals(key)) {
+        if (PREF_PROXY_TYPE.equals(key) || PREF_PROXY_SERVER.equals(key) || PREF_PROXY_RESTRICT.equals(key)) {
+            if (this.proxyPicker != null) this.proxyPicker.reload();
             makeOkhttpClient();
+        } else if (key != null && key.startsWith(PREF_RATE_LIMIT)) {
+            Throttle.getInstance().configure(prefs);
         } else if (PREF_CLIPSPY.equals(key)) {
             boolean on = prefs.getBoolean(key, false);
             if (on) {
@@ -830,7 +924,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
      */
     public enum FilePath {
 
-        DOWNLOADS("downloads"), APK("apk"), BACKUPS("backups"), @SuppressWarnings("unused") LOGS("logs"), ICONS("icons");
+        DOWNLOADS("downloads"), APK("apk"), BACKUPS("backups"), @SuppressWarnings("unused") LOGS("logs"), ICONS("icons"), EXPORTS("exports");
 
         private final String name;
 
@@ -875,11 +969,7 @@ public class App extends Application implements SharedPreferences.OnSharedPrefer
         @Override
         public List<InetAddress> lookup(@NonNull final String hostname) throws UnknownHostException {
             if (this.app.evilBlocker != null && this.app.evilBlocker.isEvil(hostname)) throw new UnknownHostException(hostname);
-            try {
-                return Arrays.asList(InetAddress.getAllByName(hostname));
-            } catch (RuntimeException e) {
-                 throw new UnknownHostException(hostname);
-            }
+            return this.app.dnsCache.lookup(hostname);
         }
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * BackupManifest.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.cellar.supp.Log;
+import net.cellar.supp.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which files have been backed up, so that the next backup can be limited to the files that have changed since.<br>
+ * Each line of the manifest file holds the file name, its size, its modification time and its CRC32, separated by tabs.
+ */
+final class BackupManifest {
+
+    private static final String FILENAME = "backup.manifest";
+    private static final String TAG = "BackupManifest";
+
+    /**
+     * Tells whether a manifest exists.
+     * @param ctx Context
+     * @return true / false
+     */
+    static boolean exists(@NonNull Context ctx) {
+        return new File(ctx.getFilesDir(), FILENAME).isFile();
+    }
+
+    /**
+     * Loads the manifest.
+     * @param ctx Context
+     * @return BackupManifest, empty if there was none
+     */
+    @NonNull
+    @WorkerThread
+    static BackupManifest load(@NonNull Context ctx) {
+        final BackupManifest manifest = new BackupManifest(new File(ctx.getFilesDir(), FILENAME));
+        if (!manifest.file.isFile()) return manifest;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest.file), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] parts = line.split("\t");
+                if (parts.length != 4) continue;
+                manifest.records.put(parts[0], new Record(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3], 16)));
+            }
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While loading: " + e.toString());
+            manifest.records.clear();
+        } finally {
+            Util.close(reader);
+        }
+        return manifest;
+    }
+
+    @NonNull private final File file;
+    /** key: file name */
+    private final Map<String, Record> records = new HashMap<>();
+
+    private BackupManifest(@NonNull File file) {
+        super();
+        this.file = file;
+    }
+
+    /**
+     * Returns the record for the given file name.
+     * @param name file name
+     * @return Record or {@code null}
+     */
+    @Nullable
+    Record get(@NonNull String name) {
+        return this.records.get(name);
+    }
+
+    boolean isEmpty() {
+        return this.records.isEmpty();
+    }
+
+    /**
+     * Stores the state of a file that has been backed up.<br>
+     * File names containing tabs or line breaks are ignored; those files will always be regarded as changed.
+     * @param name file name
+     * @param length file size
+     * @param lastModified modification time
+     * @param crc CRC32 of the contents
+     */
+    void put(@NonNull String name, long length, long lastModified, long crc) {
+        if (name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) return;
+        this.records.put(name, new Record(length, lastModified, crc));
+    }
+
+    /**
+     * Removes all records except those for the given file names.
+     * @param names file names to keep
+     */
+    void retain(@NonNull Set<String> names) {
+        this.records.keySet().retainAll(names);
+    }
+
+    /**
+     * Writes the manifest. The previous version is replaced only once the new one has been written completely.
+     * @throws IOException if the manifest could not be written
+     */
+    @WorkerThread
+    void save() throws IOException {
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            for (Map.Entry<String, Record> entry : this.records.entrySet()) {
+                final Record r = entry.getValue();
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(r.length));
+                writer.write('\t');
+                writer.write(Long.toString(r.lastModified));
+                writer.write('\t');
+                writer.write(Long.toHexString(r.crc));
+                writer.write('\n');
+            }
+        } finally {
+            Util.close(writer);
+        }
+        if (!tmp.renameTo(this.file)) {
+            Util.deleteFile(tmp);
+            throw new IOException("Cannot replace " + this.file);
+        }
+    }
+
+    /**
+     * The state of a file at the time it was backed up.
+     */
+    static final class Record {
+        final long length;
+        final long lastModified;
+        final long crc;
+
+        private Record(long length, long lastModified, long crc) {
+            super();
+            this.length = length;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+    }
+}
@@ -14,41 +14,67 @@ import android.app.Service;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import net.cellar.supp.DebugUtil;
 import net.cellar.supp.IdSupply;
+import net.cellar.supp.ParallelZip;
+import net.cellar.supp.SeekableZip;
 import net.cellar.supp.UiUtil;
 import net.cellar.supp.Util;
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.model.FileHeader;
+import net.lingala.zip4j.model.LocalFileHeader;
 import net.lingala.zip4j.model.ZipParameters;
 import net.lingala.zip4j.model.enums.AesKeyStrength;
 import net.lingala.zip4j.model.enums.CompressionLevel;
+import net.lingala.zip4j.model.enums.CompressionMethod;
 import net.lingala.zip4j.model.enums.EncryptionMethod;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 /**
  * Wraps the downloaded files into a zip file and shares it.
@@ -65,13 +91,34 @@ public class BackupService extends Service {
     static final String EXTRA_AES = BuildConfig.APPLICATION_ID + ".extra_aes";
     /** String: absolute path of the destination file */
     static final String EXTRA_DEST = BuildConfig.APPLICATION_ID + ".extra_dest";
+    /** boolean: include only files that have changed since the previous backup */
+    static final String EXTRA_INCREMENTAL = BuildConfig.APPLICATION_ID + ".extra_incremental";
     /** char[] */
     static final String EXTRA_PWD = BuildConfig.APPLICATION_ID + ".extra_pwd";
     /** the source file Uri */
     static final String EXTRA_SOURCE = BuildConfig.APPLICATION_ID + ".extra_source";
     static final String FILE_EXTENSION = ".zip";
+    /** compression level for deflated entries; higher levels cost much more time for little gain */
+    private static final int DEFLATE_LEVEL = 6;
+    /** MIME types of data that is compressed already */
+    private static final Set<String> INCOMPRESSIBLE = new HashSet<>(Arrays.asList(
+            "application/epub+zip", "application/gzip", "application/java-archive", "application/pdf",
+            "application/vnd.android.package-archive", "application/x-7z-compressed", "application/x-bzip2",
+            "application/x-rar-compressed", "application/x-xz", "application/zip"));
+    /** data with an entropy above this (in bits per byte) is not deflated */
+    private static final double MAX_ENTROPY = 7.5;
+    /** number of bytes read to estimate the entropy */
+    private static final int SAMPLE_SIZE = 65536;
     private static final boolean SKIP_EXISTING_WHEN_UNZIPPING = true;
+    /** number of bytes at the start of a local file header that contain the signature, the version and the general purpose flags */
+    private static final int LEN_LOCAL_HEADER_START = 8;
+    /** signature of a local file header */
+    private static final int SIG_LOCAL = 0x04034b50;
+    /** signature of the end of central directory record */
+    private static final int SIG_END = 0x06054b50;
     private static final String TAG = "BackupService";
+    /** min. interval between two progress notifications while unzipping (ms) */
+    private static final long UNZIP_NOTIFICATION_INTERVAL = 500L;
 
     /**
      * Deletes all files in the backups folder.
@@ -87,50 +134,157 @@ public class BackupService extends Service {
     }
 
     /**
-     * Copies the data pointed to by {@code source} to a temporary file.
+     * Examines the zip file pointed to by {@code source} without copying it.<br>
+     * If the source can be read via a seekable file descriptor, the central directory is read;
+     * otherwise only the first local header is evaluated and the number of files remains unknown.
      * @param ctx Context
      * @param source source Uri
-     * @param suffix file suffix
-     * @param listener FileCopyListener to receive the tmp file
+     * @param listener InspectionListener to receive the result on the main thread
      * @return the Thread that this is currently happening in
      * @throws NullPointerException if {@code ctx} or {@code listener} are {@code null}
      */
     @NonNull
-    static Thread copyToTmpFile(@NonNull Context ctx, @NonNull final Uri source, @Nullable final String suffix, @NonNull final FileCopyListener listener) {
+    static Thread inspect(@NonNull Context ctx, @NonNull final Uri source, @NonNull final InspectionListener listener) {
         final Handler handler = new Handler(Looper.getMainLooper());
-        final File dir = ctx.getCacheDir();
         final ContentResolver contentResolver = ctx.getContentResolver();
-        Thread copier = new Thread() {
+        Thread inspector = new Thread() {
             @Override
             public void run() {
-                File tmp = null;
-                InputStream in = null;
-                boolean success = true;
-                try {
-                    tmp = new File(dir, "tmp_" + System.currentTimeMillis() + (suffix != null ? suffix : ".tmp"));
-                    in = contentResolver.openInputStream(source);
-                    if (in == null) throw new FileNotFoundException(source.toString());
-                    Util.copy(in, new FileOutputStream(tmp), 32768);
-                } catch (Throwable e) {
-                    success = false;
-                    if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
-                } finally {
-                    Util.close(in);
-                }
-                if (!success) {
-                    Util.deleteFile(tmp);
-                    tmp = null;
+                Inspection inspection = null;
+                final ParcelFileDescriptor pfd = openSeekable(contentResolver, source);
+                if (pfd != null) {
+                    final FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                    try {
+                        final SeekableZip zip = new SeekableZip(in.getChannel());
+                        inspection = new Inspection(true, zip.getEntries().size(), zip.isEncrypted());
+                    } catch (IOException e) {
+                        if (BuildConfig.DEBUG) Log.w(TAG, "While inspecting " + source + ": " + e.toString());
+                        inspection = new Inspection(false, 0, false);
+                    } finally {
+                        Util.close(in);
+                    }
+                } else {
+                    InputStream in = null;
+                    try {
+                        in = contentResolver.openInputStream(source);
+                        if (in == null) throw new FileNotFoundException(source.toString());
+                        final byte[] b = new byte[LEN_LOCAL_HEADER_START];
+                        int read = 0;
+                        while (read < b.length) {
+                            int r = in.read(b, read, b.length - read);
+                            if (r < 0) break;
+                            read += r;
+                        }
+                        final int sig = read >= 4 ? (b[0] & 0xff) | (b[1] & 0xff) << 8 | (b[2] & 0xff) << 16 | (b[3] & 0xff) << 24 : 0;
+                        if (sig == SIG_LOCAL && read == b.length) {
+                            // the general purpose flags follow the signature and the version
+                            inspection = new Inspection(true, -1, (b[6] & 1) != 0);
+                        } else {
+                            // an empty zip file consists of the end of central directory record only
+                            inspection = new Inspection(sig == SIG_END, 0, false);
+                        }
+                    } catch (Throwable e) {
+                        if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+                    } finally {
+                        Util.close(in);
+                    }
                 }
-                final File result = tmp;
-                handler.post(() -> listener.copied(result));
+                final Inspection result = inspection;
+                handler.post(() -> listener.inspected(result));
             }
         };
-        copier.start();
-        return copier;
+        inspector.start();
+        return inspector;
+    }
+
+    /**
+     * Opens a file descriptor that allows random access.
+     * @param cr ContentResolver
+     * @param source source Uri
+     * @return ParcelFileDescriptor or {@code null} if the source is not a regular file (e.g. a pipe)
+     */
+    @Nullable
+    private static ParcelFileDescriptor openSeekable(@NonNull ContentResolver cr, @NonNull Uri source) {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = cr.openFileDescriptor(source, "r");
+            // getStatSize() returns -1 for anything but regular files
+            if (pfd != null && pfd.getStatSize() >= 0L) return pfd;
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "No file descriptor for " + source + ": " + e.toString());
+        }
+        Util.close(pfd);
+        return null;
+    }
+
+    /**
+     * Computes the CRC32 of a file.
+     * @param file file
+     * @return CRC32
+     * @throws IOException if the file cannot be read
+     */
+    @WorkerThread
+    private static long crc(@NonNull File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[65536];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            Util.close(in);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Decides whether it is worth compressing data.<br>
+     * Media files and archives are compressed already; for other types, the entropy of a sample of the data decides.
+     * @param mime MIME type
+     * @param sample the first bytes of the data
+     * @param sampleLength number of bytes in {@code sample}
+     * @return {@code true} if the data should be deflated, {@code false} if it should be stored
+     */
+    @VisibleForTesting
+    public static boolean isCompressible(@NonNull String mime, @Nullable byte[] sample, int sampleLength) {
+        if (mime.startsWith("text/")) return true;
+        if (mime.startsWith("video/") || mime.startsWith("image/jpeg") || mime.equals("image/png") || mime.equals("image/gif") || mime.equals("image/webp") || mime.startsWith("image/hei")) return false;
+        if (mime.startsWith("audio/") && !mime.contains("wav") && !mime.contains("aiff")) return false;
+        if (INCOMPRESSIBLE.contains(mime)) return false;
+        return sample == null || sampleLength < 64 || ParallelZip.entropy(sample, sampleLength) < MAX_ENTROPY;
+    }
+
+    /**
+     * Decides whether a file should be deflated.
+     * @param file file
+     * @return {@code true} if the file should be deflated, {@code false} if it should be stored
+     */
+    @WorkerThread
+    private static boolean shouldDeflate(@NonNull File file) {
+        final byte[] sample = new byte[(int)Math.min(SAMPLE_SIZE, file.length())];
+        int read = 0;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            while (read < sample.length) {
+                int r = in.read(sample, read, sample.length - read);
+                if (r < 0) break;
+                read += r;
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "While sampling " + file + ": " + e.toString());
+        } finally {
+            Util.close(in);
+        }
+        return isCompressible(Util.getMime(file), sample, read);
     }
 
     private final BackupServiceBinder binder = new BackupServiceBinder(this);
     private final Handler handler = new Handler();
+    /** time of the latest progress notification while unzipping */
+    private final AtomicLong lastUnzipNotification = new AtomicLong();
     private Notification.Builder builder;
     private Notification notification;
     private Thread exporter, importer;
@@ -204,9 +358,10 @@ public class BackupService extends Service {
             String dest = intent.getStringExtra(EXTRA_DEST);
             char[] pwd = intent.getCharArrayExtra(EXTRA_PWD);
             boolean aes = intent.getBooleanExtra(EXTRA_AES, false);
+            boolean incremental = intent.getBooleanExtra(EXTRA_INCREMENTAL, false);
             if (dest != null && dest.length() > 0) {
                 foregroundZip();
-                zip(dest, pwd, aes);
+                zip(dest, pwd, aes, incremental);
             }
             return START_NOT_STICKY;
         } else if (ACTION_ZIP_CANCEL.equals(action)) {
@@ -218,13 +373,7 @@ public class BackupService extends Service {
                 this.importer = new Thread() {
                     @Override
                     public void run() {
-                        copyToTmpFile(BackupService.this, source, ".zip", dest -> {
-                            if (dest == null) {
-                                stopSelf(startId);
-                                return;
-                            }
-                            unzip(dest, intent.getCharArrayExtra(EXTRA_PWD));
-                        });
+                        unzip(source, intent.getCharArrayExtra(EXTRA_PWD));
                     }
                 };
                 this.importer.setPriority(Thread.NORM_PRIORITY - 1);
@@ -240,179 +389,352 @@ public class BackupService extends Service {
         return super.onStartCommand(intent, flags, startId);
     }
 
+    /**
+     * Unzips the zip file pointed to by {@code source} into the downloads folder.<br>
+     * The data is read directly from the source; if the source is seekable, the entries are extracted in parallel.
+     * @param source source Uri
+     * @param pwd password
+     */
     @WorkerThread
-    private void unzip(@NonNull File file, @Nullable char[] pwd) {
+    private void unzip(@NonNull Uri source, @Nullable char[] pwd) {
         if (DebugUtil.TEST) sendBroadcast(new Intent(App.ACTION_BACKUP_RESTORE_STARTED));
         final NotificationManager nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+        FileInputStream seekable = null;
         try {
             File dir = App.getDownloadsDir(this);
             if (!dir.isDirectory()) {
-                if (!dir.mkdirs()) {
-                    this.builder
-                            .setContentText(getString(R.string.error_import_failed, "Cannot create directory!"))
-                            .setCategory(Notification.CATEGORY_ERROR)
-                            .setSmallIcon(android.R.drawable.ic_delete)
-                            .setProgress(100, 100, false)
-                            .setAutoCancel(true)
-                            .setOngoing(false);
-                    nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
-                    Util.deleteFile(file);
-                    if (pwd != null) Arrays.fill(pwd, (char)0);
-                    noMoreForegroundUnzip();
-                    return;
+                if (!dir.mkdirs()) throw new IOException("Cannot create directory!");
+            }
+            SeekableZip zip = null;
+            final ParcelFileDescriptor pfd = openSeekable(getContentResolver(), source);
+            if (pfd != null) {
+                seekable = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                try {
+                    zip = new SeekableZip(seekable.getChannel());
+                    // encrypted archives are left to zip4j
+                    if (!zip.isSupported()) zip = null;
+                } catch (IOException e) {
+                    if (BuildConfig.DEBUG) Log.w(TAG, "Cannot read " + source + " as seekable zip file: " + e.toString());
                 }
             }
+            final UnzipResult result;
+            if (zip != null) {
+                result = unzipParallel(zip, dir, nm);
+            } else {
+                Util.close(seekable);
+                seekable = null;
+                result = unzipStream(source, pwd, dir, nm);
+            }
+
+            getContentResolver().notifyChange(Dogs.buildNotifyUri(), null, false);
 
-            long availableSpace = dir.getFreeSpace();
-            if (availableSpace < (file.length() << 1)) {
-                String msg = getString(R.string.error_import_failed, getString(R.string.msg_downloaded_file_1012));
+            Intent ui = new Intent(this, UiActivity.class);
+            ui.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            @SuppressLint("InlinedApi")
+            PendingIntent piUiActivity = PendingIntent.getActivity(this, 1, ui,  (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) ? PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT : PendingIntent.FLAG_UPDATE_CURRENT);
+            String msg = getResources().getQuantityString(R.plurals.msg_import_successful, result.extracted, result.extracted);
+            if (result.skipped > 0) msg = msg + '\n' + getString(R.string.msg_import_skipped_some);
+            synchronized (this.builder) {
                 this.builder
                         .setContentText(msg)
-                        .setCategory(Notification.CATEGORY_ERROR)
-                        .setSmallIcon(android.R.drawable.ic_delete)
-                        .setColor(getResources().getColor(R.color.design_default_color_error))
                         .setProgress(100, 100, false)
                         .setAutoCancel(true)
                         .setOngoing(false)
+                        .setUsesChronometer(false)
+                        .setContentIntent(piUiActivity)
                 ;
                 if (msg.length() > 35) {
                     this.builder.setStyle(new Notification.BigTextStyle().bigText(msg));
                 }
-                nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
-                Util.deleteFile(file);
-                if (pwd != null) Arrays.fill(pwd, (char)0);
-                noMoreForegroundUnzip();
-                return;
             }
-
-            final String destinationPath = dir.getAbsolutePath();
-            final ZipFile zip = pwd != null ? new ZipFile(file, pwd) : new ZipFile(file);
-            if (!zip.isValidZipFile()) {
-                String msg = getString(R.string.error_import_failed, "Not a valid zip file!");
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) net.cellar.supp.Log.e(TAG, e.toString());
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            String msg;
+            if (e instanceof ZipException && ((ZipException)e).getType() == ZipException.Type.WRONG_PASSWORD) {
+                msg = getString(R.string.error_import_failed_pwd);
+            } else {
+                msg = e.getMessage();
+                if (TextUtils.isEmpty(msg)) msg = e.toString();
+                msg = getString(R.string.error_import_failed, msg);
+            }
+            synchronized (this.builder) {
                 this.builder
                         .setContentText(msg)
                         .setCategory(Notification.CATEGORY_ERROR)
                         .setSmallIcon(android.R.drawable.ic_delete)
-                        .setColor(getResources().getColor(R.color.design_default_color_error))
                         .setProgress(100, 100, false)
+                        .setColor(getResources().getColor(R.color.design_default_color_error))
                         .setAutoCancel(true)
                         .setOngoing(false)
+                        .setUsesChronometer(false)
                 ;
                 if (msg.length() > 35) {
                     this.builder.setStyle(new Notification.BigTextStyle().bigText(msg));
                 }
-                nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
-                Util.deleteFile(file);
-                noMoreForegroundUnzip();
-                return;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    this.builder.setColorized(true);
+                }
             }
-            if (zip.isEncrypted() && (pwd == null || pwd.length == 0)) {
-                String msg = getString(R.string.error_import_failed_pwd);
-                this.builder
-                        .setContentText(msg)
-                        .setCategory(Notification.CATEGORY_ERROR)
-                        .setSmallIcon(android.R.drawable.ic_delete)
-                        .setColor(getResources().getColor(R.color.design_default_color_error))
-                        .setProgress(100, 100, false)
-                        .setAutoCancel(true)
-                        .setOngoing(false)
-                ;
-                if (msg.length() > 35) {
-                    this.builder.setStyle(new Notification.BigTextStyle().bigText(msg));
+        } finally {
+            Util.close(seekable);
+        }
+        if (pwd != null) Arrays.fill(pwd, (char)0);
+        synchronized (this.builder) {
+            nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
+        }
+        noMoreForegroundUnzip();
+    }
+
+    /**
+     * Tells whether a file that has just been extracted is identical to one of the given files.
+     * @param extracted extracted file
+     * @param candidates files that have the same size and CRC32
+     * @return true / false
+     */
+    @WorkerThread
+    private static boolean isCopy(@NonNull File extracted, @NonNull List<File> candidates) {
+        for (File candidate : candidates) {
+            if (!candidate.equals(extracted) && ContentIndex.contentEquals(candidate, extracted)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines the file that a zip entry should be extracted to.
+     * @param dir destination directory
+     * @param entryName name of the zip entry
+     * @param taken names of the files that other entries of the same zip file are extracted to
+     * @return destination file or {@code null} if the entry should be skipped
+     */
+    @Nullable
+    private static File unzipDestination(@NonNull File dir, @NonNull String entryName, @NonNull Set<String> taken) {
+        final File dest = new File(dir, entryName);
+        if (dest.isFile() && SKIP_EXISTING_WHEN_UNZIPPING) return null;
+        final String alt = Util.suggestAlternativeFilename(dest);
+        final String fileName = (alt != null ? alt : entryName).replace(File.separatorChar, '_');
+        // two entries must not end up in the same file
+        if (!taken.add(fileName)) return null;
+        return new File(dir, fileName);
+    }
+
+    /**
+     * Extracts the entries of a seekable zip file in parallel.<br>
+     * Before anything is written, it is checked whether there is enough space for the data to be extracted.
+     * @param zip SeekableZip
+     * @param dir destination directory
+     * @param nm NotificationManager
+     * @return UnzipResult
+     * @throws IOException if there is not enough space, or if an entry could not be extracted
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    @NonNull
+    @WorkerThread
+    private UnzipResult unzipParallel(@NonNull final SeekableZip zip, @NonNull File dir, @NonNull final NotificationManager nm) throws IOException, InterruptedException {
+        final List<SeekableZip.Entry> entries = new ArrayList<>();
+        final List<File> destinations = new ArrayList<>();
+        final List<List<File>> candidates = new ArrayList<>();
+        final Set<String> taken = new HashSet<>();
+        final PresentFiles present = new PresentFiles(dir);
+        int skipped = 0;
+        long totalBytes = 0L;
+        for (SeekableZip.Entry entry : zip.getEntries()) {
+            // currently we will not handle directories
+            if (entry.isDirectory()) {
+                skipped++;
+                continue;
+            }
+            final File dest = unzipDestination(dir, entry.getName(), taken);
+            if (dest == null) {
+                skipped++;
+                continue;
+            }
+            entries.add(entry);
+            destinations.add(dest);
+            candidates.add(present.find(entry.getSize(), entry.getCrc()));
+            totalBytes += entry.getSize();
+        }
+        if (totalBytes > dir.getFreeSpace()) throw new IOException(getString(R.string.msg_downloaded_file_1012));
+        final int threads = Math.max(1, Math.min(entries.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Unzipper");
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        final AtomicLong processed = new AtomicLong();
+        final long total = totalBytes;
+        final List<Future<Boolean>> futures = new ArrayList<>(entries.size());
+        int extracted = 0;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                final SeekableZip.Entry entry = entries.get(i);
+                final File dest = destinations.get(i);
+                final List<File> same = candidates.get(i);
+                futures.add(executor.submit(() -> {
+                    try (InputStream in = zip.openStream(entry)) {
+                        extract(in, dest, processed, null, total, nm);
+                    }
+                    // the CRC32 alone does not prove that the contents are identical
+                    if (!same.isEmpty() && isCopy(dest, same)) {
+                        Util.deleteFile(dest);
+                        return false;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) extracted++; else skipped++;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException)cause;
+                    throw new IOException(cause);
                 }
-                nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
-                Util.deleteFile(file);
-                noMoreForegroundUnzip();
-                return;
             }
-            final List<FileHeader> fileHeaderList = zip.getFileHeaders();
-            final int n = fileHeaderList.size();
-            int count = 0, extracted = 0, skipped = 0;
-            for (FileHeader fileHeader : fileHeaderList) {
-                final String originalFileName = fileHeader.getFileName();
+        } finally {
+            executor.shutdownNow();
+        }
+        return new UnzipResult(extracted, skipped);
+    }
+
+    /**
+     * Extracts the entries of a zip file sequentially while it is being read.<br>
+     * Entries are checked against the available space individually, as their sizes are known only once they are reached.
+     * @param source source Uri
+     * @param pwd password
+     * @param dir destination directory
+     * @param nm NotificationManager
+     * @return UnzipResult
+     * @throws IOException if the source cannot be read, if there is not enough space, or if an entry could not be extracted
+     */
+    @NonNull
+    @WorkerThread
+    private UnzipResult unzipStream(@NonNull Uri source, @Nullable char[] pwd, @NonNull File dir, @NonNull NotificationManager nm) throws IOException {
+        final long sourceSize = querySize(getContentResolver(), source);
+        final InputStream raw = getContentResolver().openInputStream(source);
+        if (raw == null) throw new FileNotFoundException(source.toString());
+        final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(raw, 65536));
+        final Set<String> taken = new HashSet<>();
+        final PresentFiles present = new PresentFiles(dir);
+        int extracted = 0, skipped = 0;
+        boolean valid = false;
+        net.lingala.zip4j.io.inputstream.ZipInputStream zin = null;
+        try {
+            zin = new net.lingala.zip4j.io.inputstream.ZipInputStream(counter, pwd);
+            // getNextEntry() skips the remainder of the previous entry
+            for (LocalFileHeader header = zin.getNextEntry(); header != null; header = zin.getNextEntry()) {
+                valid = true;
                 // currently we will not handle directories
-                if (fileHeader.isDirectory()) {
-                    count++;
+                if (header.isDirectory()) {
                     skipped++;
                     continue;
                 }
-                // this is just a sanity check
-                if (fileHeader.getCompressedSize() > Integer.MAX_VALUE) {
-                    count++;
+                final File dest = unzipDestination(dir, header.getFileName(), taken);
+                if (dest == null) {
                     skipped++;
                     continue;
                 }
-                //
-                File dest =  new File(destinationPath, originalFileName);
-                if (dest.isFile() && SKIP_EXISTING_WHEN_UNZIPPING) {
-                    count++;
+                // the size is 0 if it follows the data
+                if (header.getUncompressedSize() > dir.getFreeSpace()) throw new IOException(getString(R.string.msg_downloaded_file_1012));
+                final List<File> same = present.find(header.getUncompressedSize(), header.getCrc());
+                extract(zin, dest, null, counter, sourceSize, nm);
+                // the CRC32 alone does not prove that the contents are identical
+                if (!same.isEmpty() && isCopy(dest, same)) {
+                    Util.deleteFile(dest);
                     skipped++;
                     continue;
                 }
-                String alt = Util.suggestAlternativeFilename(dest);
-                String fileName = alt != null ? alt : originalFileName;
-                fileName = fileName.replace(File.separatorChar, '_');
-                zip.extractFile(fileHeader, destinationPath, fileName);
-                if (BuildConfig.DEBUG) net.cellar.supp.Log.i(TAG, "Extracted \"" + fileName + "\"");
-                count++; extracted++;
-                this.builder.setContentText(fileName).setProgress(100, Math.round(100f * ((float)count / (float)n)), false);
-                nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
+                if (BuildConfig.DEBUG) net.cellar.supp.Log.i(TAG, "Extracted \"" + dest.getName() + "\"");
+                extracted++;
+                updateUnzipProgress(nm, dest.getName(), counter.getCount(), sourceSize);
             }
+        } finally {
+            Util.close(zin, counter);
+        }
+        if (!valid) throw new IOException("Not a valid zip file!");
+        return new UnzipResult(extracted, skipped);
+    }
 
-            getContentResolver().notifyChange(Dogs.buildNotifyUri(), null, false);
-
-            Intent ui = new Intent(this, UiActivity.class);
-            ui.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            @SuppressLint("InlinedApi")
-            PendingIntent piUiActivity = PendingIntent.getActivity(this, 1, ui,  (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) ? PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT : PendingIntent.FLAG_UPDATE_CURRENT);
-            String msg = getResources().getQuantityString(R.plurals.msg_import_successful, extracted, extracted);
-            if (skipped > 0) msg = msg + '\n' + getString(R.string.msg_import_skipped_some);
-            this.builder
-                    .setContentText(msg)
-                    .setProgress(100, 100, false)
-                    .setAutoCancel(true)
-                    .setOngoing(false)
-                    .setUsesChronometer(false)
-                    .setContentIntent(piUiActivity)
-            ;
-            if (msg.length() > 35) {
-                this.builder.setStyle(new Notification.BigTextStyle().bigText(msg));
+    /**
+     * Copies the data of a zip entry into a file. The file is deleted if that fails.
+     * @param in InputStream providing the uncompressed data; will not be closed
+     * @param dest destination file
+     * @param processed counter of the bytes extracted in total, if the progress is measured in uncompressed bytes
+     * @param counter counter of the bytes read from the source, if the progress is measured in compressed bytes
+     * @param total total number of bytes, -1 if unknown
+     * @param nm NotificationManager to report the progress to
+     * @throws IOException if an I/O error occurs
+     */
+    @WorkerThread
+    private void extract(@NonNull InputStream in, @NonNull File dest, @Nullable AtomicLong processed, @Nullable CountingInputStream counter, long total, @NonNull NotificationManager nm) throws IOException {
+        final byte[] buffer = new byte[65536];
+        OutputStream out = null;
+        boolean ok = false;
+        try {
+            out = new FileOutputStream(dest);
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+                final long done = processed != null ? processed.addAndGet(read) : (counter != null ? counter.getCount() : 0L);
+                updateUnzipProgress(nm, dest.getName(), done, total);
             }
+            out.close();
+            out = null;
+            ok = true;
+        } finally {
+            Util.close(out);
+            if (!ok) Util.deleteFile(dest);
+        }
+    }
+
+    /**
+     * Returns the size of the data that the given Uri points to.
+     * @param cr ContentResolver
+     * @param source source Uri
+     * @return size in bytes or -1 if unknown
+     */
+    private static long querySize(@NonNull ContentResolver cr, @NonNull Uri source) {
+        Cursor cursor = null;
+        try {
+            cursor = cr.query(source, new String[] {OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) return cursor.getLong(0);
         } catch (Exception e) {
-            if (BuildConfig.DEBUG) net.cellar.supp.Log.e(TAG, e.toString());
-            String msg;
-            if (e instanceof ZipException && ((ZipException)e).getType() == ZipException.Type.WRONG_PASSWORD) {
-                msg = getString(R.string.error_import_failed_pwd);
-            } else {
-                msg = e.getMessage();
-                if (TextUtils.isEmpty(msg)) msg = e.toString();
-                msg = getString(R.string.error_import_failed, msg);
-            }
-            this.builder
-                    .setContentText(msg)
-                    .setCategory(Notification.CATEGORY_ERROR)
-                    .setSmallIcon(android.R.drawable.ic_delete)
-                    .setProgress(100, 100, false)
-                    .setColor(getResources().getColor(R.color.design_default_color_error))
-                    .setAutoCancel(true)
-                    .setOngoing(false)
-                    .setUsesChronometer(false)
-            ;
-            if (msg.length() > 35) {
-                this.builder.setStyle(new Notification.BigTextStyle().bigText(msg));
-            }
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                this.builder.setColorized(true);
-            }
+            if (BuildConfig.DEBUG) Log.w(TAG, "While querying size of " + source + ": " + e.toString());
         } finally {
-            Util.deleteFile(file);
+            Util.close(cursor);
         }
-        if (pwd != null) Arrays.fill(pwd, (char)0);
-        nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
-        noMoreForegroundUnzip();
+        return -1L;
     }
 
-    private void zip(@NonNull String destination, @Nullable final char[] pwd, boolean aes) {
+    /**
+     * Updates the progress notification while unzipping, at most every {@link #UNZIP_NOTIFICATION_INTERVAL} ms.<br>
+     * May be called from several threads.
+     * @param nm NotificationManager
+     * @param fileName name of the file being extracted
+     * @param processed number of bytes processed
+     * @param total total number of bytes, -1 if unknown
+     */
+    @AnyThread
+    private void updateUnzipProgress(@NonNull NotificationManager nm, @NonNull String fileName, long processed, long total) {
+        final long now = System.currentTimeMillis();
+        final long last = this.lastUnzipNotification.get();
+        if (now - last < UNZIP_NOTIFICATION_INTERVAL || !this.lastUnzipNotification.compareAndSet(last, now)) return;
+        synchronized (this.builder) {
+            this.builder.setContentText(fileName).setProgress(100, total > 0L ? (int)Math.min(100L, 100L * processed / total) : 0, total <= 0L);
+            nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.builder.build());
+        }
+    }
+
+    /**
+     * Creates a backup of the downloaded files.<br>
+     * Without a password, the files are added to the archive via {@link ParallelZip}, i.e. compressed on all cores;
+     * with a password, zip4j is used, which encrypts but works sequentially.
+     * In both cases, files that are already compressed (media, archives) are stored instead of deflated.
+     * @param destination the file to create
+     * @param pwd password (optional)
+     * @param aes {@code true} to use AES encryption (if a password is given)
+     * @param incremental {@code true} to include only the files that have changed since the previous backup
+     */
+    private void zip(@NonNull String destination, @Nullable final char[] pwd, boolean aes, boolean incremental) {
         if (this.exporter != null && this.exporter.isAlive()) {
             if (BuildConfig.DEBUG) Log.e(TAG, "Another backup is still in progress!");
             this.builder.setContentText(getString(R.string.msg_backup_notpossible_active)).setColor(0xffff0000);
@@ -442,68 +764,61 @@ public class BackupService extends Service {
             String alt = Util.suggestAlternativeFilename(destinationFile);
             if (alt != null) destinationFile = new File(destinationFile.getParent(), alt);
         }
-        final ZipFile zipFile;
-        final ZipParameters zipParameters = new ZipParameters();
-        zipParameters.setCompressionLevel(CompressionLevel.MAXIMUM);
-        if (pwd != null && pwd.length > 0) {
-            zipParameters.setEncryptFiles(true);
-            if (aes) {
-                zipParameters.setEncryptionMethod(EncryptionMethod.AES);
-                zipParameters.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
-            } else {
-                zipParameters.setEncryptionMethod(EncryptionMethod.ZIP_STANDARD);
-            }
-            zipFile = new ZipFile(destinationFile, pwd);
-        } else {
-            zipFile = new ZipFile(destinationFile);
-        }
+        final File zipDestination = destinationFile;
         this.exporter = new Thread() {
-            @SuppressWarnings("ResultOfMethodCallIgnored")
             @Override
             public void run() {
-                long processed = 0L;
                 final NotificationManager nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
-                final App app = (App)getApplicationContext();
-                int counter = 0;
-                long totalBytes = 0L;
                 if (DebugUtil.TEST) sendBroadcast(new Intent(App.ACTION_BACKUP_RESTORE_STARTED));
-                for (File file : files) {
-                    totalBytes += file.length();
-                }
-                for (File file : files) {
-                    if (BackupService.this.cancelRequested) break;
-                    if (file == null || !file.isFile() || file.length() == 0L || app.isBeingDownloaded(file)) {
-                        if (BuildConfig.DEBUG) Log.i(TAG, "Skipping " + file);
-                        continue;
+                final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+                final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                    Thread t = new Thread(r, "Zipper");
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                });
+                boolean ok = false;
+                try {
+                    final BackupManifest manifest = BackupManifest.load(BackupService.this);
+                    final List<File> selected = select(files, manifest, incremental, executor);
+                    if (BackupService.this.cancelRequested) {
+                        noMoreForegroundZip();
+                        return;
                     }
-                    try {
-                        zipFile.addFile(file, zipParameters);
-                    } catch (ZipException e) {
-                        if (BuildConfig.DEBUG) Log.e(TAG, "While adding " + file + ": " + e.toString(), e);
+                    if (selected.isEmpty()) {
+                        BackupService.this.builder.setProgress(0, 0, false);
+                        BackupService.this.builder.setContentText(getString(R.string.msg_backup_nothing_changed));
+                        BackupService.this.notification = BackupService.this.builder.build();
+                        nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, BackupService.this.notification);
+                        noMoreForegroundZip();
+                        return;
                     }
-                    processed += file.length();
-                    counter++;
-                    BackupService.this.builder.setProgress(100, (int)Math.round(100. * ((double)processed / totalBytes)), false);
-                    BackupService.this.builder.setContentText(counter + "/" + files.length);
-                    BackupService.this.notification = BackupService.this.builder.build();
-                    nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, BackupService.this.notification);
+                    final String comment = getString(R.string.msg_export_zip_comment, DateFormat.getDateTimeInstance().format(new Date()));
+                    if (pwd != null && pwd.length > 0) {
+                        ok = zipEncrypted(zipDestination, selected, manifest, pwd, aes, comment);
+                    } else {
+                        ok = zipParallel(zipDestination, selected, manifest, executor, threads, comment);
+                    }
+                    if (ok) {
+                        try {
+                            manifest.save();
+                        } catch (IOException e) {
+                            if (BuildConfig.DEBUG) Log.e(TAG, "While saving the manifest: " + e.toString());
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                    if (pwd != null) Arrays.fill(pwd, (char)0);
                 }
-                if (pwd != null) Arrays.fill(pwd, (char)0);
-                if (BackupService.this.cancelRequested) {
-                    zipFile.getFile().delete();
+                if (!ok) {
+                    Util.deleteFile(zipDestination);
                     noMoreForegroundZip();
                     return;
                 }
-                try {
-                    zipFile.setComment(getString(R.string.msg_export_zip_comment, DateFormat.getDateTimeInstance().format(new Date())));
-                } catch (ZipException e) {
-                    if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
-                }
                 BackupService.this.builder.setProgress(100, 100, false);
                 BackupService.this.builder.setContentText(getString(R.string.msg_backup_finished));
                 BackupService.this.notification = BackupService.this.builder.build();
                 nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, BackupService.this.notification);
-                BackupService.this.handler.post(() -> Util.send(BackupService.this, zipFile.getFile(), BuildConfig.FILEPROVIDER_AUTH, "application/zip"));
+                BackupService.this.handler.post(() -> Util.send(BackupService.this, zipDestination, BuildConfig.FILEPROVIDER_AUTH, "application/zip"));
                 noMoreForegroundZip();
             }
         };
@@ -511,8 +826,298 @@ public class BackupService extends Service {
         this.exporter.start();
     }
 
-    interface FileCopyListener {
-        void copied(@Nullable File dest);
+    /**
+     * Picks the files to back up.<br>
+     * A file is regarded as unchanged if its size and its modification time match the manifest,
+     * or, if only the modification time differs, its checksum matches.
+     * @param files all files in the downloads directory
+     * @param manifest manifest of the previous backups; will be updated for files whose modification time has changed
+     * @param incremental {@code true} to pick only changed files
+     * @param executor ExecutorService to calculate checksums on
+     * @return files to back up
+     */
+    @NonNull
+    @WorkerThread
+    private List<File> select(@NonNull File[] files, @NonNull BackupManifest manifest, boolean incremental, @NonNull ExecutorService executor) {
+        final App app = (App)getApplicationContext();
+        final List<File> selected = new ArrayList<>(files.length);
+        final Set<String> names = new HashSet<>(files.length);
+        final Map<File, Future<Long>> checksums = new HashMap<>();
+        for (File file : files) {
+            if (file == null || !file.isFile() || file.length() == 0L || app.isBeingDownloaded(file)) {
+                if (BuildConfig.DEBUG) Log.i(TAG, "Skipping " + file);
+                continue;
+            }
+            final String name = file.getName();
+            names.add(name);
+            final BackupManifest.Record record = incremental ? manifest.get(name) : null;
+            if (record == null || record.length != file.length()) {
+                selected.add(file);
+            } else if (record.lastModified != file.lastModified()) {
+                checksums.put(file, executor.submit(() -> crc(file)));
+            }
+        }
+        // the records of files that do not exist anymore are not needed
+        manifest.retain(names);
+        for (Map.Entry<File, Future<Long>> entry : checksums.entrySet()) {
+            final File file = entry.getKey();
+            if (BackupService.this.cancelRequested) break;
+            try {
+                final long crc = entry.getValue().get();
+                final BackupManifest.Record record = manifest.get(file.getName());
+                if (record != null && record.crc == crc) {
+                    manifest.put(file.getName(), file.length(), file.lastModified(), crc);
+                    continue;
+                }
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.w(TAG, "While checking " + file + ": " + e.toString());
+            }
+            selected.add(file);
+        }
+        return selected;
+    }
+
+    /**
+     * Updates the progress notification.
+     * @param nm NotificationManager
+     * @param counter number of files processed
+     * @param n total number of files
+     * @param processed number of bytes processed
+     * @param totalBytes total number of bytes
+     */
+    private void updateZipProgress(@NonNull NotificationManager nm, int counter, int n, long processed, long totalBytes) {
+        this.builder.setProgress(100, totalBytes > 0L ? (int)Math.round(100. * ((double)processed / totalBytes)) : 0, false);
+        this.builder.setContentText(counter + "/" + n);
+        this.notification = this.builder.build();
+        nm.notify(IdSupply.NOTIFICATION_ID_BACKUP, this.notification);
+    }
+
+    /**
+     * Creates an encrypted zip file via zip4j.
+     * @param destination file to create
+     * @param files files to add
+     * @param manifest manifest to update
+     * @param pwd password
+     * @param aes {@code true} to use AES encryption
+     * @param comment zip file comment
+     * @return {@code true} if the zip file has been completed
+     */
+    @WorkerThread
+    private boolean zipEncrypted(@NonNull File destination, @NonNull List<File> files, @NonNull BackupManifest manifest, @NonNull char[] pwd, boolean aes, @NonNull String comment) {
+        final NotificationManager nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+        final ZipFile zipFile = new ZipFile(destination, pwd);
+        final ZipParameters deflated = new ZipParameters();
+        deflated.setCompressionLevel(CompressionLevel.NORMAL);
+        deflated.setEncryptFiles(true);
+        if (aes) {
+            deflated.setEncryptionMethod(EncryptionMethod.AES);
+            deflated.setAesKeyStrength(AesKeyStrength.KEY_STRENGTH_256);
+        } else {
+            deflated.setEncryptionMethod(EncryptionMethod.ZIP_STANDARD);
+        }
+        final ZipParameters stored = new ZipParameters(deflated);
+        stored.setCompressionMethod(CompressionMethod.STORE);
+        long totalBytes = 0L;
+        for (File file : files) totalBytes += file.length();
+        long processed = 0L;
+        int counter = 0;
+        for (File file : files) {
+            if (this.cancelRequested) return false;
+            try {
+                zipFile.addFile(file, shouldDeflate(file) ? deflated : stored);
+                final FileHeader header = zipFile.getFileHeader(file.getName());
+                if (header != null) manifest.put(file.getName(), file.length(), file.lastModified(), header.getCrc());
+            } catch (ZipException e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "While adding " + file + ": " + e.toString(), e);
+            }
+            processed += file.length();
+            updateZipProgress(nm, ++counter, files.size(), processed, totalBytes);
+        }
+        try {
+            zipFile.setComment(comment);
+        } catch (ZipException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Creates an unencrypted zip file via {@link ParallelZip}.
+     * @param destination file to create
+     * @param files files to add
+     * @param manifest manifest to update
+     * @param executor ExecutorService to compress on
+     * @param threads number of threads of the ExecutorService
+     * @param comment zip file comment
+     * @return {@code true} if the zip file has been completed
+     */
+    @WorkerThread
+    private boolean zipParallel(@NonNull File destination, @NonNull List<File> files, @NonNull BackupManifest manifest, @NonNull ExecutorService executor, int threads, @NonNull String comment) {
+        final NotificationManager nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+        final List<ParallelZip.Entry> entries = new ArrayList<>(files.size());
+        long totalBytes = 0L;
+        for (File file : files) totalBytes += file.length();
+        long processed = 0L;
+        int counter = 0;
+        ParallelZip zip = null;
+        try {
+            zip = new ParallelZip(destination, executor, threads, DEFLATE_LEVEL);
+            zip.setComment(comment);
+            for (File file : files) {
+                if (this.cancelRequested) return false;
+                entries.add(zip.add(file, file.getName(), shouldDeflate(file) ? ParallelZip.METHOD_DEFLATED : ParallelZip.METHOD_STORED));
+                processed += file.length();
+                updateZipProgress(nm, ++counter, files.size(), processed, totalBytes);
+            }
+            zip.close();
+            zip = null;
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While zipping: " + e.toString(), e);
+            return false;
+        } finally {
+            // on cancellation or error, the incomplete archive is not finished
+            if (zip != null) zip.abort();
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            final File file = files.get(i);
+            final ParallelZip.Entry entry = entries.get(i);
+            // files that could not be read are not in the archive, so they must not be in the manifest either
+            if (entry.isSkipped()) {
+                if (BuildConfig.DEBUG) Log.w(TAG, "Skipped " + file + " because it could not be read");
+                continue;
+            }
+            manifest.put(file.getName(), file.length(), file.lastModified(), entry.getCrc());
+        }
+        return true;
+    }
+
+    /**
+     * Counts the bytes read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return this.count;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) this.count++;
+            return b;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) this.count += read;
+            return read;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0L) this.count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * The result of {@link #inspect(Context, Uri, InspectionListener) inspecting} a zip file.
+     */
+    static final class Inspection {
+        /** whether the data represents a zip file */
+        final boolean valid;
+        /** number of entries, -1 if unknown */
+        final int numberOfFiles;
+        final boolean encrypted;
+
+        private Inspection(boolean valid, int numberOfFiles, boolean encrypted) {
+            super();
+            this.valid = valid;
+            this.numberOfFiles = numberOfFiles;
+            this.encrypted = encrypted;
+        }
+    }
+
+    interface InspectionListener {
+        /**
+         * The zip file has been inspected.
+         * @param inspection Inspection or {@code null} if the source could not be read
+         */
+        void inspected(@Nullable Inspection inspection);
+    }
+
+    /**
+     * The files that are in the downloads folder before a backup is restored, grouped by size.<br>
+     * The folder is listed once per restore; the checksums are taken from the {@link ContentIndex} and calculated only for files whose size matches that of a zip entry.
+     */
+    private static final class PresentFiles {
+        /** key: file size */
+        private final Map<Long, List<File>> bySize = new HashMap<>();
+
+        /**
+         * Constructor.
+         * @param dir directory
+         */
+        @WorkerThread
+        private PresentFiles(@NonNull File dir) {
+            super();
+            final File[] files = dir.listFiles();
+            if (files == null) return;
+            for (File f : files) {
+                if (!f.isFile() || f.length() == 0L) continue;
+                final Long size = f.length();
+                List<File> list = this.bySize.get(size);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    this.bySize.put(size, list);
+                }
+                list.add(f);
+            }
+        }
+
+        /**
+         * Returns the files that have the given size and CRC32.
+         * @param size file size (nothing is returned if this is not positive)
+         * @param crc CRC32 (nothing is returned if this is 0 because some archivers do not store it)
+         * @return List of files that might be identical
+         */
+        @NonNull
+        @WorkerThread
+        private List<File> find(long size, long crc) {
+            final List<File> list = size > 0L && crc != 0L ? this.bySize.get(size) : null;
+            if (list == null) return Collections.emptyList();
+            final ContentIndex contentIndex = ContentIndex.getInstance();
+            final List<File> found = new ArrayList<>(1);
+            for (File f : list) {
+                final ContentIndex.Fingerprint fingerprint = contentIndex.fingerprint(f);
+                if (fingerprint != null && fingerprint.crc == crc) found.add(f);
+            }
+            return found;
+        }
+    }
+
+    /**
+     * The number of files extracted and skipped.
+     */
+    private static final class UnzipResult {
+        final int extracted;
+        final int skipped;
+
+        private UnzipResult(int extracted, int skipped) {
+            super();
+            this.extracted = extracted;
+            this.skipped = skipped;
+        }
     }
 
     /**
@@ -0,0 +1,638 @@
+/*
+ * ContentIndex.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.text.TextUtils;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.cellar.supp.Log;
+import net.cellar.supp.Util;
+import net.cellar.worker.ActiveDestinations;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers checksums of the downloaded files so that identical files can be detected.<br>
+ * For each file, the MD5 hash and the CRC32 of its contents are stored along with its size and modification time;
+ * a checksum is regarded as valid only as long as size and modification time have not changed.
+ * Downloads from http(s) sources additionally record the url (after any redirects) and the ETag so that the same resource
+ * need not be transferred again; ETags are opaque to clients and may well repeat across different resources of one host.<br>
+ * Identical files can be replaced by hard links to one another, which frees the space of all but one of them.<br>
+ * Must be initialised once via {@link #setup(Context)}!
+ */
+public final class ContentIndex {
+
+    private static final String FILE = "contentindex.txt";
+    private static final long SAVE_DELAY = 2_000L;
+    private static final char SEP = '\t';
+    private static final String TAG = "ContentIndex";
+    private static ContentIndex instance;
+
+    /**
+     * Compares the contents of two files.
+     * @param a file a
+     * @param b file b
+     * @return {@code true} if the files have the same size and contents
+     */
+    @WorkerThread
+    @VisibleForTesting
+    public static boolean contentEquals(@NonNull File a, @NonNull File b) {
+        if (a.length() != b.length()) return false;
+        final byte[] ba = new byte[65536];
+        final byte[] bb = new byte[65536];
+        InputStream ia = null, ib = null;
+        try {
+            ia = new FileInputStream(a);
+            ib = new FileInputStream(b);
+            for (;;) {
+                int ra = readFully(ia, ba);
+                int rb = readFully(ib, bb);
+                if (ra != rb) return false;
+                if (ra <= 0) return true;
+                for (int i = 0; i < ra; i++) {
+                    if (ba[i] != bb[i]) return false;
+                }
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While comparing " + a + " and " + b + ": " + e.toString());
+        } finally {
+            Util.close(ia, ib);
+        }
+        return false;
+    }
+
+    /**
+     * Makes sure that a file does not share its data with another file via a hard link.<br>
+     * This must be called before data is written to a file that might have been {@link #link(File, File) linked}.
+     * @param file file to write to
+     * @param keepData {@code true} if the data is going to be appended to
+     * @throws IOException if the data cannot be copied
+     */
+    @WorkerThread
+    public static void detach(@NonNull File file, boolean keepData) throws IOException {
+        if (getLinkCount(file) < 2) return;
+        if (!keepData) {
+            if (!file.delete()) throw new IOException("Cannot delete " + file);
+            return;
+        }
+        final File tmp = new File(file.getParentFile(), "." + file.getName() + ".detach");
+        final InputStream in = new FileInputStream(file);
+        final OutputStream out;
+        try {
+            out = new FileOutputStream(tmp);
+        } catch (IOException e) {
+            Util.close(in);
+            throw e;
+        }
+        Util.copy(in, out, 65536);
+        if (!tmp.setLastModified(file.lastModified()) && BuildConfig.DEBUG) Log.w(TAG, "Could not set modification time of " + tmp);
+        if (!tmp.renameTo(file)) {
+            Util.deleteFile(tmp);
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Calculates the checksums of a file.
+     * @param file file
+     * @return Fingerprint
+     * @throws IOException if the file cannot be read
+     */
+    @NonNull
+    @WorkerThread
+    @VisibleForTesting
+    public static Fingerprint fingerprintOf(@NonNull File file) throws IOException {
+        final MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[65536];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                md5.update(buffer, 0, read);
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            Util.close(in);
+        }
+        return new Fingerprint(Util.asHex(md5.digest()).toString(), crc.getValue());
+    }
+
+    @NonNull
+    public static ContentIndex getInstance() {
+        assert instance != null;
+        return instance;
+    }
+
+    /**
+     * Returns the number of hard links to a file.
+     * @param file file
+     * @return number of links, 0 if the file does not exist
+     */
+    private static long getLinkCount(@NonNull File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_nlink;
+        } catch (ErrnoException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Replaces a file by a hard link to another file that has the same contents.<br>
+     * The replacement is atomic: {@code duplicate} either keeps its own data or refers to that of {@code original}.
+     * @param original file to keep
+     * @param duplicate file to replace
+     * @return {@code true} if {@code duplicate} has been replaced
+     */
+    @WorkerThread
+    @VisibleForTesting
+    public static boolean link(@NonNull File original, @NonNull File duplicate) {
+        final File tmp = new File(duplicate.getParentFile(), "." + duplicate.getName() + ".link");
+        try {
+            Util.deleteFile(tmp);
+            Os.link(original.getAbsolutePath(), tmp.getAbsolutePath());
+            Os.rename(tmp.getAbsolutePath(), duplicate.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Cannot link " + duplicate + " to " + original + ": " + e.toString());
+            Util.deleteFile(tmp);
+        }
+        return false;
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the stream has been reached.
+     * @param in InputStream
+     * @param buffer buffer
+     * @return number of bytes read
+     * @throws IOException if an I/O error occurs
+     */
+    private static int readFully(@NonNull InputStream in, @NonNull byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Initialises the instance.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    public static void setup(@NonNull Context ctx) {
+        if (instance != null) return;
+        instance = new ContentIndex(ctx);
+    }
+
+    /** key: file name */
+    private final Map<String, Record> records = new HashMap<>();
+    private final File file;
+    private final File downloadsDir;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable saver = () -> new Thread(this::save, "ContentIndexSaver").start();
+
+    /**
+     * Constructor.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    private ContentIndex(@NonNull Context ctx) {
+        super();
+        this.file = new File(ctx.getFilesDir(), FILE);
+        this.downloadsDir = App.getDownloadsDir(ctx);
+        new Thread(this::load, "ContentIndexLoader").start();
+    }
+
+    /**
+     * Stores the checksums and the origin of a file that has just been downloaded.
+     * @param file downloaded file
+     * @param fingerprint checksums calculated while the file had been written (optional)
+     * @param url url that the file had been delivered from, after any redirects (optional)
+     * @param etag ETag given for that url (optional)
+     */
+    @AnyThread
+    public void add(@NonNull File file, @Nullable Fingerprint fingerprint, @Nullable String url, @Nullable String etag) {
+        if (!this.downloadsDir.equals(file.getParentFile()) || !file.isFile()) return;
+        // weak validators do not guarantee that the contents are identical
+        if (etag != null && etag.startsWith("W/")) etag = null;
+        final Record record = new Record(file.length(), file.lastModified(), fingerprint, url, etag);
+        synchronized (this.records) {
+            this.records.put(file.getName(), record);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Replaces all files in the downloads folder that have identical copies by hard links to one of the copies.
+     * @return number of bytes freed
+     */
+    @WorkerThread
+    public long deduplicate() {
+        final File[] files = this.downloadsDir.listFiles();
+        if (files == null || files.length < 2) return 0L;
+        final ActiveDestinations activeDestinations = ActiveDestinations.getInstance();
+        // only files of the same size can be identical
+        final Map<Long, List<File>> bySize = new HashMap<>();
+        for (File f : files) {
+            if (!f.isFile() || f.length() == 0L || activeDestinations.contains(f)) continue;
+            final Long size = f.length();
+            List<File> list = bySize.get(size);
+            if (list == null) {
+                list = new ArrayList<>(2);
+                bySize.put(size, list);
+            }
+            list.add(f);
+        }
+        long freed = 0L;
+        for (List<File> candidates : bySize.values()) {
+            if (candidates.size() < 2) continue;
+            final Map<String, File> originals = new HashMap<>(candidates.size());
+            final Map<String, Long> inodes = new HashMap<>(candidates.size());
+            for (File candidate : candidates) {
+                final Fingerprint fingerprint = fingerprint(candidate);
+                if (fingerprint == null) continue;
+                final File original = originals.get(fingerprint.md5);
+                if (original == null) {
+                    originals.put(fingerprint.md5, candidate);
+                    inodes.put(fingerprint.md5, inodeOf(candidate));
+                    continue;
+                }
+                // already linked?
+                final Long inode = inodes.get(fingerprint.md5);
+                if (inode != null && inode != -1L && inode == inodeOf(candidate)) continue;
+                if (!contentEquals(original, candidate)) continue;
+                final long size = candidate.length();
+                if (link(original, candidate)) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Replaced \"" + candidate.getName() + "\" by a link to \"" + original.getName() + "\"");
+                    freed += size;
+                    add(candidate, fingerprint, null, null);
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Looks for a file that has the given checksum.
+     * Only files that have a size of {@code length} bytes are evaluated; their checksums are calculated if necessary.
+     * @param length file size in bytes
+     * @param md5 MD5 hash as hex string (optional)
+     * @param crc CRC32 (evaluated if {@code md5} is {@code null})
+     * @param exclude file to ignore (optional)
+     * @return matching file or {@code null}
+     */
+    @Nullable
+    @WorkerThread
+    public File findByChecksum(long length, @Nullable String md5, long crc, @Nullable File exclude) {
+        if (length <= 0L) return null;
+        final File[] files = this.downloadsDir.listFiles();
+        if (files == null) return null;
+        final ActiveDestinations activeDestinations = ActiveDestinations.getInstance();
+        for (File f : files) {
+            if (f.length() != length || f.equals(exclude) || !f.isFile() || activeDestinations.contains(f)) continue;
+            final Fingerprint fingerprint = fingerprint(f);
+            if (fingerprint == null) continue;
+            if (md5 != null ? md5.equalsIgnoreCase(fingerprint.md5) : crc == fingerprint.crc) return f;
+        }
+        return null;
+    }
+
+    /**
+     * Looks for a file that has been downloaded from the given url and that had been given the given ETag.
+     * @param url url that the resource is delivered from, after any redirects
+     * @param etag ETag
+     * @param length expected file size
+     * @return matching file or {@code null}
+     */
+    @Nullable
+    @AnyThread
+    public File findByEtag(@Nullable String url, @Nullable String etag, long length) {
+        if (TextUtils.isEmpty(url) || TextUtils.isEmpty(etag) || etag.startsWith("W/") || length <= 0L) return null;
+        final List<String> names = new ArrayList<>(1);
+        synchronized (this.records) {
+            for (Map.Entry<String, Record> entry : this.records.entrySet()) {
+                final Record r = entry.getValue();
+                if (r.length == length && etag.equals(r.etag) && url.equals(r.url)) names.add(entry.getKey());
+            }
+        }
+        for (String name : names) {
+            final File f = new File(this.downloadsDir, name);
+            if (isCurrent(f) && !ActiveDestinations.getInstance().contains(f)) return f;
+        }
+        return null;
+    }
+
+    /**
+     * Looks for a file with the given checksum among the files whose checksums are known already.<br>
+     * Does not read any file contents.
+     * @param length file size in bytes
+     * @param md5 MD5 hash as hex string
+     * @param exclude file to ignore
+     * @return matching file or {@code null}
+     */
+    @Nullable
+    @AnyThread
+    public File findKnown(long length, @NonNull String md5, @NonNull File exclude) {
+        final List<String> names = new ArrayList<>(1);
+        synchronized (this.records) {
+            for (Map.Entry<String, Record> entry : this.records.entrySet()) {
+                final Record r = entry.getValue();
+                if (r.length == length && r.fingerprint != null && md5.equals(r.fingerprint.md5) && !exclude.getName().equals(entry.getKey())) names.add(entry.getKey());
+            }
+        }
+        for (String name : names) {
+            final File f = new File(this.downloadsDir, name);
+            if (isCurrent(f)) return f;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the checksums of a file, calculating them if they are not known or outdated.
+     * @param file file
+     * @return Fingerprint or {@code null} if the file cannot be read
+     */
+    @Nullable
+    @WorkerThread
+    public Fingerprint fingerprint(@NonNull File file) {
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final Record known;
+        synchronized (this.records) {
+            known = this.records.get(file.getName());
+        }
+        if (known != null && known.fingerprint != null && known.length == length && known.lastModified == lastModified) return known.fingerprint;
+        final Fingerprint fingerprint;
+        try {
+            fingerprint = fingerprintOf(file);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While fingerprinting " + file + ": " + e.toString());
+            return null;
+        }
+        // the origin remains valid only if the file has not been modified
+        final boolean unmodified = known != null && known.length == length && known.lastModified == lastModified;
+        synchronized (this.records) {
+            this.records.put(file.getName(), new Record(length, lastModified, fingerprint, unmodified ? known.url : null, unmodified ? known.etag : null));
+        }
+        scheduleSave();
+        return fingerprint;
+    }
+
+    /**
+     * Returns the inode number of a file.
+     * @param file file
+     * @return inode number or -1
+     */
+    private long inodeOf(@NonNull File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Replaces a file by a hard link to an existing file if the contents are identical.
+     * @param file file that has just been downloaded
+     * @return the file that {@code file} now refers to, or {@code null} if there is no identical file
+     */
+    @Nullable
+    @WorkerThread
+    public File replaceIfDuplicate(@NonNull File file) {
+        final Fingerprint fingerprint = fingerprint(file);
+        if (fingerprint == null) return null;
+        final File original = findByChecksum(file.length(), fingerprint.md5, fingerprint.crc, file);
+        if (original == null || inodeOf(original) == inodeOf(file) || !contentEquals(original, file)) return null;
+        if (!link(original, file)) return null;
+        if (BuildConfig.DEBUG) Log.i(TAG, "Replaced \"" + file.getName() + "\" by a link to \"" + original.getName() + "\"");
+        // the link has the modification time of the original, so the record must be updated
+        final Record r;
+        synchronized (this.records) {
+            r = this.records.get(file.getName());
+        }
+        add(file, fingerprint, r != null ? r.url : null, r != null ? r.etag : null);
+        return original;
+    }
+
+    /**
+     * Tells whether the record for the given file is up to date.
+     * @param file file
+     * @return true / false
+     */
+    private boolean isCurrent(@NonNull File file) {
+        final Record r;
+        synchronized (this.records) {
+            r = this.records.get(file.getName());
+        }
+        return r != null && file.isFile() && r.length == file.length() && r.lastModified == file.lastModified();
+    }
+
+    @WorkerThread
+    private void load() {
+        if (!this.file.isFile()) return;
+        final File[] existing = this.downloadsDir.listFiles();
+        if (existing == null || existing.length == 0) {
+            Util.deleteFile(this.file);
+            return;
+        }
+        final Map<String, File> files = new HashMap<>(existing.length);
+        for (File f : existing) files.put(f.getName(), f);
+        BufferedReader reader = null;
+        final Map<String, Record> loaded = new HashMap<>();
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] parts = line.split(String.valueOf(SEP), -1);
+                if (parts.length != 7) continue;
+                final File f = files.get(parts[0]);
+                if (f == null) continue;
+                final long length = Long.parseLong(parts[1]);
+                final long lastModified = Long.parseLong(parts[2]);
+                // drop records of files that have been modified meanwhile
+                if (f.length() != length || f.lastModified() != lastModified) continue;
+                final Fingerprint fingerprint = parts[3].length() > 0 ? new Fingerprint(parts[3], Long.parseLong(parts[4], 16)) : null;
+                // older records carry the host only, which does not identify a resource
+                final String url = parts[5].indexOf(':') > 0 ? parts[5] : null;
+                loaded.put(parts[0], new Record(length, lastModified, fingerprint, url, url != null && parts[6].length() > 0 ? parts[6] : null));
+            }
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While loading: " + e.toString());
+        } finally {
+            Util.close(reader);
+        }
+        synchronized (this.records) {
+            // records added while loading are more recent
+            for (Map.Entry<String, Record> entry : loaded.entrySet()) {
+                if (!this.records.containsKey(entry.getKey())) this.records.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @WorkerThread
+    private void save() {
+        final Map<String, Record> copy;
+        synchronized (this.records) {
+            copy = new HashMap<>(this.records);
+        }
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            for (Map.Entry<String, Record> entry : copy.entrySet()) {
+                final String name = entry.getKey();
+                if (name.indexOf(SEP) >= 0 || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) continue;
+                final Record r = entry.getValue();
+                writer.write(name);
+                writer.write(SEP);
+                writer.write(Long.toString(r.length));
+                writer.write(SEP);
+                writer.write(Long.toString(r.lastModified));
+                writer.write(SEP);
+                writer.write(r.fingerprint != null ? r.fingerprint.md5 : "");
+                writer.write(SEP);
+                writer.write(r.fingerprint != null ? Long.toHexString(r.fingerprint.crc) : "");
+                writer.write(SEP);
+                writer.write(r.url != null && r.url.indexOf(SEP) < 0 && r.url.indexOf('\n') < 0 ? r.url : "");
+                writer.write(SEP);
+                writer.write(r.etag != null ? r.etag.replace(SEP, ' ') : "");
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(this.file)) throw new IOException("Cannot replace " + this.file);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While saving: " + e.toString());
+            Util.deleteFile(tmp);
+        } finally {
+            Util.close(writer);
+        }
+    }
+
+    private void scheduleSave() {
+        this.handler.removeCallbacks(this.saver);
+        this.handler.postDelayed(this.saver, SAVE_DELAY);
+    }
+
+    /**
+     * When a file has been renamed, transfers its record.
+     * @param old old file
+     * @param renamed new renamed file
+     */
+    @AnyThread
+    public void transfer(@Nullable final File old, @Nullable final File renamed) {
+        if (old == null || renamed == null) return;
+        synchronized (this.records) {
+            final Record r = this.records.remove(old.getName());
+            if (r == null) return;
+            this.records.put(renamed.getName(), r);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * The checksums of a file.
+     */
+    public static final class Fingerprint {
+        /** MD5 hash as lower-case hex string */
+        @NonNull public final String md5;
+        public final long crc;
+
+        /**
+         * Constructor.
+         * @param md5 MD5 hash
+         * @param crc CRC32
+         */
+        public Fingerprint(@NonNull byte[] md5, long crc) {
+            this(Util.asHex(md5).toString(), crc);
+        }
+
+        private Fingerprint(@NonNull String md5, long crc) {
+            super();
+            this.md5 = md5.toLowerCase(java.util.Locale.US);
+            this.crc = crc;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Fingerprint that = (Fingerprint) o;
+            return this.crc == that.crc && this.md5.equals(that.md5);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] {this.md5, this.crc});
+        }
+
+        /** {@inheritDoc} */
+        @NonNull
+        @Override
+        public String toString() {
+            return "Fingerprint{md5=" + this.md5 + ", crc=" + Long.toHexString(this.crc) + '}';
+        }
+    }
+
+    /**
+     * The state of a file at the time its record was created.
+     */
+    private static final class Record {
+        private final long length;
+        private final long lastModified;
+        @Nullable private final Fingerprint fingerprint;
+        /** the url that the file had been delivered from, after any redirects */
+        @Nullable private final String url;
+        @Nullable private final String etag;
+
+        private Record(long length, long lastModified, @Nullable Fingerprint fingerprint, @Nullable String url, @Nullable String etag) {
+            super();
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.url = url;
+            this.etag = etag;
+        }
+    }
+}
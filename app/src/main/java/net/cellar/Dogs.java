@@ -43,6 +43,8 @@ import net.cellar.supp.Log;
 import net.cellar.supp.MetadataReader;
 import net.cellar.supp.UiUtil;
 import net.cellar.supp.Util;
+import net.cellar.worker.ActiveDestinations;
+import net.cellar.worker.InspectionStore;
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.model.FileHeader;
 
@@ -86,7 +88,7 @@ import wseemann.media.FFmpegMediaMetadataRetriever;
  * content://net.cellar.dogs/document/Cellar/children
  * is queried (DocumentsProvider.query())
  */
-public final class Dogs extends DocumentsProvider {
+public final class Dogs extends DocumentsProvider implements ActiveDestinations.Listener {
 
     @VisibleForTesting
     public static final String ROOT_DOC = "Cellar";
@@ -294,6 +296,7 @@ public final class Dogs extends DocumentsProvider {
             app.getThumbsManager().removeThumbnail(file);
             this.mimeCache.remove(documentId);
             Ancestry.getInstance().remove(file);
+            InspectionStore.getInstance().remove(file);
             refresh();
             ctx.getContentResolver().notifyChange(this.notifyUri, null, false);
             //TODO does the document ui update the comment label under the root entry now?
@@ -301,6 +304,17 @@ public final class Dogs extends DocumentsProvider {
         } else if (BuildConfig.DEBUG) Log.e(TAG, "Failed to delete " + file);
     }
 
+    /** {@inheritDoc}<br><br>
+     * Lets clients update the {@link DocumentsContract.Document#COLUMN_FLAGS flags} of a file that has started or stopped being downloaded.
+     */
+    @Override
+    public void destinationChanged(@NonNull String path, boolean active) {
+        final File dir = this.dir;
+        if (dir == null || !dir.getAbsolutePath().equals(new File(path).getParent())) return;
+        final Context ctx = debugContext != null ? debugContext : getContext();
+        if (ctx != null) ctx.getContentResolver().notifyChange(DocumentsContract.buildDocumentUri(AUTHORITY, path), null, false);
+    }
+
     /** {@inheritDoc} */
     @TargetApi(Build.VERSION_CODES.Q)
     @Nullable
@@ -498,6 +512,7 @@ public final class Dogs extends DocumentsProvider {
         this.rootsUri = DocumentsContract.buildRootsUri(AUTHORITY);
         this.dir = App.getDownloadsDir(ctx);
         this.notifyUri = buildNotifyUri();
+        ActiveDestinations.getInstance().addListener(this);
         new Thread() {
             @Override
             public void run() {
@@ -882,6 +897,8 @@ public final class Dogs extends DocumentsProvider {
             refresh();
             ((App)ctx.getApplicationContext()).getThumbsManager().renameThumbnail(file, renamed);
             Ancestry.getInstance().transfer(file, renamed);
+            ContentIndex.getInstance().transfer(file, renamed);
+            InspectionStore.getInstance().renamed(file, renamed);
             ctx.getContentResolver().notifyChange(this.notifyUri, null, false);
             if (BuildConfig.DEBUG) Log.i(TAG, "Renamed \"" + documentId + "\" to \"" + renamed + "\"");
             return renamed.getAbsolutePath();
@@ -18,7 +18,6 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
@@ -29,8 +28,6 @@ import com.google.android.material.snackbar.Snackbar;
 import net.cellar.supp.DebugUtil;
 import net.cellar.supp.Log;
 import net.cellar.supp.UiUtil;
-import net.cellar.supp.Util;
-import net.lingala.zip4j.ZipFile;
 
 import java.util.Arrays;
 
@@ -46,23 +43,9 @@ public class ImportArchiveActivity extends AppCompatActivity {
     private static final int REQUEST_CODE_PICK_ARCHIVE = 5678;
     private static final String TAG = "ImportArchiveActivity";
 
-    /**
-     * Returns the number of entries in a zip file.
-     * @param zipFile zip file to check
-     * @return number of files
-     */
-    @IntRange(from = 0)
-    private static int getNumberOfFiles(ZipFile zipFile) {
-        try {
-            return zipFile.getFileHeaders().size();
-        } catch (Exception ignored) {
-        }
-        return 0;
-    }
-
     private final Handler handler = new Handler();
     private AlertDialog dialogPwd = null, dialogConfirm = null;
-    private Thread zipFileCopier = null;
+    private Thread zipFileInspector = null;
     private DelayedBackReactor delayedBackReactor;
 
     /** {@inheritDoc} */
@@ -78,21 +61,19 @@ public class ImportArchiveActivity extends AppCompatActivity {
             if (resultCode == RESULT_OK && intent != null) {
                 Uri data = intent.getData();
                 if (data != null) {
-                    this.zipFileCopier = BackupService.copyToTmpFile(this, data, ".zip", dest -> {
-                        if (dest == null) {
+                    this.zipFileInspector = BackupService.inspect(this, data, inspection -> {
+                        if (inspection == null) {
                             finishAndRemoveTask();
                             return;
                         }
-                        ZipFile zipFile = new ZipFile(dest);
-                        if (!zipFile.isValidZipFile()) {
-                            Util.deleteFile(dest);
+                        if (!inspection.valid) {
                             Toast.makeText(getApplicationContext(), R.string.error_import_failed_invalid_file, Toast.LENGTH_LONG).show();
                             finishAndRemoveTask();
                             return;
                         }
-                        int numberOfFiles = getNumberOfFiles(zipFile);
+                        // -1 means that the number of files is not known
+                        final int numberOfFiles = inspection.numberOfFiles;
                         if (numberOfFiles == 0) {
-                            Util.deleteFile(dest);
                             Toast.makeText(getApplicationContext(), R.string.error_import_failed_empty_file, Toast.LENGTH_LONG).show();
                             finishAndRemoveTask();
                             return;
@@ -100,8 +81,7 @@ public class ImportArchiveActivity extends AppCompatActivity {
                         TextView textViewInspecting = findViewById(R.id.textViewInspecting);
                         if (textViewInspecting != null) textViewInspecting.setText("✅");
                         try {
-                            if (zipFile.isEncrypted()) {
-                                Util.deleteFile(dest);
+                            if (inspection.encrypted) {
                                 final View v = getLayoutInflater().inflate(R.layout.import_zip, null);
                                 final TextView textViewCounter = v.findViewById(R.id.textViewCounter);
                                 final EditText editTextPwd = v.findViewById(R.id.editTextPassword);
@@ -150,8 +130,6 @@ public class ImportArchiveActivity extends AppCompatActivity {
                             if (BuildConfig.DEBUG) Log.e(TAG, e.toString());
                             finishAndRemoveTask();
                             return;
-                        } finally {
-                            Util.deleteFile(dest);
                         }
                         startService(data, null);
                     });
@@ -166,7 +144,7 @@ public class ImportArchiveActivity extends AppCompatActivity {
     @Override
     public void onBackPressed() {
         if (BuildConfig.DEBUG) Log.i(TAG, "onBackPressed()");
-        if (this.zipFileCopier != null && this.zipFileCopier.isAlive()) {
+        if (this.zipFileInspector != null && this.zipFileInspector.isAlive()) {
             if (this.delayedBackReactor == null) {
                 this.delayedBackReactor = new DelayedBackReactor();
                 this.handler.postDelayed(this.delayedBackReactor, 10_000L);
@@ -193,8 +171,8 @@ public class ImportArchiveActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         if (BuildConfig.DEBUG) Log.i(TAG, "onPause()");
-        if (this.zipFileCopier != null && this.zipFileCopier.isAlive()) {
-            this.zipFileCopier.interrupt();
+        if (this.zipFileInspector != null && this.zipFileInspector.isAlive()) {
+            this.zipFileInspector.interrupt();
         }
         UiUtil.dismissDialog(this.dialogPwd, this.dialogConfirm);
         super.onPause();
@@ -203,12 +181,12 @@ public class ImportArchiveActivity extends AppCompatActivity {
     /** {@inheritDoc} */
     @Override
     protected void onResume() {
-        if (BuildConfig.DEBUG) Log.i(TAG, "onResume() - dialogPwd showing: " + (this.dialogPwd != null && this.dialogPwd.isShowing()) + " - zipFileCopier running: " + (this.zipFileCopier != null && this.zipFileCopier.isAlive()));
+        if (BuildConfig.DEBUG) Log.i(TAG, "onResume() - dialogPwd showing: " + (this.dialogPwd != null && this.dialogPwd.isShowing()) + " - zipFileInspector running: " + (this.zipFileInspector != null && this.zipFileInspector.isAlive()));
         super.onResume();
         if (this.dialogPwd != null && this.dialogPwd.isShowing()) {
             return;
         }
-        if (this.zipFileCopier != null && this.zipFileCopier.isAlive()) {
+        if (this.zipFileInspector != null && this.zipFileInspector.isAlive()) {
             return;
         }
         Intent intent = getIntent();
@@ -252,13 +230,13 @@ public class ImportArchiveActivity extends AppCompatActivity {
     }
 
     /**
-     * Runs after the user has pressed back and the source zip file has not yet been fully copied to the tmp file.
+     * Runs after the user has pressed back and the source zip file has not yet been inspected.
      */
     private class DelayedBackReactor implements Runnable {
 
         @Override
         public void run() {
-            if (zipFileCopier != null && zipFileCopier.isAlive()) {
+            if (zipFileInspector != null && zipFileInspector.isAlive()) {
                 Toast.makeText(getApplicationContext(), R.string.msg_cancelled, Toast.LENGTH_SHORT).show();
                 finish();
             }
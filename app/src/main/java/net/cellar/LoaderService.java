@@ -43,6 +43,7 @@ import androidx.annotation.RequiresApi;
 import androidx.annotation.UiThread;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
+import androidx.preference.PreferenceManager;
 
 import net.cellar.auth.AuthManager;
 import net.cellar.model.Credential;
@@ -61,11 +62,14 @@ import net.cellar.supp.UriUtil;
 import net.cellar.supp.Util;
 import net.cellar.worker.Copier;
 import net.cellar.worker.Downloader;
+import net.cellar.worker.FtpClientPool;
 import net.cellar.worker.FtpLoader;
 import net.cellar.worker.Loader;
 import net.cellar.worker.LoaderListener;
+import net.cellar.worker.ProgressAggregator;
 import net.cellar.worker.ResourceTooLargeException;
 import net.cellar.worker.SftpLoader;
+import net.cellar.worker.SftpSessionPool;
 import net.cellar.worker.Streamer;
 
 import org.jetbrains.annotations.TestOnly;
@@ -91,7 +95,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-public class LoaderService extends Service implements LoaderListener {
+public class LoaderService extends Service implements LoaderListener, ProgressAggregator.Listener {
 
     @VisibleForTesting
     public static final String ACTION_DEFER = BuildConfig.APPLICATION_ID + ".defer";
@@ -158,6 +162,8 @@ public class LoaderService extends Service implements LoaderListener {
     /** one or more Wishes shall be removed from the download queue - the wishes are passed in {@link #EXTRA_UNQUEUE_US} */
     private static final String ACTION_UNQUEUE = BuildConfig.APPLICATION_ID + ".unqueue";
     private static final Object DOWNLOAD_ID_LOCK = new Object();
+    /** the notification group that the progress notifications belong to if {@link App#PREF_GROUP_PROGRESS} is set */
+    private static final String NOTIFICATION_GROUP_PROGRESS = BuildConfig.APPLICATION_ID + ".progress";
     private static final int REQUEST_CODE_CANCEL = 101;
     private static final int REQUEST_CODE_DEFER = 102;
     private static final int REQUEST_CODE_DELETE = 103;
@@ -208,12 +214,20 @@ public class LoaderService extends Service implements LoaderListener {
     private final Set<Integer> stopActionAdded = new HashSet<>();
     private Reference<DoneListener> refDoneListener;
     private ExecutorService loaderExecutor;
+    /** replaces downloaded files by links to identical files, one at a time, so that the loaders are not held up */
+    private ExecutorService dedupExecutor;
     private NotificationManager nm;
     private PowerManager.WakeLock wakeLock;
     /** max. length of a notification content title - the title will be cut off after that position - see also <a href="https://material.io/design/platform-guidance/android-notifications.html#style">here</a> */
     private int notificationTitleMaxLength;
     /** max. length of a notification content text - the text will not be cut off but the {@link android.app.Notification.BigTextStyle} will be applied then */
     private int notificationTextMaxLength;
+    /** {@code true} if the progress notifications are bundled under a summary */
+    private boolean groupProgress;
+    /** the builder for the summary of the running downloads; {@code null} while that summary is not shown */
+    @Nullable private Notification.Builder progressSummaryBuilder;
+    /** the state shown in the progress summary: number of downloads * 1000 + percentage */
+    private int progressSummaryShown = -1;
 
     /**
      * Constructor.
@@ -293,7 +307,7 @@ public class LoaderService extends Service implements LoaderListener {
         if (fileSize > 0L) order.setFileSize(fileSize);
         order.setDestination(folder.getAbsolutePath(), destination.getName());
         order.setMime(mime);
-        copier.executeOnExecutor(this.loaderExecutor, order);
+        copier.start(this.loaderExecutor, order);
     }
 
     /** {@inheritDoc} */
@@ -494,6 +508,20 @@ public class LoaderService extends Service implements LoaderListener {
             }
             msg.append(getString(R.string.msg_downloaded_file, result.getName()));
             downloadedFile = result;
+            // remember the checksums and point out whether the same file had been there already
+            final ContentIndex contentIndex = ContentIndex.getInstance();
+            final ContentIndex.Fingerprint fingerprint = delivery.getFingerprint();
+            contentIndex.add(result, fingerprint, delivery.getFinalUrl(), delivery.getEtag());
+            final File identicalTo = delivery.getIdenticalTo();
+            if (identicalTo != null) {
+                msg.append(' ').append(getString(R.string.msg_downloaded_file_identical, identicalTo.getName()));
+            } else {
+                final File duplicateOf = fingerprint != null ? contentIndex.findKnown(result.length(), fingerprint.md5, result) : null;
+                if (duplicateOf != null) msg.append(' ').append(getString(R.string.msg_downloaded_file_duplicate, duplicateOf.getName()));
+                if (this.dedupExecutor != null && PreferenceManager.getDefaultSharedPreferences(this).getBoolean(App.PREF_DEDUP_LINK, App.PREF_DEDUP_LINK_DEFAULT)) {
+                    this.dedupExecutor.execute(() -> contentIndex.replaceIfDuplicate(result));
+                }
+            }
             getContentResolver().notifyChange(Dogs.buildNotifyUri(), null, false);
         }
         msg.append('\n');
@@ -683,7 +711,7 @@ public class LoaderService extends Service implements LoaderListener {
         } else {
             order.setDestinationFilename(!TextUtils.isEmpty(wish.getTitle()) ? wish.getTitle() : wish.getUri().getLastPathSegment());
         }
-        dl.executeOnExecutor(this.loaderExecutor, order);
+        dl.start(this.loaderExecutor, order);
         keepAwake();
     }
 
@@ -708,7 +736,7 @@ public class LoaderService extends Service implements LoaderListener {
         // important: delete the file before attempting to download because we might get a 304 which can be misleading
         // because playlist files often have same names like "master.m3u8" or similar
         Util.deleteFile(existing);
-        dl.executeOnExecutor(this.loaderExecutor, order);
+        dl.start(this.loaderExecutor, order);
     }
 
     @MainThread
@@ -735,7 +763,7 @@ public class LoaderService extends Service implements LoaderListener {
         } else {
             order.setDestinationFilename(uri.getLastPathSegment());
         }
-        loader.executeOnExecutor(this.loaderExecutor, order);
+        loader.start(this.loaderExecutor, order);
     }
 
     /**
@@ -756,7 +784,7 @@ public class LoaderService extends Service implements LoaderListener {
         } else {
             order.setDestinationFilename(wish.getUri().getLastPathSegment());
         }
-        ftpLoader.executeOnExecutor(this.loaderExecutor, order);
+        ftpLoader.start(this.loaderExecutor, order);
     }
 
     /**
@@ -778,7 +806,7 @@ public class LoaderService extends Service implements LoaderListener {
         } else {
             order.setDestinationFilename(wish.getUri().getLastPathSegment());
         }
-        sftpLoader.executeOnExecutor(this.loaderExecutor, order);
+        sftpLoader.start(this.loaderExecutor, order);
     }
 
     /**
@@ -843,6 +871,10 @@ public class LoaderService extends Service implements LoaderListener {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             builder.setAllowSystemGeneratedContextualActions(false);
         }
+        this.groupProgress = PreferenceManager.getDefaultSharedPreferences(this).getBoolean(App.PREF_GROUP_PROGRESS, App.PREF_GROUP_PROGRESS_DEFAULT);
+        if (this.groupProgress) {
+            builder.setGroup(NOTIFICATION_GROUP_PROGRESS);
+        }
 
         final Intent cancel = new Intent(this, LoaderService.class);
         cancel.setAction(ACTION_CANCEL);
@@ -983,9 +1015,15 @@ public class LoaderService extends Service implements LoaderListener {
     public void onCreate() {
         super.onCreate();
         this.loaderExecutor = Executors.newCachedThreadPool();
+        this.dedupExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Deduplicator");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
         this.nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
         this.notificationTitleMaxLength = getResources().getInteger(R.integer.notification_title_maxlength);
         this.notificationTextMaxLength = getResources().getInteger(R.integer.notification_text_maxlength);
+        ProgressAggregator.getInstance().setListener(this);
         try {
             startService(new Intent(this, getClass()));
         } catch (IllegalStateException e) {
@@ -996,11 +1034,19 @@ public class LoaderService extends Service implements LoaderListener {
     /** {@inheritDoc} */
     @Override
     public void onDestroy() {
+        ProgressAggregator.getInstance().setListener(null);
+        summary(0, 0f);
         letSleep();
         if (this.loaderExecutor != null && !this.loaderExecutor.isShutdown()) {
             this.loaderExecutor.shutdown();
             this.loaderExecutor = null;
         }
+        if (this.dedupExecutor != null && !this.dedupExecutor.isShutdown()) {
+            this.dedupExecutor.shutdown();
+            this.dedupExecutor = null;
+        }
+        FtpClientPool.getInstance().evictAll();
+        SftpSessionPool.getInstance().evictAll();
         super.onDestroy();
     }
 
@@ -1238,6 +1284,51 @@ public class LoaderService extends Service implements LoaderListener {
         this.nm.notify(IdSupply.progressNotificationId(downloadId), builder.build());
     }
 
+    /** {@inheritDoc} */
+    @Override
+    @UiThread
+    public void summary(int running, float completion) {
+        if (running == 0) {
+            // cancelling a group summary cancels its children, too - therefore the summary stays until all downloads have finished
+            if (this.progressSummaryBuilder != null) {
+                this.nm.cancel(IdSupply.NOTIFICATION_ID_PROGRESS_SUMMARY);
+                this.progressSummaryBuilder = null;
+                this.progressSummaryShown = -1;
+            }
+            return;
+        }
+        if (!this.groupProgress || (running < 2 && this.progressSummaryBuilder == null)) return;
+        final int p = Math.round(100f * completion);
+        final int shown = running * 1000 + p;
+        if (shown == this.progressSummaryShown) return;
+        if (this.progressSummaryBuilder == null) {
+            Intent intentUiActivity = new Intent(this, UiActivity.class);
+            intentUiActivity.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            final PendingIntent pendingIntentUiActivity = PendingIntent.getActivity(this, 1, intentUiActivity, Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT : PendingIntent.FLAG_UPDATE_CURRENT);
+            this.progressSummaryBuilder = new Notification.Builder(this)
+                    .setSmallIcon(R.drawable.ic_n_download)
+                    .setGroup(NOTIFICATION_GROUP_PROGRESS)
+                    .setGroupSummary(true)
+                    .setCategory(Notification.CATEGORY_PROGRESS)
+                    .setOngoing(true)
+                    .setOnlyAlertOnce(true)
+                    .setContentIntent(pendingIntentUiActivity)
+                    ;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                this.progressSummaryBuilder.setChannelId(((App)getApplicationContext()).getNc().getId());
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                this.progressSummaryBuilder.setAllowSystemGeneratedContextualActions(false);
+            }
+        }
+        this.progressSummaryBuilder
+                .setContentTitle(getResources().getQuantityString(R.plurals.msg_download_running_count, running, running))
+                .setContentText(getString(R.string.msg_progress, p))
+                .setProgress(100, p, false);
+        this.nm.notify(IdSupply.NOTIFICATION_ID_PROGRESS_SUMMARY, this.progressSummaryBuilder.build());
+        this.progressSummaryShown = shown;
+    }
+
     /**
      * Writes plain text that has been passed to this app to a text file.<br>
      * If a referrer is given, it is used to create a file name.
@@ -1403,7 +1494,7 @@ public class LoaderService extends Service implements LoaderListener {
         if (additionalAudioUrls != null) {
             for (String additionalUrl : additionalAudioUrls) order.addAudioUrl(additionalUrl);
         }
-        streamer.executeOnExecutor(this.loaderExecutor, order);
+        streamer.start(this.loaderExecutor, order);
         keepAwake();
         if (DebugUtil.TEST) sendBroadcast(new Intent(App.ACTION_DOWNLOAD_STREAMING_STARTED));
     }
@@ -6,6 +6,9 @@
 
 package net.cellar;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Window;
 import android.widget.Toast;
 
@@ -25,6 +28,28 @@ public class ManageSpaceActivity extends BaseActivity {
 
     private AlertDialog dialogDeleteAll;
 
+    /**
+     * Replaces identical downloads by hard links to one of them.
+     */
+    private void linkDuplicates() {
+        final Context ctx = getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        new Thread() {
+            @Override
+            public void run() {
+                final long freed = ContentIndex.getInstance().deduplicate();
+                handler.post(() -> {
+                    if (freed > 0L) {
+                        ctx.getContentResolver().notifyChange(Dogs.buildNotifyUri(), null, false);
+                        Toast.makeText(ctx, ctx.getString(R.string.msg_duplicates_linked, UiUtil.formatBytes(freed)), Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(ctx, R.string.msg_duplicates_none, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }.start();
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void onPause() {
@@ -72,6 +97,11 @@ public class ManageSpaceActivity extends BaseActivity {
                     dialog.cancel();
                     finish();
                 })
+                .setNeutralButton(R.string.action_link_duplicates, (dialog, which) -> {
+                    dialog.dismiss();
+                    linkDuplicates();
+                    finish();
+                })
                 .setPositiveButton(R.string.action_delete, (dialog, which) -> {
                     dialog.dismiss();
                     boolean atLeastOneDeleted = false;
@@ -0,0 +1,477 @@
+/*
+ * MetricsStore.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonWriter;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.cellar.model.TransferMetrics;
+import net.cellar.net.NetStats;
+import net.cellar.supp.Log;
+import net.cellar.supp.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the {@link TransferMetrics} of the most recent transfers.<br>
+ * Only the latest {@link #MAX_RECORDS} transfers are kept; older ones are dropped.<br>
+ * Must be initialised once via {@link #setup(Context)}!
+ */
+public final class MetricsStore {
+
+    private static final String FILE = "metrics.txt";
+    /** the maximum number of transfers to keep */
+    static final int MAX_RECORDS = 500;
+    private static final long SAVE_DELAY = 2_000L;
+    private static final String TAG = "MetricsStore";
+    private static MetricsStore instance;
+
+    @NonNull
+    public static MetricsStore getInstance() {
+        assert instance != null;
+        return instance;
+    }
+
+    /**
+     * Initialises the instance.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    public static void setup(@NonNull Context ctx) {
+        if (instance != null) return;
+        instance = new MetricsStore(ctx);
+    }
+
+    /** oldest first */
+    private final ArrayDeque<TransferMetrics> records = new ArrayDeque<>(MAX_RECORDS);
+    private final File file;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** writes the file; being single-threaded, it keeps two saves from writing the temporary file at the same time */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MetricsStoreSaver");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Runnable saver = () -> this.writer.execute(this::save);
+    /** the statistics of the http calls, which are exported along with the transfers */
+    @Nullable private volatile NetStats netStats;
+
+    /**
+     * Constructor.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    private MetricsStore(@NonNull Context ctx) {
+        this(new File(ctx.getFilesDir(), FILE));
+    }
+
+    /**
+     * Constructor.
+     * @param file the file to keep the records in
+     */
+    @VisibleForTesting
+    public MetricsStore(@NonNull File file) {
+        super();
+        this.file = file;
+        new Thread(this::load, "MetricsStoreLoader").start();
+    }
+
+    /**
+     * Stores the metrics of a transfer that has just finished.
+     * @param metrics TransferMetrics
+     */
+    @AnyThread
+    public void add(@NonNull TransferMetrics metrics) {
+        synchronized (this.records) {
+            while (this.records.size() >= MAX_RECORDS) this.records.removeFirst();
+            this.records.addLast(metrics);
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Removes all records.
+     */
+    @AnyThread
+    public void clear() {
+        synchronized (this.records) {
+            this.records.clear();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Returns the stored metrics.
+     * @return list of TransferMetrics, most recent first
+     */
+    @NonNull
+    @AnyThread
+    public List<TransferMetrics> getAll() {
+        final List<TransferMetrics> list;
+        synchronized (this.records) {
+            list = new ArrayList<>(this.records);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * Summarises the stored metrics per host.
+     * @return list of HostSummary objects, sorted by the number of transfers (descending)
+     */
+    @NonNull
+    @AnyThread
+    public List<HostSummary> getHostSummaries() {
+        final Map<String, HostSummary> map = new HashMap<>();
+        synchronized (this.records) {
+            for (TransferMetrics m : this.records) {
+                final String host = m.getHost();
+                HostSummary s = map.get(host);
+                if (s == null) {
+                    s = new HostSummary(host);
+                    map.put(host, s);
+                }
+                s.add(m);
+            }
+        }
+        final List<HostSummary> list = new ArrayList<>(map.values());
+        Collections.sort(list, Comparator.comparingInt((HostSummary s) -> s.count).reversed().thenComparing(s -> s.host));
+        return list;
+    }
+
+    @WorkerThread
+    private void load() {
+        if (!this.file.isFile()) return;
+        BufferedReader reader = null;
+        final List<TransferMetrics> loaded = new ArrayList<>();
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final TransferMetrics m = TransferMetrics.fromString(line);
+                if (m != null) loaded.add(m);
+            }
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While loading: " + e.toString());
+        } finally {
+            Util.close(reader);
+        }
+        synchronized (this.records) {
+            // records added while loading are more recent
+            for (int i = loaded.size() - 1; i >= 0 && this.records.size() < MAX_RECORDS; i--) {
+                this.records.addFirst(loaded.get(i));
+            }
+        }
+    }
+
+    /**
+     * Must be called by {@link #writer}.
+     */
+    @WorkerThread
+    private void save() {
+        final List<TransferMetrics> copy;
+        synchronized (this.records) {
+            copy = new ArrayList<>(this.records);
+        }
+        if (copy.isEmpty()) {
+            Util.deleteFile(this.file);
+            return;
+        }
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            for (TransferMetrics m : copy) {
+                if (m.getUrl().indexOf('\n') >= 0 || m.getUrl().indexOf('\r') >= 0) continue;
+                writer.write(m.toString());
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(this.file)) throw new IOException("Cannot replace " + this.file);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "While saving: " + e.toString());
+            Util.deleteFile(tmp);
+        } finally {
+            Util.close(writer);
+        }
+    }
+
+    private void scheduleSave() {
+        this.handler.removeCallbacks(this.saver);
+        this.handler.postDelayed(this.saver, SAVE_DELAY);
+    }
+
+    /**
+     * @param netStats the statistics of the http calls, to be exported along with the transfers
+     */
+    public void setNetStats(@Nullable NetStats netStats) {
+        this.netStats = netStats;
+    }
+
+    /**
+     * Writes the stored metrics as comma-separated values, one line per transfer, oldest first.
+     * @param writer Writer to write to
+     * @throws IOException if writing fails
+     */
+    @WorkerThread
+    public void writeCsv(@NonNull Writer writer) throws IOException {
+        final List<TransferMetrics> list = getAll();
+        writer.write("started,loader,url,host,rc,retries,proxy,dns_ms,connect_ms,tls_ms,ttfb_ms,transfer_ms,duration_ms,bytes,resumed_from,avg_bps,peak_bps\n");
+        for (int i = list.size() - 1; i >= 0; i--) {
+            final TransferMetrics m = list.get(i);
+            writer.write(Long.toString(m.getStartedAt()));
+            writer.write(',');
+            writer.write(m.getLoader());
+            writer.write(',');
+            writer.write(csv(m.getUrl()));
+            writer.write(',');
+            writer.write(csv(m.getHost()));
+            writer.write(',');
+            writer.write(Integer.toString(m.getRc()));
+            writer.write(',');
+            writer.write(Integer.toString(m.getRetries()));
+            writer.write(',');
+            writer.write(csv(m.getProxy() != null ? m.getProxy() : ""));
+            writer.write(String.format(Locale.US, ",%d,%d,%d,%d,%d,%d,%d,%d,%.1f,%.1f\n", m.getDns(), m.getConnect(), m.getTls(), m.getTtfb(),
+                    m.getTransfer(), m.getDuration(), m.getBytes(), m.getResumedFrom(), m.getAverageThroughput(), m.getPeakThroughput()));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the stored metrics as a JSON object with the arrays "hosts" and "transfers" (oldest first)
+     * and, if available, the object "network" with the statistics of the http calls.
+     * @param writer Writer to write to
+     * @throws IOException if writing fails
+     */
+    @WorkerThread
+    public void writeJson(@NonNull Writer writer) throws IOException {
+        final List<TransferMetrics> list = getAll();
+        final JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("hosts").beginArray();
+        for (HostSummary s : getHostSummaries()) {
+            json.beginObject();
+            json.name("host").value(s.host);
+            json.name("transfers").value(s.count);
+            json.name("failures").value(s.failures);
+            json.name("retries").value(s.retries);
+            json.name("bytes").value(s.bytes);
+            json.name("avg_ttfb_ms").value(s.getAverageTtfb());
+            json.name("avg_bps").value(s.getAverageThroughput());
+            json.name("peak_bps").value(s.peakThroughput);
+            json.endObject();
+        }
+        json.endArray();
+        json.name("transfers").beginArray();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            final TransferMetrics m = list.get(i);
+            json.beginObject();
+            json.name("started").value(m.getStartedAt());
+            json.name("loader").value(m.getLoader());
+            json.name("url").value(m.getUrl());
+            json.name("host").value(m.getHost());
+            json.name("rc").value(m.getRc());
+            json.name("retries").value(m.getRetries());
+            json.name("proxy").value(m.getProxy());
+            json.name("dns_ms").value(m.getDns());
+            json.name("connect_ms").value(m.getConnect());
+            json.name("tls_ms").value(m.getTls());
+            json.name("ttfb_ms").value(m.getTtfb());
+            json.name("transfer_ms").value(m.getTransfer());
+            json.name("duration_ms").value(m.getDuration());
+            json.name("bytes").value(m.getBytes());
+            json.name("resumed_from").value(m.getResumedFrom());
+            json.name("avg_bps").value(m.getAverageThroughput());
+            json.name("peak_bps").value(m.getPeakThroughput());
+            json.endObject();
+        }
+        json.endArray();
+        final NetStats netStats = this.netStats;
+        if (netStats != null) writeJson(json, netStats);
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Writes the statistics of the http calls as the object "network".
+     * @param json JsonWriter to write to
+     * @param netStats NetStats
+     * @throws IOException if writing fails
+     */
+    private static void writeJson(@NonNull JsonWriter json, @NonNull NetStats netStats) throws IOException {
+        json.name("network").beginObject();
+        json.name("pool_connections").value(netStats.getPoolConnectionCount());
+        json.name("pool_idle").value(netStats.getPoolIdleCount());
+        json.name("hosts").beginArray();
+        for (NetStats.HostStats s : netStats.getHostStats()) {
+            json.beginObject();
+            json.name("host").value(s.getHost());
+            json.name("calls").value(s.getCalls());
+            json.name("failures").value(s.getFailures());
+            json.name("connect_failures").value(s.getConnectFailures());
+            json.name("cache_hits").value(s.getCacheHits());
+            json.name("connections_acquired").value(s.getAcquired());
+            json.name("reuse_ratio").value(s.getReuseRatio());
+            json.name("http2_ratio").value(s.getHttp2Ratio());
+            json.name("bytes_in").value(s.getBytesIn());
+            json.name("bytes_out").value(s.getBytesOut());
+            writeJson(json, "dns", s.getDns());
+            writeJson(json, "connect", s.getConnect());
+            writeJson(json, "tls", s.getTls());
+            writeJson(json, "ttfb", s.getTtfb());
+            writeJson(json, "call", s.getCall());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * Writes a histogram as an object with the count, the average, some percentiles and the bucket counts.
+     * @param json JsonWriter to write to
+     * @param name name of the object
+     * @param h Histogram
+     * @throws IOException if writing fails
+     */
+    private static void writeJson(@NonNull JsonWriter json, @NonNull String name, @NonNull NetStats.Histogram h) throws IOException {
+        json.name(name).beginObject();
+        json.name("count").value(h.getCount());
+        json.name("avg_ms").value(h.getAverage());
+        json.name("p50_ms").value(h.getPercentile(0.5f));
+        json.name("p90_ms").value(h.getPercentile(0.9f));
+        json.name("p99_ms").value(h.getPercentile(0.99f));
+        // bucket i counts durations below 2^i ms
+        json.name("buckets").beginArray();
+        for (long c : h.getBuckets()) json.value(c);
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * Quotes a CSV value if necessary.
+     * @param value value
+     * @return value, quoted if it contains commas or quotes
+     */
+    @NonNull
+    private static String csv(@NonNull String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Aggregated metrics of the transfers from one host.
+     */
+    public static final class HostSummary {
+
+        @NonNull private final String host;
+        private int count;
+        private int failures;
+        private int retries;
+        private long bytes;
+        /** sum of the known ttfb values */
+        private long ttfbSum;
+        /** number of known ttfb values */
+        private int ttfbCount;
+        /** sum of the transfer durations of the successful transfers [ms] */
+        private long transferSum;
+        /** sum of the bytes of the successful transfers */
+        private long transferBytes;
+        private float peakThroughput;
+
+        private HostSummary(@NonNull String host) {
+            super();
+            this.host = host;
+        }
+
+        private void add(@NonNull TransferMetrics m) {
+            this.count++;
+            this.retries += m.getRetries();
+            this.bytes += m.getBytes();
+            if (m.getTtfb() >= 0L) {
+                this.ttfbSum += m.getTtfb();
+                this.ttfbCount++;
+            }
+            if (m.isSuccessful()) {
+                if (m.getTransfer() > 0L) {
+                    this.transferSum += m.getTransfer();
+                    this.transferBytes += m.getBytes();
+                }
+            } else {
+                this.failures++;
+            }
+            if (m.getPeakThroughput() > this.peakThroughput) this.peakThroughput = m.getPeakThroughput();
+        }
+
+        /**
+         * @return average throughput of the successful transfers in bytes per second
+         */
+        public float getAverageThroughput() {
+            return this.transferSum > 0L ? this.transferBytes * 1000f / this.transferSum : 0f;
+        }
+
+        /**
+         * @return average time to the first byte in ms, -1 if not known
+         */
+        public long getAverageTtfb() {
+            return this.ttfbCount > 0 ? this.ttfbSum / this.ttfbCount : TransferMetrics.UNKNOWN;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        @NonNull
+        public String getHost() {
+            return host;
+        }
+
+        public float getPeakThroughput() {
+            return peakThroughput;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+    }
+}
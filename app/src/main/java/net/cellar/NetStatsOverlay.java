@@ -0,0 +1,128 @@
+/*
+ * NetStatsOverlay.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import net.cellar.net.NetStats;
+import net.cellar.supp.UiUtil;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Debug aid: displays the {@link NetStats} in a small text view on top of an Activity, refreshed every second.
+ */
+final class NetStatsOverlay implements Runnable {
+
+    /** max. number of hosts to display */
+    private static final int MAX_HOSTS = 4;
+    private static final long REFRESH_INTERVAL = 1_000L;
+    /** whether the overlay should be shown; not persisted */
+    private static boolean enabled;
+
+    /**
+     * Attaches an overlay to an Activity.
+     * @param activity Activity
+     * @param netStats NetStats to display
+     * @return NetStatsOverlay
+     */
+    @MainThread
+    @NonNull
+    static NetStatsOverlay attach(@NonNull Activity activity, @NonNull NetStats netStats) {
+        final NetStatsOverlay overlay = new NetStatsOverlay(activity, netStats);
+        overlay.handler.post(overlay);
+        return overlay;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        NetStatsOverlay.enabled = enabled;
+    }
+
+    @NonNull private final NetStats netStats;
+    @NonNull private final TextView textView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructor.
+     * @param activity Activity
+     * @param netStats NetStats to display
+     */
+    private NetStatsOverlay(@NonNull Activity activity, @NonNull NetStats netStats) {
+        super();
+        this.netStats = netStats;
+        this.textView = new TextView(activity);
+        this.textView.setTypeface(Typeface.MONOSPACE);
+        this.textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10f);
+        this.textView.setTextColor(Color.WHITE);
+        this.textView.setBackgroundColor(0xa0000000);
+        final int padding = Math.round(4f * activity.getResources().getDisplayMetrics().density);
+        this.textView.setPadding(padding, padding, padding, padding);
+        this.textView.setClickable(false);
+        this.textView.setFocusable(false);
+        final FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM | Gravity.START);
+        ((ViewGroup)activity.findViewById(android.R.id.content)).addView(this.textView, lp);
+    }
+
+    /**
+     * Removes the overlay.
+     */
+    @MainThread
+    void detach() {
+        this.handler.removeCallbacks(this);
+        final ViewGroup parent = (ViewGroup)this.textView.getParent();
+        if (parent != null) parent.removeView(this.textView);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        final StringBuilder sb = new StringBuilder(256)
+                .append("pool ").append(this.netStats.getPoolConnectionCount())
+                .append(" (").append(this.netStats.getPoolIdleCount()).append(" idle)");
+        final List<NetStats.HostStats> list = this.netStats.getHostStats();
+        final int n = Math.min(MAX_HOSTS, list.size());
+        for (int i = 0; i < n; i++) {
+            final NetStats.HostStats s = list.get(i);
+            sb.append('\n').append(UiUtil.trim(s.getHost(), 24))
+                    .append(String.format(Locale.US, "\n %d calls, %d failed, reuse %.0f%%, h2 %.0f%%, ↓%s ↑%s\n ttfb p50 %s p90 %s, tls %s",
+                            s.getCalls(), s.getFailures(), s.getReuseRatio() * 100f, s.getHttp2Ratio() * 100f,
+                            UiUtil.formatBytes(s.getBytesIn()), UiUtil.formatBytes(s.getBytesOut()),
+                            format(s.getTtfb().getPercentile(0.5f)), format(s.getTtfb().getPercentile(0.9f)), format(s.getTls().getAverage())));
+        }
+        this.textView.setText(sb);
+        this.handler.postDelayed(this, REFRESH_INTERVAL);
+    }
+
+    /**
+     * Formats a duration.
+     * @param ms duration in ms; negative if unknown, {@link Long#MAX_VALUE} if beyond the last histogram bucket
+     * @return String
+     */
+    @NonNull
+    private static String format(long ms) {
+        if (ms < 0L) return "–";
+        if (ms == Long.MAX_VALUE) return "∞";
+        return UiUtil.formatMs(ms);
+    }
+}
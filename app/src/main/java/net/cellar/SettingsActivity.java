@@ -295,6 +295,9 @@ public class SettingsActivity extends AppCompatActivity {
             FormattedSeekBarPreference prefNightFrom = findPreference(App.PREF_NIGHT_FROM);
             FormattedSeekBarPreference prefNightTo = findPreference(App.PREF_NIGHT_TO);
 
+            FormattedSeekBarPreference prefRateLimitFrom = findPreference(App.PREF_RATE_LIMIT_FROM);
+            FormattedSeekBarPreference prefRateLimitTo = findPreference(App.PREF_RATE_LIMIT_TO);
+
             Preference prefBackup = findPreference("pref_backup_zip");
             Preference prefRestore = findPreference("pref_restore_zip");
 
@@ -448,6 +451,8 @@ public class SettingsActivity extends AppCompatActivity {
                     final View v = getLayoutInflater().inflate(R.layout.export_zip, null);
                     final EditText editTextPwd = v.findViewById(R.id.editTextPassword);
                     final SwitchMaterial switchAes = v.findViewById(R.id.switchAes);
+                    final SwitchMaterial switchIncremental = v.findViewById(R.id.switchIncremental);
+                    switchIncremental.setVisibility(BackupManifest.exists(a) ? View.VISIBLE : View.GONE);
                     editTextPwd.addTextChangedListener(new SimpleTextWatcher() {
                         @Override
                         public void afterTextChanged(Editable s) {
@@ -491,6 +496,7 @@ public class SettingsActivity extends AppCompatActivity {
                                 Intent intent = new Intent(a, BackupService.class);
                                 intent.setAction(BackupService.ACTION_ZIP);
                                 intent.putExtra(BackupService.EXTRA_DEST, dest.getAbsolutePath());
+                                intent.putExtra(BackupService.EXTRA_INCREMENTAL, switchIncremental.getVisibility() == View.VISIBLE && switchIncremental.isChecked());
                                 if (pwd != null && pwd.length > 0) {
                                     intent.putExtra(BackupService.EXTRA_PWD, pwd);
                                     intent.putExtra(BackupService.EXTRA_AES, switchAes.isChecked());
@@ -600,6 +606,17 @@ public class SettingsActivity extends AppCompatActivity {
                     return true;
                 });
             }
+
+            for (FormattedSeekBarPreference prefRateLimitHour : new FormattedSeekBarPreference[] {prefRateLimitFrom, prefRateLimitTo}) {
+                if (prefRateLimitHour == null) continue;
+                prefRateLimitHour.setRes(R.string.pref_night_value);
+                prefRateLimitHour.showValue();
+                prefRateLimitHour.setOnPreferenceChangeListener((preference, newValue) -> {
+                    if (!(newValue instanceof Integer)) return false;
+                    ((FormattedSeekBarPreference)preference).showValue((Integer)newValue);
+                    return true;
+                });
+            }
         }
 
         @Override
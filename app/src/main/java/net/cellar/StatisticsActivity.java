@@ -0,0 +1,290 @@
+/*
+ * StatisticsActivity.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar;
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.coordinatorlayout.widget.CoordinatorLayout;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.material.snackbar.Snackbar;
+
+import net.cellar.model.TransferMetrics;
+import net.cellar.supp.Log;
+import net.cellar.supp.UiUtil;
+import net.cellar.supp.Util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Displays the {@link MetricsStore recorded transfer metrics}, summarised per host and per transfer,
+ * and lets the user export them as CSV or JSON.
+ */
+public class StatisticsActivity extends AppCompatActivity {
+
+    private static final String TAG = "StatisticsActivity";
+    /** displayed for unknown values */
+    private static final String UNKNOWN = "–";
+
+    /** contains {@link String section titles}, {@link MetricsStore.HostSummary HostSummaries} and {@link TransferMetrics} */
+    private final List<Object> items = new ArrayList<>();
+
+    private CoordinatorLayout coordinatorLayout;
+    private StatisticsAdapter statisticsAdapter;
+    private View viewNoStatistics;
+
+    /**
+     * Exports the recorded metrics to a file in the cache and passes it on.
+     * @param json {@code true} for JSON, {@code false} for CSV
+     */
+    private void export(final boolean json) {
+        final File dir;
+        try {
+            dir = Util.getFilePath(this, App.FilePath.EXPORTS, true);
+        } catch (IllegalArgumentException e) {
+            Snackbar.make(this.coordinatorLayout, getString(R.string.error_export_failed, e.getMessage()), Snackbar.LENGTH_LONG).show();
+            return;
+        }
+        final File file = new File(dir, json ? "metrics.json" : "metrics.csv");
+        new Thread(() -> {
+            Writer writer = null;
+            String error = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+                if (json) MetricsStore.getInstance().writeJson(writer);
+                else MetricsStore.getInstance().writeCsv(writer);
+            } catch (IOException e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "While exporting: " + e.toString());
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            } finally {
+                Util.close(writer);
+            }
+            final String msg = error;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (msg != null) {
+                    Util.deleteFile(file);
+                    Snackbar.make(this.coordinatorLayout, getString(R.string.error_export_failed, msg), Snackbar.LENGTH_LONG).show();
+                    return;
+                }
+                Util.send(this, file, BuildConfig.FILEPROVIDER_AUTH, json ? "application/json" : "text/csv");
+            });
+        }, "MetricsExport").start();
+    }
+
+    /**
+     * Formats a duration.
+     * @param ms duration in ms, negative if unknown
+     * @return String
+     */
+    @NonNull
+    private static String formatMs(long ms) {
+        return ms >= 0L ? UiUtil.formatMs(ms) : UNKNOWN;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        BaseActivity.setAnimations(this);
+        BaseActivity.setDarkMode(this);
+        super.onCreate(savedInstanceState);
+
+        getDelegate().setContentView(R.layout.activity_statistics);
+        Toolbar toolbar = getDelegate().findViewById(R.id.toolbar);
+        getDelegate().setSupportActionBar(toolbar);
+        androidx.appcompat.app.ActionBar ab = getSupportActionBar();
+        if (ab != null) {
+            ab.setDisplayOptions(androidx.appcompat.app.ActionBar.DISPLAY_HOME_AS_UP | androidx.appcompat.app.ActionBar.DISPLAY_SHOW_TITLE);
+        }
+
+        this.coordinatorLayout = getDelegate().findViewById(R.id.coordinator_layout);
+        this.viewNoStatistics = getDelegate().findViewById(R.id.textViewNoStatistics);
+        RecyclerView recyclerViewStatistics = getDelegate().findViewById(R.id.recyclerViewStatistics);
+        assert recyclerViewStatistics != null;
+        recyclerViewStatistics.setHasFixedSize(true);
+        this.statisticsAdapter = new StatisticsAdapter();
+        recyclerViewStatistics.setAdapter(this.statisticsAdapter);
+        recyclerViewStatistics.setLayoutManager(new LinearLayoutManager(this));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.statistics, menu);
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        final int id = item.getItemId();
+        if (id == android.R.id.home) {
+            // if we hadn't this, the animations wouldn't work
+            onBackPressed();
+            return true;
+        }
+        if (id == R.id.action_export_csv) {
+            export(false);
+            return true;
+        }
+        if (id == R.id.action_export_json) {
+            export(true);
+            return true;
+        }
+        if (id == R.id.action_statistics_clear) {
+            MetricsStore.getInstance().clear();
+            refresh();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        final boolean empty;
+        synchronized (this.items) {
+            empty = this.items.isEmpty();
+        }
+        menu.findItem(R.id.action_export_csv).setEnabled(!empty);
+        menu.findItem(R.id.action_export_json).setEnabled(!empty);
+        menu.findItem(R.id.action_statistics_clear).setEnabled(!empty);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void refresh() {
+        final MetricsStore store = MetricsStore.getInstance();
+        final List<TransferMetrics> transfers = store.getAll();
+        synchronized (this.items) {
+            this.items.clear();
+            if (!transfers.isEmpty()) {
+                this.items.add(getString(R.string.label_statistics_hosts));
+                this.items.addAll(store.getHostSummaries());
+                this.items.add(getString(R.string.label_statistics_transfers));
+                this.items.addAll(transfers);
+            }
+            this.viewNoStatistics.setVisibility(this.items.isEmpty() ? View.VISIBLE : View.GONE);
+        }
+        this.statisticsAdapter.notifyDataSetChanged();
+        invalidateOptionsMenu();
+    }
+
+    private static class ViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView textViewStatTitle;
+        private final TextView textViewStatInfo;
+        private final TextView textViewStatDetails;
+
+        /**
+         * Constructor.
+         * @param itemView View
+         */
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            this.textViewStatTitle = itemView.findViewById(R.id.textViewStatTitle);
+            this.textViewStatInfo = itemView.findViewById(R.id.textViewStatInfo);
+            this.textViewStatDetails = itemView.findViewById(R.id.textViewStatDetails);
+        }
+    }
+
+    /**
+     * The adapter for the RecyclerView.
+     */
+    class StatisticsAdapter extends RecyclerView.Adapter<StatisticsActivity.ViewHolder> {
+
+        /**
+         * Constructor.
+         */
+        private StatisticsAdapter() {
+            super();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getItemCount() {
+            int n;
+            synchronized (StatisticsActivity.this.items) {
+                n = StatisticsActivity.this.items.size();
+            }
+            return n;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            final Object item;
+            synchronized (StatisticsActivity.this.items) {
+                item = StatisticsActivity.this.items.get(position);
+            }
+            if (item instanceof String) {
+                holder.textViewStatTitle.setText((String)item);
+                holder.textViewStatTitle.setTypeface(null, Typeface.BOLD);
+                holder.textViewStatInfo.setVisibility(View.GONE);
+                holder.textViewStatDetails.setVisibility(View.GONE);
+                return;
+            }
+            holder.textViewStatTitle.setTypeface(null, Typeface.NORMAL);
+            holder.textViewStatInfo.setVisibility(View.VISIBLE);
+            holder.textViewStatDetails.setVisibility(View.VISIBLE);
+            if (item instanceof MetricsStore.HostSummary) {
+                final MetricsStore.HostSummary s = (MetricsStore.HostSummary)item;
+                holder.textViewStatTitle.setText(s.getHost().length() > 0 ? s.getHost() : UNKNOWN);
+                holder.textViewStatInfo.setText(getString(R.string.msg_statistics_host, s.getCount(), s.getFailures(), s.getRetries(), UiUtil.formatBytes(s.getBytes())));
+                holder.textViewStatDetails.setText(getString(R.string.msg_statistics_throughput, formatMs(s.getAverageTtfb()),
+                        UiUtil.formatBytes((long)s.getAverageThroughput()), UiUtil.formatBytes((long)s.getPeakThroughput())));
+            } else if (item instanceof TransferMetrics) {
+                final TransferMetrics m = (TransferMetrics)item;
+                holder.textViewStatTitle.setText(m.getUrl());
+                final StringBuilder info = new StringBuilder(64)
+                        .append(DateFormat.getDateFormat(StatisticsActivity.this).format(m.getStartedAt())).append(' ')
+                        .append(DateFormat.getTimeFormat(StatisticsActivity.this).format(m.getStartedAt()))
+                        .append(" · ").append(m.getRc())
+                        .append(" · ").append(UiUtil.formatBytes(m.getBytes()))
+                        .append(" · ").append(UiUtil.formatBytes((long)m.getAverageThroughput())).append("/s")
+                        .append(" · ").append(m.getLoader());
+                if (m.getProxy() != null && !TransferMetrics.DIRECT.equals(m.getProxy())) info.append(" · ").append(m.getProxy());
+                holder.textViewStatInfo.setText(info);
+                holder.textViewStatDetails.setText(getString(R.string.msg_statistics_phases, formatMs(m.getDns()), formatMs(m.getConnect()), formatMs(m.getTls()), formatMs(m.getTtfb())));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @NonNull
+        @Override
+        public StatisticsActivity.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View v = getLayoutInflater().inflate(R.layout.statistics_view, parent, false);
+            return new StatisticsActivity.ViewHolder(v);
+        }
+    }
+}
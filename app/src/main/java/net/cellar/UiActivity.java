@@ -111,6 +111,7 @@ import net.cellar.supp.SnackbarDisplayer;
 import net.cellar.supp.UiUtil;
 import net.cellar.supp.UriHandler;
 import net.cellar.supp.Util;
+import net.cellar.worker.InspectionStore;
 import net.cellar.worker.Inspector;
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
@@ -230,6 +231,8 @@ public class UiActivity extends BaseActivity
     private ChecksumCalculator checksumCalculator;
     private ExecutorService executor;
     private Inspector inspector;
+    /** displays the http statistics (debug builds only) */
+    @Nullable private NetStatsOverlay netStatsOverlay;
     private AlertDialog dialogDelete, dialogInfo, dialogLoad, dialogNewDownload, dialogRename;
     private Toolbar toolbar;
     private ClipboardListener clipboardListener;
@@ -281,6 +284,7 @@ public class UiActivity extends BaseActivity
                             } else {
                                 ((App) getApplicationContext()).getThumbsManager().removeThumbnail(selected);
                                 Ancestry.getInstance().remove(selected);
+                                InspectionStore.getInstance().remove(selected);
                                 String name = selected.getName().toLowerCase();
                                 if (Util.isPicture(name)) this.imageSizeCache.remove(name);
                             }
@@ -661,6 +665,10 @@ public class UiActivity extends BaseActivity
             startActivity(new Intent(this, ManageCredentialsActivity.class), ActivityOptions.makeSceneTransitionAnimation(this).toBundle());
             return true;
         }
+        if (id == R.id.action_statistics) {
+            startActivity(new Intent(this, StatisticsActivity.class), ActivityOptions.makeSceneTransitionAnimation(this).toBundle());
+            return true;
+        }
         if (id == R.id.action_manage_queue) {
             startActivity(new Intent(this, ManageQueueActivity.class), ActivityOptions.makeSceneTransitionAnimation(this).toBundle());
             return true;
@@ -721,6 +729,15 @@ public class UiActivity extends BaseActivity
         if (id == R.id.action_network_info) {
             NetworkChangedReceiver.showInfo(this);
         }
+        if (id == R.id.action_net_overlay) {
+            NetStatsOverlay.setEnabled(!NetStatsOverlay.isEnabled());
+            if (this.netStatsOverlay != null) {
+                this.netStatsOverlay.detach();
+                this.netStatsOverlay = null;
+            }
+            if (NetStatsOverlay.isEnabled()) this.netStatsOverlay = NetStatsOverlay.attach(this, ((App)getApplicationContext()).getNetStats());
+            return true;
+        }
         if (id == R.id.action_log) {
             String err = Log.share(this);
             if (err != null) {
@@ -735,6 +752,10 @@ public class UiActivity extends BaseActivity
     protected void onPause() {
         this.recyclerViewDownloads.suppressLayout(true);
         NetworkChangedReceiver.getInstance().removeListener(this);
+        if (this.netStatsOverlay != null) {
+            this.netStatsOverlay.detach();
+            this.netStatsOverlay = null;
+        }
         if (this.checksumCalculator != null && this.checksumCalculator.isAlive()) {
             this.checksumCalculator.abort();
             this.checksumCalculator = null;
@@ -780,6 +801,8 @@ public class UiActivity extends BaseActivity
         MenuItem itemSortSize = menu.findItem(R.id.action_sort_size);
         MenuItem itemManageCredentials = menu.findItem(R.id.action_manage_credentials);
         MenuItem itemNetwork = menu.findItem(R.id.action_network_info);
+        MenuItem itemStatistics = menu.findItem(R.id.action_statistics);
+        MenuItem itemNetOverlay = menu.findItem(R.id.action_net_overlay);
         MenuItem itemManageQueue = menu.findItem(R.id.action_manage_queue);
         MenuItem itemShare = menu.findItem(R.id.action_share_item);
         MenuItem itemDelete = menu.findItem(R.id.action_delete);
@@ -809,6 +832,9 @@ public class UiActivity extends BaseActivity
         itemSortSize.setTitle(sort == App.SORT_SIZE ? (reverse ? getString(R.string.pref_sort_size) + "  " + getString(R.string.pref_sort_dsc) : getString(R.string.pref_sort_size) + "  " + getString(R.string.pref_sort_asc)) : getString(R.string.pref_sort_size));
 
         itemNetwork.setVisible(BuildConfig.DEBUG && !hasSelection);
+        itemStatistics.setVisible(!hasSelection);
+        itemNetOverlay.setVisible(BuildConfig.DEBUG && !hasSelection);
+        itemNetOverlay.setChecked(NetStatsOverlay.isEnabled());
         itemSettings.setVisible(!hasSelection);
 
         itemShare.setVisible(hasSelection);
@@ -859,6 +885,9 @@ public class UiActivity extends BaseActivity
         ((App)getApplicationContext()).getThumbsManager().wakeUp();
         this.recyclerViewDownloads.suppressLayout(false);
         refresh();
+        if (BuildConfig.DEBUG && NetStatsOverlay.isEnabled() && this.netStatsOverlay == null) {
+            this.netStatsOverlay = NetStatsOverlay.attach(this, ((App)getApplicationContext()).getNetStats());
+        }
 
         if (Build.VERSION.SDK_INT < 30) {
             this.clipboardListener.register();
@@ -1760,6 +1789,8 @@ public class UiActivity extends BaseActivity
                                 App app = (App)activity.getApplicationContext();
                                 app.getThumbsManager().removeThumbnail(file);
                                 Ancestry.getInstance().transfer(file, renamed);
+                                ContentIndex.getInstance().transfer(file, renamed);
+                                InspectionStore.getInstance().renamed(file, renamed);
                                 activity.imageSizeCache.remove(file.getName().toLowerCase());
                                 // see DocumentsProvider.revokeDocumentPermission()
                                 String path = file.getAbsolutePath();
@@ -7,7 +7,6 @@
 package net.cellar.auth;
 
 import android.os.Build;
-import android.os.Handler;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -24,8 +23,17 @@ import net.cellar.supp.Log;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * https://docs.oracle.com/javase/6/docs/technotes/guides/net/http-auth.html
@@ -38,7 +46,6 @@ public final class AuthManager {
     public static final String SCHEME_FTP = "ftp";
     public static final String SCHEME_SFTP = "sftp";
     private static final String CREDENTIALS_FILE = "credentials";
-    private static final Set<Credential> EMPTY_SET = new HashSet<>(0);
     @Size(3) private static final String[] SUPPORTED_AUTH_SCHEMES = new String[] {SCHEME_BASIC, SCHEME_FTP, SCHEME_SFTP};
     private static final String TAG = "AuthManager";
     private static AuthManager instance;
@@ -66,9 +73,21 @@ public final class AuthManager {
         return false;
     }
 
-    private final Handler handler = new Handler();
-    /** credentials */
-    private final Set<Credential> credentials = new HashSet<>();
+    /** the current index; replaced as a whole whenever the credentials change, so that it can be read without locking */
+    private volatile Index index = Index.EMPTY;
+    /** serialises modifications of {@link #index} */
+    private final Object lock = new Object();
+    /** runs the setup and writes the credentials file; being single-threaded, it makes sure that the file is not written before the setup has finished */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, TAG);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        t.setDaemon(true);
+        return t;
+    });
+    /** set while a write has been scheduled but has not started yet; further modifications in the meantime will be covered by that write */
+    private final AtomicBoolean storeScheduled = new AtomicBoolean();
+    /** key: a Credential's plain text; value: its encrypted form - to avoid encrypting unmodified Credentials again; accessed only by {@link #writer} */
+    private final Map<String, String> encrypted = new HashMap<>();
     private EncryptionHelper eh;
     /** the App */
     private App app;
@@ -93,9 +112,7 @@ public final class AuthManager {
     public void addCredential(@Nullable final Credential credential) {
         if (credential == null) return;
         if (BuildConfig.DEBUG) Log.i(TAG, "addCredential(" + credential + ")");
-        synchronized (this.credentials) {
-            if (this.credentials.contains(credential)) return;
-        }
+        if (this.index.all.contains(credential)) return;
         addOrReplaceCredential(credential);
     }
 
@@ -107,31 +124,17 @@ public final class AuthManager {
         if (credential == null) return;
         if (BuildConfig.DEBUG) Log.i(TAG, "addOrReplaceCredential(" + credential + ")");
         assert this.dir != null;
-        synchronized (this.credentials) {
-            if (this.credentials.contains(credential)) {
-                if (BuildConfig.DEBUG) {
-                    Credential toReplace = Credential.findUsable(this.credentials, credential.getRealm());
-                    Log.i(TAG, "Replacing " + toReplace + " with " + credential);
-                }
-                if (!this.credentials.remove(credential)) {
-                    if (BuildConfig.DEBUG) Log.e(TAG, "Failed to remove " + credential + " which has been reported to exist!");
-                }
+        synchronized (this.lock) {
+            final Set<Credential> modified = new HashSet<>(this.index.all);
+            if (modified.remove(credential)) {
+                if (BuildConfig.DEBUG) Log.i(TAG, "Replacing credential with " + credential);
             } else {
                 if (BuildConfig.DEBUG) Log.i(TAG, "Adding credential " + credential);
             }
-            this.credentials.add(credential);
-            if (this.credentialsFile != null ) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !this.setupFailed) {
-                    if (!this.setupFinished) {
-                        this.handler.postDelayed(() -> Credential.store(this.app, this.eh, this.credentialsFile, this.credentials), 5_000L);
-                        return;
-                    }
-                    Credential.store(this.app, this.eh, this.credentialsFile, this.credentials);
-                } else {
-                    Credential.store(this.credentialsFile, this.credentials);
-                }
-            }
+            modified.add(credential);
+            this.index = new Index(modified);
         }
+        scheduleStore();
     }
 
     /**
@@ -139,26 +142,45 @@ public final class AuthManager {
      */
     public void dumpAuth() {
         if (!BuildConfig.DEBUG) return;
-        synchronized (this.credentials) {
-            Log.i(TAG, "Currently " + this.credentials.size() + " credential(s)");
-            for (Credential c : this.credentials) {
-                Log.i(TAG, c.toString());
-            }
+        final Set<Credential> credentials = this.index.all;
+        Log.i(TAG, "Currently " + credentials.size() + " credential(s)");
+        for (Credential c : credentials) {
+            Log.i(TAG, c.toString());
+        }
+    }
+
+    /**
+     * Attempts to find a usable Credential.
+     * Does not block.
+     * @param realm realm (or host) to match
+     * @param type Credential type to match, {@link Credential#TYPE_UNKNOWN} to match any type
+     * @param userid user id to match (may be {@code null} to match any user)
+     * @return Credential
+     */
+    @AnyThread
+    @Nullable
+    public Credential findUsable(@Nullable final String realm, final int type, @Nullable final String userid) {
+        if (realm == null) return null;
+        final Credential[] candidates = this.index.byRealm.get(realm);
+        if (candidates == null) return null;
+        for (Credential c : candidates) {
+            if (!c.isUsable()) continue;
+            if (type != Credential.TYPE_UNKNOWN && type != c.getType()) continue;
+            if (userid == null || userid.equals(c.getUserid())) return c;
         }
+        return null;
     }
 
     /**
-     * Returns a copy of the known Credentials.
-     * The returned data is read-only.
+     * Returns the known Credentials.
+     * The returned data is read-only; it reflects the state at the time of the call.
+     * Does not block.
      * @return Set of Credentials (possibly empty)
      */
+    @AnyThread
     @NonNull
     public Set<Credential> getCredentials() {
-        final Set<Credential> c;
-        synchronized (this.credentials) {
-            c = this.credentials.isEmpty() ? EMPTY_SET : new HashSet<>(this.credentials);
-        }
-        return c;
+        return this.index.all;
     }
 
     @TestOnly
@@ -180,18 +202,9 @@ public final class AuthManager {
         this.credentialsFile = new File(this.dir, CREDENTIALS_FILE);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             // setupEncryption() takes quite some time, 300 ms or even more…
-            Thread t = new Thread() {
-                @Override
-                public void run() {
-                    setup();
-                }
-            };
-            t.setPriority(Thread.NORM_PRIORITY - 1);
-            t.start();
+            this.writer.execute(this::setup);
         } else {
-            synchronized (this.credentials) {
-                this.credentials.addAll(Credential.load(null, new File(this.dir, CREDENTIALS_FILE)));
-            }
+            merge(Credential.load(null, this.credentialsFile));
         }
     }
 
@@ -208,21 +221,28 @@ public final class AuthManager {
     public boolean removeCredential(@Nullable Credential credential) {
         if (credential == null) return false;
         assert this.dir != null;
-        final boolean removed;
-        synchronized (this.credentials) {
-            removed = this.credentials.remove(credential);
-            if (removed && this.credentialsFile != null) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !this.setupFailed) {
-                    if (!this.setupFinished) {this.handler.postDelayed(() -> Credential.store(this.app, this.eh, this.credentialsFile, this.credentials), 5_000L); return true;}
-                    Credential.store(this.app, this.eh, this.credentialsFile, this.credentials);
-                } else {
-                    Credential.store(this.credentialsFile, this.credentials);
-                }
-            } else if (BuildConfig.DEBUG) {
-                Log.e(TAG, "Failed to remove " + credential);
+        synchronized (this.lock) {
+            if (!this.index.all.contains(credential)) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Failed to remove " + credential);
+                return false;
             }
+            final Set<Credential> modified = new HashSet<>(this.index.all);
+            modified.remove(credential);
+            this.index = new Index(modified);
         }
-        return removed;
+        scheduleStore();
+        return true;
+    }
+
+    /**
+     * Schedules writing the credentials file.
+     * If a write is pending already, that one will pick up the current state.
+     */
+    @AnyThread
+    private void scheduleStore() {
+        if (this.credentialsFile == null) return;
+        if (!this.storeScheduled.compareAndSet(false, true)) return;
+        this.writer.execute(this::store);
     }
 
     /**
@@ -236,9 +256,7 @@ public final class AuthManager {
         try {
             this.eh = new EncryptionHelper(this.app);
             if (this.credentialsFile.length() > 0L) {
-                synchronized (this.credentials) {
-                    this.credentials.addAll(Credential.load(this.eh, this.credentialsFile));
-                }
+                merge(Credential.load(this.eh, this.credentialsFile));
             }
             this.setupFinished = true;
         } catch (Exception e) {
@@ -247,4 +265,71 @@ public final class AuthManager {
         }
     }
 
+    /**
+     * Adds loaded Credentials to the index; Credentials that have been added in the meantime take precedence.
+     * @param loaded loaded Credentials
+     */
+    private void merge(@NonNull Collection<Credential> loaded) {
+        if (loaded.isEmpty()) return;
+        synchronized (this.lock) {
+            final Set<Credential> modified = new HashSet<>(loaded.size() + this.index.all.size());
+            modified.addAll(this.index.all);
+            modified.addAll(loaded);
+            this.index = new Index(modified);
+        }
+    }
+
+    /**
+     * Writes the current credentials to the credentials file.<br>
+     * Must be called by {@link #writer}.
+     */
+    @WorkerThread
+    private void store() {
+        // from here on, modifications must lead to another write
+        this.storeScheduled.set(false);
+        final Set<Credential> credentials = this.index.all;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !this.setupFailed) {
+            // the setup has been run before by this very thread, so it has either finished or failed
+            if (!this.setupFinished) return;
+            Credential.store(this.app, this.eh, this.credentialsFile, credentials, this.encrypted);
+        } else {
+            Credential.store(this.credentialsFile, credentials);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the known Credentials.
+     */
+    private static final class Index {
+
+        private static final Index EMPTY = new Index(Collections.emptySet());
+
+        /** all Credentials */
+        @NonNull private final Set<Credential> all;
+        /** key: realm; value: Credentials for that realm */
+        @NonNull private final Map<String, Credential[]> byRealm;
+
+        /**
+         * Constructor.
+         * @param credentials Credentials; must not be modified afterwards
+         */
+        private Index(@NonNull Set<Credential> credentials) {
+            super();
+            this.all = Collections.unmodifiableSet(credentials);
+            final Map<String, List<Credential>> lists = new HashMap<>(credentials.size());
+            for (Credential c : credentials) {
+                List<Credential> list = lists.get(c.getRealm());
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    lists.put(c.getRealm(), list);
+                }
+                list.add(c);
+            }
+            final Map<String, Credential[]> byRealm = new HashMap<>(lists.size());
+            for (Map.Entry<String, List<Credential>> entry : lists.entrySet()) {
+                byRealm.put(entry.getKey(), entry.getValue().toArray(new Credential[0]));
+            }
+            this.byRealm = byRealm;
+        }
+    }
 }
@@ -35,8 +35,11 @@ import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  *
@@ -203,9 +206,11 @@ public final class Credential implements Comparable<Credential> {
      * @param eh EncryptionHelper
      * @param dest target file
      * @param credentials Credentials
+     * @param cache maps plain text to encrypted text of Credentials that have been stored before; will be updated (optional)
      */
     @RequiresApi(Build.VERSION_CODES.M)
-    public static void store(@NonNull Context ctx, @NonNull EncryptionHelper eh, @NonNull File dest, @NonNull final Collection<Credential> credentials) {
+    public static void store(@NonNull Context ctx, @NonNull EncryptionHelper eh, @NonNull File dest, @NonNull final Collection<Credential> credentials,
+                             @Nullable final Map<String, String> cache) {
         BufferedWriter writer = null;
         try {
             final File tmpdir = ctx.getFilesDir();
@@ -215,11 +220,21 @@ public final class Credential implements Comparable<Credential> {
             } while (new File(tmpdir, tmpFileName).isFile());
             File tmp = new File(tmpdir, tmpFileName);
             writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp)));
+            final Set<String> stored = cache != null ? new HashSet<>(credentials.size()) : null;
             for (Credential credential : credentials) {
                 if (credential == null) continue;
-                byte[] encrypted = eh.encrypt(credential.toString().getBytes(StandardCharsets.UTF_8));
-                writer.write(EncryptionHelper.asHex(encrypted).toString() + '\n');
+                final String plain = credential.toString();
+                // only Credentials that have not been stored before need to be encrypted
+                String hex = cache != null ? cache.get(plain) : null;
+                if (hex == null) {
+                    byte[] encrypted = eh.encrypt(plain.getBytes(StandardCharsets.UTF_8));
+                    hex = EncryptionHelper.asHex(encrypted).toString();
+                    if (cache != null) cache.put(plain, hex);
+                }
+                if (stored != null) stored.add(plain);
+                writer.write(hex + '\n');
             }
+            if (cache != null) cache.keySet().retainAll(stored);
             writer.close();
             writer = null;
             if (!tmp.renameTo(dest)) {
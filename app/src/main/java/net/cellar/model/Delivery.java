@@ -9,6 +9,8 @@ package net.cellar.model;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import net.cellar.ContentIndex;
+
 import java.io.File;
 
 /**
@@ -22,6 +24,18 @@ public class Delivery {
     @Nullable private final String mediaType;
     @Nullable private final Throwable e;
     @Nullable private final AuthenticateInfo authenticateInfo;
+    /** the delay in ms that the server asked for via "Retry-After" before the request is repeated; 0 if not given */
+    private long retryAfter;
+    /** the ETag given by the server */
+    @Nullable private String etag;
+    /** the url that the resource has been delivered from, after any redirects */
+    @Nullable private String finalUrl;
+    /** the checksums of the file, if they have been calculated while it was written */
+    @Nullable private ContentIndex.Fingerprint fingerprint;
+    /** a file with identical contents that had existed already, if the file has been created from that */
+    @Nullable private File identicalTo;
+    /** how the transfer went */
+    @Nullable private TransferMetrics metrics;
 
     /**
      * Constructor.
@@ -69,10 +83,36 @@ public class Delivery {
         return authenticateInfo;
     }
 
+    @Nullable public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return the url that the resource has been delivered from, after any redirects
+     */
+    @Nullable public String getFinalUrl() {
+        return finalUrl;
+    }
+
     @Nullable public File getFile() {
         return file;
     }
 
+    @Nullable public ContentIndex.Fingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the file with identical contents that the file has been created from, instead of a transfer
+     */
+    @Nullable public File getIdenticalTo() {
+        return identicalTo;
+    }
+
+    @Nullable public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
     @Nullable public String getMediaType() {
         return mediaType;
     }
@@ -85,11 +125,57 @@ public class Delivery {
         return rc;
     }
 
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
     @Nullable
     public Throwable getThrowable() {
         return e;
     }
 
+    /**
+     * @param etag the ETag given by the server
+     */
+    public void setEtag(@Nullable String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * @param finalUrl the url that the resource has been delivered from, after any redirects
+     */
+    public void setFinalUrl(@Nullable String finalUrl) {
+        this.finalUrl = finalUrl;
+    }
+
+    /**
+     * @param fingerprint the checksums of the file
+     */
+    public void setFingerprint(@Nullable ContentIndex.Fingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @param metrics how the transfer went
+     */
+    public void setMetrics(@Nullable TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param identicalTo the file with identical contents that the file has been created from
+     */
+    public void setIdenticalTo(@Nullable File identicalTo) {
+        this.identicalTo = identicalTo;
+    }
+
+    /**
+     * @param retryAfter the delay in ms that the server asked for before the request is repeated
+     */
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
     /** {@inheritDoc} */
     @Override
     @NonNull
@@ -0,0 +1,289 @@
+/*
+ * TransferMetrics.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.model;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.cellar.supp.UriUtil;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketAddress;
+import java.util.Locale;
+
+/**
+ * Describes how the transfer of one {@link Order} went.<br>
+ * The durations are given in ms; -1 means that a value is not known or that a phase has not taken place,
+ * for example, there is no DNS lookup or connection setup if a pooled connection has been re-used.<br>
+ * The values are set by the Loader while it fulfils the Order; afterwards, a TransferMetrics object is not modified any more.
+ */
+public final class TransferMetrics {
+
+    /** placeholder for an unknown value */
+    public static final long UNKNOWN = -1L;
+    /** the {@link #getProxy() proxy} value if no proxy has been used */
+    public static final String DIRECT = "DIRECT";
+    private static final char SEP = '\t';
+
+    /**
+     * Describes a proxy.
+     * @param proxy Proxy
+     * @return "DIRECT" or the proxy type and address, e.g. "HTTP proxy.example.com:8080"
+     */
+    @NonNull
+    public static String describe(@Nullable Proxy proxy) {
+        if (proxy == null || proxy.type() == Proxy.Type.DIRECT) return DIRECT;
+        final SocketAddress sa = proxy.address();
+        if (sa instanceof InetSocketAddress) {
+            final InetSocketAddress isa = (InetSocketAddress)sa;
+            return proxy.type() + " " + isa.getHostString() + ':' + isa.getPort();
+        }
+        return proxy.type().toString();
+    }
+
+    /**
+     * Restores a TransferMetrics object from its {@link #toString() String representation}.
+     * @param s String representation
+     * @return TransferMetrics or {@code null} if {@code s} is not valid
+     */
+    @Nullable
+    public static TransferMetrics fromString(@NonNull String s) {
+        final String[] f = s.split(String.valueOf(SEP), 16);
+        if (f.length != 16) return null;
+        try {
+            final TransferMetrics m = new TransferMetrics(f[15], f[1], Long.parseLong(f[0]));
+            m.rc = Integer.parseInt(f[2]);
+            m.dns = Long.parseLong(f[3]);
+            m.connect = Long.parseLong(f[4]);
+            m.tls = Long.parseLong(f[5]);
+            m.ttfb = Long.parseLong(f[6]);
+            m.transfer = Long.parseLong(f[7]);
+            m.duration = Long.parseLong(f[8]);
+            m.bytes = Long.parseLong(f[9]);
+            m.resumedFrom = Long.parseLong(f[10]);
+            m.averageThroughput = Float.parseFloat(f[11]);
+            m.peakThroughput = Float.parseFloat(f[12]);
+            m.retries = Integer.parseInt(f[13]);
+            m.proxy = f[14].length() > 0 ? f[14] : null;
+            return m;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** the url of the Order without any secrets */
+    @NonNull private final String url;
+    /** simple class name of the Loader */
+    @NonNull private final String loader;
+    /** the time when the transfer started, in ms since the epoch */
+    private final long startedAt;
+    private int rc;
+    private long dns = UNKNOWN;
+    private long connect = UNKNOWN;
+    private long tls = UNKNOWN;
+    /** time from the start of the (last) attempt until the first bytes of the resource arrived */
+    private long ttfb = UNKNOWN;
+    /** time from the first bytes until the end of the transfer */
+    private long transfer = UNKNOWN;
+    /** time from the start of the (last) attempt until its end */
+    private long duration = UNKNOWN;
+    /** number of bytes transferred by the last attempt */
+    private long bytes;
+    /** number of bytes that had been there already when the transfer was resumed; 0 if it was not resumed */
+    private long resumedFrom;
+    /** bytes per second, from the first bytes to the end of the transfer */
+    private float averageThroughput;
+    /** bytes per second, the highest value measured over one sampling period */
+    private float peakThroughput;
+    /** number of failed attempts before the last one */
+    private int retries;
+    /** the proxy that the connection went through; {@code null} if not known */
+    @Nullable private String proxy;
+
+    /**
+     * Constructor.
+     * @param url the url of the Order; it is {@link UriUtil#redact(String) stripped of credentials} because the metrics are stored and exported
+     * @param loader simple class name of the Loader
+     */
+    public TransferMetrics(@NonNull String url, @NonNull String loader) {
+        this(url, loader, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    public TransferMetrics(@NonNull String url, @NonNull String loader, long startedAt) {
+        super();
+        this.url = UriUtil.redact(url);
+        this.loader = loader;
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * Adds to the duration of the connection setup (without TLS).
+     * @param ms duration
+     */
+    public void addConnect(long ms) {
+        this.connect = this.connect >= 0L ? this.connect + ms : ms;
+    }
+
+    /**
+     * Adds to the duration of DNS lookups.
+     * @param ms duration
+     */
+    public void addDns(long ms) {
+        this.dns = this.dns >= 0L ? this.dns + ms : ms;
+    }
+
+    /**
+     * Adds to the duration of TLS (or SSH) handshakes.
+     * @param ms duration
+     */
+    public void addTls(long ms) {
+        this.tls = this.tls >= 0L ? this.tls + ms : ms;
+    }
+
+    /**
+     * Starts a new attempt; the values of a previous attempt are discarded.
+     * @param retries number of failed attempts so far
+     */
+    public void beginAttempt(int retries) {
+        this.retries = retries;
+        this.dns = this.connect = this.tls = this.ttfb = this.transfer = this.duration = UNKNOWN;
+        this.bytes = this.resumedFrom = 0L;
+        this.averageThroughput = this.peakThroughput = 0f;
+        this.proxy = null;
+    }
+
+    /**
+     * Completes the values of the last attempt.
+     * @param rc result code of the Delivery
+     * @param duration duration of the attempt
+     * @param ttfb time from the start of the attempt until the first bytes arrived; -1 if nothing arrived
+     * @param bytesDone number of bytes of the resource present at the end, including the ones that had been there before a resumption
+     * @param peakThroughput highest throughput measured in bytes per second
+     */
+    public void finish(int rc, long duration, long ttfb, long bytesDone, float peakThroughput) {
+        this.rc = rc;
+        this.duration = duration;
+        this.ttfb = ttfb;
+        this.bytes = Math.max(0L, bytesDone - this.resumedFrom);
+        this.transfer = ttfb >= 0L ? Math.max(0L, duration - ttfb) : UNKNOWN;
+        this.averageThroughput = this.transfer > 0L ? this.bytes * 1000f / this.transfer : 0f;
+        this.peakThroughput = Math.max(peakThroughput, this.averageThroughput);
+    }
+
+    public float getAverageThroughput() {
+        return averageThroughput;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getConnect() {
+        return connect;
+    }
+
+    public long getDns() {
+        return dns;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return host of the url, empty if there is none
+     */
+    @NonNull
+    public String getHost() {
+        final String host = Uri.parse(this.url).getHost();
+        return host != null ? host : "";
+    }
+
+    @NonNull
+    public String getLoader() {
+        return loader;
+    }
+
+    public float getPeakThroughput() {
+        return peakThroughput;
+    }
+
+    @Nullable
+    public String getProxy() {
+        return proxy;
+    }
+
+    public int getRc() {
+        return rc;
+    }
+
+    public long getResumedFrom() {
+        return resumedFrom;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getTls() {
+        return tls;
+    }
+
+    public long getTransfer() {
+        return transfer;
+    }
+
+    public long getTtfb() {
+        return ttfb;
+    }
+
+    @NonNull
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return {@code true} if the result code signals success
+     */
+    public boolean isSuccessful() {
+        return this.rc >= 200 && this.rc < 300;
+    }
+
+    /**
+     * @param proxy the proxy that the connection went through, as returned by {@link #describe(Proxy)}
+     */
+    public void setProxy(@Nullable String proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * @param resumedFrom number of bytes that had been there already when the transfer was resumed
+     */
+    public void setResumedFrom(long resumedFrom) {
+        this.resumedFrom = resumedFrom;
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public String toString() {
+        // the url comes last because it is the only value that might contain a separator
+        return String.valueOf(this.startedAt) + SEP + this.loader + SEP + this.rc + SEP + this.dns + SEP + this.connect + SEP + this.tls
+                + SEP + this.ttfb + SEP + this.transfer + SEP + this.duration + SEP + this.bytes + SEP + this.resumedFrom
+                + SEP + String.format(Locale.US, "%.1f", this.averageThroughput) + SEP + String.format(Locale.US, "%.1f", this.peakThroughput)
+                + SEP + this.retries + SEP + (this.proxy != null ? this.proxy : "") + SEP + this.url;
+    }
+}
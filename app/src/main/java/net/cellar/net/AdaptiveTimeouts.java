@@ -0,0 +1,119 @@
+/*
+ * AdaptiveTimeouts.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Adapts the connect and read timeouts to the response times observed per host.<br>
+ * The connect timeout is derived from a moving average of the time until the response headers arrive;
+ * responsive hosts get a shorter one, so that an unreachable address is detected and retried early.<br>
+ * The read timeout never drops below the configured default, because a pause in the middle of a transfer says nothing
+ * about the time until the headers arrive; it is only raised for hosts that have timed out.<br>
+ * Each timeout doubles the timeouts for that host; each success halves the penalty again.
+ */
+public final class AdaptiveTimeouts implements Interceptor {
+
+    /** weight of a new sample in the moving average */
+    private static final float ALPHA = 0.25f;
+    /** max. number of hosts to keep track of */
+    private static final int MAX_HOSTS = 256;
+    /** max. factor that the timeouts are multiplied with after timeouts */
+    private static final int MAX_PENALTY = 4;
+    /** number of samples needed before the timeouts are adapted */
+    private static final int MIN_SAMPLES = 3;
+    private static final int MIN_CONNECT_TIMEOUT = 5_000;
+
+    /**
+     * Calculates a timeout.
+     * @param average average response time in ms
+     * @param factor the timeout is this multiple of the average response time
+     * @param min min. timeout in ms
+     * @param max timeout in ms for hosts without enough samples and max. timeout before applying the penalty
+     * @param penalty factor applied after timeouts
+     * @return timeout in ms
+     */
+    @VisibleForTesting
+    public static int timeout(float average, int factor, int min, int max, int penalty) {
+        final int base = average > 0f ? Math.max(min, Math.min(max, Math.round(average * factor))) : max;
+        return base * penalty;
+    }
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    /** key: host */
+    private final Map<String, HostTiming> timings = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param connectTimeout default connect timeout in ms
+     * @param readTimeout default read timeout in ms; the read timeout applied is never shorter
+     */
+    public AdaptiveTimeouts(int connectTimeout, int readTimeout) {
+        super();
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        final String host = chain.request().url().host();
+        HostTiming timing = this.timings.get(host);
+        if (timing == null) {
+            if (this.timings.size() >= MAX_HOSTS) this.timings.clear();
+            timing = new HostTiming();
+            this.timings.put(host, timing);
+        }
+        final float average = timing.samples >= MIN_SAMPLES ? timing.average : 0f;
+        final int penalty = timing.penalty;
+        final Chain adapted = chain
+                .withConnectTimeout(timeout(average, 4, MIN_CONNECT_TIMEOUT, this.connectTimeout, penalty), TimeUnit.MILLISECONDS)
+                .withReadTimeout(this.readTimeout * penalty, TimeUnit.MILLISECONDS);
+        final long start = SystemClock.elapsedRealtime();
+        final Response response;
+        try {
+            response = adapted.proceed(chain.request());
+        } catch (InterruptedIOException e) {
+            // a timeout (or a cancellation, which does not do any harm here)
+            timing.penalty = Math.min(MAX_PENALTY, penalty * 2);
+            throw e;
+        }
+        // races between concurrent calls to the same host may lose a sample, which is acceptable
+        timing.add(SystemClock.elapsedRealtime() - start);
+        timing.penalty = Math.max(1, penalty / 2);
+        return response;
+    }
+
+    /**
+     * The response times of one host.
+     */
+    private static final class HostTiming {
+        /** moving average of the time until the response headers arrived */
+        private volatile float average;
+        private volatile int samples;
+        private volatile int penalty = 1;
+
+        private void add(long duration) {
+            this.average = this.samples == 0 ? duration : this.average + ALPHA * (duration - this.average);
+            this.samples++;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * CachePolicy.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.cellar.supp.Util;
+
+import java.io.IOException;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Network interceptor that decides which responses go into the HTTP cache.<br>
+ * <ul>
+ * <li>Small metadata (web pages, JSON, XML, playlists) is cached. If the server sends validators but does not say how long the response is fresh,
+ * the response is revalidated each time it is used, so that a repeated fetch results in a 304 instead of a full transfer.</li>
+ * <li>Everything else (audio, video, images, archives...), anything larger than {@link #MAX_CACHEABLE_LENGTH}
+ * and anything whose length is not known in advance (e.g. chunked responses) is never cached.</li>
+ * </ul>
+ */
+public final class CachePolicy implements Interceptor {
+
+    /** responses larger than this are not cached */
+    @VisibleForTesting
+    public static final long MAX_CACHEABLE_LENGTH = 1_048_576L;
+    private static final String NO_CACHE = "no-cache";
+    private static final String NO_STORE = "no-store";
+
+    /**
+     * Tells whether the given media type denotes metadata (as opposed to media).
+     * @param mediaType MediaType
+     * @return true / false
+     */
+    @VisibleForTesting
+    public static boolean isMetadata(@Nullable MediaType mediaType) {
+        if (mediaType == null) return false;
+        if ("text".equals(mediaType.type())) return true;
+        if (!"application".equals(mediaType.type())) return false;
+        final String subtype = mediaType.subtype();
+        return subtype.endsWith("json") || subtype.endsWith("xml") || subtype.endsWith("javascript") || subtype.endsWith("mpegurl");
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        final Request request = chain.request();
+        final Response response = chain.proceed(request);
+        if (!"GET".equals(request.method()) || response.code() != 200) return response;
+        final CacheControl cc = response.cacheControl();
+        if (cc.noStore()) return response;
+        final String contentType = response.header("Content-Type");
+        final MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+        final long length = Util.parseLong(response.header("Content-Length"), -1L);
+        // without a Content-Length, the response might be of any size
+        if (!isMetadata(mediaType) || length < 0L || length > MAX_CACHEABLE_LENGTH) {
+            return response.newBuilder().header("Cache-Control", NO_STORE).build();
+        }
+        final boolean explicitlyFresh = cc.maxAgeSeconds() >= 0 || cc.sMaxAgeSeconds() >= 0 || response.header("Expires") != null;
+        if (explicitlyFresh || cc.noCache()) return response;
+        final boolean validatable = response.header("ETag") != null || response.header("Last-Modified") != null;
+        if (!validatable) {
+            // could neither be used without asking the server nor be revalidated
+            return response.newBuilder().header("Cache-Control", NO_STORE).build();
+        }
+        // do not let the cache assume a heuristic freshness - pages often contain links that expire soon
+        final String existing = response.header("Cache-Control");
+        return response.newBuilder().header("Cache-Control", existing != null && existing.length() > 0 ? existing + ", " + NO_CACHE : NO_CACHE).build();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * CallTimings.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.cellar.model.TransferMetrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * Records the phases of http calls in the {@link TransferMetrics} that the request has been tagged with.<br>
+ * Calls without such a tag are passed to the wrapped factory only.
+ */
+public final class CallTimings implements EventListener.Factory {
+
+    @Nullable private final EventListener.Factory delegate;
+
+    /**
+     * Constructor.
+     * @param delegate EventListener.Factory whose listeners get all events, too (optional)
+     */
+    public CallTimings(@Nullable EventListener.Factory delegate) {
+        super();
+        this.delegate = delegate;
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public EventListener create(@NonNull Call call) {
+        final EventListener wrapped = this.delegate != null ? this.delegate.create(call) : EventListener.NONE;
+        final TransferMetrics metrics = call.request().tag(TransferMetrics.class);
+        return metrics != null ? new PhaseTimer(wrapped, metrics) : wrapped;
+    }
+
+    /**
+     * Measures the phases of one call.<br>
+     * Requests are tagged by the Downloader only, which executes its calls synchronously; therefore all events arrive on the Loader's thread,
+     * which also reads the TransferMetrics afterwards.
+     */
+    private static final class PhaseTimer extends ForwardingEventListener {
+
+        @NonNull private final TransferMetrics metrics;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+
+        private PhaseTimer(@NonNull EventListener delegate, @NonNull TransferMetrics metrics) {
+            super(delegate);
+            this.metrics = metrics;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            // with TLS, the connection setup has been recorded when the handshake started
+            if (this.connectStart != 0L) {
+                this.metrics.addConnect((System.nanoTime() - this.connectStart) / 1_000_000L);
+                this.connectStart = 0L;
+            }
+            super.connectEnd(call, inetSocketAddress, proxy, protocol);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol, @NonNull IOException ioe) {
+            // the time spent on a route that failed is part of the connection setup, too
+            if (this.connectStart != 0L) {
+                this.metrics.addConnect((System.nanoTime() - this.connectStart) / 1_000_000L);
+                this.connectStart = 0L;
+            }
+            super.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+            this.connectStart = System.nanoTime();
+            this.metrics.setProxy(TransferMetrics.describe(proxy));
+            super.connectStart(call, inetSocketAddress, proxy);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList) {
+            if (this.dnsStart != 0L) {
+                this.metrics.addDns((System.nanoTime() - this.dnsStart) / 1_000_000L);
+                this.dnsStart = 0L;
+            }
+            super.dnsEnd(call, domainName, inetAddressList);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            this.dnsStart = System.nanoTime();
+            super.dnsStart(call, domainName);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+            if (this.secureConnectStart != 0L) {
+                this.metrics.addTls((System.nanoTime() - this.secureConnectStart) / 1_000_000L);
+                this.secureConnectStart = 0L;
+            }
+            super.secureConnectEnd(call, handshake);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            final long now = System.nanoTime();
+            if (this.connectStart != 0L) {
+                this.metrics.addConnect((now - this.connectStart) / 1_000_000L);
+                this.connectStart = 0L;
+            }
+            this.secureConnectStart = now;
+            super.secureConnectStart(call);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * DnsCache.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.cellar.BuildConfig;
+import net.cellar.supp.Log;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of host name lookups.<br>
+ * <ul>
+ * <li>Successful lookups are valid for {@link #TTL} ms.</li>
+ * <li>Failed lookups are remembered for {@link #NEGATIVE_TTL} ms.</li>
+ * <li>Expired addresses are still handed out for another {@link #MAX_STALE} ms while they are being refreshed in the background.</li>
+ * </ul>
+ * The addresses are ordered so that IPv6 and IPv4 addresses alternate (see <a href="https://tools.ietf.org/html/rfc8305#section-4">RFC 8305</a>),
+ * which means that the next address tried after a failed connection attempt belongs to the other address family.<br>
+ * Everything is forgotten when the network connectivity changes.
+ */
+public final class DnsCache implements NetworkChangedReceiver.ConnectivityChangedListener {
+
+    /** max. number of entries */
+    private static final int MAX_ENTRIES = 256;
+    /** period for which expired addresses may be used while they are being refreshed */
+    private static final long MAX_STALE = 30 * 60_000L;
+    /** period for which a failed lookup is remembered */
+    private static final long NEGATIVE_TTL = 15_000L;
+    private static final String TAG = "DnsCache";
+    /** period for which the result of a successful lookup is used */
+    private static final long TTL = 5 * 60_000L;
+
+    /**
+     * Orders the given addresses so that IPv6 and IPv4 addresses alternate.<br>
+     * The address family of the first address comes first; within each family the original order is kept.
+     * @param addresses addresses as returned by the resolver
+     * @return List of addresses
+     */
+    @VisibleForTesting
+    @NonNull
+    public static List<InetAddress> interleave(@NonNull InetAddress[] addresses) {
+        if (addresses.length < 2) return Collections.unmodifiableList(Arrays.asList(addresses));
+        final boolean v6first = addresses[0] instanceof Inet6Address;
+        final List<InetAddress> first = new ArrayList<>(addresses.length);
+        final List<InetAddress> second = new ArrayList<>(addresses.length);
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == v6first) first.add(address); else second.add(address);
+        }
+        if (second.isEmpty()) return Collections.unmodifiableList(first);
+        final List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        final int n = Math.max(first.size(), second.size());
+        for (int i = 0; i < n; i++) {
+            if (i < first.size()) ordered.add(first.get(i));
+            if (i < second.size()) ordered.add(second.get(i));
+        }
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /** key: host name */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** host names that are being resolved in the background */
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor.
+     */
+    public DnsCache() {
+        super();
+        this.executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, TAG);
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Forgets everything.
+     */
+    @AnyThread
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the addresses for the given host name.
+     * @param host host name
+     * @return List of addresses
+     * @throws UnknownHostException if the host name could not be resolved
+     */
+    @NonNull
+    public List<InetAddress> lookup(@NonNull final String host) throws UnknownHostException {
+        final Entry entry = this.entries.get(host);
+        if (entry != null) {
+            final long now = SystemClock.elapsedRealtime();
+            if (now < entry.expires) {
+                if (entry.addresses == null) throw new UnknownHostException(host);
+                return entry.addresses;
+            }
+            if (entry.addresses != null && now < entry.expires + MAX_STALE) {
+                refresh(host);
+                return entry.addresses;
+            }
+        }
+        return resolve(host, false);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onConnectivityChanged(@NonNull NetworkInfo.State old, @NonNull NetworkInfo.State state) {
+        // the addresses might be different in the new network, and failures might have been caused by the lack of a network
+        clear();
+    }
+
+    /**
+     * Resolves the given host names in the background unless they are in the cache already.
+     * @param hosts host names
+     */
+    @AnyThread
+    public void prefetch(@Nullable Collection<String> hosts) {
+        if (hosts == null) return;
+        final long now = SystemClock.elapsedRealtime();
+        for (String host : hosts) {
+            if (host == null) continue;
+            final Entry entry = this.entries.get(host);
+            if (entry != null && now < entry.expires) continue;
+            refresh(host);
+        }
+    }
+
+    /**
+     * Resolves the given host name in the background.
+     * @param host host name
+     */
+    private void refresh(@NonNull final String host) {
+        if (!this.refreshing.add(host)) return;
+        this.executor.execute(() -> {
+            try {
+                resolve(host, true);
+            } catch (UnknownHostException ignored) {
+            } finally {
+                this.refreshing.remove(host);
+            }
+        });
+    }
+
+    /**
+     * Resolves the given host name and stores the result.
+     * @param host host name
+     * @param keepStale {@code true} to keep stale addresses if the lookup fails
+     * @return List of addresses
+     * @throws UnknownHostException if the host name could not be resolved
+     */
+    @NonNull
+    private List<InetAddress> resolve(@NonNull final String host, boolean keepStale) throws UnknownHostException {
+        try {
+            final List<InetAddress> addresses = interleave(InetAddress.getAllByName(host));
+            store(host, new Entry(addresses, SystemClock.elapsedRealtime() + TTL));
+            return addresses;
+        } catch (UnknownHostException | RuntimeException e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Failed to resolve " + host + ": " + e.toString());
+            final Entry existing = this.entries.get(host);
+            if (!keepStale || existing == null || existing.addresses == null) {
+                store(host, new Entry(null, SystemClock.elapsedRealtime() + NEGATIVE_TTL));
+            }
+            if (e instanceof UnknownHostException) throw (UnknownHostException)e;
+            throw new UnknownHostException(host);
+        }
+    }
+
+    /**
+     * Stores an Entry. Drops entries that are too old to be used if the cache is full.
+     * @param host host name
+     * @param entry Entry
+     */
+    private void store(@NonNull String host, @NonNull Entry entry) {
+        if (this.entries.size() >= MAX_ENTRIES) {
+            final long now = SystemClock.elapsedRealtime();
+            for (Iterator<Entry> i = this.entries.values().iterator(); i.hasNext(); ) {
+                if (now >= i.next().expires + MAX_STALE) i.remove();
+            }
+            if (this.entries.size() >= MAX_ENTRIES) this.entries.clear();
+        }
+        this.entries.put(host, entry);
+    }
+
+    /**
+     * The result of a lookup.
+     */
+    private static final class Entry {
+        /** {@code null} if the lookup failed */
+        @Nullable private final List<InetAddress> addresses;
+        /** expiry time based on {@link SystemClock#elapsedRealtime()} */
+        private final long expires;
+
+        private Entry(@Nullable List<InetAddress> addresses, long expires) {
+            super();
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+    }
+}
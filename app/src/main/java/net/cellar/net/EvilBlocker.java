@@ -171,7 +171,7 @@ public class EvilBlocker implements LoaderListener, Mores {
         this.loading = true;
         this.refCallback = callback != null ? new SoftReference<>(callback) : null; // WeakReferences may not survive
         if (this.executor == null) this.executor = Executors.newSingleThreadExecutor();
-        dl.executeOnExecutor(this.executor, order);
+        dl.start(this.executor, order);
     }
 
     /**
@@ -0,0 +1,218 @@
+/*
+ * ForwardingEventListener.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An EventListener that passes all events on to another one.<br>
+ * OkHttp accepts only one EventListener per call, so listeners that want to observe a call in addition to others extend this class
+ * and call the super method in each method that they override.
+ */
+class ForwardingEventListener extends EventListener {
+
+    @NonNull private final EventListener delegate;
+
+    /**
+     * Constructor.
+     * @param delegate the EventListener to pass the events to; {@link EventListener#NONE} if there is none
+     */
+    ForwardingEventListener(@NonNull EventListener delegate) {
+        super();
+        this.delegate = delegate;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void cacheConditionalHit(@NonNull Call call, @NonNull Response cachedResponse) {
+        this.delegate.cacheConditionalHit(call, cachedResponse);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void cacheHit(@NonNull Call call, @NonNull Response response) {
+        this.delegate.cacheHit(call, response);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void cacheMiss(@NonNull Call call) {
+        this.delegate.cacheMiss(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void callEnd(@NonNull Call call) {
+        this.delegate.callEnd(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+        this.delegate.callFailed(call, ioe);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void callStart(@NonNull Call call) {
+        this.delegate.callStart(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void canceled(@NonNull Call call) {
+        this.delegate.canceled(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+        this.delegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol, @NonNull IOException ioe) {
+        this.delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+        this.delegate.connectStart(call, inetSocketAddress, proxy);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        this.delegate.connectionAcquired(call, connection);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connectionReleased(@NonNull Call call, @NonNull Connection connection) {
+        this.delegate.connectionReleased(call, connection);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList) {
+        this.delegate.dnsEnd(call, domainName, inetAddressList);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+        this.delegate.dnsStart(call, domainName);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void proxySelectEnd(@NonNull Call call, @NonNull HttpUrl url, @NonNull List<Proxy> proxies) {
+        this.delegate.proxySelectEnd(call, url, proxies);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void proxySelectStart(@NonNull Call call, @NonNull HttpUrl url) {
+        this.delegate.proxySelectStart(call, url);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestBodyEnd(@NonNull Call call, long byteCount) {
+        this.delegate.requestBodyEnd(call, byteCount);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestBodyStart(@NonNull Call call) {
+        this.delegate.requestBodyStart(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestFailed(@NonNull Call call, @NonNull IOException ioe) {
+        this.delegate.requestFailed(call, ioe);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+        this.delegate.requestHeadersEnd(call, request);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestHeadersStart(@NonNull Call call) {
+        this.delegate.requestHeadersStart(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void responseBodyEnd(@NonNull Call call, long byteCount) {
+        this.delegate.responseBodyEnd(call, byteCount);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void responseBodyStart(@NonNull Call call) {
+        this.delegate.responseBodyStart(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void responseFailed(@NonNull Call call, @NonNull IOException ioe) {
+        this.delegate.responseFailed(call, ioe);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+        this.delegate.responseHeadersEnd(call, response);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void responseHeadersStart(@NonNull Call call) {
+        this.delegate.responseHeadersStart(call);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void satisfactionFailure(@NonNull Call call, @NonNull Response response) {
+        this.delegate.satisfactionFailure(call, response);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+        this.delegate.secureConnectEnd(call, handshake);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void secureConnectStart(@NonNull Call call) {
+        this.delegate.secureConnectStart(call);
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * NetStats.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Collects statistics of all http calls, per host: the durations of the call phases, connection re-use, HTTP/2 usage and the bytes sent and received.<br>
+ * The values are aggregated in histograms without locks, so that the overhead per call is a few atomic increments.<br>
+ * The statistics survive rebuilds of the OkHttpClient; they are not persisted.
+ */
+public final class NetStats {
+
+    /** max. number of hosts to keep statistics for */
+    private static final int MAX_HOSTS = 64;
+
+    /** key: host */
+    private final ConcurrentHashMap<String, HostStats> stats = new ConcurrentHashMap<>();
+    @Nullable private volatile ConnectionPool connectionPool;
+
+    /**
+     * Constructor.
+     */
+    public NetStats() {
+        super();
+    }
+
+    /**
+     * Returns the statistics, sorted by the number of calls, the busiest host first.
+     * @return List of HostStats
+     */
+    @NonNull
+    public List<HostStats> getHostStats() {
+        final List<HostStats> list = new ArrayList<>(this.stats.values());
+        Collections.sort(list, (s1, s2) -> Long.compare(s2.getCalls(), s1.getCalls()));
+        return list;
+    }
+
+    /**
+     * @return number of connections in the current pool, idle or not; -1 if not known
+     */
+    public int getPoolConnectionCount() {
+        final ConnectionPool pool = this.connectionPool;
+        return pool != null ? pool.connectionCount() : -1;
+    }
+
+    /**
+     * @return number of idle connections in the current pool; -1 if not known
+     */
+    public int getPoolIdleCount() {
+        final ConnectionPool pool = this.connectionPool;
+        return pool != null ? pool.idleConnectionCount() : -1;
+    }
+
+    /**
+     * Returns the statistics of a host, creating them if necessary.
+     * @param host host
+     * @return HostStats or {@code null} if statistics are kept for {@link #MAX_HOSTS} other hosts already
+     */
+    @Nullable
+    private HostStats getOrCreate(@NonNull String host) {
+        HostStats s = this.stats.get(host);
+        if (s == null) {
+            if (this.stats.size() >= MAX_HOSTS) return null;
+            s = new HostStats(host);
+            HostStats existing = this.stats.putIfAbsent(host, s);
+            if (existing != null) s = existing;
+        }
+        return s;
+    }
+
+    /**
+     * Removes all statistics.
+     */
+    public void reset() {
+        this.stats.clear();
+    }
+
+    /**
+     * @param connectionPool the ConnectionPool of the current OkHttpClient
+     */
+    public void setConnectionPool(@Nullable ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Returns an EventListener.Factory whose listeners feed these statistics.
+     * @param delegate EventListener.Factory whose listeners get all events, too (optional)
+     * @return EventListener.Factory
+     */
+    @NonNull
+    public EventListener.Factory wrap(@Nullable final EventListener.Factory delegate) {
+        return call -> new CallObserver(delegate != null ? delegate.create(call) : EventListener.NONE, call.request().url().host());
+    }
+
+    /**
+     * A histogram of durations with exponential buckets: bucket 0 counts durations below 1 ms,
+     * bucket i (i &gt; 0) counts durations from 2<sup>i-1</sup> ms to 2<sup>i</sup> ms, and the last bucket counts everything above.
+     */
+    public static final class Histogram {
+
+        /** number of buckets; the last one starts at 2<sup>18</sup> ms, i.e. ca. 4.4 minutes */
+        public static final int BUCKETS = 20;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+
+        private Histogram() {
+            super();
+        }
+
+        /**
+         * Returns the bucket that a duration belongs to.
+         * @param ms duration in ms
+         * @return bucket index
+         */
+        static int bucketOf(long ms) {
+            if (ms <= 0L) return 0;
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+        }
+
+        /**
+         * Returns the upper bound of a bucket.
+         * @param bucket bucket index
+         * @return upper bound in ms; {@link Long#MAX_VALUE} for the last bucket
+         */
+        static long upperBoundOf(int bucket) {
+            return bucket < BUCKETS - 1 ? 1L << bucket : Long.MAX_VALUE;
+        }
+
+        private void add(long ms) {
+            if (ms < 0L) return;
+            this.buckets.incrementAndGet(bucketOf(ms));
+            this.total.addAndGet(ms);
+            this.count.incrementAndGet();
+        }
+
+        /**
+         * @return average duration in ms, -1 if there are no values
+         */
+        public long getAverage() {
+            final long c = this.count.get();
+            return c > 0L ? this.total.get() / c : -1L;
+        }
+
+        /**
+         * @return a copy of the bucket counts
+         */
+        @NonNull
+        public long[] getBuckets() {
+            final long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) copy[i] = this.buckets.get(i);
+            return copy;
+        }
+
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /**
+         * Returns an estimate of a percentile.<br>
+         * As the values are not kept, the upper bound of the bucket that the percentile falls into is returned.
+         * @param p percentile, e.g. 0.9 for the 90th percentile
+         * @return duration in ms, -1 if there are no values, {@link Long#MAX_VALUE} if the percentile falls into the last bucket
+         */
+        public long getPercentile(float p) {
+            final long[] b = getBuckets();
+            long n = 0L;
+            for (long c : b) n += c;
+            if (n == 0L) return -1L;
+            final long rank = (long)Math.ceil(p * n);
+            long sum = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                sum += b[i];
+                if (sum >= rank) return upperBoundOf(i);
+            }
+            return upperBoundOf(BUCKETS - 1);
+        }
+    }
+
+    /**
+     * The http calls to one host.
+     */
+    public static final class HostStats {
+
+        @NonNull private final String host;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        /** number of times that a call got a connection */
+        private final AtomicLong acquired = new AtomicLong();
+        /** number of times that a call got a connection that had existed before */
+        private final AtomicLong reused = new AtomicLong();
+        /** number of times that a call got an HTTP/2 connection */
+        private final AtomicLong http2 = new AtomicLong();
+        private final AtomicLong connectFailures = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final Histogram dns = new Histogram();
+        private final Histogram connect = new Histogram();
+        private final Histogram tls = new Histogram();
+        /** from sending the request until the response headers begin to arrive */
+        private final Histogram ttfb = new Histogram();
+        /** from the start until the end of the call, including reading the response body */
+        private final Histogram call = new Histogram();
+
+        private HostStats(@NonNull String host) {
+            super();
+            this.host = host;
+        }
+
+        public long getAcquired() {
+            return this.acquired.get();
+        }
+
+        public long getBytesIn() {
+            return this.bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return this.bytesOut.get();
+        }
+
+        public long getCacheHits() {
+            return this.cacheHits.get();
+        }
+
+        @NonNull
+        public Histogram getCall() {
+            return this.call;
+        }
+
+        public long getCalls() {
+            return this.calls.get();
+        }
+
+        @NonNull
+        public Histogram getConnect() {
+            return this.connect;
+        }
+
+        public long getConnectFailures() {
+            return this.connectFailures.get();
+        }
+
+        @NonNull
+        public Histogram getDns() {
+            return this.dns;
+        }
+
+        public long getFailures() {
+            return this.failures.get();
+        }
+
+        @NonNull
+        public String getHost() {
+            return this.host;
+        }
+
+        /**
+         * @return share of the acquired connections that used HTTP/2 (0 to 1)
+         */
+        public float getHttp2Ratio() {
+            final long a = this.acquired.get();
+            return a > 0L ? (float)this.http2.get() / a : 0f;
+        }
+
+        /**
+         * @return share of the acquired connections that had existed before (0 to 1)
+         */
+        public float getReuseRatio() {
+            final long a = this.acquired.get();
+            return a > 0L ? (float)this.reused.get() / a : 0f;
+        }
+
+        @NonNull
+        public Histogram getTls() {
+            return this.tls;
+        }
+
+        @NonNull
+        public Histogram getTtfb() {
+            return this.ttfb;
+        }
+    }
+
+    /**
+     * Observes one call.<br>
+     * For calls that are enqueued, callStart() is delivered on the caller's thread and all later events on a thread of the Dispatcher;
+     * hence {@link #callStart} is volatile. The other fields are only touched on the thread that executes the call.
+     */
+    private final class CallObserver extends ForwardingEventListener {
+
+        /** the statistics of the host that the current request goes to; may change after a redirect */
+        @Nullable private HostStats hostStats;
+        private volatile long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        /** {@code true} if a connection has been set up since the previous one had been acquired */
+        private boolean connected;
+
+        private CallObserver(@NonNull EventListener delegate, @NonNull String host) {
+            super(delegate);
+            this.hostStats = getOrCreate(host);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void cacheHit(@NonNull Call call, @NonNull Response response) {
+            if (this.hostStats != null) this.hostStats.cacheHits.incrementAndGet();
+            super.cacheHit(call, response);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void callEnd(@NonNull Call call) {
+            final HostStats s = this.hostStats;
+            if (s != null) {
+                s.calls.incrementAndGet();
+                s.call.add((System.nanoTime() - this.callStart) / 1_000_000L);
+            }
+            super.callEnd(call);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            final HostStats s = this.hostStats;
+            if (s != null) {
+                s.calls.incrementAndGet();
+                s.failures.incrementAndGet();
+            }
+            super.callFailed(call, ioe);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void callStart(@NonNull Call call) {
+            this.callStart = System.nanoTime();
+            super.callStart(call);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            // with TLS, the connection setup has been recorded when the handshake started
+            if (this.connectStart != 0L) {
+                if (this.hostStats != null) this.hostStats.connect.add((System.nanoTime() - this.connectStart) / 1_000_000L);
+                this.connectStart = 0L;
+            }
+            super.connectEnd(call, inetSocketAddress, proxy, protocol);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol, @NonNull IOException ioe) {
+            this.connectStart = this.secureConnectStart = 0L;
+            if (this.hostStats != null) this.hostStats.connectFailures.incrementAndGet();
+            super.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+            this.connectStart = System.nanoTime();
+            this.connected = true;
+            super.connectStart(call, inetSocketAddress, proxy);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+            final HostStats s = this.hostStats;
+            if (s != null) {
+                s.acquired.incrementAndGet();
+                if (!this.connected) s.reused.incrementAndGet();
+                if (connection.protocol() == Protocol.HTTP_2) s.http2.incrementAndGet();
+            }
+            this.connected = false;
+            super.connectionAcquired(call, connection);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList) {
+            if (this.dnsStart != 0L) {
+                if (this.hostStats != null) this.hostStats.dns.add((System.nanoTime() - this.dnsStart) / 1_000_000L);
+                this.dnsStart = 0L;
+            }
+            super.dnsEnd(call, domainName, inetAddressList);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            this.dnsStart = System.nanoTime();
+            super.dnsStart(call, domainName);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void proxySelectStart(@NonNull Call call, @NonNull HttpUrl url) {
+            // after a redirect, the call continues with another host
+            if (this.hostStats == null || !this.hostStats.host.equals(url.host())) this.hostStats = getOrCreate(url.host());
+            super.proxySelectStart(call, url);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            if (this.hostStats != null) this.hostStats.bytesOut.addAndGet(byteCount);
+            super.requestBodyEnd(call, byteCount);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+            if (this.hostStats != null) this.hostStats.bytesOut.addAndGet(request.headers().byteCount());
+            super.requestHeadersEnd(call, request);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void requestHeadersStart(@NonNull Call call) {
+            this.requestStart = System.nanoTime();
+            super.requestHeadersStart(call);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            if (this.hostStats != null) this.hostStats.bytesIn.addAndGet(byteCount);
+            super.responseBodyEnd(call, byteCount);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+            if (this.hostStats != null) this.hostStats.bytesIn.addAndGet(response.headers().byteCount());
+            super.responseHeadersEnd(call, response);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void responseHeadersStart(@NonNull Call call) {
+            if (this.requestStart != 0L) {
+                if (this.hostStats != null) this.hostStats.ttfb.add((System.nanoTime() - this.requestStart) / 1_000_000L);
+                this.requestStart = 0L;
+            }
+            super.responseHeadersStart(call);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+            if (this.secureConnectStart != 0L) {
+                if (this.hostStats != null) this.hostStats.tls.add((System.nanoTime() - this.secureConnectStart) / 1_000_000L);
+                this.secureConnectStart = 0L;
+            }
+            super.secureConnectEnd(call, handshake);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            final long now = System.nanoTime();
+            if (this.connectStart != 0L) {
+                if (this.hostStats != null) this.hostStats.connect.add((now - this.connectStart) / 1_000_000L);
+                this.connectStart = 0L;
+            }
+            this.secureConnectStart = now;
+            super.secureConnectStart(call);
+        }
+    }
+}
@@ -195,6 +195,18 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
             }
             sb.append("</p>\n");
         }
+        final TlsSessions tlsSessions = ((App)a.getApplicationContext()).getTlsSessions();
+        final List<TlsSessions.HandshakeStats> handshakeStats = tlsSessions != null ? tlsSessions.getHandshakeStats() : null;
+        if (handshakeStats != null && !handshakeStats.isEmpty()) {
+            // the hosts with the slowest TLS handshakes
+            sb.append("<p>TLS:");
+            final int n = Math.min(5, handshakeStats.size());
+            for (int i = 0; i < n; i++) {
+                TlsSessions.HandshakeStats hs = handshakeStats.get(i);
+                sb.append("<br>").append(hs.getHost()).append(": Ø ").append(hs.getAverage()).append(" ms (").append(hs.getCount()).append("×)");
+            }
+            sb.append("</p>\n");
+        }
         sb.append("</body></html>");
         @SuppressLint("InflateParams")
         View v = LayoutInflater.from(a).inflate(R.layout.info, null);
@@ -222,6 +234,8 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
     private NetworkCallback networkCallback;
     @NonNull
     private NetworkInfo.State state = NetworkInfo.State.UNKNOWN;
+    /** true if the active network is metered */
+    private volatile boolean metered;
     private boolean prefsChangeListenerAdded;
     private boolean networkCallbackRegistered = false;
 
@@ -271,6 +285,14 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
         return this.state;
     }
 
+    /**
+     * Tells whether the active network is metered.
+     * @return true / false
+     */
+    public boolean isMetered() {
+        return this.metered;
+    }
+
     @RequiresApi(21)
     @RequiresPermission(android.Manifest.permission.ACCESS_NETWORK_STATE)
     @UiThread
@@ -411,6 +433,7 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
             boolean isVpn = !isNotVpn;
             boolean isNotMetered = nc == null || nc.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
             boolean isMetered = !isNotMetered;
+            this.metered = isMetered;
             if (isMetered && !allowMetered) {
                 this.state = NetworkInfo.State.DISCONNECTED;
             } else {
@@ -427,8 +450,11 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
                 }
             }
         } else if (nia != null) {
+            // no capabilities available - assume that mobile networks are metered
+            this.metered = nia.getType() == ConnectivityManager.TYPE_MOBILE;
             this.state = nia.getState();
         } else {
+            this.metered = false;
             this.state = NetworkInfo.State.DISCONNECTED;
         }
     }
@@ -489,6 +515,13 @@ public final class NetworkChangedReceiver extends BroadcastReceiver implements S
         /** {@inheritDoc} */
         @Override
         public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities networkCapabilities) {
+            if (!Objects.equals(this.available, network)) return;
+            // a network may become metered or unmetered while it is connected (e.g. a wifi hotspot being marked as metered)
+            final boolean isMetered = !networkCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            if (isMetered == NetworkChangedReceiver.this.metered) return;
+            NetworkInfo.State oldState = NetworkChangedReceiver.this.state;
+            updateSituation(null);
+            notifyListeners(oldState);
         }
 
         /** {@inheritDoc} */
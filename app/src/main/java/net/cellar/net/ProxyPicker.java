@@ -10,6 +10,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.TextUtils;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.preference.PreferenceManager;
@@ -25,14 +26,20 @@ import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.SocketAddress;
 import java.net.URI;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 
 /**
- * Implementation of a java.net.ProxySelector.
+ * Implementation of a java.net.ProxySelector.<br>
+ * The proxy settings are compiled into an immutable {@link Routes routing table} which is replaced as a whole via {@link #reload()}
+ * whenever the settings change; {@link #select(URI)} only looks up that table.
  */
 public class ProxyPicker extends ProxySelector {
 
@@ -42,57 +49,32 @@ public class ProxyPicker extends ProxySelector {
     private static final String ATTR_HTTP_PORT = "http.proxyPort";
     private static final String ATTR_SOCKS_HOST = "socksProxyHost";
     private static final String ATTR_SOCKS_PORT = "socksProxyPort";
+    private static final List<Proxy> DIRECT = Collections.singletonList(Proxy.NO_PROXY);
     private static final String TAG = "ProxyPicker";
 
     /**
-     * Determines the proxy server to use based on the preferences.<br>
+     * Compiles the proxy settings into a routing table.<br>
      * The proxy port defaults to {@link App#DEFAULT_PROXY_PORT}, if not given as "address:portnumber".<br>
-     * Also sets the relevant system properties (which are, according to the docs, used by libvlc).<br>
+     * Also sets the relevant system properties (which are, according to the docs, used by libvlc) - but only if the proxy applies to all hosts,
+     * because the system properties cannot express a restriction to some hosts.<br>
      * See <a href="https://docs.oracle.com/javase/8/docs/technotes/guides/net/proxies.html">https://docs.oracle.com/javase/8/docs/technotes/guides/net/proxies.html</a>
-     * @param ctx Context
-     * @return java.net.Proxy or {@code null} which means direct connection
-     * @throws NullPointerException if {@code ctx} is {@code null}
+     * @param prefs SharedPreferences
+     * @return Routes
+     * @throws NullPointerException if {@code prefs} is {@code null}
      */
-    @Nullable
-    private static Proxy determineProxy(@NonNull Context ctx, URI uri) {
-        String host = uri.getHost();
-        if (host == null) return null;
-        return determineProxy(ctx, host);
-    }
-
-    @Nullable
-    private static Proxy determineProxy(@NonNull Context ctx, @NonNull final String host) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-        String defaultProxyValue = Proxy.Type.DIRECT.toString();
-        String type = prefs.getString(App.PREF_PROXY_TYPE, defaultProxyValue);
+    @NonNull
+    private static Routes compile(@NonNull SharedPreferences prefs) {
+        final String defaultProxyValue = Proxy.Type.DIRECT.toString();
+        final String type = prefs.getString(App.PREF_PROXY_TYPE, defaultProxyValue);
         if (defaultProxyValue.equals(type)) {
             proxyClear();
-            return null;
+            return Routes.NONE;
         }
-        String proxyServerAndPort = prefs.getString(App.PREF_PROXY_SERVER, null);
+        final String proxyServerAndPort = prefs.getString(App.PREF_PROXY_SERVER, null);
         if (TextUtils.isEmpty(proxyServerAndPort)) {
             proxyClear();
-            return null;
+            return Routes.NONE;
         }
-        @Nullable Set<String> restrict = getAffectedHosts(prefs);
-        boolean proxyAppliesToHost;
-        if (restrict != null) {
-            proxyAppliesToHost = false;
-            for (String r : restrict) {
-                if (host.endsWith(r)) {
-                    proxyAppliesToHost = true;
-                    break;
-                }
-            }
-        } else {
-            proxyAppliesToHost = true;
-        }
-        if (!proxyAppliesToHost) {
-            proxyClear();
-            return null;
-        }
-
-        //
         String proxyServer;
         int proxyPort;
         //noinspection ConstantConditions
@@ -105,14 +87,25 @@ public class ProxyPicker extends ProxySelector {
             proxyServer = proxyServerAndPort.trim();
             proxyPort = App.DEFAULT_PROXY_PORT;
         }
-        if (Proxy.Type.HTTP.toString().equals(type)) {
+        final Proxy proxy;
+        try {
+            proxy = new Proxy(Proxy.Type.valueOf(type), InetSocketAddress.createUnresolved(proxyServer, proxyPort));
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, e.toString());
+            proxyClear();
+            return Routes.NONE;
+        }
+        @Nullable final Set<String> restrict = getAffectedHosts(prefs);
+        if (restrict != null) {
+            proxyClear();
+        } else if (proxy.type() == Proxy.Type.HTTP) {
             System.setProperty(ATTR_HTTP_HOST, proxyServer);
             System.setProperty(ATTR_HTTP_PORT, String.valueOf(proxyPort));
             System.setProperty(ATTR_HTTPS_HOST, proxyServer);
             System.setProperty(ATTR_HTTPS_PORT, String.valueOf(proxyPort));
             System.clearProperty(ATTR_SOCKS_HOST);
             System.clearProperty(ATTR_SOCKS_PORT);
-        } else if (Proxy.Type.SOCKS.toString().equals(type))  {
+        } else if (proxy.type() == Proxy.Type.SOCKS) {
             System.setProperty(ATTR_SOCKS_HOST, proxyServer);
             System.setProperty(ATTR_SOCKS_PORT, String.valueOf(proxyPort));
             System.clearProperty(ATTR_HTTP_HOST);
@@ -120,15 +113,7 @@ public class ProxyPicker extends ProxySelector {
             System.clearProperty(ATTR_HTTPS_HOST);
             System.clearProperty(ATTR_HTTPS_PORT);
         }
-        //
-        SocketAddress sa = InetSocketAddress.createUnresolved(proxyServer, proxyPort);
-        try {
-            return new Proxy(Proxy.Type.valueOf(type), sa);
-        } catch (Exception e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, e.toString());
-        }
-        proxyClear();
-        return null;
+        return new Routes(Collections.singletonList(proxy), restrict != null ? SuffixTrie.of(restrict) : null);
     }
 
     /**
@@ -168,8 +153,8 @@ public class ProxyPicker extends ProxySelector {
         System.clearProperty(ATTR_SOCKS_PORT);
     }
 
-    private final App app;
-    private final List<Proxy> list = new ArrayList<>(1);
+    private final SharedPreferences prefs;
+    @NonNull private volatile Routes routes;
 
     /**
      * Constructor.
@@ -178,7 +163,8 @@ public class ProxyPicker extends ProxySelector {
      */
     public ProxyPicker(@NonNull Context ctx) {
         super();
-        this.app = (App)ctx.getApplicationContext();
+        this.prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        this.routes = compile(this.prefs);
     }
 
     /** {@inheritDoc} */
@@ -187,23 +173,135 @@ public class ProxyPicker extends ProxySelector {
         if (BuildConfig.DEBUG) Log.w(TAG, "Proxy connection " + sa + " failed for " + uri + ": " + ioe.toString());
     }
 
+    /**
+     * Compiles the routing table again. To be called when the proxy settings have changed.
+     */
+    @AnyThread
+    public void reload() {
+        this.routes = compile(this.prefs);
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<Proxy> select(URI uri) {
-        Proxy proxy = determineProxy(this.app, uri);
-        if (proxy == null) proxy = Proxy.NO_PROXY;
-        this.list.clear();
-        this.list.add(proxy);
-        return this.list;
+        final String host = uri.getHost();
+        return host != null ? this.routes.select(host) : DIRECT;
     }
 
+    /**
+     * Selects the proxy for the given host.
+     * @param host host
+     * @return List containing exactly one Proxy, possibly {@link Proxy#NO_PROXY}; must not be modified
+     */
     @NonNull
     public List<Proxy> select(@NonNull String host) {
-        Proxy proxy = determineProxy(this.app, host);
-        if (proxy == null) proxy = Proxy.NO_PROXY;
-        this.list.clear();
-        this.list.add(proxy);
-        return this.list;
+        return this.routes.select(host);
+    }
+
+    /**
+     * The compiled proxy settings. Immutable.
+     */
+    private static final class Routes {
+
+        private static final Routes NONE = new Routes(null, null);
+
+        /** the proxy to use; {@code null} for direct connections */
+        @Nullable private final List<Proxy> proxied;
+        /** the hosts the proxy applies to; {@code null} if it applies to all hosts */
+        @Nullable private final SuffixTrie restrict;
+
+        private Routes(@Nullable List<Proxy> proxied, @Nullable SuffixTrie restrict) {
+            super();
+            this.proxied = proxied;
+            this.restrict = restrict;
+        }
+
+        @NonNull
+        private List<Proxy> select(@NonNull String host) {
+            if (this.proxied == null) return DIRECT;
+            if (this.restrict != null && !this.restrict.matchesSuffixOf(host)) return DIRECT;
+            return this.proxied;
+        }
     }
 
+    /**
+     * A trie of strings stored back to front so that it can tell whether any of them is a suffix of a given String.<br>
+     * Ignores case. Immutable.
+     */
+    private static final class SuffixTrie {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final SuffixTrie[] NO_CHILDREN = new SuffixTrie[0];
+
+        /**
+         * @param suffixes Collection of suffixes
+         * @return SuffixTrie
+         */
+        @NonNull
+        private static SuffixTrie of(@NonNull Collection<String> suffixes) {
+            final Builder root = new Builder();
+            for (String suffix : suffixes) {
+                Builder node = root;
+                for (int i = suffix.length() - 1; i >= 0; i--) {
+                    final char c = Character.toLowerCase(suffix.charAt(i));
+                    Builder child = node.children.get(c);
+                    if (child == null) {
+                        child = new Builder();
+                        node.children.put(c, child);
+                    }
+                    node = child;
+                }
+                node.terminal = true;
+            }
+            return root.build();
+        }
+
+        /** sorted */
+        private final char[] keys;
+        private final SuffixTrie[] children;
+        /** {@code true} if a suffix ends here */
+        private final boolean terminal;
+
+        private SuffixTrie(@NonNull char[] keys, @NonNull SuffixTrie[] children, boolean terminal) {
+            super();
+            this.keys = keys;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        /**
+         * Tells whether any of the suffixes is a suffix of the given String.
+         * @param s String
+         * @return true / false
+         */
+        private boolean matchesSuffixOf(@NonNull String s) {
+            SuffixTrie node = this;
+            for (int i = s.length() - 1; i >= 0; i--) {
+                if (node.terminal) return true;
+                final int index = Arrays.binarySearch(node.keys, Character.toLowerCase(s.charAt(i)));
+                if (index < 0) return false;
+                node = node.children[index];
+            }
+            return node.terminal;
+        }
+
+        private static final class Builder {
+            private final Map<Character, Builder> children = new TreeMap<>();
+            private boolean terminal;
+
+            @NonNull
+            private SuffixTrie build() {
+                final int n = this.children.size();
+                if (n == 0) return new SuffixTrie(NO_KEYS, NO_CHILDREN, this.terminal);
+                final char[] keys = new char[n];
+                final SuffixTrie[] children = new SuffixTrie[n];
+                int i = 0;
+                for (Map.Entry<Character, Builder> entry : this.children.entrySet()) {
+                    keys[i] = entry.getKey();
+                    children[i++] = entry.getValue().build();
+                }
+                return new SuffixTrie(keys, children, this.terminal);
+            }
+        }
+    }
 }
@@ -0,0 +1,239 @@
+/*
+ * TlsSessions.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.net;
+
+import android.content.Context;
+import android.net.SSLSessionCache;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.cellar.BuildConfig;
+import net.cellar.supp.Log;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+
+/**
+ * Provides one SSLContext for all OkHttpClients so that TLS sessions can be resumed after the client has been rebuilt
+ * or a pooled connection has been closed.<br>
+ * The sessions are also written to disk (if the platform allows that) so that they survive a restart of the app.<br>
+ * Records the duration of TLS handshakes per host.
+ */
+public final class TlsSessions implements EventListener.Factory {
+
+    /** directory within the cache dir that the sessions are stored in */
+    private static final String DIR = "tlssessions";
+    /** max. number of hosts to keep handshake statistics for */
+    private static final int MAX_HOSTS = 64;
+    /** max. number of sessions kept in memory */
+    private static final int SESSION_CACHE_SIZE = 64;
+    /** lifetime of a cached session in seconds */
+    private static final int SESSION_TIMEOUT = 24 * 3600;
+    private static final String TAG = "TlsSessions";
+
+    @NonNull private final SSLContext sslContext;
+    @NonNull private final X509TrustManager trustManager;
+    /** key: host */
+    private final ConcurrentHashMap<String, HandshakeStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param ctx Context
+     * @throws GeneralSecurityException if the SSLContext could not be set up
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    public TlsSessions(@NonNull Context ctx) throws GeneralSecurityException {
+        super();
+        final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init((KeyStore)null);
+        X509TrustManager tm = null;
+        for (TrustManager t : tmf.getTrustManagers()) {
+            if (t instanceof X509TrustManager) {
+                tm = (X509TrustManager)t;
+                break;
+            }
+        }
+        if (tm == null) throw new KeyStoreException("No X509TrustManager available");
+        this.trustManager = tm;
+        this.sslContext = SSLContext.getInstance("TLS");
+        this.sslContext.init(null, new TrustManager[] {tm}, null);
+        final SSLSessionContext sessionContext = this.sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+        }
+        installPersistentCache(new File(ctx.getCacheDir(), DIR));
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public EventListener create(@NonNull Call call) {
+        return new HandshakeTimer(call.request().url().host());
+    }
+
+    /**
+     * Returns the handshake statistics, sorted by average duration, the slowest first.
+     * @return List of HandshakeStats
+     */
+    @NonNull
+    public List<HandshakeStats> getHandshakeStats() {
+        final List<HandshakeStats> list = new ArrayList<>(this.stats.values());
+        Collections.sort(list, (s1, s2) -> Long.compare(s2.getAverage(), s1.getAverage()));
+        return list;
+    }
+
+    @NonNull
+    public SSLSocketFactory getSocketFactory() {
+        return this.sslContext.getSocketFactory();
+    }
+
+    @NonNull
+    public X509TrustManager getTrustManager() {
+        return this.trustManager;
+    }
+
+    /**
+     * Attaches a file-based session cache to the SSLContext.<br>
+     * Android does not offer a public method for this, so the attempt may fail, in which case sessions are kept in memory only.
+     * @param dir directory to store the sessions in
+     */
+    private void installPersistentCache(@NonNull File dir) {
+        try {
+            final SSLSessionCache cache = new SSLSessionCache(dir);
+            final Method install = SSLSessionCache.class.getMethod("install", SSLSessionCache.class, SSLContext.class);
+            install.invoke(null, cache, this.sslContext);
+        } catch (Throwable e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "TLS sessions will not be stored: " + e.toString());
+        }
+    }
+
+    /**
+     * Adds a handshake duration to the statistics.
+     * @param host host
+     * @param duration duration in ms
+     */
+    private void record(@NonNull String host, long duration) {
+        HandshakeStats s = this.stats.get(host);
+        if (s == null) {
+            if (this.stats.size() >= MAX_HOSTS) return;
+            s = new HandshakeStats(host);
+            HandshakeStats existing = this.stats.putIfAbsent(host, s);
+            if (existing != null) s = existing;
+        }
+        s.add(duration);
+        if (BuildConfig.DEBUG) Log.i(TAG, "TLS handshake with " + host + " took " + duration + " ms");
+    }
+
+    /**
+     * The TLS handshakes with one host.
+     */
+    public static final class HandshakeStats {
+        @NonNull private final String host;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private HandshakeStats(@NonNull String host) {
+            super();
+            this.host = host;
+        }
+
+        private void add(long duration) {
+            this.count.incrementAndGet();
+            this.total.addAndGet(duration);
+            for (;;) {
+                long m = this.max.get();
+                if (duration <= m || this.max.compareAndSet(m, duration)) break;
+            }
+        }
+
+        /**
+         * @return average duration in ms
+         */
+        public long getAverage() {
+            final long n = this.count.get();
+            return n > 0L ? this.total.get() / n : 0L;
+        }
+
+        /**
+         * @return number of handshakes
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+
+        @NonNull
+        public String getHost() {
+            return this.host;
+        }
+
+        /**
+         * @return longest duration in ms
+         */
+        public long getMax() {
+            return this.max.get();
+        }
+    }
+
+    /**
+     * Measures the TLS handshakes of one call.
+     */
+    private final class HandshakeTimer extends EventListener {
+
+        /** the host that the current connection is made to; may differ from the call's host after a redirect */
+        @NonNull private String host;
+        private long start;
+
+        private HandshakeTimer(@NonNull String host) {
+            super();
+            this.host = host;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void proxySelectStart(@NonNull Call call, @NonNull HttpUrl url) {
+            this.host = url.host();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+            if (this.start == 0L) return;
+            record(this.host, SystemClock.elapsedRealtime() - this.start);
+            this.start = 0L;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            this.start = SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -32,7 +32,9 @@ import net.cellar.MainActivity;
 import net.cellar.model.Delivery;
 import net.cellar.model.Order;
 import net.cellar.model.Wish;
+import net.cellar.net.EvilBlocker;
 import net.cellar.net.NetworkChangedReceiver;
+import net.cellar.net.ProxyPicker;
 import net.cellar.supp.DebugUtil;
 import net.cellar.supp.Log;
 import net.cellar.supp.UriHandler;
@@ -51,11 +53,13 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.net.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +79,8 @@ public final class QueueManager implements NetworkChangedReceiver.ConnectivityCh
     public static final int JOB_ID = 891234;
     private static final String FILE = "queue";
     private static final long MIN_CHECK_INTERVAL = 1_000L;
+    /** max. number of hosts of upcoming downloads to resolve in advance */
+    private static final int PREFETCH_COUNT = 4;
     /** whenever the queue has been modified, the data is stored after this many milliseconds */
     private static final long STORE_DELAY = 5_000L;
     private static final String TAG = "QueueManager";
@@ -182,7 +188,7 @@ public final class QueueManager implements NetworkChangedReceiver.ConnectivityCh
      */
     public void addDeferredDownload(@NonNull final Order order) {
         //TODO when the download has been resumed, the file name must be removed from PREF_INSPECTOR_IGNORED!
-        Inspector.toggleIgnoreFile(this.app, order.getDestinationFilename(), true);
+        Inspector.toggleIgnoreFile(order.getDestinationFilename(), true);
         final Wish wish = new Wish(order.getUri());
         wish.setMime(order.getMime());
         wish.setFileName(order.getDestinationFilename());
@@ -420,6 +426,7 @@ public final class QueueManager implements NetworkChangedReceiver.ConnectivityCh
         }
         final Wish wish;
         final int remaining;
+        final Set<String> upcomingHosts = new HashSet<>(PREFETCH_COUNT);
         synchronized (this.wishes) {
             int pickThisOne = -1;
             for (int i = 0; i < n && pickThisOne < 0; i++) {
@@ -432,7 +439,23 @@ public final class QueueManager implements NetworkChangedReceiver.ConnectivityCh
             }
             wish = this.wishes.remove(pickThisOne);
             remaining = this.wishes.size();
+            for (int i = pickThisOne; i < remaining && upcomingHosts.size() < PREFETCH_COUNT; i++) {
+                Wish upcoming = this.wishes.get(i);
+                if (upcoming.isHeld()) continue;
+                String host = upcoming.getUri().getHost();
+                if (host != null) upcomingHosts.add(host);
+            }
+        }
+        // resolve the hosts of the next downloads while this one is running
+        // (but not those that are reached via a proxy - they are resolved by the proxy, and a local lookup would reveal them)
+        final EvilBlocker evilBlocker = this.app.getEvilBlocker();
+        final ProxyPicker proxyPicker = this.app.getProxyPicker();
+        for (Iterator<String> i = upcomingHosts.iterator(); i.hasNext(); ) {
+            final String host = i.next();
+            if ((evilBlocker != null && evilBlocker.isEvil(host))
+                    || (proxyPicker != null && proxyPicker.select(host).get(0).type() != Proxy.Type.DIRECT)) i.remove();
         }
+        this.app.getDnsCache().prefetch(upcomingHosts);
         synchronized (this.fileNames) {
             boolean fileNameFound = false;
             for (Map.Entry<String, String> e : this.fileNames.entrySet()) {
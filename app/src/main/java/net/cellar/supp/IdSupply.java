@@ -29,6 +29,8 @@ public interface IdSupply {
     int NOTIFICATION_ID_ENQUEUE = 123_456;
     /** notification id for group summary */
     int NOTIFICATION_ID_GROUP_SUMMARY = 100_000;
+    /** notification id for the summary of the running downloads */
+    int NOTIFICATION_ID_PROGRESS_SUMMARY = 100_001;
     /** notification id for notifications from the {@link net.cellar.StoreActivity} */
     int NOTIFICATION_ID_STORE_ACTIVITY = 200_000;
     /** an email has been saved in a file */
@@ -0,0 +1,545 @@
+/*
+ * ParallelZip.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.supp;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file whose entries are compressed by several threads at once.<br>
+ * Each entry is split into blocks of {@link #BLOCK_SIZE} bytes which are read and deflated independently
+ * (each block is primed with the preceding 32 KB so that the compression ratio hardly suffers);
+ * the blocks are then written in order by the calling thread.
+ * Entries may also be {@link #METHOD_STORED stored} without compression, which is appropriate for data that is already compressed.<br>
+ * The local headers carry the correct sizes and checksums (they are patched after the data has been written),
+ * so that the archive can also be read sequentially. Zip64 records are written where needed.<br>
+ * A file that cannot be read (e.g. because it has been deleted meanwhile) is left out of the archive; see {@link Entry#isSkipped()}.<br>
+ * Does not support encryption.
+ */
+public final class ParallelZip implements Closeable {
+
+    public static final int METHOD_DEFLATED = 8;
+    public static final int METHOD_STORED = 0;
+    /** number of bytes compressed as one unit */
+    @VisibleForTesting static final int BLOCK_SIZE = 128 * 1024;
+    /** size of the deflate window which the next block is primed with */
+    private static final int DICT_SIZE = 32 * 1024;
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+    /** general purpose flag: file name is encoded in UTF-8 */
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int SIG_LOCAL = 0x04034b50;
+    private static final int SIG_CENTRAL = 0x02014b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int SIG_ZIP64_END = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    /**
+     * Estimates the entropy of the given data.<br>
+     * Data that has been compressed or encrypted comes close to 8 bits per byte; text is usually below 5.
+     * @param data data
+     * @param len number of bytes to evaluate
+     * @return entropy in bits per byte (0 to 8)
+     */
+    public static double entropy(@NonNull byte[] data, int len) {
+        if (len <= 0) return 0.;
+        final int[] counts = new int[256];
+        for (int i = 0; i < len; i++) counts[data[i] & 0xff]++;
+        double e = 0.;
+        for (int count : counts) {
+            if (count == 0) continue;
+            final double p = (double)count / len;
+            e -= p * Math.log(p);
+        }
+        return e / Math.log(2.);
+    }
+
+    /**
+     * Converts a timestamp into the MS-DOS format used in zip files.
+     * @param time timestamp in ms
+     * @return MS-DOS date in the upper 16 bits and MS-DOS time in the lower 16 bits
+     */
+    private static int toDosTime(long time) {
+        final Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        final int year = c.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return ((year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16)
+                | (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    @NonNull private final FileOutputStream fos;
+    @NonNull private final OutputStream out;
+    @NonNull private final ExecutorService executor;
+    private final int level;
+    /** max. number of blocks being processed at the same time */
+    private final int window;
+    private final List<Entry> entries = new ArrayList<>();
+    private final ArrayDeque<Block> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    /** number of bytes written so far */
+    private long written;
+    /** set after an error; the archive will not be completed then */
+    private boolean failed;
+    @Nullable private String comment;
+
+    /**
+     * Constructor.
+     * @param destination file to write
+     * @param executor ExecutorService to compress the blocks on
+     * @param threads number of threads that the ExecutorService provides
+     * @param level compression level for {@link #METHOD_DEFLATED deflated} entries
+     * @throws IOException if the file cannot be created
+     */
+    public ParallelZip(@NonNull File destination, @NonNull ExecutorService executor, @IntRange(from = 1) int threads, @IntRange(from = 1, to = 9) int level) throws IOException {
+        super();
+        this.fos = new FileOutputStream(destination);
+        this.out = new BufferedOutputStream(this.fos, 65536);
+        this.executor = executor;
+        this.level = level;
+        this.window = Math.max(2, threads * 3);
+    }
+
+    /**
+     * Stops writing the archive without completing it: pending blocks are discarded and no central directory is written.<br>
+     * The incomplete file is left to the caller to delete.
+     */
+    public void abort() {
+        this.failed = true;
+        Util.close(this);
+    }
+
+    /**
+     * Adds a file. The data will be written later, at the latest when {@link #close()} is called.
+     * @param file file to add
+     * @param name entry name
+     * @param method {@link #METHOD_DEFLATED} or {@link #METHOD_STORED}
+     * @return Entry describing the file in the archive; its checksum and compressed size are valid once the data has been written
+     * @throws IOException if an I/O error occurs while writing data of previous entries (errors while reading a file cause its entry to be skipped)
+     */
+    @NonNull
+    public Entry add(@NonNull File file, @NonNull String name, int method) throws IOException {
+        final Entry entry = new Entry(file, name, method);
+        this.entries.add(entry);
+        final long length = entry.size;
+        int index = 0;
+        for (long position = 0L; position < length || index == 0; position += BLOCK_SIZE) {
+            final boolean last = position + BLOCK_SIZE >= length;
+            final Block block = new Block(entry, index++, position, (int)Math.min(BLOCK_SIZE, length - position), last);
+            block.future = this.executor.submit(block);
+            this.pending.add(block);
+            drain(this.window - 1);
+        }
+        return entry;
+    }
+
+    /**
+     * Finishes the archive.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!this.failed) {
+                drain(0);
+                writeCentralDirectory();
+                this.out.flush();
+            }
+        } finally {
+            for (Block block : this.pending) {
+                if (block.future != null) block.future.cancel(true);
+            }
+            this.pending.clear();
+            Util.close(this.out);
+        }
+    }
+
+    /**
+     * Writes blocks until no more than the given number of blocks are pending.
+     * @param max max. number of pending blocks
+     * @throws IOException if an I/O error occurs; the archive cannot be completed then
+     */
+    private void drain(int max) throws IOException {
+        try {
+            while (this.pending.size() > max) writeBlock(this.pending.removeFirst());
+        } catch (IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the archive comment.
+     * @param comment comment
+     */
+    public void setComment(@Nullable String comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * Removes an entry whose file could not be read. The data that has been written for it already is discarded.
+     * @param entry Entry to remove
+     * @param started {@code true} if the local header and some data of the entry have been written
+     * @throws IOException if the written data cannot be discarded
+     */
+    private void skip(@NonNull Entry entry, boolean started) throws IOException {
+        entry.skipped = true;
+        this.entries.remove(entry);
+        for (Block block : this.pending) {
+            if (block.entry == entry && block.future != null) block.future.cancel(true);
+        }
+        if (!started) return;
+        this.out.flush();
+        // this also moves the file position back to the start of the entry
+        this.fos.getChannel().truncate(entry.offset);
+        this.written = entry.offset;
+    }
+
+    /**
+     * Writes the data of one block; writes the local header before the first block and patches it after the last block.
+     * @param block Block
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeBlock(@NonNull Block block) throws IOException {
+        if (this.failed) throw new IOException("A previous error prevents writing " + block.entry.name);
+        final Entry entry = block.entry;
+        if (entry.skipped) return;
+        final Chunk result;
+        try {
+            //noinspection ConstantConditions
+            result = block.future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.toString());
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            // the file could not be read
+            if (cause instanceof IOException) {
+                skip(entry, block.index > 0);
+                return;
+            }
+            throw new IOException(cause);
+        }
+        if (block.index == 0) {
+            this.crc.reset();
+            writeLocalHeader(entry);
+        }
+        this.crc.update(result.raw, result.rawOffset, result.rawLength);
+        this.out.write(result.data, 0, result.dataLength);
+        this.written += result.dataLength;
+        entry.compressedSize += result.dataLength;
+        entry.actualSize += result.rawLength;
+        if (block.last) {
+            entry.crc = this.crc.getValue();
+            patchLocalHeader(entry);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long start = this.written;
+        for (Entry entry : this.entries) {
+            final boolean zip64 = entry.compressedSize >= MAX_32 || entry.actualSize >= MAX_32 || entry.offset >= MAX_32;
+            final ByteBuffer b = ByteBuffer.allocate(46 + entry.nameBytes.length + (zip64 ? 28 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(SIG_CENTRAL);
+            b.putShort((short)(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+            b.putShort((short)(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+            b.putShort((short)FLAG_UTF8);
+            b.putShort((short)entry.method);
+            b.putInt(entry.dosTime);
+            b.putInt((int)entry.crc);
+            b.putInt((int)(zip64 ? MAX_32 : entry.compressedSize));
+            b.putInt((int)(zip64 ? MAX_32 : entry.actualSize));
+            b.putShort((short)entry.nameBytes.length);
+            b.putShort((short)(zip64 ? 28 : 0));
+            b.putShort((short)0);   // comment length
+            b.putShort((short)0);   // disk number
+            b.putShort((short)0);   // internal attributes
+            b.putInt(0);            // external attributes
+            b.putInt((int)(zip64 ? MAX_32 : entry.offset));
+            b.put(entry.nameBytes);
+            if (zip64) {
+                b.putShort((short)1);
+                b.putShort((short)24);
+                b.putLong(entry.actualSize);
+                b.putLong(entry.compressedSize);
+                b.putLong(entry.offset);
+            }
+            write(b);
+        }
+        final long size = this.written - start;
+        final int count = this.entries.size();
+        final boolean zip64 = count >= MAX_16 || start >= MAX_32 || size >= MAX_32;
+        if (zip64) {
+            final long zip64End = this.written;
+            final ByteBuffer b = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(SIG_ZIP64_END);
+            b.putLong(44L);
+            b.putShort((short)VERSION_ZIP64);
+            b.putShort((short)VERSION_ZIP64);
+            b.putInt(0);
+            b.putInt(0);
+            b.putLong(count);
+            b.putLong(count);
+            b.putLong(size);
+            b.putLong(start);
+            b.putInt(SIG_ZIP64_LOCATOR);
+            b.putInt(0);
+            b.putLong(zip64End);
+            b.putInt(1);
+            write(b);
+        }
+        final byte[] commentBytes = this.comment != null ? this.comment.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        final int commentLength = Math.min(MAX_16, commentBytes.length);
+        final ByteBuffer b = ByteBuffer.allocate(22 + commentLength).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(SIG_END);
+        b.putShort((short)0);
+        b.putShort((short)0);
+        b.putShort((short)Math.min(count, MAX_16));
+        b.putShort((short)Math.min(count, MAX_16));
+        b.putInt((int)Math.min(size, MAX_32));
+        b.putInt((int)Math.min(start, MAX_32));
+        b.putShort((short)commentLength);
+        b.put(commentBytes, 0, commentLength);
+        write(b);
+    }
+
+    private void write(@NonNull ByteBuffer b) throws IOException {
+        this.out.write(b.array(), 0, b.position());
+        this.written += b.position();
+    }
+
+    /**
+     * Writes the local header. The checksum and the sizes are filled in later by {@link #patchLocalHeader(Entry)}.
+     * @param entry Entry
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeLocalHeader(@NonNull Entry entry) throws IOException {
+        entry.offset = this.written;
+        final ByteBuffer b = ByteBuffer.allocate(30 + entry.nameBytes.length + (entry.zip64 ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(SIG_LOCAL);
+        b.putShort((short)(entry.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        b.putShort((short)FLAG_UTF8);
+        b.putShort((short)entry.method);
+        b.putInt(entry.dosTime);
+        b.putInt(0);
+        b.putInt(entry.zip64 ? (int)MAX_32 : 0);
+        b.putInt(entry.zip64 ? (int)MAX_32 : 0);
+        b.putShort((short)entry.nameBytes.length);
+        b.putShort((short)(entry.zip64 ? 20 : 0));
+        b.put(entry.nameBytes);
+        if (entry.zip64) {
+            b.putShort((short)1);
+            b.putShort((short)16);
+            b.putLong(0L);
+            b.putLong(0L);
+        }
+        write(b);
+    }
+
+    /**
+     * Fills in the checksum and the sizes in the local header of the given Entry.
+     * @param entry Entry whose data has been written completely
+     * @throws IOException if an I/O error occurs
+     */
+    private void patchLocalHeader(@NonNull Entry entry) throws IOException {
+        if (!entry.zip64 && (entry.compressedSize >= MAX_32 || entry.actualSize >= MAX_32)) {
+            throw new IOException(entry.name + " has grown beyond 4 GB while being added");
+        }
+        this.out.flush();
+        final FileChannel channel = this.fos.getChannel();
+        final ByteBuffer b = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt((int)entry.crc);
+        if (!entry.zip64) {
+            b.putInt((int)entry.compressedSize);
+            b.putInt((int)entry.actualSize);
+        }
+        b.flip();
+        channel.write(b, entry.offset + 14);
+        if (entry.zip64) {
+            final ByteBuffer sizes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            sizes.putLong(entry.actualSize);
+            sizes.putLong(entry.compressedSize);
+            sizes.flip();
+            channel.write(sizes, entry.offset + 30 + entry.nameBytes.length + 4);
+        }
+    }
+
+    /**
+     * A file in the archive.
+     */
+    public static final class Entry {
+        @NonNull private final File file;
+        @NonNull private final String name;
+        @NonNull private final byte[] nameBytes;
+        private final int method;
+        private final int dosTime;
+        /** the file size at the time the Entry was created */
+        private final long size;
+        /** whether the local header contains Zip64 sizes */
+        private final boolean zip64;
+        private long offset;
+        private long compressedSize;
+        private long actualSize;
+        private long crc;
+        /** set if the file could not be read; the Entry is not part of the archive then */
+        private boolean skipped;
+
+        private Entry(@NonNull File file, @NonNull String name, int method) {
+            super();
+            this.file = file;
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.dosTime = toDosTime(file.lastModified());
+            this.size = file.length();
+            // deflated data may be a little larger than the original
+            this.zip64 = this.size >= MAX_32 - (MAX_32 >> 8);
+        }
+
+        public long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+
+        @NonNull
+        public String getName() {
+            return this.name;
+        }
+
+        public long getSize() {
+            return this.actualSize;
+        }
+
+        /**
+         * @return {@code true} if the file could not be read and has therefore been left out of the archive
+         */
+        public boolean isSkipped() {
+            return this.skipped;
+        }
+    }
+
+    /**
+     * A part of an Entry that is read and compressed on its own.
+     */
+    private final class Block implements Callable<Chunk> {
+        @NonNull private final Entry entry;
+        private final int index;
+        private final long position;
+        private final int length;
+        private final boolean last;
+        @Nullable private Future<Chunk> future;
+
+        private Block(@NonNull Entry entry, int index, long position, int length, boolean last) {
+            super();
+            this.entry = entry;
+            this.index = index;
+            this.position = position;
+            this.length = length;
+            this.last = last;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        @NonNull
+        public Chunk call() throws IOException {
+            final boolean deflate = this.entry.method == METHOD_DEFLATED;
+            final int dictLength = deflate ? (int)Math.min(DICT_SIZE, this.position) : 0;
+            final byte[] raw = new byte[dictLength + this.length];
+            int read = 0;
+            try (RandomAccessFile raf = new RandomAccessFile(this.entry.file, "r")) {
+                raf.seek(this.position - dictLength);
+                while (read < raw.length) {
+                    final int r = raf.read(raw, read, raw.length - read);
+                    if (r < 0) break;
+                    read += r;
+                }
+            }
+            final int rawLength = Math.max(0, read - dictLength);
+            if (!deflate) {
+                return new Chunk(raw, 0, rawLength, raw, rawLength);
+            }
+            final Deflater deflater = new Deflater(ParallelZip.this.level, true);
+            try {
+                if (dictLength > 0) deflater.setDictionary(raw, 0, dictLength);
+                deflater.setInput(raw, dictLength, rawLength);
+                byte[] data = new byte[rawLength + (rawLength >> 6) + 64];
+                int dataLength = 0;
+                if (this.last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        if (dataLength == data.length) data = Arrays.copyOf(data, data.length << 1);
+                        dataLength += deflater.deflate(data, dataLength, data.length - dataLength);
+                    }
+                } else {
+                    // a sync flush ends the block at a byte boundary so that the next block can be appended
+                    for (;;) {
+                        if (dataLength == data.length) data = Arrays.copyOf(data, data.length << 1);
+                        final int space = data.length - dataLength;
+                        final int n = deflater.deflate(data, dataLength, space, Deflater.SYNC_FLUSH);
+                        dataLength += n;
+                        if (n < space) break;
+                    }
+                }
+                return new Chunk(raw, dictLength, rawLength, data, dataLength);
+            } finally {
+                deflater.end();
+            }
+        }
+
+    }
+
+    /**
+     * The outcome of a Block: the original data and the data to be written.
+     */
+    private static final class Chunk {
+        /** the original data, possibly preceded by the dictionary */
+        @NonNull private final byte[] raw;
+        private final int rawOffset;
+        private final int rawLength;
+        @NonNull private final byte[] data;
+        private final int dataLength;
+
+        private Chunk(@NonNull byte[] raw, int rawOffset, int rawLength, @NonNull byte[] data, int dataLength) {
+            super();
+            this.raw = raw;
+            this.rawOffset = rawOffset;
+            this.rawLength = rawLength;
+            this.data = data;
+            this.dataLength = dataLength;
+        }
+    }
+}
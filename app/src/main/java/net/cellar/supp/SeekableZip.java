@@ -0,0 +1,385 @@
+/*
+ * SeekableZip.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.supp;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a zip file from a {@link FileChannel} that supports positional reads, e.g. one that has been obtained from a ParcelFileDescriptor.<br>
+ * The central directory is read once; afterwards the entries can be read by several threads at the same time
+ * because positional reads do not modify the channel's position.
+ * Supports {@link ParallelZip#METHOD_STORED stored} and {@link ParallelZip#METHOD_DEFLATED deflated} entries and Zip64 archives;
+ * does not support encryption or archives spanning several files.
+ */
+public final class SeekableZip {
+
+    private static final int SIG_LOCAL = 0x04034b50;
+    private static final int SIG_CENTRAL = 0x02014b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int SIG_ZIP64_END = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+    private static final int LEN_LOCAL = 30;
+    private static final int LEN_CENTRAL = 46;
+    private static final int LEN_END = 22;
+    private static final int LEN_ZIP64_END = 56;
+    private static final int LEN_ZIP64_LOCATOR = 20;
+    private static final int MAX_16 = 0xffff;
+    private static final long MAX_32 = 0xffffffffL;
+    /** general purpose flag: entry is encrypted */
+    private static final int FLAG_ENCRYPTED = 1;
+    /** id of the extra field that holds Zip64 sizes and offsets */
+    private static final int EXTRA_ZIP64 = 0x0001;
+
+    /**
+     * Reads bytes from the given position until the buffer is full.
+     * @param channel FileChannel
+     * @param b ByteBuffer to fill
+     * @param pos position in the file
+     * @throws IOException if an I/O error occurs or if the end of the file is reached prematurely
+     */
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int read = channel.read(b, pos);
+            if (read < 0) throw new EOFException();
+            pos += read;
+        }
+        b.flip();
+    }
+
+    @NonNull private final FileChannel channel;
+    @NonNull private final List<Entry> entries;
+
+    /**
+     * Constructor. Reads the central directory.
+     * @param channel FileChannel to read from; the caller remains responsible for closing it
+     * @throws IOException if the channel is not seekable, or if the data does not represent a zip file
+     */
+    public SeekableZip(@NonNull FileChannel channel) throws IOException {
+        super();
+        this.channel = channel;
+        final long size = channel.size();
+        if (size < LEN_END) throw new ZipException("Not a zip file");
+        // the end of central directory record is followed by a comment of up to 64 KB
+        final int tailLength = (int)Math.min(size, LEN_END + MAX_16);
+        final ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, size - tailLength);
+        int end = -1;
+        for (int i = tailLength - LEN_END; i >= 0; i--) {
+            if (tail.getInt(i) == SIG_END) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new ZipException("Not a zip file");
+        long count = tail.getShort(end + 10) & MAX_16;
+        long cdSize = tail.getInt(end + 12) & MAX_32;
+        long cdOffset = tail.getInt(end + 16) & MAX_32;
+        if (count == MAX_16 || cdSize == MAX_32 || cdOffset == MAX_32) {
+            final long locatorPos = size - tailLength + end - LEN_ZIP64_LOCATOR;
+            if (locatorPos < 0) throw new ZipException("Zip64 locator missing");
+            final ByteBuffer locator = ByteBuffer.allocate(LEN_ZIP64_LOCATOR).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, locator, locatorPos);
+            if (locator.getInt(0) != SIG_ZIP64_LOCATOR) throw new ZipException("Zip64 locator missing");
+            final ByteBuffer end64 = ByteBuffer.allocate(LEN_ZIP64_END).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, end64, locator.getLong(8));
+            if (end64.getInt(0) != SIG_ZIP64_END) throw new ZipException("Zip64 end of central directory missing");
+            count = end64.getLong(32);
+            cdSize = end64.getLong(40);
+            cdOffset = end64.getLong(48);
+        }
+        if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > size || count > cdSize / LEN_CENTRAL) throw new ZipException("Invalid central directory");
+        final ByteBuffer cd = ByteBuffer.allocate((int)cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, cd, cdOffset);
+        final List<Entry> list = new ArrayList<>((int)count);
+        for (int i = 0; i < count; i++) {
+            if (cd.remaining() < LEN_CENTRAL || cd.getInt() != SIG_CENTRAL) throw new ZipException("Invalid central directory entry " + i);
+            cd.position(cd.position() + 4);
+            final int flags = cd.getShort() & MAX_16;
+            final int method = cd.getShort() & MAX_16;
+            cd.position(cd.position() + 4);
+            final long crc = cd.getInt() & MAX_32;
+            long compressedSize = cd.getInt() & MAX_32;
+            long uncompressedSize = cd.getInt() & MAX_32;
+            final int nameLength = cd.getShort() & MAX_16;
+            final int extraLength = cd.getShort() & MAX_16;
+            final int commentLength = cd.getShort() & MAX_16;
+            cd.position(cd.position() + 8);
+            long offset = cd.getInt() & MAX_32;
+            if (cd.remaining() < nameLength + extraLength + commentLength) throw new ZipException("Invalid central directory entry " + i);
+            final byte[] name = new byte[nameLength];
+            cd.get(name);
+            final int extraEnd = cd.position() + extraLength;
+            while (cd.position() + 4 <= extraEnd) {
+                final int id = cd.getShort() & MAX_16;
+                final int len = cd.getShort() & MAX_16;
+                final int next = cd.position() + len;
+                if (next > extraEnd) break;
+                if (id == EXTRA_ZIP64) {
+                    // the Zip64 extra field contains only those values that did not fit, in this order
+                    if (uncompressedSize == MAX_32 && cd.position() + 8 <= next) uncompressedSize = cd.getLong();
+                    if (compressedSize == MAX_32 && cd.position() + 8 <= next) compressedSize = cd.getLong();
+                    if (offset == MAX_32 && cd.position() + 8 <= next) offset = cd.getLong();
+                }
+                cd.position(next);
+            }
+            cd.position(extraEnd + commentLength);
+            list.add(new Entry(new String(name, StandardCharsets.UTF_8), method, flags, crc, compressedSize, uncompressedSize, offset));
+        }
+        this.entries = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return the entries in the order of the central directory
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Tells whether any of the entries is encrypted.
+     * @return true / false
+     */
+    public boolean isEncrypted() {
+        for (Entry entry : this.entries) {
+            if (entry.isEncrypted()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether all entries can be read via {@link #openStream(Entry)}.
+     * @return true / false
+     */
+    public boolean isSupported() {
+        for (Entry entry : this.entries) {
+            if (entry.isEncrypted() || (entry.method != ParallelZip.METHOD_STORED && entry.method != ParallelZip.METHOD_DEFLATED)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns an InputStream that provides the uncompressed data of the given entry.<br>
+     * The checksum is verified when the end of the data has been reached.
+     * This may be called from any thread; each stream must be used by one thread only.
+     * @param entry Entry
+     * @return InputStream
+     * @throws IOException if the entry cannot be read
+     */
+    @NonNull
+    public InputStream openStream(@NonNull Entry entry) throws IOException {
+        if (entry.isEncrypted()) throw new ZipException("Encrypted: " + entry.name);
+        final ByteBuffer local = ByteBuffer.allocate(LEN_LOCAL).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(this.channel, local, entry.offset);
+        if (local.getInt(0) != SIG_LOCAL) throw new ZipException("Invalid local header: " + entry.name);
+        final long dataStart = entry.offset + LEN_LOCAL + (local.getShort(26) & MAX_16) + (local.getShort(28) & MAX_16);
+        final InputStream raw = new ChannelInputStream(this.channel, dataStart, entry.compressedSize);
+        if (entry.method == ParallelZip.METHOD_STORED) return new VerifyingInputStream(raw, entry);
+        if (entry.method == ParallelZip.METHOD_DEFLATED) return new VerifyingInputStream(new EntryInflaterInputStream(raw), entry);
+        raw.close();
+        throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+    }
+
+    /**
+     * An entry of the zip file.
+     */
+    public static final class Entry {
+        @NonNull private final String name;
+        private final int method;
+        private final int flags;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        /** position of the local header */
+        private final long offset;
+
+        private Entry(@NonNull String name, int method, int flags, long crc, long compressedSize, long size, long offset) {
+            super();
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+
+        @NonNull
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return uncompressed size
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        public boolean isEncrypted() {
+            return (this.flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        /** {@inheritDoc} */
+        @NonNull
+        @Override
+        public String toString() {
+            return "Entry{\"" + this.name + "\", method " + this.method + ", " + this.compressedSize + " -> " + this.size + " bytes}";
+        }
+    }
+
+    /**
+     * Reads a section of a FileChannel via positional reads.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        @NonNull private final FileChannel channel;
+        private long pos;
+        private long remaining;
+
+        private ChannelInputStream(@NonNull FileChannel channel, long pos, long length) {
+            super();
+            this.channel = channel;
+            this.pos = pos;
+            this.remaining = length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int available() {
+            return (int)Math.min(Integer.MAX_VALUE, this.remaining);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0L) return -1;
+            if (len == 0) return 0;
+            final int read = this.channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, this.remaining)), this.pos);
+            if (read < 0) throw new EOFException();
+            this.pos += read;
+            this.remaining -= read;
+            return read;
+        }
+    }
+
+    /**
+     * Inflates raw deflate data.<br>
+     * Like the stream returned by {@link java.util.zip.ZipFile}, it supplies a dummy byte at the end of the input
+     * because the inflater may need one more byte than the compressed data has.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        private EntryInflaterInputStream(@NonNull InputStream in) {
+            super(in, new Inflater(true), 65536);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.inf.end();
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void fill() throws IOException {
+            if (this.eof) throw new EOFException("Unexpected end of deflated data");
+            this.len = this.in.read(this.buf, 0, this.buf.length);
+            if (this.len == -1) {
+                this.buf[0] = 0;
+                this.len = 1;
+                this.eof = true;
+            }
+            this.inf.setInput(this.buf, 0, this.len);
+        }
+    }
+
+    /**
+     * Compares the size and the checksum of the data with the values given in the central directory once the end has been reached.
+     */
+    private static final class VerifyingInputStream extends FilterInputStream {
+        @NonNull private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        private VerifyingInputStream(@NonNull InputStream in, @NonNull Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        private void check() throws ZipException {
+            if (this.count != this.entry.size) throw new ZipException("Size mismatch: " + this.entry.name);
+            if (this.crc.getValue() != this.entry.crc) throw new ZipException("CRC mismatch: " + this.entry.name);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            final int read = this.in.read(b, off, len);
+            if (read < 0) {
+                check();
+                return -1;
+            }
+            this.crc.update(b, off, read);
+            this.count += read;
+            return read;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public long skip(long n) {
+            // skipping would defeat the verification
+            return 0L;
+        }
+    }
+}
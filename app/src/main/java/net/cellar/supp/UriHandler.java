@@ -10,6 +10,7 @@ import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -35,7 +36,9 @@ import net.cellar.worker.YtVideoLoader;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 
@@ -226,8 +229,64 @@ public final class UriHandler implements Parcelable {
     private static final String SEP = "⁜";
     private static final String TAG = "UriHandler";
 
+    /** maps registrable domains like "youtube.com" to the Rules that apply to that domain */
+    private static final Map<String, Rule[]> ROUTES = new HashMap<>(32);
+    /** maps SHA-1 hashes of host names to the Rules that apply to that host */
+    private static final Map<String, HashedRule> HASHED_ROUTES = new HashMap<>(4);
+    /** caches the SHA-1 hashes of host names that have been seen before */
+    private static final LruCache<String, String> HOSTHASHES = new LruCache<>(64);
+
+    static {
+        register(PATTERN_YOUTU_BE, (uri, ps) -> new UriHandler(Uri.parse(YtVideoLoader.PREFIX + uri.getLastPathSegment()), YtVideoLoader.class, null), "youtu.be");
+        register(PATTERN_YOUTUBE, (uri, ps) -> {
+            String v = uri.getQueryParameter("v");
+            if (TextUtils.isEmpty(v)) {
+                // like https://www.youtube.com/v/XAB1CabDcdEe?hl=bb_FF&amp;version=3&amp;rel=0&amp;autoplay=1, https://www.youtube.com/embed/AB1CabDcdEe?hl=aa_EE&version=3&rel=0&autoplay=1
+                v = ps != null ? ps.get(1) : null;
+            }
+            if (TextUtils.isEmpty(v)) return new UriHandler(uri, null, null);
+            return new UriHandler(Uri.parse(YtVideoLoader.PREFIX + v), YtVideoLoader.class, null);
+        }, "youtube.com");
+        register(PATTERN_YOUTUBE_REDIR, (uri, ps) -> {
+            // https://www.youtube.com/redirect?event=playlist_description&redir_token=whatever&q=https%3A%2F%2Fwww.host.net%2Fpath%2Ffile.txt
+            String q = uri.getQueryParameter("q");
+            if (q != null && (q.startsWith("http://") || q.startsWith("https://"))) {
+                return new UriHandler(Uri.parse(q), null, null);
+            }
+            return null;
+        }, "youtube.com");
+        register(PATTERN_ZVIDEOX, (uri, ps) -> {
+            if (ps != null && ps.size() >= 2) {
+                return new UriHandler(Uri.parse(YtVideoLoader.PREFIX + ps.get(1)), YtVideoLoader.class, null);
+            }
+            return null;
+        }, "zvideox.net");
+        register(PATTERN_IMGUR, (uri, ps) -> new UriHandler(uri, ImgurLoader.class, null), "imgur.com");
+        register(PATTERN_GFYCAT, (uri, ps) -> new UriHandler(uri, HtmlShredderVideoLoader.class, uri.getLastPathSegment()), "gfycat.com");
+        register(PATTERN_OPERAVISION, (uri, ps) -> new UriHandler(uri, OperavisionVideoLoader.class, uri.getLastPathSegment()), "operavision.eu");
+        register(PATTERN_GUARDIAN, (uri, ps) -> new UriHandler(uri, LaGuardiaVideoLoader.class, uri.getLastPathSegment()), "theguardian.com");
+        register(PATTERN_POSTIMG, (uri, ps) -> new UriHandler(uri, HtmlShredderImageLoader.class, null), "postimg.cc");
+        register(PATTERN_RED, (uri, ps) -> new UriHandler(uri, SnooVideoLoader.class, null), "redd.it");
+        register(PATTERN_NZZ, (uri, ps) -> {
+            String title = uri.getLastPathSegment();
+            return new UriHandler(uri, NzzLoader.class, title != null ? Util.removeExtension(title) : null);
+        }, "nzz.ch");
+        register(PATTERN_LOCGOV, (uri, ps) -> new UriHandler(uri, HtmlShredderVideoLoader.class, null), "loc.gov");
+        register(PATTERN_CN, (uri, ps) -> new UriHandler(uri, NyLoader.class, uri.getLastPathSegment()), "newyorker.com", "vogue.com", "wired.com");
+        register(PATTERN_ARSE, (uri, ps) -> new UriHandler(uri, MetaContenturlLoader.class, uri.getLastPathSegment()), "arstechnica.com");
+        register(PATTERN_FRANCE24, (uri, ps) -> new UriHandler(uri, France24Loader.class, uri.getLastPathSegment()), "france24.com");
+        register(PATTERN_BA, (uri, ps) -> new UriHandler(uri, HtmlShredderVideoLoader.class, null), "bundesarchiv.de");
+        register(PATTERN_POX, (uri, ps) -> new UriHandler(uri, FrogPoxLoader.class, null), "dropbox.com");
+        register(PATTERN_ARD, (uri, ps) -> new UriHandler(uri, ArdVideoLoader.class, null), "ardmediathek.de");
+        register(PATTERN_SIGNALUP, (uri, ps) -> new UriHandler(uri, SignalUpdateLoader.class, null), "signal.org");
+
+        registerHashed("8e7ff80271b43826397405c39f6607330949d224", 2, (uri, ps) -> ps != null && "watch".equals(ps.get(0)) ? new UriHandler(uri, VideoObjectContenturlLoader.class, uri.getLastPathSegment()) : null);
+        registerHashed("430a1da0deda2d7471b22309180d6735f6605870", 1, (uri, ps) -> new UriHandler(uri, MetaContenturlLoader.class, uri.getLastPathSegment()));
+    }
+
     /**
-     * Creates an UriHandler based on the given Uri.
+     * Creates an UriHandler based on the given Uri.<br>
+     * Only the Rules that have been registered for the Uri's domain are evaluated.
      * @param uri original Uri to be checked
      * @return UriHandler
      */
@@ -244,79 +303,94 @@ public final class UriHandler implements Parcelable {
             host = fixedhost;
             uris = uri.toString();
         }
-        final List<String> ps = uri.getPathSegments();
-        final int nPathSegments = ps != null ? ps.size() : 0;
 
         // scheme://host/path?query#fragment
 
-        if (PATTERN_YOUTU_BE.matcher(uris).matches()) {
-            return new UriHandler(Uri.parse(YtVideoLoader.PREFIX + uri.getLastPathSegment()), YtVideoLoader.class, null);
-        } else if (PATTERN_YOUTUBE.matcher(uris).matches()) {
-            String v = uri.getQueryParameter("v");
-            if (TextUtils.isEmpty(v)) {
-                // like https://www.youtube.com/v/XAB1CabDcdEe?hl=bb_FF&amp;version=3&amp;rel=0&amp;autoplay=1, https://www.youtube.com/embed/AB1CabDcdEe?hl=aa_EE&version=3&rel=0&autoplay=1
-                v = ps != null ? ps.get(1) : null;
-            }
-            if (TextUtils.isEmpty(v)) return new UriHandler(uri, null, null);
-            return new UriHandler(Uri.parse(YtVideoLoader.PREFIX + v), YtVideoLoader.class, null);
-        } else if (PATTERN_YOUTUBE_REDIR.matcher(uris).matches()) {
-            // https://www.youtube.com/redirect?event=playlist_description&redir_token=whatever&q=https%3A%2F%2Fwww.host.net%2Fpath%2Ffile.txt
-            String q = uri.getQueryParameter("q");
-            if (q != null && (q.startsWith("http://") || q.startsWith("https://"))) {
-                return new UriHandler(Uri.parse(q), null, null);
-            }
-        } else if (PATTERN_ZVIDEOX.matcher(uris).matches()) {
-            if (ps != null && ps.size() >= 2) {
-                return new UriHandler(Uri.parse(YtVideoLoader.PREFIX + ps.get(1)), YtVideoLoader.class, null);
-            }
-        } else if (PATTERN_IMGUR.matcher(uris).matches()) {
-             return new UriHandler(uri, ImgurLoader.class, null);
-        } else if (PATTERN_GFYCAT.matcher(uris).matches()) {
-            return new UriHandler(uri, HtmlShredderVideoLoader.class, uri.getLastPathSegment());
-        } else if (PATTERN_OPERAVISION.matcher(uris).matches()) {
-            return new UriHandler(uri, OperavisionVideoLoader.class, uri.getLastPathSegment());
-        } else if (PATTERN_GUARDIAN.matcher(uris).matches()) {
-            return new UriHandler(uri, LaGuardiaVideoLoader.class, uri.getLastPathSegment());
-        } else if (PATTERN_POSTIMG.matcher(uris).matches()) {
-            return new UriHandler(uri, HtmlShredderImageLoader.class, null);
-        } else if (PATTERN_RED.matcher(uris).matches()) {
-            return new UriHandler(uri, SnooVideoLoader.class, null);
-        } else if (PATTERN_NZZ.matcher(uris).matches()) {
-            String title = uri.getLastPathSegment();
-            return new UriHandler(uri, NzzLoader.class, title != null ? Util.removeExtension(title) : null);
-        } else if (PATTERN_LOCGOV.matcher(uris).matches()) {
-            return new UriHandler(uri, HtmlShredderVideoLoader.class, null);
-        } else if (PATTERN_CN.matcher(uris).matches()) {
-            return new UriHandler(uri, NyLoader.class, uri.getLastPathSegment());
-        } else if (PATTERN_ARSE.matcher(uris).matches()) {
-            return new UriHandler(uri, MetaContenturlLoader.class, uri.getLastPathSegment());
-        } else if (PATTERN_FRANCE24.matcher(uris).matches()) {
-            return new UriHandler(uri, France24Loader.class, uri.getLastPathSegment());
-        } else if (PATTERN_BA.matcher(uris).matches()) {
-            return new UriHandler(uri, HtmlShredderVideoLoader.class, null);
-        } else if (PATTERN_POX.matcher(uris).matches()) {
-            return new UriHandler(uri, FrogPoxLoader.class, null);
-        } else if (PATTERN_ARD.matcher(uris).matches()) {
-            return new UriHandler(uri, ArdVideoLoader.class, null);
-        } else if (PATTERN_SIGNALUP.matcher(uris).matches()) {
-            return new UriHandler(uri, SignalUpdateLoader.class, null);
-        } else {
-            try {
-                MessageDigest md = MessageDigest.getInstance("SHA-1");
-                md.update(host.getBytes());
-                String hosthash = Util.asHex(md.digest()).toString();
-                if ("8e7ff80271b43826397405c39f6607330949d224".equals(hosthash) && nPathSegments == 2 && "watch".equals(ps.get(0))) {
-                    return new UriHandler(uri, VideoObjectContenturlLoader.class, uri.getLastPathSegment());
-                } else if ("430a1da0deda2d7471b22309180d6735f6605870".equals(hosthash) && nPathSegments == 1) {
-                    return new UriHandler(uri, MetaContenturlLoader.class, uri.getLastPathSegment());
-                }
-            } catch (NoSuchAlgorithmException ignored) {
+        final Rule[] rules = ROUTES.get(registrableDomain(host));
+        if (rules != null) {
+            for (Rule rule : rules) {
+                if (!rule.pattern.matcher(uris).matches()) continue;
+                // the first matching Rule decides, even if it does not come up with a result
+                return rule.route.route(uri, uri.getPathSegments());
             }
         }
+        final String hosthash = hostHash(host);
+        if (hosthash == null) return null;
+        final HashedRule hashedRule = HASHED_ROUTES.get(hosthash);
+        if (hashedRule != null) {
+            final List<String> ps = uri.getPathSegments();
+            final int nPathSegments = ps != null ? ps.size() : 0;
+            if (nPathSegments == hashedRule.nPathSegments) return hashedRule.route.route(uri, ps);
+        }
         // uri should be handled in a standard way
         return null;
     }
 
+    /**
+     * Returns the SHA-1 hash of the given host name, computing it only if it has not been seen recently.
+     * @param host host name
+     * @return hex representation of the SHA-1 hash
+     */
+    @Nullable
+    private static String hostHash(@NonNull String host) {
+        String hosthash = HOSTHASHES.get(host);
+        if (hosthash != null) return hosthash;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(host.getBytes());
+            hosthash = Util.asHex(md.digest()).toString();
+            HOSTHASHES.put(host, hosthash);
+        } catch (NoSuchAlgorithmException ignored) {
+        }
+        return hosthash;
+    }
+
+    /**
+     * Registers a Rule for one or more domains.<br>
+     * Rules for the same domain are evaluated in the order of their registration.
+     * @param pattern Pattern that the complete uri must match
+     * @param route Route to apply if the Pattern matches
+     * @param domains registrable domains like "example.com"
+     */
+    private static void register(@NonNull Pattern pattern, @NonNull Route route, @NonNull String... domains) {
+        final Rule rule = new Rule(pattern, route);
+        for (String domain : domains) {
+            Rule[] existing = ROUTES.get(domain);
+            if (existing == null) {
+                ROUTES.put(domain, new Rule[] {rule});
+            } else {
+                Rule[] expanded = new Rule[existing.length + 1];
+                System.arraycopy(existing, 0, expanded, 0, existing.length);
+                expanded[existing.length] = rule;
+                ROUTES.put(domain, expanded);
+            }
+        }
+    }
+
+    /**
+     * Registers a Rule for a host that is identified by its SHA-1 hash only.
+     * @param hosthash hex representation of the SHA-1 hash of the host name
+     * @param nPathSegments number of path segments that the uri must have
+     * @param route Route to apply
+     */
+    private static void registerHashed(@NonNull String hosthash, int nPathSegments, @NonNull Route route) {
+        HASHED_ROUTES.put(hosthash, new HashedRule(nPathSegments, route));
+    }
+
+    /**
+     * Returns the last two labels of the given host name, e.g. "imgur.com" for "i.imgur.com".
+     * @param host host name
+     * @return registrable domain
+     */
+    @VisibleForTesting
+    @NonNull
+    public static String registrableDomain(@NonNull String host) {
+        final int last = host.lastIndexOf('.');
+        if (last <= 0) return host;
+        final int prev = host.lastIndexOf('.', last - 1);
+        return prev < 0 ? host : host.substring(prev + 1);
+    }
+
     /**
      * @param s String representation of an instance of this class
      * @return UriHandler
@@ -462,4 +536,46 @@ public final class UriHandler implements Parcelable {
     public String toString() {
         return this.uri + SEP + (this.loader != null ? this.loader.getName() : "") + SEP + this.title;
     }
+
+    /**
+     * Creates an UriHandler for a uri that has been matched by a {@link Rule}.
+     */
+    @FunctionalInterface
+    private interface Route {
+        /**
+         * @param uri Uri
+         * @param ps the Uri's path segments
+         * @return UriHandler or {@code null} if the uri should be handled in a standard way
+         */
+        @Nullable
+        UriHandler route(@NonNull Uri uri, @Nullable List<String> ps);
+    }
+
+    /**
+     * Combines a Pattern with the Route to apply if it matches.
+     */
+    private static final class Rule {
+        @NonNull private final Pattern pattern;
+        @NonNull private final Route route;
+
+        private Rule(@NonNull Pattern pattern, @NonNull Route route) {
+            super();
+            this.pattern = pattern;
+            this.route = route;
+        }
+    }
+
+    /**
+     * A Route that applies to uris whose host has a given hash and whose path has a given number of segments.
+     */
+    private static final class HashedRule {
+        private final int nPathSegments;
+        @NonNull private final Route route;
+
+        private HashedRule(int nPathSegments, @NonNull Route route) {
+            super();
+            this.nPathSegments = nPathSegments;
+            this.route = route;
+        }
+    }
 }
@@ -9,6 +9,7 @@ package net.cellar.supp;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import net.cellar.App;
@@ -18,6 +19,9 @@ import java.io.File;
 
 public final class UriUtil {
 
+    /** query parameters that carry secrets although their names do not contain "password", "token", "secret", "signature" or "credential" */
+    private static final String[] SECRET_PARAMETERS = new String[] {"api_key", "apikey", "auth", "key", "pass", "passwd", "pwd", "session", "sessionid", "sid", "sig"};
+
     @Nullable
     public static String extractUrl(@Nullable final String s) {
         if (s == null) return null;
@@ -139,6 +143,54 @@ public final class UriUtil {
         return false;
     }
 
+    /**
+     * Removes the parts of a url that might contain secrets: the user info (e.g. "user:password@")
+     * and query parameters whose names suggest passwords, tokens or signatures.<br>
+     * Meant for urls that are displayed, stored or passed on for purposes other than loading the resource.
+     * @param url url
+     * @return url without secrets; the original String if there were none
+     */
+    @NonNull
+    public static String redact(@NonNull final String url) {
+        final Uri uri = Uri.parse(url);
+        if (uri.isOpaque()) return url;
+        final Uri.Builder builder = uri.buildUpon();
+        boolean changed = false;
+        final String authority = uri.getEncodedAuthority();
+        final int at = authority != null ? authority.lastIndexOf('@') : -1;
+        if (at >= 0) {
+            builder.encodedAuthority(authority.substring(at + 1));
+            changed = true;
+        }
+        final String query = uri.getEncodedQuery();
+        if (query != null) {
+            final StringBuilder kept = new StringBuilder(query.length());
+            for (String param : query.split("&")) {
+                final int eq = param.indexOf('=');
+                final String name = Uri.decode(eq >= 0 ? param.substring(0, eq) : param).toLowerCase(java.util.Locale.US);
+                if (isSecretParameter(name)) {
+                    changed = true;
+                    continue;
+                }
+                if (kept.length() > 0) kept.append('&');
+                kept.append(param);
+            }
+            if (changed) builder.encodedQuery(kept.length() > 0 ? kept.toString() : null);
+        }
+        return changed ? builder.build().toString() : url;
+    }
+
+    /**
+     * @param name lower-case query parameter name
+     * @return {@code true} if the parameter probably carries a secret
+     */
+    private static boolean isSecretParameter(@NonNull final String name) {
+        for (String secret : SECRET_PARAMETERS) {
+            if (secret.equals(name)) return true;
+        }
+        return name.contains("password") || name.contains("token") || name.contains("secret") || name.contains("signature") || name.contains("credential");
+    }
+
     private UriUtil() {
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * ActiveDestinations.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.text.TextUtils;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.cellar.BuildConfig;
+import net.cellar.model.Order;
+import net.cellar.supp.Log;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of the files that {@link Loader Loaders} are currently writing to.<br>
+ * The paths are registered when a Loader {@link Loader#start(java.util.concurrent.Executor, Order...) starts},
+ * updated when it changes the file name of an Order (e.g. due to a Content-Disposition header)
+ * and removed when it has finished.
+ * Checking whether a file is being written to does not need any lock.
+ */
+public final class ActiveDestinations {
+
+    private static final String TAG = "ActiveDestinations";
+    private static ActiveDestinations instance;
+
+    /**
+     * Returns the singleton instance.
+     * @return ActiveDestinations
+     */
+    @NonNull
+    public static synchronized ActiveDestinations getInstance() {
+        if (instance == null) instance = new ActiveDestinations();
+        return instance;
+    }
+
+    /**
+     * Returns the absolute path of the file that the given Order is going to be stored in.
+     * @param order Order
+     * @return absolute path or {@code null} if the Order lacks its destination folder or file name
+     */
+    @Nullable
+    private static String pathOf(@Nullable Order order) {
+        if (order == null) return null;
+        final String folder = order.getDestinationFolder();
+        final String filename = order.getDestinationFilename();
+        if (TextUtils.isEmpty(folder) || TextUtils.isEmpty(filename)) return null;
+        return new File(folder, filename).getAbsolutePath();
+    }
+
+    /** key: absolute path; value: the Loader writing to it */
+    private final Map<String, Loader> paths = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Private constructor.
+     */
+    private ActiveDestinations() {
+        super();
+    }
+
+    /**
+     * Registers the destinations of the given Orders.
+     * @param loader Loader that is going to fulfil the Orders
+     * @param orders Orders
+     */
+    @AnyThread
+    void add(@NonNull Loader loader, @Nullable Order[] orders) {
+        if (orders == null) return;
+        for (Order order : orders) {
+            final String path = pathOf(order);
+            if (path == null) continue;
+            final Loader previous = this.paths.put(path, loader);
+            if (previous == null) notifyListeners(path, true);
+            else if (BuildConfig.DEBUG && previous != loader) Log.w(TAG, "\"" + path + "\" is the destination of " + previous + " and " + loader);
+        }
+    }
+
+    /**
+     * Adds a Listener.
+     * @param listener Listener to add
+     */
+    @AnyThread
+    public void addListener(@NonNull Listener listener) {
+        if (!this.listeners.contains(listener)) this.listeners.add(listener);
+    }
+
+    /**
+     * Tells whether the given file is currently being written to.
+     * @param file file to check
+     * @return true / false
+     */
+    @AnyThread
+    public boolean contains(@Nullable File file) {
+        return file != null && !this.paths.isEmpty() && this.paths.containsKey(file.getAbsolutePath());
+    }
+
+    private void notifyListeners(@NonNull String path, boolean active) {
+        for (Listener listener : this.listeners) {
+            listener.destinationChanged(path, active);
+        }
+    }
+
+    /**
+     * Removes all paths that the given Loader has registered.
+     * @param loader Loader that has finished its work
+     */
+    @AnyThread
+    void remove(@NonNull Loader loader) {
+        for (Iterator<Map.Entry<String, Loader>> i = this.paths.entrySet().iterator(); i.hasNext(); ) {
+            final Map.Entry<String, Loader> entry = i.next();
+            if (entry.getValue() != loader) continue;
+            i.remove();
+            notifyListeners(entry.getKey(), false);
+        }
+    }
+
+    /**
+     * Removes a Listener.
+     * @param listener Listener to remove
+     */
+    @AnyThread
+    public void removeListener(@Nullable Listener listener) {
+        if (listener != null) this.listeners.remove(listener);
+    }
+
+    /**
+     * Sets the file name of an Order and moves its registration along.
+     * @param loader Loader that fulfils the Order
+     * @param order Order
+     * @param filename new file name
+     */
+    @AnyThread
+    void rename(@NonNull Loader loader, @NonNull Order order, @NonNull String filename) {
+        final String oldPath = pathOf(order);
+        order.setDestinationFilename(filename);
+        final String newPath = pathOf(order);
+        if (oldPath != null && oldPath.equals(newPath)) return;
+        if (newPath != null && this.paths.put(newPath, loader) == null) notifyListeners(newPath, true);
+        // only the Loader that registered the old path may remove it
+        if (oldPath != null && this.paths.remove(oldPath, loader)) notifyListeners(oldPath, false);
+    }
+
+    /**
+     * Gets notified when a file starts or stops being written to.
+     */
+    public interface Listener {
+
+        /**
+         * A file has started or stopped being written to.<br>
+         * This may be called on any thread.
+         * @param path absolute path of the file
+         * @param active {@code true} if the file is being written to now; {@code false} if not anymore
+         */
+        @AnyThread
+        void destinationChanged(@NonNull String path, boolean active);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * CancellationToken.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells a {@link Loader} whether it should stop working, and why.<br>
+ * The Loader checks the token between reads; nothing is enforced, so the work always ends in a defined state.
+ * There are three requests which may be combined:
+ * <ul>
+ * <li>{@link #stop() stop} - end the work and <em>retain</em> whatever has been received so far,</li>
+ * <li>{@link #cancel() cancel} - end the work and discard the result,</li>
+ * <li>{@link #defer() defer} - like cancel, but the work is supposed to be done later.</li>
+ * </ul>
+ */
+public final class CancellationToken {
+
+    private static final int FLAG_STOP = 1;
+    private static final int FLAG_CANCEL = 2;
+    private static final int FLAG_DEFER = 4;
+
+    private final AtomicInteger flags = new AtomicInteger();
+
+    /**
+     * Sets the given flag.
+     * @param flag flag to set
+     * @return {@code true} if the flag had not been set before
+     */
+    private boolean set(int flag) {
+        for (;;) {
+            final int current = this.flags.get();
+            if ((current & flag) != 0) return false;
+            if (this.flags.compareAndSet(current, current | flag)) return true;
+        }
+    }
+
+    /**
+     * Requests cancellation.
+     * @return {@code true} if this token had not been cancelled before
+     */
+    @AnyThread
+    public boolean cancel() {
+        return set(FLAG_CANCEL);
+    }
+
+    /**
+     * Requests cancellation with the intention to do the work later.
+     * @return {@code true} if this token had not been cancelled before
+     */
+    @AnyThread
+    public boolean defer() {
+        set(FLAG_DEFER);
+        return cancel();
+    }
+
+    /**
+     * @return {@code true} if cancellation has been requested via {@link #cancel()} or {@link #defer()}
+     */
+    @AnyThread
+    public boolean isCancelled() {
+        return (this.flags.get() & FLAG_CANCEL) != 0;
+    }
+
+    /**
+     * @return {@code true} if {@link #defer()} has been called
+     */
+    @AnyThread
+    public boolean isDeferred() {
+        return (this.flags.get() & FLAG_DEFER) != 0;
+    }
+
+    /**
+     * @return {@code true} if {@link #stop()} has been called
+     */
+    @AnyThread
+    public boolean isStopRequested() {
+        return (this.flags.get() & FLAG_STOP) != 0;
+    }
+
+    /**
+     * Requests that the work be ended while retaining its partial result.
+     * @return {@code true} if this had not been requested before
+     */
+    @AnyThread
+    public boolean stop() {
+        return set(FLAG_STOP);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @NonNull
+    public String toString() {
+        return "CancellationToken{" + (isCancelled() ? "cancelled" : "") + (isDeferred() ? ", deferred" : "") + (isStopRequested() ? ", stop" : "") + '}';
+    }
+}
@@ -78,7 +78,7 @@ public class Copier extends Loader {
             destinationFile = new File(destinationDir, order.getDestinationFilename());
             String alt = Util.suggestAlternativeFilename(destinationFile);
             if (alt != null) {
-                order.setDestinationFilename(alt);
+                setDestinationFilename(order, alt);
                 destinationFile = new File(destinationDir, order.getDestinationFilename());
             }
             // avoid copying our own files…
@@ -100,16 +100,12 @@ public class Copier extends Loader {
             out = new BufferedOutputStream(new FileOutputStream(destinationFile));
             long total = 0L;
             byte[] buf = new byte[size > 0L ? (int) Math.min(size, 8192) : 8192];
-            Progress progress = null;
-            while (!isCancelled() && !super.stopRequested) {
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(buf);
                 if (read <= 0) break;
                 out.write(buf, 0, read);
                 total += read;
-                if (size > 0) {
-                    progress = Progress.completing(progressBefore + (float) total / (float) size * progressPerOrder, progress);
-                    publishProgress(progress);
-                }
+                publishBytes(total, size, progressBefore, progressPerOrder);
             }
             if (isCancelled()) {
                 rc = isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED;
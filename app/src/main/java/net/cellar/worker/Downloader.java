@@ -6,6 +6,7 @@
 
 package net.cellar.worker;
 
+import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.FloatRange;
@@ -14,10 +15,12 @@ import androidx.annotation.Nullable;
 
 import net.cellar.Ancestry;
 import net.cellar.BuildConfig;
+import net.cellar.ContentIndex;
 import net.cellar.LoaderService;
 import net.cellar.model.Credential;
 import net.cellar.model.Delivery;
 import net.cellar.model.Order;
+import net.cellar.model.TransferMetrics;
 import net.cellar.queue.QueueManager;
 import net.cellar.supp.DebugUtil;
 import net.cellar.supp.UriUtil;
@@ -38,8 +41,11 @@ import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.net.UnknownServiceException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -113,6 +119,7 @@ public class Downloader extends Loader {
         final long resourceLength;
         final Date resourceLastModified;
         final String contentDisposition;
+        final String etag, contentMd5, headMediaType, lastModifiedHeader, headUrl;
         Request.Builder requestBuilder;
 
         // first, a HEAD…
@@ -125,13 +132,22 @@ public class Downloader extends Loader {
             CharSequence pwd = credentialForHost.getPassword();
             requestBuilder.addHeader("Authorization", Credentials.basic(user != null ? user : "", pwd != null ? pwd.toString() : ""));
         }
+        // the tag lets the EventListener record the phases of the call
+        final TransferMetrics metrics = getMetrics();
+        if (metrics != null) requestBuilder.tag(TransferMetrics.class, metrics);
         ResponseBody headBody = null;
         try {
             final Response headResponse = this.client.newCall(requestBuilder.build()).execute();
+            headUrl = headResponse.request().url().toString();
             contentDisposition = fakeContentDisposition != null ? fakeContentDisposition : headResponse.header("Content-Disposition");
             resourceLength = Util.parseLong(headResponse.header("Content-Length"), -1L);
-            resourceLastModified = Util.parseDate(headResponse.header("Last-Modified"), DF, null);
+            lastModifiedHeader = headResponse.header("Last-Modified");
+            resourceLastModified = Util.parseDate(lastModifiedHeader, DF, null);
+            etag = headResponse.header("ETag");
+            contentMd5 = headResponse.header("Content-MD5");
             headBody = headResponse.body();
+            final MediaType headContentType = headBody != null ? headBody.contentType() : null;
+            headMediaType = headContentType != null ? headContentType.toString() : null;
             // https://tools.ietf.org/html/rfc2616#section-10.4.6
             // 405 is "Method Not Allowed" - we'll try a GET then anyway even if the server does not like HEAD…
             if (!headResponse.isSuccessful() && headResponse.code() != HttpURLConnection.HTTP_BAD_METHOD) {
@@ -147,7 +163,9 @@ public class Downloader extends Loader {
                     }
                     return new Delivery(order, headResponse.code(), destinationFile, null, authenticateInfo);
                 }
-                return new Delivery(order, headResponse.code(), destinationFile, null);
+                final Delivery failed = new Delivery(order, headResponse.code(), destinationFile, null);
+                failed.setRetryAfter(RetryPolicy.parseRetryAfter(headResponse.header("Retry-After")));
+                return failed;
             }
             if (resourceLength > 0L) {
                 long freeSpace = destinationDir.getFreeSpace();
@@ -188,31 +206,47 @@ public class Downloader extends Loader {
             if (replacementFilename != null) {
                 destinationFile = new File(destinationDir, replacementFilename);
                 destinationFileExistedBefore = destinationFile.isFile();
-                order.setDestinationFilename(replacementFilename);
+                setDestinationFilename(order, replacementFilename);
                 QueueManager.getInstance().setFileName(order.getUrl(), replacementFilename);
                 publishProgress(Progress.resourcename(replacementFilename));
                 if (BuildConfig.DEBUG) Log.i(TAG, "The file name will be changed to \"" + replacementFilename + "\"");
             }
         }
 
+        // if the resource is known to be here already under a different name, there's no need to transfer it again
+        if (resourceLength > 0L && !destinationFile.exists()) {
+            final File identical = findIdentical(headUrl, etag, contentMd5, resourceLength, destinationFile);
+            if (identical != null && ContentIndex.link(identical, destinationFile)) {
+                if (BuildConfig.DEBUG) Log.i(TAG, "Linked \"" + destinationFile.getName() + "\" to the identical \"" + identical.getName() + "\"");
+                final Delivery delivery = new Delivery(order, HttpURLConnection.HTTP_OK, destinationFile, headMediaType);
+                delivery.setEtag(etag);
+                delivery.setFinalUrl(headUrl);
+                delivery.setIdenticalTo(identical);
+                return delivery;
+            }
+        }
+
         // determine whether we already have a part of that resource we are trying to load
-        Ancestry ancestry = Ancestry.getInstance();
+        final Ancestry ancestry = Ancestry.getInstance();
+        final Ancestry.Record record = ancestry.getRecord(destinationFile);
         final boolean partiallyDownloaded = destinationFile.isFile()
                 && destinationFile.length() > 0L
                 && destinationFile.length() < resourceLength
-                // if Ancestry has a record, then it must match the host (Ancestry might not know the file if the process had been killed during the latest download attempt because the Ancestry record is created in LoaderService.done())
-                && (!ancestry.knowsFile(destinationFile) || (host != null && host.equals(ancestry.getHost(destinationFile))))
-                // a file has been partially downloaded if it has not been modified after the remote resource has been modified
-                && resourceLastModified != null
-                // the remote resource must be older than or of the same age as the local file
-                && resourceLastModified.getTime() <= destinationFile.lastModified();
+                && (record != null && record.hasValidator()
+                    // the validators that had been recorded when the previous attempt started must match the current ones
+                    ? record.matches(host, etag, resourceLastModified != null ? resourceLastModified.getTime() : 0L, resourceLength)
+                    // without validators: if Ancestry has a record, then it must match the host,
+                    // and the remote resource must be older than or of the same age as the local file
+                    : (record == null || record.host.equals(host))
+                        && resourceLastModified != null
+                        && resourceLastModified.getTime() <= destinationFile.lastModified());
 
 
         if (DebugUtil.TEST) {
             publishProgress(Progress.msg("Resuming: " + partiallyDownloaded, false));
         }
 
-        if (this.stopRequested) {
+        if (isStopRequested()) {
             return new Delivery(order, isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED, destinationFile, null);
         }
 
@@ -227,6 +261,7 @@ public class Downloader extends Loader {
             CharSequence pwd = credentialForHost.getPassword();
             requestBuilder.addHeader("Authorization", Credentials.basic(user != null ? user : "", pwd != null ? pwd.toString() : ""));
         }
+        if (metrics != null) requestBuilder.tag(TransferMetrics.class, metrics);
 
         // determine starting point - usually at byte 0
         final long startByteCount;
@@ -235,6 +270,10 @@ public class Downloader extends Loader {
             // https://tools.ietf.org/html/rfc2616#section-14.35
             if (BuildConfig.DEBUG) Log.i(TAG, "The resource " + order.getUrl() + " had been downloaded partially (" + startByteCount + " bytes out of " + resourceLength + ")");
             requestBuilder.addHeader("Range", "bytes=" + startByteCount + "-");
+            // if the resource has changed in the meantime, the server will send all of it (https://tools.ietf.org/html/rfc7233#section-3.2)
+            if (etag != null && !etag.startsWith("W/")) requestBuilder.addHeader("If-Range", etag);
+            else if (lastModifiedHeader != null) requestBuilder.addHeader("If-Range", lastModifiedHeader);
+            if (metrics != null) metrics.setResumedFrom(startByteCount);
         } else {
             startByteCount = 0L;
             if (destinationFile.length() > 0L) requestBuilder.addHeader("If-Modified-Since", DF.format(new Date(destinationFile.lastModified())));
@@ -246,6 +285,9 @@ public class Downloader extends Loader {
         OutputStream out = null;
         InputStream in = null;
         long totalBytesFromThisDownload = 0L;
+        Exception failure = null;
+        MessageDigest md5 = null;
+        CRC32 crc = null;
         try {
             response = this.client.newCall(request).execute();
             body = response.body();
@@ -253,14 +295,34 @@ public class Downloader extends Loader {
             if (!response.isSuccessful() || body == null) {
                 if (body != null) body.close();
                 if (BuildConfig.DEBUG) Log.w(TAG, "Download of " + order.getUrl() + " failed - HTTP " + response.code() + " " + response.message());
-                return new Delivery(order, response.code(), destinationFile, mediaType != null ? mediaType.toString() : null);
+                final Delivery failed = new Delivery(order, response.code(), destinationFile, mediaType != null ? mediaType.toString() : null);
+                failed.setRetryAfter(RetryPolicy.parseRetryAfter(response.header("Retry-After")));
+                return failed;
             }
             if (!this.ignoreListener && super.refListener != null) {
                 LoaderListener l = super.refListener.get();
                 if (l != null) l.contentlength(super.id, resourceLength);
             }
             // create (or append to) destination file
-            out = new BufferedOutputStream(new FileOutputStream(destinationFile, partiallyDownloaded && response.code() == 206));
+            final boolean append = partiallyDownloaded && response.code() == 206;
+            // the file might be a hard link to another file which must not be modified
+            ContentIndex.detach(destinationFile, append);
+            out = new BufferedOutputStream(new FileOutputStream(destinationFile, append));
+            // record the validators now so that they are available if this attempt gets interrupted
+            final String responseEtag = response.header("ETag");
+            final Date responseLastModified = Util.parseDate(response.header("Last-Modified"), DF, resourceLastModified);
+            if (host != null) {
+                ancestry.put(destinationFile, new Ancestry.Record(host, responseEtag != null ? responseEtag : etag,
+                        responseLastModified != null ? responseLastModified.getTime() : 0L, resourceLength, response.request().url().toString()));
+            }
+            // calculate the checksums while the data arrives, so that duplicates can be found without reading the file again
+            if (!append) {
+                try {
+                    md5 = MessageDigest.getInstance("MD5");
+                    crc = new CRC32();
+                } catch (NoSuchAlgorithmException ignored) {
+                }
+            }
             //
             String contentEncoding = response.header("Content-Encoding");
             final boolean gzip = "gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding);
@@ -274,33 +336,26 @@ public class Downloader extends Loader {
                 in = bodyByteStream;
             }
             if (BuildConfig.DEBUG && (resourceLength <= 0L || this.ignoreListener)) Log.w(TAG, "No progress will be reported!");
-            Progress progress = null;
-            @FloatRange(from = 0, to = 1) float latestProgressReport = 0f;
-            while (!isCancelled() && !super.stopRequested) {
+            // the host may differ from the Order's host after a redirect
+            final Throttle.Lease lease = Throttle.getInstance().lease(response.request().url().host());
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(this.buffer);    // <- if the connection is lost, we get an Exception here
                 if (read <= 0) break;
                 out.write(this.buffer, 0, read);
-                // we cannot publish the progress if we don't know the resource length
-                if (resourceLength <= 0L) continue;
+                if (md5 != null) {
+                    md5.update(this.buffer, 0, read);
+                    crc.update(this.buffer, 0, read);
+                }
+                lease.acquire(read);
                 // publish progress
                 if (in instanceof CountingGZIPInputStream) totalBytesFromThisDownload = ((CountingGZIPInputStream) in).getTotal();
                 else if (in instanceof CountingInflaterInputStream) totalBytesFromThisDownload = ((CountingInflaterInputStream) in).getTotal();
                 else totalBytesFromThisDownload += read;
                 if (!this.ignoreListener) {
                     // number of bytes downloaded is number of bytes from previous attempt plus number of bytes from current attempt
-                    long totalBytes = startByteCount + totalBytesFromThisDownload;
                     // this can be used to test partial downloads: if (BuildConfig.DEBUG && total > 10_000L && !destinationFileExistedBefore) throw new SSLException("TESTTESTTEST");
-                    @FloatRange(from = 0, to = 1) float progressValue = progressBefore + (float) totalBytes / (float) resourceLength * progressPerOrder;
-                    if (progressValue > 1) {
-                        if (BuildConfig.DEBUG) Log.e(TAG, "Progress > 1, calculated as such: " + progressValue + " = " + progressBefore + " + " + totalBytes + " / " + resourceLength + " * " + progressPerOrder);
-                        continue;
-                    }
-                    progress = Progress.completing(progressValue, progress);
-                    if (progressValue > 0.95f || progressValue - latestProgressReport >= 0.01f) {
-                        // publish progress only if close to the end or if a minimum delta compared to the previous value has been reached
-                        publishProgress(progress);
-                        latestProgressReport = progress.getCompletion();
-                    }
+                    // (if the resource length is not known, only the throughput is measured)
+                    publishBytes(startByteCount + totalBytesFromThisDownload, resourceLength, progressBefore, progressPerOrder);
                 }
             }
             Util.close(out, in, body);
@@ -311,13 +366,20 @@ public class Downloader extends Loader {
                 return new Delivery(order, isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED, destinationFile, mediaType != null ? mediaType.toString() : null);
             }
             if (BuildConfig.DEBUG) Log.i(TAG, "Downloaded " + order.getUrl() + " - HTTP " + response.code() + " " + response.message() + " - media type: '" + mediaType + "', total: " + totalBytesFromThisDownload);
-            return new Delivery(order, response.code(), destinationFile, mediaType != null ? mediaType.toString() : null);
+            final Delivery delivery = new Delivery(order, response.code(), destinationFile, mediaType != null ? mediaType.toString() : null);
+            delivery.setEtag(responseEtag != null ? responseEtag : etag);
+            delivery.setFinalUrl(response.request().url().toString());
+            // if the download has been stopped, the checksums do not cover the whole resource
+            if (md5 != null && !isStopRequested()) delivery.setFingerprint(new ContentIndex.Fingerprint(md5.digest(), crc.getValue()));
+            return delivery;
         } catch (SSLException | InterruptedIOException e) {
             // SSLException: we are here usually if the network connection collapsed during the download ("javax.net.ssl.SSLException: Read error: … I/O error during system call, Software caused connection abort")
             // InterruptedIOException: we are here when the user has cancelled/deferred the download (that means, cancel() has been called)
             if (BuildConfig.DEBUG) Log.e(TAG, "While downloading from " + order.getUrl() + ": " + e.toString());
+            failure = e;
         } catch (Exception e) {
             if (BuildConfig.DEBUG) Log.e(TAG, "While downloading from " + order.getUrl() + ": " + e.toString(), e);
+            failure = e;
         }
         Util.close(out, in, body);
         if (isCancelled()) {
@@ -325,7 +387,36 @@ public class Downloader extends Loader {
             if (destinationFile.isFile() && !destinationFileExistedBefore && !isDeferred()) destinationFile.delete();
             return new Delivery(order, isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED, destinationFile, null);
         }
-        return new Delivery(order, totalBytesFromThisDownload > 0L ? LoaderService.ERROR_INTERRUPTED : LoaderService.ERROR_OTHER, destinationFile, null);
+        return new Delivery(order, totalBytesFromThisDownload > 0L ? LoaderService.ERROR_INTERRUPTED : LoaderService.ERROR_OTHER, destinationFile, null, failure, null);
+    }
+
+    /**
+     * Looks for a file that is identical to the given resource.<br>
+     * The resource is regarded as identical to a local file if it has the same size and either
+     * the same ETag and url as a previous download or the same MD5 hash as given in the Content-MD5 header.
+     * @param url url that the resource is delivered from, after any redirects
+     * @param etag ETag header value (optional)
+     * @param contentMd5 Content-MD5 header value (optional)
+     * @param length resource size
+     * @param destinationFile the file that the resource would be stored in
+     * @return identical file or {@code null}
+     */
+    @Nullable
+    private static File findIdentical(@Nullable String url, @Nullable String etag, @Nullable String contentMd5, long length, @NonNull File destinationFile) {
+        final ContentIndex contentIndex = ContentIndex.getInstance();
+        final File identical = contentIndex.findByEtag(url, etag, length);
+        if (identical != null) return identical;
+        if (contentMd5 == null) return null;
+        final byte[] md5;
+        try {
+            // https://tools.ietf.org/html/rfc1864
+            md5 = Base64.decode(contentMd5.trim(), Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Invalid Content-MD5 \"" + contentMd5 + "\"");
+            return null;
+        }
+        if (md5.length != 16) return null;
+        return contentIndex.findByChecksum(length, new ContentIndex.Fingerprint(md5, 0L).md5, 0L, destinationFile);
     }
 
     /**
@@ -0,0 +1,259 @@
+/*
+ * FtpClientPool.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.cellar.BuildConfig;
+import net.cellar.supp.Log;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps logged-in {@link FTPClient FTPClients} for reuse so that consecutive downloads from the same server
+ * do not have to connect and log in again.<br>
+ * Clients are pooled per server and user. Before a pooled client is handed out, its control connection is checked via NOOP.
+ * Clients that have been idle for {@link #IDLE_TIMEOUT} ms are disconnected.<br>
+ * Also limits the number of concurrent transfers per server.
+ */
+public final class FtpClientPool {
+
+    /** idle clients are disconnected after this period */
+    private static final long IDLE_TIMEOUT = 60_000L;
+    /** max. number of idle clients per server and user */
+    private static final int MAX_IDLE_PER_KEY = 4;
+    /** max. number of concurrent transfers per server */
+    static final int MAX_TRANSFERS_PER_SERVER = 4;
+    private static final String TAG = "FtpClientPool";
+    private static FtpClientPool instance;
+
+    @NonNull
+    public static synchronized FtpClientPool getInstance() {
+        if (instance == null) instance = new FtpClientPool();
+        return instance;
+    }
+
+    /**
+     * Builds the key for the given server and user.
+     * @param host server
+     * @param user user id
+     * @return key
+     */
+    @NonNull
+    private static String key(@NonNull String host, @NonNull String user) {
+        return user + '@' + host;
+    }
+
+    /**
+     * Disconnects clients on a worker thread.
+     * @param toClose Entries holding the clients to disconnect
+     */
+    private static void quit(@NonNull final List<Entry> toClose) {
+        if (toClose.isEmpty()) return;
+        if (BuildConfig.DEBUG) Log.i(TAG, "Disconnecting " + toClose.size() + " idle client(s)");
+        new Thread() {
+            @Override
+            public void run() {
+                for (Entry entry : toClose) safeQuit(entry.client);
+            }
+        }.start();
+    }
+
+    private static void safeQuit(@NonNull FTPClient ftp) {
+        try {ftp.logout();} catch (Exception ignored) {}
+        try {ftp.disconnect();} catch (Exception ignored) {}
+    }
+
+    /** key: user@host; value: idle clients, most recently used first */
+    private final Map<String, Deque<Entry>> idle = new HashMap<>();
+    /** key: host; value: permits for concurrent transfers */
+    private final Map<String, Semaphore> permits = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable evictor = this::evictExpired;
+    /** whether the {@link #evictor} has been posted; guarded by {@link #idle} */
+    private boolean evictionScheduled;
+
+    private FtpClientPool() {
+        super();
+    }
+
+    /**
+     * Waits until a transfer from the given server may start.<br>
+     * Each successful call must be matched by a call to {@link #endTransfer(String)}.
+     * @param host server
+     * @throws InterruptedException if the current thread has been interrupted while waiting
+     */
+    void beginTransfer(@NonNull String host) throws InterruptedException {
+        Semaphore s;
+        synchronized (this.permits) {
+            s = this.permits.get(host);
+            if (s == null) {
+                s = new Semaphore(MAX_TRANSFERS_PER_SERVER, true);
+                this.permits.put(host, s);
+            }
+        }
+        s.acquire();
+    }
+
+    /**
+     * Signals that a transfer from the given server has ended.
+     * @param host server
+     */
+    void endTransfer(@NonNull String host) {
+        final Semaphore s;
+        synchronized (this.permits) {
+            s = this.permits.get(host);
+        }
+        if (s != null) s.release();
+    }
+
+    /**
+     * Disconnects all idle clients.
+     */
+    @AnyThread
+    public void evictAll() {
+        final List<Entry> toClose = new ArrayList<>();
+        synchronized (this.idle) {
+            for (Deque<Entry> entries : this.idle.values()) toClose.addAll(entries);
+            this.idle.clear();
+            this.handler.removeCallbacks(this.evictor);
+            this.evictionScheduled = false;
+        }
+        quit(toClose);
+    }
+
+    /**
+     * Disconnects the clients that have been idle for longer than {@link #IDLE_TIMEOUT}
+     * and schedules the next run for the remaining ones.
+     */
+    @AnyThread
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final List<Entry> toClose = new ArrayList<>();
+        long nextExpiry = Long.MAX_VALUE;
+        synchronized (this.idle) {
+            this.evictionScheduled = false;
+            for (Iterator<Deque<Entry>> i = this.idle.values().iterator(); i.hasNext();) {
+                final Deque<Entry> entries = i.next();
+                for (Iterator<Entry> j = entries.iterator(); j.hasNext();) {
+                    final Entry entry = j.next();
+                    if (now - entry.idleSince > IDLE_TIMEOUT) {
+                        j.remove();
+                        toClose.add(entry);
+                    } else {
+                        nextExpiry = Math.min(nextExpiry, entry.idleSince + IDLE_TIMEOUT);
+                    }
+                }
+                if (entries.isEmpty()) i.remove();
+            }
+            if (nextExpiry != Long.MAX_VALUE) scheduleEviction(nextExpiry - now + 1L);
+        }
+        quit(toClose);
+    }
+
+    /**
+     * Returns the client to the pool. The client must have completed its latest command.
+     * @param host server
+     * @param user user id
+     * @param entry Entry holding the client
+     */
+    void release(@NonNull String host, @NonNull String user, @NonNull Entry entry) {
+        if (!entry.client.isConnected()) return;
+        entry.idleSince = System.currentTimeMillis();
+        final String key = key(host, user);
+        Entry surplus = null;
+        synchronized (this.idle) {
+            Deque<Entry> entries = this.idle.get(key);
+            if (entries == null) {
+                entries = new ArrayDeque<>(MAX_IDLE_PER_KEY);
+                this.idle.put(key, entries);
+            }
+            entries.addFirst(entry);
+            if (entries.size() > MAX_IDLE_PER_KEY) surplus = entries.removeLast();
+            scheduleEviction(IDLE_TIMEOUT + 1L);
+        }
+        if (surplus != null) safeQuit(surplus.client);
+    }
+
+    /**
+     * Posts the {@link #evictor} unless it has been posted already. Must be called while holding the lock on {@link #idle}.
+     * @param delay delay in ms
+     */
+    private void scheduleEviction(long delay) {
+        if (this.evictionScheduled) return;
+        this.evictionScheduled = true;
+        this.handler.postDelayed(this.evictor, delay);
+    }
+
+    /**
+     * Hands out an idle client that is logged in on the given server as the given user.
+     * @param host server
+     * @param user user id
+     * @return Entry holding the client or {@code null} if there is no usable idle client
+     */
+    @Nullable
+    Entry take(@NonNull String host, @NonNull String user) {
+        final String key = key(host, user);
+        final long now = System.currentTimeMillis();
+        for (;;) {
+            final Entry entry;
+            synchronized (this.idle) {
+                final Deque<Entry> entries = this.idle.get(key);
+                entry = entries != null ? entries.pollFirst() : null;
+            }
+            if (entry == null) return null;
+            if (now - entry.idleSince > IDLE_TIMEOUT) {
+                safeQuit(entry.client);
+                continue;
+            }
+            try {
+                if (entry.client.sendNoOp() && (entry.home == null || entry.client.changeWorkingDirectory(entry.home))) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Reusing connection to " + host);
+                    return entry;
+                }
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.w(TAG, "Pooled connection to " + host + " is not usable: " + e.toString());
+            }
+            safeQuit(entry.client);
+        }
+    }
+
+    /**
+     * Wraps a logged-in FTPClient.
+     */
+    static final class Entry {
+        @NonNull final FTPClient client;
+        /** the working directory right after login */
+        @Nullable final String home;
+        private long idleSince;
+
+        /**
+         * Constructor.
+         * @param client logged-in FTPClient
+         * @param home the working directory right after login
+         */
+        Entry(@NonNull FTPClient client, @Nullable String home) {
+            super();
+            this.client = client;
+            this.home = home;
+        }
+    }
+}
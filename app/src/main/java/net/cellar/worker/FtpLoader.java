@@ -15,11 +15,13 @@ import androidx.annotation.VisibleForTesting;
 import net.cellar.Ancestry;
 import net.cellar.App;
 import net.cellar.BuildConfig;
+import net.cellar.ContentIndex;
 import net.cellar.LoaderService;
 import net.cellar.auth.AuthManager;
 import net.cellar.model.Credential;
 import net.cellar.model.Delivery;
 import net.cellar.model.Order;
+import net.cellar.model.TransferMetrics;
 import net.cellar.supp.Log;
 import net.cellar.supp.UriUtil;
 import net.cellar.supp.Util;
@@ -35,8 +37,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Powered by
@@ -51,6 +53,8 @@ import java.util.Set;
  */
 public class FtpLoader extends Loader {
 
+    /** interval in seconds between NOOPs sent on the control connection during long transfers */
+    private static final long KEEPALIVE_SECONDS = 60L;
     private static final String TAG = "FtpLoader";
     private static final String USERNAME_ANONYMOUS = "anonymous";
 
@@ -139,16 +143,7 @@ public class FtpLoader extends Loader {
      */
     @Nullable
     private static Credential findCredential(@Nullable final String host) {
-        if (host == null) return null;
-        final Set<Credential> credentials = AuthManager.getInstance().getCredentials();
-        Credential matchingCredential = null;
-        for (Credential credential : credentials) {
-            if (credential.getType() == Credential.TYPE_FTP && credential.getRealm().equals(host)) {
-                matchingCredential = credential;
-                break;
-            }
-        }
-        return matchingCredential;
+        return AuthManager.getInstance().findUsable(host, Credential.TYPE_FTP, null);
     }
 
     /**
@@ -188,6 +183,9 @@ public class FtpLoader extends Loader {
         }
 
         final String host = order.getUri().getHost();
+        final int port = order.getUri().getPort();
+        // clients for different ports of the same host must not be mixed up
+        final String server = port > 0 ? host + ':' + port : host;
 
         // set the destination file (not finally, there might be some corrections further down…)
         File destinationFile = new File(destinationDir, order.getDestinationFilename());
@@ -198,7 +196,7 @@ public class FtpLoader extends Loader {
         }
 
         // determine whether we should skip some bytes
-        final long skip;
+        long skip;
         if (destinationFile.isFile()) {
             // destination file already exists
             if (!host.equals(Ancestry.getInstance().getHost(destinationFile))) {
@@ -232,109 +230,149 @@ public class FtpLoader extends Loader {
             return new Delivery(order, LoaderService.ERROR_NO_FILENAME, null, null);
         }
 
+        // try to find a Credential that we can use here
+        final boolean possiblyAddCredential;
+        Credential credentialForHost = UriUtil.getCredential(order.getUri());
+        if (credentialForHost != null) {
+            possiblyAddCredential = true;
+        } else {
+            credentialForHost = findCredential(host);
+            possiblyAddCredential = false;
+        }
+        final String user = credentialForHost != null ? credentialForHost.getUserid() : USERNAME_ANONYMOUS;
+
+        final FtpClientPool pool = FtpClientPool.getInstance();
+        try {
+            pool.beginTransfer(server);
+        } catch (InterruptedException e) {
+            return new Delivery(order, isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED, destinationFile, null);
+        }
         InputStream in = null;
         OutputStream out = null;
-        final FTPClient ftpClient = new FTPClient();
-        ftpClient.setConnectTimeout(App.TIMEOUT_CONNECT);
-        ftpClient.setDataTimeout(App.TIMEOUT_READ);
+        FtpClientPool.Entry entry = pool.take(server, user);
+        FTPClient ftpClient = entry != null ? entry.client : null;
+        // set to true if the client has completed all its commands and can be used again
+        boolean reusable = false;
         Exception ex = null;
+        final TransferMetrics metrics = getMetrics();
+        if (metrics != null) metrics.setProxy(TransferMetrics.DIRECT);
         try {
-            ftpClient.connect(host);
-            int reply = ftpClient.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(reply)) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Failing with rc " + reply);
-                safeDisconnect(ftpClient);
-                return new Delivery(order, LoaderService.ERROR_CANNOT_CONNECT, destinationFile, null, null, null);
-            }
-
-            // try to find a Credential that we can use here
-            boolean possiblyAddCredential;
-            Credential credentialForHost = UriUtil.getCredential(order.getUri());
-            if (credentialForHost != null) {
-                possiblyAddCredential = true;
-            } else {
-                credentialForHost = findCredential(host);
-                possiblyAddCredential = false;
-            }
-
-            //
-            if (credentialForHost != null) {
-                if (!ftpClient.login(credentialForHost.getUserid(), credentialForHost.getPassword() != null ? credentialForHost.getPassword().toString() : null)) {
-                    if (BuildConfig.DEBUG) Log.w(TAG, "Login for user " + credentialForHost.getUserid() + " and pwd " + credentialForHost.getPassword() + " failed with rc " + ftpClient.getReplyCode());
-                    safeLogout(ftpClient);
-                    Delivery.AuthenticateInfo authenticateInfo = new Delivery.AuthenticateInfo(AuthManager.SCHEME_FTP, host);
-                    safeDisconnect(ftpClient);
-                    return new Delivery(order, 401, destinationFile, null, null, authenticateInfo);
+            if (ftpClient == null) {
+                ftpClient = new FTPClient();
+                ftpClient.setConnectTimeout(App.TIMEOUT_CONNECT);
+                ftpClient.setDataTimeout(App.TIMEOUT_READ);
+                ftpClient.setControlKeepAliveTimeout(KEEPALIVE_SECONDS);
+                // resolve the host separately so that the DNS lookup and the connection setup can be told apart
+                long t = System.nanoTime();
+                final InetAddress address = InetAddress.getByName(host);
+                if (metrics != null) metrics.addDns((System.nanoTime() - t) / 1_000_000L);
+                t = System.nanoTime();
+                ftpClient.connect(address, port > 0 ? port : FTP.DEFAULT_PORT);
+                if (metrics != null) metrics.addConnect((System.nanoTime() - t) / 1_000_000L);
+                int reply = ftpClient.getReplyCode();
+                if (!FTPReply.isPositiveCompletion(reply)) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "Failing with rc " + reply);
+                    return new Delivery(order, LoaderService.ERROR_CANNOT_CONNECT, destinationFile, null, null, null);
                 }
-                // we have successfully logged in/on, so we can remember the Credential that was passed along with the url
-                if (possiblyAddCredential) {
-                    AuthManager.getInstance().addCredential(credentialForHost);
-                }
-            } else {
-                if (BuildConfig.DEBUG) Log.i(TAG, "Did not find credentials for " + host);
-                if (!ftpClient.login(USERNAME_ANONYMOUS, makeRandomPwd())) {
-                    if (BuildConfig.DEBUG) Log.e(TAG, "Anonymous login failed with rc " + ftpClient.getReplyCode());  // the reply code should be 530
-                    safeLogout(ftpClient);
-                    if (BuildConfig.DEBUG) Log.w(TAG, "Did not find matching credential for \"" + host + "\"!");
-                    Delivery.AuthenticateInfo authenticateInfo = new Delivery.AuthenticateInfo(AuthManager.SCHEME_FTP, host);
-                    safeDisconnect(ftpClient);
-                    return new Delivery(order, 401, destinationFile, null, null, authenticateInfo);
+                if (credentialForHost != null) {
+                    if (!ftpClient.login(credentialForHost.getUserid(), credentialForHost.getPassword() != null ? credentialForHost.getPassword().toString() : null)) {
+                        if (BuildConfig.DEBUG) Log.w(TAG, "Login for user " + credentialForHost.getUserid() + " and pwd " + credentialForHost.getPassword() + " failed with rc " + ftpClient.getReplyCode());
+                        Delivery.AuthenticateInfo authenticateInfo = new Delivery.AuthenticateInfo(AuthManager.SCHEME_FTP, host);
+                        return new Delivery(order, 401, destinationFile, null, null, authenticateInfo);
+                    }
+                    // we have successfully logged in/on, so we can remember the Credential that was passed along with the url
+                    if (possiblyAddCredential) {
+                        AuthManager.getInstance().addCredential(credentialForHost);
+                    }
+                } else {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Did not find credentials for " + host);
+                    if (!ftpClient.login(USERNAME_ANONYMOUS, makeRandomPwd())) {
+                        if (BuildConfig.DEBUG) Log.e(TAG, "Anonymous login failed with rc " + ftpClient.getReplyCode());  // the reply code should be 530
+                        if (BuildConfig.DEBUG) Log.w(TAG, "Did not find matching credential for \"" + host + "\"!");
+                        Delivery.AuthenticateInfo authenticateInfo = new Delivery.AuthenticateInfo(AuthManager.SCHEME_FTP, host);
+                        return new Delivery(order, 401, destinationFile, null, null, authenticateInfo);
+                    }
                 }
+                ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+                // remember the initial working directory because the path of the resource is relative to that
+                entry = new FtpClientPool.Entry(ftpClient, ftpClient.printWorkingDirectory());
             }
             if (path.length() > 0 && !ftpClient.changeWorkingDirectory(path.toString())) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Failed to change working dir to '" + path + "'");
-                safeLogout(ftpClient);
-                safeDisconnect(ftpClient);
-                return new Delivery(order, LoaderService.ERROR_CANNOT_CONNECT, destinationFile, null, null, null);
+                final int reply = ftpClient.getReplyCode();
+                if (BuildConfig.DEBUG) Log.e(TAG, "Failed to change working dir to '" + path + "' - rc " + reply);
+                // a missing directory (550) will not appear by retrying; 4xx replies are transient by definition (RFC 959, 4.2)
+                return new Delivery(order, FTPReply.isNegativeTransient(reply) ? LoaderService.ERROR_CANNOT_CONNECT : 404, destinationFile, null, null, null);
             }
             if (BuildConfig.DEBUG && path.length() > 0) Log.i(TAG, "Changed working dir to '" + path + "'");
             long fileSize = determineFileSize(ftpClient, resource);
             if (fileSize < 0L) {
-                safeLogout(ftpClient);
-                safeDisconnect(ftpClient);
+                reusable = true;
                 return new Delivery(order, LoaderService.ERROR_NO_SOURCE_FOUND, destinationFile, null, null, null);
             }
-            if (fileSize > destinationDir.getFreeSpace()) {
-                safeLogout(ftpClient);
-                safeDisconnect(ftpClient);
+            if (skip > 0L) {
+                // the size recorded when the previous attempt started must match the current one
+                final Ancestry.Record record = Ancestry.getInstance().getRecord(destinationFile);
+                if (skip > fileSize || (record != null && !record.matches(host, null, 0L, fileSize))) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "The remote file has changed - not resuming");
+                    skip = 0L;
+                }
+            }
+            if (fileSize - skip > destinationDir.getFreeSpace()) {
+                reusable = true;
                 return new Delivery(order, LoaderService.ERROR_LACKING_SPACE, destinationFile, null);
             }
             if (super.refListener != null) {
                 LoaderListener l = super.refListener.get();
                 if (l != null) l.contentlength(super.id, fileSize);
             }
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+            if (skip > 0L && skip == fileSize) {
+                // the previous attempt had already received everything
+                reusable = true;
+                return new Delivery(order, 200, destinationFile, order.getMime());
+            }
+            if (metrics != null) metrics.setResumedFrom(skip);
             ftpClient.enterLocalPassiveMode();
+            // the server will start sending from the offset given here (REST command)
             ftpClient.setRestartOffset(skip);
             in = ftpClient.retrieveFileStream(resource);
             if (in == null) {
                 if (BuildConfig.DEBUG) Log.e(TAG, "Failed to open input to '" + resource + "'");
-                safeLogout(ftpClient);
-                safeDisconnect(ftpClient);
                 return new Delivery(order, LoaderService.ERROR_CANNOT_CONNECT, destinationFile, null, null, null);
             }
-            out = new BufferedOutputStream(new FileOutputStream(destinationFile));
-            final byte[] buf = new byte[Math.min((int)fileSize, 16_384)];
-            long totalBytes = 0L;
-            Progress progress = null;
-            while (!isCancelled() && !super.stopRequested) {
+            // the file might be a hard link to another file which must not be modified
+            ContentIndex.detach(destinationFile, skip > 0L);
+            out = new BufferedOutputStream(new FileOutputStream(destinationFile, skip > 0L));
+            Ancestry.getInstance().put(destinationFile, new Ancestry.Record(host, null, 0L, fileSize, order.getUrl()));
+            final byte[] buf = new byte[(int) Math.max(1L, Math.min(fileSize, 16_384L))];
+            long totalBytes = skip;
+            final Throttle.Lease lease = Throttle.getInstance().lease(host);
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(buf);
                 if (read < 0) break;
                 if (read == 0) continue;
                 totalBytes += read;
                 out.write(buf, 0, read);
-                if (fileSize <= 0L) continue;
-                progress = Progress.completing(progressBefore + (float) totalBytes / (float) fileSize * progressPerOrder, progress);
-                publishProgress(progress);
+                lease.acquire(read);
+                publishBytes(totalBytes, fileSize, progressBefore, progressPerOrder);
             }
+            final boolean complete = !isCancelled() && !isStopRequested();
+            Util.close(out, in);
+            out = null;
+            in = null;
+            reusable = ftpClient.completePendingCommand() && complete;
         } catch (Exception e) {
             ex = e;
             if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
         } finally {
             Util.close(out, in);
-            try {ftpClient.completePendingCommand();} catch (Exception ignored) {}
-            safeLogout(ftpClient);
-            safeDisconnect(ftpClient);
+            if (reusable && entry != null) {
+                pool.release(server, user, entry);
+            } else if (ftpClient != null) {
+                if (in != null) try {ftpClient.completePendingCommand();} catch (Exception ignored) {}
+                safeLogout(ftpClient);
+                safeDisconnect(ftpClient);
+            }
+            pool.endTransfer(server);
         }
         if (ex != null) {
             if (!destinationFileExistedBefore) Util.deleteFile(destinationFile);
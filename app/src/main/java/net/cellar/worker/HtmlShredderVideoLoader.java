@@ -240,7 +240,7 @@ public class HtmlShredderVideoLoader extends Downloader implements MediaPlayer.E
             this.latestTimeChanged = event.getTimeChanged();
             if (this.firstTimeChanged == 0L && this.latestTimeChanged > 0L) this.firstTimeChanged = this.latestTimeChanged;
             if (this.firstTimeChanged > 0L && this.latestTimeChanged > this.firstTimeChanged && this.latestTimeChanged > previousTimeChanged) {
-                publishProgress(Progress.msRecorded((int)(this.latestTimeChanged - this.firstTimeChanged), this.msTotal));
+                publishRecorded((int)(this.latestTimeChanged - this.firstTimeChanged), this.msTotal, false);
             }
         } else if (event.type == MediaPlayer.Event.Buffering) {
             publishProgress(Progress.buffering(event.getBuffering()));
@@ -0,0 +1,352 @@
+/*
+ * InspectionStore.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.preference.PreferenceManager;
+
+import net.cellar.App;
+import net.cellar.BuildConfig;
+import net.cellar.supp.Log;
+import net.cellar.supp.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Remembers the results of previous {@link Inspector inspections} so that unchanged files need not be inspected again.<br>
+ * Also keeps the names of the files that the user wants the Inspector to ignore.<br>
+ * A record is valid as long as the file's size and modification time do not change.<br>
+ * Must be initialised once via {@link #setup(Context)}!
+ */
+public class InspectionStore {
+
+    private static final String FILE = "inspections.txt";
+    private static final long SAVE_DELAY = 2_000L;
+    private static final char SEP = '\t';
+    private static final String TAG = "InspectionStore";
+    private static InspectionStore instance;
+
+    @NonNull
+    public static InspectionStore getInstance() {
+        assert instance != null;
+        return instance;
+    }
+
+    /**
+     * Initialises the instance.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    public static void setup(@NonNull Context ctx) {
+        if (instance != null) return;
+        instance = new InspectionStore(ctx);
+    }
+
+    /** key: file name */
+    private final Map<String, Record> map = new HashMap<>();
+    private final File file;
+    private final File downloadsDir;
+    /** names of the files whose records have been removed before loading had finished; {@code null} once loading has finished */
+    @Nullable private Set<String> removedWhileLoading = new HashSet<>();
+    /** writes the file; being single-threaded, it keeps two saves from writing the temporary file at the same time */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "InspectionStoreSaver");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Runnable saver = () -> this.writer.execute(this::save);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructor.
+     * @param ctx Context
+     * @throws NullPointerException if {@code ctx} is {@code null}
+     */
+    private InspectionStore(@NonNull Context ctx) {
+        super();
+        this.file = new File(ctx.getFilesDir(), FILE);
+        this.downloadsDir = App.getDownloadsDir(ctx);
+        final Context appContext = ctx.getApplicationContext();
+        new Thread() {
+            @Override
+            public void run() {
+                load();
+                migrate(appContext);
+                cleanup();
+            }
+        }.start();
+    }
+
+    /**
+     * Removes records of files that do not exist any more.
+     * @return number of records removed
+     */
+    @AnyThread
+    public int cleanup() {
+        final File[] downloads = this.downloadsDir.listFiles();
+        final Set<String> namesOfExistingFiles = new HashSet<>(downloads != null ? downloads.length : 0);
+        if (downloads != null) {
+            for (File download : downloads) namesOfExistingFiles.add(download.getName());
+        }
+        int removed = 0;
+        synchronized (this.map) {
+            final List<String> fileNames = new ArrayList<>(this.map.keySet());
+            for (String fileName : fileNames) {
+                if (!namesOfExistingFiles.contains(fileName)) {
+                    this.map.remove(fileName);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) scheduleSave();
+        return removed;
+    }
+
+    /**
+     * Returns the result of a previous inspection of the given file, provided the file has not been modified since.
+     * @param file File
+     * @return Record or {@code null}
+     */
+    @Nullable
+    Record get(@NonNull File file) {
+        final Record record;
+        synchronized (this.map) {
+            record = this.map.get(file.getName());
+        }
+        if (record == null || !record.inspected || record.length != file.length() || record.modified != file.lastModified()) return null;
+        return record;
+    }
+
+    /**
+     * Tells whether the Inspector should ignore the given file.
+     * @param fileName file name
+     * @return true / false
+     */
+    public boolean isIgnored(@NonNull String fileName) {
+        final Record record;
+        synchronized (this.map) {
+            record = this.map.get(fileName);
+        }
+        return record != null && record.ignored;
+    }
+
+    @WorkerThread
+    private void load() {
+        final List<Record> loaded = new ArrayList<>();
+        if (this.file.isFile()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8));
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    Record record = Record.fromString(line);
+                    if (record != null) loaded.add(record);
+                }
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+            } finally {
+                Util.close(reader);
+            }
+        }
+        synchronized (this.map) {
+            // records added or removed while loading are more recent
+            for (Record record : loaded) {
+                if (!this.map.containsKey(record.name) && (this.removedWhileLoading == null || !this.removedWhileLoading.contains(record.name))) this.map.put(record.name, record);
+            }
+            this.removedWhileLoading = null;
+        }
+    }
+
+    /**
+     * Moves the names of ignored files from the SharedPreferences where they had been stored previously.
+     * @param ctx Context
+     */
+    private void migrate(@NonNull Context ctx) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        final Set<String> ignored = prefs.getStringSet(Inspector.PREF_INSPECTOR_IGNORED, null);
+        if (ignored == null) return;
+        for (String fileName : ignored) setIgnored(fileName, true);
+        prefs.edit().remove(Inspector.PREF_INSPECTOR_IGNORED).apply();
+        if (BuildConfig.DEBUG) Log.i(TAG, "Migrated " + ignored.size() + " ignored file(s)");
+    }
+
+    /**
+     * Stores the result of an inspection.
+     * @param file File that has been inspected
+     * @param suggestion the extension suggested for the file, {@code null} if there was no suggestion
+     */
+    void put(@NonNull File file, @Nullable String suggestion) {
+        final String name = file.getName();
+        synchronized (this.map) {
+            Record existing = this.map.get(name);
+            this.map.put(name, new Record(name, file.length(), file.lastModified(), true, suggestion, existing != null && existing.ignored));
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Removes the record for the given file. To be called when a file has been deleted.
+     * @param file File
+     */
+    public void remove(@Nullable File file) {
+        if (file == null) return;
+        final Record removed;
+        synchronized (this.map) {
+            removed = this.map.remove(file.getName());
+            if (this.removedWhileLoading != null) this.removedWhileLoading.add(file.getName());
+        }
+        if (removed != null) scheduleSave();
+    }
+
+    /**
+     * Invalidates the record for a file that has been renamed.<br>
+     * The renamed file will be inspected again; it will not inherit the old file's ignore flag.
+     * @param old old file
+     * @param renamed new renamed file
+     */
+    public void renamed(@Nullable File old, @Nullable File renamed) {
+        remove(old);
+        remove(renamed);
+    }
+
+    /**
+     * Must be called by {@link #writer}.
+     */
+    @WorkerThread
+    private void save() {
+        final List<Record> records;
+        synchronized (this.map) {
+            records = new ArrayList<>(this.map.values());
+        }
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        BufferedWriter writer = null;
+        boolean ok = false;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            for (Record record : records) {
+                writer.write(record.toString());
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            ok = tmp.renameTo(this.file);
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
+        } finally {
+            Util.close(writer);
+            if (!ok) Util.deleteFile(tmp);
+        }
+    }
+
+    private void scheduleSave() {
+        this.handler.removeCallbacks(this.saver);
+        this.handler.postDelayed(this.saver, SAVE_DELAY);
+    }
+
+    /**
+     * Adds a file to or removes a file from the set of files that the Inspector ignores.
+     * @param fileName file name
+     * @param ignore {@code true} to ignore the file
+     * @return {@code true} if anything has changed
+     */
+    public boolean setIgnored(@NonNull String fileName, boolean ignore) {
+        synchronized (this.map) {
+            final Record existing = this.map.get(fileName);
+            if (existing == null) {
+                if (!ignore) {
+                    // a record that is still being loaded must not bring the ignore flag back
+                    if (this.removedWhileLoading != null) this.removedWhileLoading.add(fileName);
+                    return false;
+                }
+                this.map.put(fileName, new Record(fileName, 0L, 0L, false, null, true));
+            } else {
+                if (existing.ignored == ignore) return false;
+                this.map.put(fileName, new Record(fileName, existing.length, existing.modified, existing.inspected, existing.suggestion, ignore));
+            }
+        }
+        scheduleSave();
+        return true;
+    }
+
+    /**
+     * The result of an inspection.
+     */
+    static final class Record {
+        @NonNull private final String name;
+        private final long length;
+        private final long modified;
+        /** {@code true} if the file has been inspected; {@code false} if the record exists only to carry the ignore flag */
+        private final boolean inspected;
+        /** the extension that the Inspector suggested for the file; {@code null} if there was no suggestion */
+        @Nullable final String suggestion;
+        private final boolean ignored;
+
+        /**
+         * @param s String representation as produced by {@link #toString()}
+         * @return Record or {@code null}
+         */
+        @Nullable
+        private static Record fromString(@NonNull String s) {
+            // length, modified, flags, suggestion, name - the name comes last because it may contain anything but line breaks
+            final int s0 = s.indexOf(SEP);
+            final int s1 = s0 > 0 ? s.indexOf(SEP, s0 + 1) : -1;
+            final int s2 = s1 > 0 ? s.indexOf(SEP, s1 + 1) : -1;
+            final int s3 = s2 > 0 ? s.indexOf(SEP, s2 + 1) : -1;
+            if (s3 < 0 || s3 == s.length() - 1) return null;
+            try {
+                final long length = Long.parseLong(s.substring(0, s0));
+                final long modified = Long.parseLong(s.substring(s0 + 1, s1));
+                final int flags = Integer.parseInt(s.substring(s1 + 1, s2));
+                final String suggestion = s3 > s2 + 1 ? s.substring(s2 + 1, s3) : null;
+                return new Record(s.substring(s3 + 1), length, modified, (flags & 1) != 0, suggestion, (flags & 2) != 0);
+            } catch (NumberFormatException e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Invalid record \"" + s + "\"");
+            }
+            return null;
+        }
+
+        private Record(@NonNull String name, long length, long modified, boolean inspected, @Nullable String suggestion, boolean ignored) {
+            super();
+            this.name = name;
+            this.length = length;
+            this.modified = modified;
+            this.inspected = inspected;
+            this.suggestion = suggestion;
+            this.ignored = ignored;
+        }
+
+        /** {@inheritDoc} */
+        @NonNull
+        @Override
+        public String toString() {
+            final int flags = (this.inspected ? 1 : 0) | (this.ignored ? 2 : 0);
+            return String.valueOf(this.length) + SEP + this.modified + SEP + flags + SEP + (this.suggestion != null ? this.suggestion : "") + SEP + this.name;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import android.text.TextUtils;
 import android.view.Window;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.IntDef;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -27,7 +28,6 @@ import androidx.preference.PreferenceManager;
 import net.cellar.App;
 import net.cellar.BuildConfig;
 import net.cellar.R;
-import net.cellar.auth.EncryptionHelper;
 import net.cellar.supp.DebugUtil;
 import net.cellar.supp.Log;
 import net.cellar.supp.Util;
@@ -47,17 +47,24 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -69,11 +76,10 @@ import wseemann.media.FFmpegMediaMetadataRetriever;
  * Inspects files to determine whether they carry the correct extension.
  * If the extension seems to be wrong, displays a dialog asking the user to rename the file.
  */
-public class Inspector extends AsyncTask<File, Float, Map<File, String>> implements SharedPreferences.OnSharedPreferenceChangeListener {
+public class Inspector extends AsyncTask<File, Float, Map<File, String>> {
 
-    /** String Set: names of files that will be ignored by Inspector */
+    /** String Set: names of files that will be ignored by Inspector; only read once to migrate them to the {@link InspectionStore} */
     public static final String PREF_INSPECTOR_IGNORED = "pref_inspector_ignored";
-    private static final Set<String> EMPTY_STRING_SET = new HashSet<>(0);
     private static final String KEY = "pref_toybox";
     private static final String P1 = "file";
     private static final String PROG = "/system/bin/toybox";
@@ -81,8 +87,16 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
     private static final int TOYBOX_AVAILABLE = 1;
     private static final int TOYBOX_UNAVAILABLE = -1;
     private static final int TOYBOX_UNKNOWN = 0;
-    @Size(16) private static final int[] WMV = new int[] {0x30, 0x26, 0xb2, 0x75, 0x8e, 0x66, 0xcf, 0x11, 0xa6, 0xd9, 0x00, 0xaa, 0x00, 0x62, 0xce, 0x6c};
-    @Size(16) private static final int[] WTV = new int[] {0xb7, 0xd8, 0x00, 0x20, 0x37, 0x49, 0xda, 0x11, 0xa6, 0x4e, 0x00, 0x07, 0xe9, 0x5e, 0xad, 0x8d};
+    /** maximum number of files passed to one "toybox file" invocation */
+    private static final int TOYBOX_BATCH = 64;
+    /** wildcard in a {@link Signature} */
+    private static final int ANY = -1;
+    /** number of bytes that are read from the start of a file */
+    private static final int HEADER_LENGTH = 16;
+    /** offsets at which the magic numbers of the {@link Signature Signatures} start */
+    private static final int[] SIGNATURE_OFFSETS = new int[] {0, 4};
+    /** for each offset in {@link #SIGNATURE_OFFSETS}: Signatures indexed by their first byte, ordered by rank */
+    private static final Signature[][][] SIGNATURE_TABLES;
     @Size(9) private static final String[] XML_EXTENSIONS = new String[] {
             ".atom", ".gpx", ".kml", ".mathml", ".xspf",
             ".rss", ".xsd", ".svg", ".xmi"
@@ -93,6 +107,187 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
             "rss", "schema", "svg", "xmi"
     };
 
+    static {
+        final List<Signature> l = new ArrayList<>(96);
+        add(l, 0, Signature.KIND_ASF, m(0x30, 0x26, 0xb2, 0x75, 0x8e, 0x66, 0xcf, 0x11, 0xa6, 0xd9, 0x00, 0xaa, 0x00, 0x62, 0xce, 0x6c), ".wmv", ".asf");
+        add(l, 0, m(0xb7, 0xd8, 0x00, 0x20, 0x37, 0x49, 0xda, 0x11, 0xa6, 0x4e, 0x00, 0x07, 0xe9, 0x5e, 0xad, 0x8d), ".wtv");
+        add(l, 0, m("audfprintpeakV00"), ".afpk");
+        add(l, 0, m(0, 0, 0x27, 0x0a, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0), ".shp");
+        add(l, 0, m("<!DOCTYPE html>"), ".htm", ".html");
+        add(l, 0, m("<!doctype html>"), ".htm", ".html");
+        add(l, 0, m("BEGIN:VCALENDAR"), ".ics");
+        // the first 4 bytes must match the file size (e.g. 0x04 0xd5 0x07 0x00 for file size of 513.284 == 0x0007d504)
+        add(l, 4, Signature.KIND_FLIC, m(0x11, 0xaf, ANY, ANY, ANY, ANY, ANY, ANY, 0x08, 0x00), ".fli");
+        add(l, 4, Signature.KIND_FLIC, m(0x12, 0xaf, ANY, ANY, ANY, ANY, ANY, ANY, 0x08, 0x00), ".flc");
+        add(l, 0, m("[Flatpak Ref]"), ".flatpakref");
+        add(l, 4, m("ftypisom"), ".mp4", ".3gp5");
+        add(l, 4, m("ftypM4A "), ".m4a");
+        add(l, 4, m("ftypm4a "), ".m4a");
+        add(l, 4, m("ftypMP42"), ".m4v", ".mp4");
+        add(l, 4, m("ftypmp42"), ".m4v", ".mp4");
+        add(l, 4, m("ftypQT  "), ".mov");
+        add(l, 4, m("ftypqt  "), ".mov");
+        add(l, 4, m("ftyp3gp "), ".3gp", ".3gg", ".3g2");
+        add(l, 0, m("d8:announce"), ".torrent");
+        add(l, 0, riff("WAVE"), ".wav");
+        add(l, 0, riff("AVI "), ".avi");
+        add(l, 0, riff("CDDA"), ".cda");
+        add(l, 0, riff("WEBP"), ".webp");
+        add(l, 0, riff("sfbk"), ".sf2");
+        add(l, 0, m("BEGIN:VCARD"), ".vcf");
+        add(l, 0, Signature.KIND_ICO, m(0x00, 0x00, 0x01, 0x00, ANY, ANY, ANY, ANY, ANY, ANY), ".ico");
+        add(l, 0, Signature.KIND_ICO, m(0x00, 0x00, 0x02, 0x00, ANY, ANY, ANY, ANY, ANY, ANY), ".cur");
+        add(l, 0, m('.', 'R', 'M', 'F', 0, 0, 0, 0x12), ".ra");
+        add(l, 0, m(0x89, 'H', 'D', 'F', 0x0d, 0x0a, 0x1a, 0x0a), ".hdf", ".h4", ".hdf4", ".h5", ".hdf5", ".he2", ".he5");
+        add(l, 4, m("moov"), ".mov");
+        add(l, 0, m("#EXTM3U"), ".m3u", ".m3u8");
+        add(l, 0, Signature.KIND_XML, m("<?xml "), ".xml");
+        add(l, 0, m(0x37, 0x7a, 0xbc, 0xaf, 0x27, 0x1c), ".7z");
+        add(l, 0, m(0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00), ".xz");
+        add(l, 0, m("%PDF-"), ".pdf");
+        add(l, 0, m("<svg "), ".svg");
+        add(l, 0, m('.', 'r', 'a', 0xfd, 0), ".ra");
+        add(l, 0, m(0x89, 'P', 'N', 'G'), ".png");
+        add(l, 0, m("fLaC"), ".flac");
+        add(l, 0, m("MThd"), ".mid", ".midi");
+        add(l, 0, m(0x00, 0x00, 0x01, 0xba), ".mpg", ".mpeg", ".vob", ".m2p");
+        add(l, 0, m(0x1a, 0x45, 0xdf, 0xa3), ".mkv", ".mka", ".mks", ".mk3d", ".webm");
+        add(l, 0, m("NSVf"), ".nsv");
+        add(l, 0, m("wOFF"), ".woff");
+        add(l, 0, m("wOF2"), ".woff2");
+        add(l, 0, m("ISc("), ".cab");
+        add(l, 0, m("KCMS"), ".icm");
+        add(l, 0, m('F', 'L', 'V', 0x01), ".flv");
+        add(l, 0, m(0xed, 0xab, 0xee, 0xdb), ".rpm");
+        add(l, 0, m(0x61, 0x6a, 0x6b, 0x67), ".shn");
+        add(l, 0, m("%!PS"), ".ps");
+        add(l, 0, m(0xc5, 0xd0, 0xd3, 0xc6), ".eps");
+        add(l, 0, m("8BPS"), ".psd");
+        add(l, 0, Signature.KIND_OGG, m("OggS"), ".ogg", ".oga", ".ogv", ".opus");
+        add(l, 0, m(0xa1, 0xb2, 0xc3, 0xd4), ".pcap");
+        add(l, 0, m(0xd4, 0xc3, 0xb2, 0xa1), ".pcap");
+        // Sun/NeXT audio data
+        add(l, 0, m(0x2e, 0x73, 0x6e, 0x64), ".au");
+        add(l, 0, m('I', 'I', '*', 0), ".tif", ".tiff", ".dng", ".cr2", ".crw", ".arw", ".nef");
+        add(l, 0, m('M', 'M', 0, '*'), ".tif", ".tiff", ".dng", ".cr2", ".crw", ".arw", ".nef");
+        add(l, 0, m("ID3"), ".mp3");
+        add(l, 0, m(0xf2, 0x5a, 0x68), ".bz2");
+        add(l, 0, m("#!/"), ".sh");
+        add(l, 0, m(0x0b, 0x77), ".ac3");
+        add(l, 0, m(0xff, 0xfb), ".mp3");
+        add(l, 0, m(0xff, 0xf3), ".mp3");
+        add(l, 0, m(0xff, 0xf2), ".mp3");
+        add(l, 0, m(0xff, 0xf1), ".aac");
+        add(l, 0, Signature.KIND_ZIP, m("PK"), ".zip");
+
+        SIGNATURE_TABLES = new Signature[SIGNATURE_OFFSETS.length][][];
+        for (int t = 0; t < SIGNATURE_OFFSETS.length; t++) {
+            final List<List<Signature>> buckets = new ArrayList<>(256);
+            for (int j = 0; j < 256; j++) buckets.add(null);
+            for (Signature sig : l) {
+                if (sig.offset != SIGNATURE_OFFSETS[t]) continue;
+                List<Signature> bucket = buckets.get(sig.magic[0]);
+                if (bucket == null) {
+                    bucket = new ArrayList<>(4);
+                    buckets.set(sig.magic[0], bucket);
+                }
+                // as the Signatures have been added in the order of their rank, the buckets are sorted by rank, too
+                bucket.add(sig);
+            }
+            SIGNATURE_TABLES[t] = new Signature[256][];
+            for (int j = 0; j < 256; j++) {
+                List<Signature> bucket = buckets.get(j);
+                if (bucket != null) SIGNATURE_TABLES[t][j] = bucket.toArray(new Signature[0]);
+            }
+        }
+    }
+
+    /**
+     * Adds a plain Signature.
+     * @param l List to add to
+     * @param offset offset of the magic number
+     * @param magic magic number
+     * @param extension file extension
+     * @param alt alternative file extensions
+     */
+    private static void add(@NonNull List<Signature> l, @IntRange(from = 0) int offset, @NonNull int[] magic, @NonNull String extension, String... alt) {
+        add(l, offset, Signature.KIND_PLAIN, magic, extension, alt);
+    }
+
+    /**
+     * Adds a Signature.
+     * @param l List to add to
+     * @param offset offset of the magic number
+     * @param kind kind of Signature
+     * @param magic magic number
+     * @param extension file extension
+     * @param alt alternative file extensions
+     */
+    private static void add(@NonNull List<Signature> l, @IntRange(from = 0) int offset, @Signature.Kind int kind, @NonNull int[] magic, @NonNull String extension, String... alt) {
+        l.add(new Signature(l.size(), offset, kind, magic, extension, alt != null && alt.length > 0 ? alt : null));
+    }
+
+    /**
+     * Builds a magic number from a String.
+     * @param s String
+     * @return magic number
+     */
+    @NonNull
+    private static int[] m(@NonNull String s) {
+        final int n = s.length();
+        final int[] magic = new int[n];
+        for (int j = 0; j < n; j++) magic[j] = s.charAt(j);
+        return magic;
+    }
+
+    /**
+     * Builds the magic number of a RIFF file: "RIFF", 4 bytes of length and the given type.
+     * @param type 4-character type, e.g. "WAVE"
+     * @return magic number
+     */
+    @NonNull
+    private static int[] riff(@NonNull @Size(4) String type) {
+        final int[] magic = new int[] {'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 0, 0, 0, 0};
+        for (int j = 0; j < 4; j++) magic[8 + j] = type.charAt(j);
+        return magic;
+    }
+
+    /**
+     * Builds a magic number from individual byte values. {@link #ANY} is a wildcard.
+     * @param v byte values
+     * @return magic number
+     */
+    @NonNull
+    private static int[] m(@NonNull int... v) {
+        return v;
+    }
+
+    /**
+     * Finds the highest-ranking Signature that matches the given header.
+     * @param b header data
+     * @param read number of valid bytes in {@code b}
+     * @param fileLength length of the file
+     * @return Signature or {@code null}
+     */
+    @Nullable
+    private static Signature match(@NonNull final byte[] b, final int read, final long fileLength) {
+        Signature best = null;
+        for (int t = 0; t < SIGNATURE_OFFSETS.length; t++) {
+            final int offset = SIGNATURE_OFFSETS[t];
+            if (read <= offset) break;
+            final Signature[] bucket = SIGNATURE_TABLES[t][b[offset] & 0xff];
+            if (bucket == null) continue;
+            for (Signature sig : bucket) {
+                if (best != null && sig.rank > best.rank) break;
+                if (sig.matches(b, read, fileLength)) {
+                    best = sig;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
     /**
      * Interesting reading is here:
      * <ol>
@@ -111,175 +306,53 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         String[] alt = null;
         RandomAccessFile raf = null;
         try {
-            byte[] b = new byte[16];
+            final byte[] b = new byte[HEADER_LENGTH];
             raf = new RandomAccessFile(f, "r");
             final int read = raf.read(b);
-            final int[] i = new int[read];
-            for (int j = 0; j < read; j++) i[j] = ((int)b[j]) & 0xff;
-
-            if (read >= WMV.length) {
-                boolean datsWmv = true;
-                for (int k = 0; k < read; k++) {
-                    if (i[k] != WMV[k]) {
-                        datsWmv = false; break;
-                    }
-                }
-                if (datsWmv) {
-                    FFmpegMediaMetadataRetriever mmr = new FFmpegMediaMetadataRetriever();
-                    mmr.setDataSource(f.getAbsolutePath());
-                    FFmpegMediaMetadataRetriever.Metadata md = mmr.getMetadata();
-                    boolean asfHasVideo = false;
-                    HashMap<String, String> mda = md.getAll();
-                    mmr.release();
-                    for (String key : mda.keySet()) {
-                        if ("video_codec".equals(key) && !TextUtils.isEmpty(mda.get(key))) {
-                            asfHasVideo = true;
-                            break;
-                        }
-                    }
-                    extension = asfHasVideo ? ".wmv" : ".wma";
-                    alt = new String[]{".asf"};
-                }
-            }
-            if (extension == null && read >= WTV.length) {
-                boolean datsWtv = true;
-                for (int k = 0; k < read; k++) {
-                    if (i[k] != WTV[k]) {
-                        datsWtv = false; break;
-                    }
-                }
-                if (datsWtv) extension = ".wtv";
-            }
-            if (extension == null && read >= 16) {
-                if (isTheSame(i, 0, "audfprintpeakV00")) extension = ".afpk";
-                else if (i[0] == 0&& i[1] == 0 && i[2] == 0x27 && i[3] == 0x0a) {
-                    boolean allnullfrom4to15 = true;
-                    for (int j = 4; j <= 15; j++) if (i[j] != 0) {allnullfrom4to15 = false; break;}
-                    if (allnullfrom4to15) extension = ".shp";
-                }
-            }
-            if (extension == null && read >= 15) {
-                if (isTheSame(i, 0, "<!DOCTYPE html>") || isTheSame(i, 0, "<!doctype html>")) {
-                    extension = ".htm";
-                    alt = new String[] {".html"};
-                } else if (isTheSame(i, 0, "BEGIN:VCALENDAR")) {
-                    extension = ".ics";
-                }
-            }
-            if (extension == null && read >= 14) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    // the first 4 bytes must match the file size (e.g. 0x04 0xd5 0x07 0x00 for file size of 513.284 == 0x0007d504)
-                    //TODO this looks awfully complicated - can't we have something simpler here?
-                    CharSequence filelength = Util.trim(Long.toHexString(Long.reverseBytes(f.length())), '0');
-                    CharSequence first4Bytes = Util.trim(EncryptionHelper.asHex(b, 4), '0');
-                    if (TextUtils.equals(filelength, first4Bytes)) {
-                        if (i[4] == 0x11 && i[5] == 0xaf && i[12] == 0x08 && i[13] == 0) extension = ".fli";
-                        else if (i[4] == 0x12 && i[5] == 0xaf && i[12] == 0x08 && i[13] == 0) extension = ".flc";
-                    }
-                }
-            }
-            if (extension == null && read >= 13) {
-                if (isTheSame(i, 0, "[Flatpak Ref]")) extension = ".flatpakref";
-            }
-            if (extension == null && read >= 12) {
-                if (isTheSame(i, 4, "ftypisom")) {extension = ".mp4"; alt = new String[] {".3gp5"};}
-                else if (isTheSame(i, 4, "ftypM4A ") || isTheSame(i, 4, "ftypm4a ")) extension = ".m4a";
-                else if (isTheSame(i, 4, "ftypMP42") || isTheSame(i, 4, "ftypmp42")) {extension = ".m4v"; alt = new String[] {".mp4"};}
-                else if (isTheSame(i, 4, "ftypQT  ") || isTheSame(i, 4, "ftypqt  ")) extension = ".mov";
-                else if (isTheSame(i, 4, "ftyp3gp ")) {extension = ".3gp"; alt = new String[] {".3gg", ".3g2"};}
-                else if (isTheSame(i, 0, "d8:announce")) extension = ".torrent";
-                else if (isTheSame(i, 0, "RIFF")) {
-                    if (i[8] == 'W' && i[9] == 'A' && i[10] == 'V' && i[11] == 'E') extension = ".wav";
-                    else if (i[8] == 'A' && i[9] == 'V' && i[10] == 'I' && i[11] == ' ') extension = ".avi";
-                    else if (i[8] == 'C' && i[9] == 'D' && i[10] == 'D' && i[11] == 'A') extension = ".cda";
-                    else if (i[8] == 'W' && i[9] == 'E' && i[10] == 'B' && i[11] == 'P') extension = ".webp";
-                    else if (isTheSame(i, 8, "sfbk")) extension = ".sf2";
-                }
-            }
-            if (extension == null && read >= 11) {
-                if (isTheSame(i, 0, "BEGIN:VCARD")) extension = ".vcf";
-            }
-            if (extension == null && read >= 10) {
-                if (i[0] == 0x00 && i[1] == 0x00 && i[2] == 0x01 && i[3] == 0x00 && i[4] > 0x00 && (i[9] == 0 || i[9] == 255)) extension = ".ico";
-                else if (i[0] == 0x00 && i[1] == 0x00 && i[2] == 0x02 && i[3] == 0x00 && i[4] > 0x00 && (i[9] == 0 || i[9] == 255)) extension = ".cur";
-            }
-            if (extension == null && read >= 8) {
-                if (i[0] == '.' && i[1] == 'R' && i[2] == 'M' && i[3] == 'F' && i[4] == 0 && i[5] == 0 && i[6] == 0 && i[7] == 0x12) extension = ".ra";
-                else if (i[0] == 0x89 && i[1] == 'H' && i[2] == 'D' && i[3] == 'F' && i[4] == 0x0d && i[5] == 0x0a && i[6] == 0x1a && i[7] == 0x0a) {extension = ".hdf"; alt = new String[] {".h4", ".hdf4", ".h5", ".hdf5", ".he2", ".he5"};}
-                else if (isTheSame(i, 4, "moov")) {extension = ".mov";}
-            }
-            if (extension == null && read >= 7) {
-                if (isTheSame(i, 0, "#EXTM3U")) {extension = ".m3u"; alt = new String[] {".m3u8"};}
-            }
-            if (extension == null && read >= 6) {
-                if (isTheSame(i, 0, "<?xml ")) {
-                    String schema = new XmlInspecter().inspect(f);
-                    if (schema != null) {
-                        for (int j = 0; j < XML_SCHEMAS.length; j++) {
-                            if (XML_SCHEMAS[j].equals(schema)) {
-                                extension = XML_EXTENSIONS[j];
-                                break;
+            final long fileLength = f.length();
+            final Signature sig = read > 0 ? match(b, read, fileLength) : null;
+            if (sig != null) {
+                switch (sig.kind) {
+                    case Signature.KIND_ASF:
+                        extension = asfHasVideo(f) ? ".wmv" : ".wma";
+                        alt = sig.alt;
+                        break;
+                    case Signature.KIND_XML:
+                        String schema = new XmlInspecter().inspect(f);
+                        if (schema != null) {
+                            for (int j = 0; j < XML_SCHEMAS.length; j++) {
+                                if (XML_SCHEMAS[j].equals(schema)) {
+                                    extension = XML_EXTENSIONS[j];
+                                    break;
+                                }
+                            }
+                            if (extension == null) {
+                                extension = sig.extension;
                             }
                         }
-                        if (extension == null) {
-                            extension = ".xml";
+                        break;
+                    case Signature.KIND_OGG:
+                        final String[] ogg = oggExtensions(raf);
+                        if (ogg != null) {
+                            extension = ogg[0];
+                            alt = ogg.length > 1 ? Arrays.copyOfRange(ogg, 1, ogg.length) : null;
+                        } else {
+                            extension = sig.extension;
+                            alt = sig.alt;
                         }
-                    }
-                }
-                if (extension == null) {
-                    if (i[0] == 0x37 && i[1] == 0x7a && i[2] == 0xbc && i[3] == 0xaf && i[4] == 0x27 && i[5] == 0x1c) extension = ".7z";
-                    else if (i[0] == 0xfd && i[1] == 0x37 && i[2] == 0x7a && i[3] == 0x58 && i[4] == 0x5a && i[5] == 0) extension = ".xz";
-                }
-            }
-            if (extension == null && read >= 5) {
-                if (isTheSame(i, 0, "%PDF-")) extension = ".pdf";
-                else if (isTheSame(i, 0, "<svg ")) extension = ".svg";
-                else if (i[0] == '.' && i[1] == 'r' && i[2] == 'a' && i[3] == 0xfd && i[4] == 0) extension = ".ra";
-            }
-            if (extension == null && read >= 4) {
-                if (i[0] == 0x89 && isTheSame(i,1, "PNG")) extension = ".png";
-                else if (isTheSame(i, 0, "fLaC")) extension = ".flac";
-                else if (isTheSame(i, 0, "MThd"))  {extension = ".mid"; alt = new String[] {".midi"};}
-                else if (i[0] == 0 && i[1] == 0 && i[2] == 1 && i[3] == 0xba) {extension = ".mpg"; alt = new String[] {".mpeg", ".vob", ".m2p"};}
-                else if (i[0] == 0x1a && i[1] == 0x45 && i[2] == 0xdf && i[3] == 0xa3) {extension = ".mkv"; alt = new String[] {".mka", ".mks", ".mk3d", ".webm"};}
-                else if (isTheSame(i, 0, "NSVf")) extension = ".nsv";
-                else if (isTheSame(i, 0, "wOFF")) extension = ".woff";
-                else if (isTheSame(i, 0, "wOF2")) extension = ".woff2";
-                else if (isTheSame(i, 0, "ISc(")) extension = ".cab";
-                else if (isTheSame(i, 0, "KCMS")) extension = ".icm";
-                else if (isTheSame(i, 0, "FLV") && i[3] == 0x01) extension = ".flv";
-                else if (i[0] == 0xed && i[1] == 0xab && i[2] == 0xee && i[3] == 0xdb) extension = ".rpm";
-                else if (i[0] == 0x61 && i[1] == 0x6a && i[2] == 0x6b && i[3] == 0x67) extension = ".shn";
-                else if (isTheSame(i, 0, "%!PS")) extension = ".ps";
-                else if (i[0] == 0xc5 && i[1] == 0xd0 && i[2] == 0xd3 && i[3] == 0xc6) extension = ".eps";
-                else if (isTheSame(i, 0, "8BPS")) extension = ".psd";
-                else if (isTheSame(i, 0, "OggS")) extension = ".opus";
-                else if ((i[0] == 0xa1 && i[1] == 0xb2 && i[2] == 0xc3 && i[3] == 0xd4) || (i[0] == 0xd4 && i[1] == 0xc3 && i[2] == 0xb2 && i[3] == 0xa1)) extension = ".pcap";
-                else if (i[0] == 0x2e && i[1] == 0x73 && i[2] == 0x6e && i[3] == 0x64) extension = ".au";   // Sun/NeXT audio data
-                else if ((i[0] == 'I' && i[1] == 'I' && i[2] == '*' && i[3] == 0)
-                        || (i[0] == 'M' && i[1] == 'M' && i[2] == 0 && i[3] == '*')) {
-                    extension = ".tif"; alt = new String[] {".tiff", ".dng", ".cr2", ".crw", ".arw", ".nef"};
-                }
-            }
-            if (extension == null && read >= 3) {
-                if (isTheSame(i, 0, "ID3")) extension = ".mp3";
-                else if (i[0] == 0xf2 && i[1] == 0x5a && i[2] == 0x68) extension = ".bz2";
-                else if (isTheSame(i, 0, "#!/")) extension = ".sh";
-            }
-            if (extension == null && read >= 2) {
-                if (i[0] == 0x0b && i[1] == 0x77) extension = ".ac3";
-                else if (i[0] == 0xff && (i[1] == 0xfb || i[1] == 0xf3 || i[1] == 0xf2)) extension = ".mp3";
-                else if (i[0] == 0xff && i[1] == 0xf1) extension = ".aac";
-                else if (isTheSame(i, 0, "PK")) {
-                    inspectZip(f, suggestions);
+                        break;
+                    case Signature.KIND_ZIP:
+                        // inspectZip() adds the suggestion itself
+                        return inspectZip(f, suggestions);
+                    default:
+                        extension = sig.extension;
+                        alt = sig.alt;
                 }
             }
-            if (extension == null && f.length() >= 0x8006L) {
+            if (extension == null && fileLength >= 0x8006L) {
                 raf.seek(0x8001L);
                 if (raf.read(b, 0, 5) == 5) {
-                    int[] ii = new int[5];
-                    for (int j = 0; j < 5; j++) ii[j] = ((int)b[j]) & 0xff;
-                    if (ii[0] == 'C' && ii[1] == 'D' && ii[2] == '0' && ii[3] == '0' && ii[4] == '1') extension = ".iso";
+                    if (b[0] == 'C' && b[1] == 'D' && b[2] == '0' && b[3] == '0' && b[4] == '1') extension = ".iso";
                 }
             }
         } catch (Exception e) {
@@ -301,76 +374,171 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
     }
 
     /**
-     * See <a href="https://github.com/landley/toybox/blob/master/toys/posix/file.c">https://github.com/landley/toybox/blob/master/toys/posix/file.c</a>
+     * Identifies the codec of an Ogg file via the header packet in its first page.
+     * @param raf Ogg file
+     * @return file extension followed by alternative extensions, or {@code null} if the codec is not known
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable
+    private static String[] oggExtensions(@NonNull RandomAccessFile raf) throws IOException {
+        // the page header is followed by the segment table whose length is given at position 26
+        raf.seek(26L);
+        final int segments = raf.read();
+        if (segments < 0) return null;
+        raf.seek(27L + segments);
+        final byte[] packet = new byte[8];
+        if (raf.read(packet) != packet.length) return null;
+        if (isTheSame(packet, 0, "OpusHead")) return new String[] {".opus"};
+        if (packet[0] == 0x01 && isTheSame(packet, 1, "vorbis")) return new String[] {".ogg", ".oga"};
+        if ((packet[0] & 0xff) == 0x80 && isTheSame(packet, 1, "theora")) return new String[] {".ogv", ".ogg"};
+        return null;
+    }
+
+    /**
+     * Compares bytes with the characters of a String.
+     * @param b bytes
+     * @param offset position in {@code b} to start at
+     * @param s String consisting of ASCII characters
+     * @return {@code true} if the bytes at {@code offset} equal the characters of {@code s}
+     */
+    private static boolean isTheSame(@NonNull byte[] b, int offset, @NonNull String s) {
+        final int n = s.length();
+        if (offset + n > b.length) return false;
+        for (int j = 0; j < n; j++) {
+            if (b[offset + j] != s.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether an ASF file contains video.
+     * @param f ASF file
+     * @return {@code true} if the file contains a video stream
+     */
+    private static boolean asfHasVideo(@NonNull File f) {
+        FFmpegMediaMetadataRetriever mmr = new FFmpegMediaMetadataRetriever();
+        mmr.setDataSource(f.getAbsolutePath());
+        FFmpegMediaMetadataRetriever.Metadata md = mmr.getMetadata();
+        HashMap<String, String> mda = md.getAll();
+        mmr.release();
+        for (String key : mda.keySet()) {
+            if ("video_codec".equals(key) && !TextUtils.isEmpty(mda.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inspects a file, first by its {@link #inspectFile(File, Map) signature}, then via "toybox file".
      * @param file File to inspect
      * @param suggestions map to add a suggestion to
      * @return suggested extension (only used in tests)
      */
     @VisibleForTesting
     public static String inspectViaToybox(@NonNull File file, @NonNull Map<File, String> suggestions) {
-        BufferedReader in = null;
-        BufferedReader err = null;
-        String extension = null;
-        String[] alt = null;
-        try {
-            Process p = Runtime.getRuntime().exec(new String[] {PROG, P1, file.getAbsolutePath()});
+        final String extension = inspectFile(file, suggestions);
+        if (extension != null) return extension;
+        return inspectViaToybox(Collections.singletonList(file), suggestions).get(file);
+    }
 
-            in = new BufferedReader(new InputStreamReader(new BufferedInputStream(p.getInputStream())));
-            err = new BufferedReader(new InputStreamReader(new BufferedInputStream(p.getErrorStream())));
-            while (extension == null) {
-                String line = in.readLine();
-                if (line == null) break;
-                int colon = line.lastIndexOf(':');
-                if (colon < 0) continue;
-                final String content = line.substring(colon + 1).trim();
-                //if (BuildConfig.DEBUG && !"data".equals(content)) Log.i(TAG, line);
-                if (content.startsWith("PNG image data")) extension = ".png";
-                else if (content.startsWith("JPEG image data")) {extension = ".jpg"; alt = new String[] {".jpeg"};}
-                else if (content.startsWith("GIF image data")) extension = ".gif";
-                else if (content.startsWith("Ogg data, theora video")) {extension = ".ogv"; alt = new String[] {".ogg"};}
-                else if (content.startsWith("Ogg data, vorbis audio")) {extension = ".ogg"; alt = new String[] {".oga"};}
-                else if (content.startsWith("Ogg data")) {extension = ".ogg"; alt = new String[] {".oga", ".ogv"};}
-                else if ("data".equals(content)) extension = inspectFile(file, suggestions);
-                else if ("ASCII text".equals(content)) {
-                    extension = inspectFile(file, suggestions);
-                    if (extension == null) {extension = ".txt"; alt = new String[] {".csv", ".yml"};}
+    /**
+     * Inspects files via "toybox file", passing up to {@link #TOYBOX_BATCH} files per invocation.<br>
+     * The files are expected not to have been identified by {@link #inspectFile(File, Map)}.<br>
+     * See <a href="https://github.com/landley/toybox/blob/master/toys/posix/file.c">https://github.com/landley/toybox/blob/master/toys/posix/file.c</a>
+     * @param files Files to inspect
+     * @param suggestions map to add suggestions to
+     * @return Map of files to the extensions suggested for them
+     */
+    @NonNull
+    private static Map<File, String> inspectViaToybox(@NonNull List<File> files, @NonNull Map<File, String> suggestions) {
+        final int n = files.size();
+        final Map<File, String> extensions = new HashMap<>(n);
+        for (int start = 0; start < n; start += TOYBOX_BATCH) {
+            final List<File> batch = files.subList(start, Math.min(n, start + TOYBOX_BATCH));
+            final String[] cmd = new String[2 + batch.size()];
+            cmd[0] = PROG;
+            cmd[1] = P1;
+            for (int j = 0; j < batch.size(); j++) cmd[2 + j] = batch.get(j).getAbsolutePath();
+            BufferedReader in = null;
+            BufferedReader err = null;
+            try {
+                Process p = Runtime.getRuntime().exec(cmd);
+                in = new BufferedReader(new InputStreamReader(new BufferedInputStream(p.getInputStream())));
+                err = new BufferedReader(new InputStreamReader(new BufferedInputStream(p.getErrorStream())));
+                // toybox prints one line per file in the order of the arguments: "<path>: <content>"
+                int index = 0;
+                for (;;) {
+                    String line = in.readLine();
+                    if (line == null) break;
+                    for (int j = index; j < batch.size(); j++) {
+                        final String path = cmd[2 + j];
+                        if (line.length() > path.length() && line.startsWith(path) && line.charAt(path.length()) == ':') {
+                            final File file = batch.get(j);
+                            final String extension = interpretToybox(file, line.substring(path.length() + 1).trim(), suggestions);
+                            if (extension != null) extensions.put(file, extension);
+                            index = j + 1;
+                            break;
+                        }
+                    }
                 }
-                else if (content.startsWith("Zip archive")) extension = inspectZip(file, suggestions);
-                else if ("TrueType font".equals(content)) extension = ".ttf";
-                else if ("/bin/sh script".equals(content)) extension = ".sh";
-            }
-            for (;;) {
-                String line = err.readLine();
-                if (line == null) break;
-                if (BuildConfig.DEBUG) Log.e(TAG, line);
-            }
-            if (isAlive(p)) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    p.waitFor(60, TimeUnit.SECONDS);
-                } else {
-                    p.waitFor();
+                for (;;) {
+                    String line = err.readLine();
+                    if (line == null) break;
+                    if (BuildConfig.DEBUG) Log.e(TAG, line);
                 }
+                if (isAlive(p)) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                        p.waitFor(60, TimeUnit.SECONDS);
+                    } else {
+                        p.waitFor();
+                    }
+                }
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "While inspecting " + batch.size() + " files: " + e.toString());
+            } finally {
+                Util.close(in, err);
             }
-        } catch (Exception e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "While inspecting \"" + file + "\": " + e.toString());
-        } finally {
-            Util.close(in, err);
         }
-        boolean matchesalt = false;
-        if (extension != null) {
-            String fileName = file.getName().toLowerCase();
-            if (!fileName.endsWith(extension)) {
-                if (alt != null) {
-                    for (String a : alt) {
-                        if (fileName.endsWith(a)) {
-                            matchesalt = true;
-                            if (DebugUtil.TEST) return a;
-                            break;
-                        }
+        return extensions;
+    }
+
+    /**
+     * Evaluates the output of "toybox file" for one file.
+     * @param file File that has been inspected
+     * @param content the description that toybox gave for the file
+     * @param suggestions map to add a suggestion to
+     * @return suggested extension
+     */
+    @Nullable
+    private static String interpretToybox(@NonNull File file, @NonNull String content, @NonNull Map<File, String> suggestions) {
+        String extension = null;
+        String[] alt = null;
+        //if (BuildConfig.DEBUG && !"data".equals(content)) Log.i(TAG, content);
+        if (content.startsWith("PNG image data")) extension = ".png";
+        else if (content.startsWith("JPEG image data")) {extension = ".jpg"; alt = new String[] {".jpeg"};}
+        else if (content.startsWith("GIF image data")) extension = ".gif";
+        else if (content.startsWith("Ogg data, theora video")) {extension = ".ogv"; alt = new String[] {".ogg"};}
+        else if (content.startsWith("Ogg data, vorbis audio")) {extension = ".ogg"; alt = new String[] {".oga"};}
+        else if (content.startsWith("Ogg data")) {extension = ".ogg"; alt = new String[] {".oga", ".ogv"};}
+        else if ("ASCII text".equals(content)) {extension = ".txt"; alt = new String[] {".csv", ".yml"};}
+        else if (content.startsWith("Zip archive")) return inspectZip(file, suggestions);
+        else if ("TrueType font".equals(content)) extension = ".ttf";
+        else if ("/bin/sh script".equals(content)) extension = ".sh";
+        if (extension == null) return null;
+        final String fileName = file.getName().toLowerCase();
+        if (!fileName.endsWith(extension)) {
+            boolean matchesalt = false;
+            if (alt != null) {
+                for (String a : alt) {
+                    if (fileName.endsWith(a)) {
+                        matchesalt = true;
+                        if (DebugUtil.TEST) return a;
+                        break;
                     }
                 }
-                if (!matchesalt) suggestions.put(file, extension);
             }
+            if (!matchesalt) suggestions.put(file, extension);
         }
         return extension;
     }
@@ -395,19 +563,15 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
                 else if ("debian-binary".equals(name)) extension = ".deb";
                 else if ("mimetype".equals(name)) {
                     // OpenDocument files should contain a file named "mimetype" which just contains guess what
-                    File extracted = null;
                     BufferedReader reader = null;
                     try {
-                        String dir = System.getProperty("java.io.tmpdir");
-                        zipFile.extractFile(h, dir);
-                        extracted = new File(dir, name);
-                        reader = new BufferedReader(new InputStreamReader(new FileInputStream(extracted)));
+                        // read directly, as several files may be inspected at the same time
+                        reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(h), StandardCharsets.US_ASCII));
                         String line = reader.readLine();
                         String ext = line != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(line.trim()) : null;
                         if (ext != null) extension = '.' + ext;
                     } finally {
                         Util.close(reader);
-                        Util.deleteFile(extracted);
                     }
                 }
                 if (extension != null) break;
@@ -437,29 +601,6 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         }
     }
 
-    /**
-     * Compares the input data from position start with a given char sequence.
-     * @param data input data
-     * @param start start index
-     * @param sequence char sequence to compare to
-     * @return {@code true} if the data equals the char sequence
-     */
-    private static boolean isTheSame(@NonNull final int[] data, @IntRange(from = 0) final int start, @NonNull final CharSequence sequence) {
-        if (data.length < sequence.length()) return false;
-        try {
-            for (int i = start; i < start + sequence.length(); i++) {
-                char c = sequence.charAt(i - start);
-                if (data[i] != c) {
-                    return false;
-                }
-            }
-            return true;
-        } catch (RuntimeException e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "isTheSame(" + Arrays.toString(data) + ", " + start + ", \"" + sequence + "\"): " + e.toString(), e);
-        }
-        return false;
-    }
-
     /**
      * Modifies a file extension.
      * @param f File to rename
@@ -474,7 +615,8 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         String alt = Util.suggestAlternativeFilename(target);
         if (alt != null) target = new File(f.getParent(), alt);
         boolean ok = f.renameTo(target);
-        if (BuildConfig.DEBUG && !ok) Log.e(TAG, "Failed to rename " + f + " to " + target);
+        if (ok) InspectionStore.getInstance().renamed(f, target);
+        else if (BuildConfig.DEBUG) Log.e(TAG, "Failed to rename " + f + " to " + target);
         return ok;
     }
 
@@ -522,38 +664,16 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
 
     /**
      * Adds or removes a file to/from the ignore list.
-     * @param ctx Context
      * @param fileName name of file to add/remove
      * @param ignore {@code true} to add, {@code false} to remove
-     * @throws NullPointerException if {@code ctx} is {@code null}
      */
-    public static void toggleIgnoreFile(@NonNull Context ctx, @NonNull String fileName, boolean ignore) {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-        @NonNull final Set<String> ignored = Objects.requireNonNull(prefs.getStringSet(PREF_INSPECTOR_IGNORED, EMPTY_STRING_SET));
-        SharedPreferences.Editor ed;
-        Set<String> newIgnored;
-        if (ignore) {
-            if (ignored.contains(fileName)) return;
-            ed = prefs.edit();
-            newIgnored = new HashSet<>(ignored.size() + 1);
-            newIgnored.addAll(ignored);
-            ignored.add(fileName);
-            if (BuildConfig.DEBUG) Log.i(TAG, "Inspector will ignore \"" + fileName + "\"");
-        } else {
-            if (!ignored.contains(fileName)) return;
-            ed = prefs.edit();
-            newIgnored = new HashSet<>(ignored);
-            newIgnored.remove(fileName);
-            if (BuildConfig.DEBUG) Log.i(TAG, "Inspector will not ignore \"" + fileName + "\" anymore");
-        }
-        ed.putStringSet(PREF_INSPECTOR_IGNORED, newIgnored);
-        ed.apply();
+    public static void toggleIgnoreFile(@NonNull String fileName, boolean ignore) {
+        if (!InspectionStore.getInstance().setIgnored(fileName, ignore)) return;
+        if (BuildConfig.DEBUG) Log.i(TAG, ignore ? "Inspector will ignore \"" + fileName + "\"" : "Inspector will not ignore \"" + fileName + "\" anymore");
     }
 
     /** Non-null under normal circumstances - null under test conditions */
     private final Reference<Activity> refa;
-    /** Set of names of files that will be ignored */
-    @NonNull private final Set<String> ignoreUs;
     private Listener listener;
     /** only used in tests */
     @SuppressLint("StaticFieldLeak")
@@ -568,7 +688,6 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         super();
         this.refa = new WeakReference<>(activity);
         this.listener = listener;
-        this.ignoreUs = init(activity);
     }
 
     @TestOnly
@@ -578,48 +697,6 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         this.refa = null;
         this.ctx = ctx;
         this.listener = listener;
-        this.ignoreUs = init(ctx);
-    }
-
-    /**
-     * Removes entries from the ignore Set whose files do not exist any more.
-     * @param ctx Context
-     * @throws NullPointerException if {@code ctx} is {@code null}
-     */
-    @VisibleForTesting
-    public int cleanIgnoreSet(@NonNull Context ctx) {
-        int n;
-        synchronized (this.ignoreUs) {
-            if (this.ignoreUs.isEmpty()) {
-                return 0;
-            }
-            final File dir = App.getDownloadsDir(ctx);
-            final Set<String> toRemove = new HashSet<>();
-            for (String name : this.ignoreUs) {
-                File file = new File(dir, name);
-                if (!file.isFile()) {
-                    toRemove.add(name);
-                    if (BuildConfig.DEBUG) Log.i(TAG, "Removing \"" + name + "\" from the ignore list.");
-                }
-            }
-            n = toRemove.size();
-            if (n == 0) {
-                return 0;
-            }
-            if (!this.ignoreUs.removeAll(toRemove)) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Failed to remove any of " + toRemove + " from ignore set!");
-                return 0;
-            }
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-            SharedPreferences.Editor ed = prefs.edit();
-            if (this.ignoreUs.isEmpty()) {
-                ed.remove(PREF_INSPECTOR_IGNORED);
-            } else {
-                ed.putStringSet(PREF_INSPECTOR_IGNORED, this.ignoreUs);
-            }
-            ed.apply();
-        }
-        return n;
     }
 
     /** {@inheritDoc} */
@@ -635,12 +712,26 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
             if (activity == null) return null;
             app = (App) activity.getApplicationContext();
         }
-        cleanIgnoreSet(app);
+        final InspectionStore store = InspectionStore.getInstance();
+        store.cleanup();
         if (files == null || files.length == 0) {
             files = App.getDownloadsDir(app).listFiles();
             if (files == null || files.length == 0) return null;
         }
-        final Map<File, String> suggestions = new HashMap<>(files.length);
+        final Map<File, String> suggestions = new ConcurrentHashMap<>();
+        final List<File> candidates = new ArrayList<>();
+        for (File file : files) {
+            if (store.isIgnored(file.getName())) continue;
+            if (app.isBeingDownloaded(file) || file.length() == 0L || !file.isFile()) continue;
+            // files that have not changed since their last inspection need not be inspected again
+            final InspectionStore.Record record = store.get(file);
+            if (record != null) {
+                if (record.suggestion != null && !file.getName().toLowerCase().endsWith(record.suggestion)) suggestions.put(file, record.suggestion);
+                continue;
+            }
+            candidates.add(file);
+        }
+        if (candidates.isEmpty()) return suggestions;
         int toyboxAvailable = PreferenceManager.getDefaultSharedPreferences(app).getInt(KEY, TOYBOX_UNKNOWN);
         if (toyboxAvailable == TOYBOX_UNKNOWN) {
             toyboxAvailable = testToybox() ? TOYBOX_AVAILABLE : TOYBOX_UNAVAILABLE;
@@ -649,54 +740,60 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
             ed.apply();
         }
 
-        // for devices that do not have toybox
-        if (toyboxAvailable == TOYBOX_UNAVAILABLE) {
-            for (File file : files) {
-                if (isCancelled()) break;
-                synchronized (this.ignoreUs) {
-                    if (this.ignoreUs.contains(file.getName())) continue;
-                }
-                if (app.isBeingDownloaded(file) || file.length() == 0L || !file.isFile()) continue;
-                inspectFile(file, suggestions);
-            }
-            return suggestions;
-        }
+        final List<File> unknown = inspectInParallel(candidates, suggestions);
 
-        // for devices that do have toybox
-        for (File file : files) {
-            if (isCancelled()) break;
-            synchronized (this.ignoreUs) {
-                if (this.ignoreUs.contains(file.getName())) continue;
-            }
-            if (app.isBeingDownloaded(file) || file.length() == 0L || !file.isFile()) continue;
-            inspectViaToybox(file, suggestions);
+        // for devices that do have toybox, let toybox have a go at the files whose signatures are unknown
+        if (toyboxAvailable == TOYBOX_AVAILABLE && !unknown.isEmpty() && !isCancelled()) {
+            inspectViaToybox(unknown, suggestions);
+        }
+        if (!isCancelled()) {
+            for (File file : candidates) store.put(file, suggestions.get(file));
         }
         return suggestions;
     }
 
     /**
-     * Completes initialisation.
-     * @param ctx Context
-     * @return Set of names of files to ignore
-     * @throws NullPointerException if {@code ctx} is {@code null}
+     * Inspects the given files via {@link #inspectFile(File, Map)}, using as many threads as there are processors.
+     * @param files Files to inspect
+     * @param suggestions Map to add suggestions to, must be thread-safe
+     * @return List of files whose signature is unknown
      */
     @NonNull
-    private Set<String> init(@NonNull Context ctx) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-        prefs.registerOnSharedPreferenceChangeListener(this);
-        //noinspection ConstantConditions
-        return prefs.getStringSet(PREF_INSPECTOR_IGNORED, EMPTY_STRING_SET);
+    private List<File> inspectInParallel(@NonNull final List<File> files, @NonNull final Map<File, String> suggestions) {
+        final int n = files.size();
+        final List<File> unknown = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger next = new AtomicInteger();
+        final Callable<Void> worker = () -> {
+            for (int index = next.getAndIncrement(); index < n && !isCancelled(); index = next.getAndIncrement()) {
+                final File file = files.get(index);
+                if (inspectFile(file, suggestions) == null) unknown.add(file);
+            }
+            return null;
+        };
+        final int nThreads = Math.min(n, Runtime.getRuntime().availableProcessors());
+        if (nThreads <= 1) {
+            try {
+                worker.call();
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, e.toString());
+            }
+            return unknown;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            executor.invokeAll(Collections.nCopies(nThreads, worker));
+        } catch (InterruptedException e) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Interrupted while inspecting files");
+        } finally {
+            executor.shutdownNow();
+        }
+        return unknown;
     }
 
     /** {@inheritDoc} */
     @Override
     protected void onCancelled(@Nullable Map<File, String> ignored) {
-        Context c = this.refa != null ? this.refa.get() : null;
-        if (c == null) c = ctx; // <- test only
-        if (c != null) {
-            PreferenceManager.getDefaultSharedPreferences(c).unregisterOnSharedPreferenceChangeListener(this);
-            if (this.refa != null) this.refa.clear();
-        }
+        if (this.refa != null) this.refa.clear();
         this.ctx = null;
         this.listener = null;
     }
@@ -707,7 +804,6 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         this.ctx = null;
         Activity activity = this.refa != null ? this.refa.get() : null;
         if (activity == null) {this.listener = null; return;}
-        PreferenceManager.getDefaultSharedPreferences(activity).unregisterOnSharedPreferenceChangeListener(this);
         if (activity.isFinishing() || suggestions == null || suggestions.isEmpty()) {this.listener = null; return;}
         final AlertDialog.Builder builder = new AlertDialog.Builder(activity)
                 .setTitle(R.string.msg_confirmation)
@@ -720,13 +816,7 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
             builder
                     .setMessage(activity.getString(R.string.msg_rename, file.getName(), entry.getValue()))
                     .setNeutralButton(R.string.label_ignore, (dialog, which) -> {
-                        synchronized (ignoreUs) {
-                            this.ignoreUs.add(file.getName());
-                        }
-                        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-                        SharedPreferences.Editor ed = prefs.edit();
-                        ed.putStringSet(PREF_INSPECTOR_IGNORED, this.ignoreUs);
-                        ed.apply();
+                        toggleIgnoreFile(file.getName(), true);
                         dialog.dismiss();
                     })
                     .setPositiveButton(android.R.string.ok, (dialog, which) -> {
@@ -748,19 +838,6 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         this.refa.clear();
     }
 
-    /** {@inheritDoc} */
-    @Override
-    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        if (PREF_INSPECTOR_IGNORED.equals(key)) {
-            synchronized (this.ignoreUs) {
-                if (BuildConfig.DEBUG) Log.i(TAG, "Reloading file names to ignore.");
-                this.ignoreUs.clear();
-                //noinspection ConstantConditions
-                this.ignoreUs.addAll(prefs.getStringSet(PREF_INSPECTOR_IGNORED, EMPTY_STRING_SET));
-            }
-        }
-    }
-
     /**
      * Implemented when information is required when a file has been renamed.
      */
@@ -769,6 +846,75 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
         void renamed();
     }
 
+    /**
+     * A magic number that identifies a file type.
+     */
+    private static final class Signature {
+        /** the file type is identified by the magic number alone */
+        static final int KIND_PLAIN = 0;
+        /** ASF container; needs further inspection to tell audio from video */
+        static final int KIND_ASF = 1;
+        /** FLIC animation; the first 4 bytes must match the file size */
+        static final int KIND_FLIC = 2;
+        /** icon or cursor; needs plausible values at positions 4 and 9 */
+        static final int KIND_ICO = 3;
+        /** XML document; needs further inspection to identify the schema */
+        static final int KIND_XML = 4;
+        /** zip file; needs further inspection to identify the actual type */
+        static final int KIND_ZIP = 5;
+        /** Ogg container; needs further inspection to identify the codec */
+        static final int KIND_OGG = 6;
+
+        /** lower values take precedence over higher values */
+        private final int rank;
+        /** position of the magic number in the file */
+        private final int offset;
+        @Kind private final int kind;
+        /** magic number; {@link #ANY} values match any byte */
+        @NonNull private final int[] magic;
+        @NonNull private final String extension;
+        @Nullable private final String[] alt;
+
+        private Signature(int rank, int offset, @Kind int kind, @NonNull int[] magic, @NonNull String extension, @Nullable String[] alt) {
+            super();
+            if (magic.length == 0 || magic[0] == ANY) throw new IllegalArgumentException("Invalid magic number");
+            this.rank = rank;
+            this.offset = offset;
+            this.kind = kind;
+            this.magic = magic;
+            this.extension = extension;
+            this.alt = alt;
+        }
+
+        /**
+         * Checks whether this Signature matches the given header.
+         * @param b header data
+         * @param read number of valid bytes in {@code b}
+         * @param fileLength length of the file
+         * @return true / false
+         */
+        boolean matches(@NonNull final byte[] b, final int read, final long fileLength) {
+            if (read < this.offset + this.magic.length) return false;
+            for (int j = 0; j < this.magic.length; j++) {
+                final int v = this.magic[j];
+                if (v != ANY && v != (b[this.offset + j] & 0xff)) return false;
+            }
+            if (this.kind == KIND_FLIC) {
+                final long declared = (b[0] & 0xffL) | (b[1] & 0xffL) << 8 | (b[2] & 0xffL) << 16 | (b[3] & 0xffL) << 24;
+                return declared == fileLength;
+            }
+            if (this.kind == KIND_ICO) {
+                final int b9 = b[9] & 0xff;
+                return (b[4] & 0xff) > 0 && (b9 == 0 || b9 == 0xff);
+            }
+            return true;
+        }
+
+        @Retention(RetentionPolicy.SOURCE)
+        @IntDef({KIND_PLAIN, KIND_ASF, KIND_FLIC, KIND_ICO, KIND_XML, KIND_ZIP, KIND_OGG})
+        @interface Kind {}
+    }
+
     /**
      * Returns the name of the root node of an XML document.
      */
@@ -783,11 +929,13 @@ public class Inspector extends AsyncTask<File, Float, Map<File, String>> impleme
          */
         @Nullable
         String inspect(@NonNull File file) {
-            if (SAXPARSER_FACTORY == null) SAXPARSER_FACTORY = SAXParserFactory.newInstance();
             SAXParser parser;
             InputStreamReader reader = null;
             try {
-                parser = SAXPARSER_FACTORY.newSAXParser();
+                synchronized (XmlInspecter.class) {
+                    if (SAXPARSER_FACTORY == null) SAXPARSER_FACTORY = SAXParserFactory.newInstance();
+                    parser = SAXPARSER_FACTORY.newSAXParser();
+                }
                 reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
                 parser.parse(new InputSource(reader), this);
             } catch (SAXException s) {
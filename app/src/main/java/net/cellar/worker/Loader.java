@@ -11,8 +11,10 @@ import android.app.Activity;
 import android.content.Context;
 import android.net.NetworkInfo;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.widget.Toast;
 
@@ -24,6 +26,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.Size;
 import androidx.annotation.UiThread;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.preference.PreferenceManager;
 
@@ -32,9 +35,11 @@ import com.google.android.material.snackbar.Snackbar;
 import net.cellar.App;
 import net.cellar.BuildConfig;
 import net.cellar.LoaderService;
+import net.cellar.MetricsStore;
 import net.cellar.R;
 import net.cellar.model.Delivery;
 import net.cellar.model.Order;
+import net.cellar.model.TransferMetrics;
 import net.cellar.net.EvilBlocker;
 import net.cellar.net.Mores;
 import net.cellar.net.NetworkChangedReceiver;
@@ -53,6 +58,11 @@ import java.text.DateFormat;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import okhttp3.OkHttpClient;
@@ -61,9 +71,15 @@ import okhttp3.Response;
 import okhttp3.ResponseBody;
 
 /**
- * Base class for implementations in this package.
+ * Base class for implementations in this package.<br>
+ * A Loader is {@link #start(Executor, Order...) started} once; it then passes through the {@link State states}
+ * {@link #STATE_PENDING pending}, {@link #STATE_RUNNING running}, {@link #STATE_FINISHING finishing} and {@link #STATE_FINISHED finished}.
+ * The work is done on a thread of the given Executor; its result is available via the {@link Future} returned by {@link #start(Executor, Order...)}
+ * and is also passed to the {@link LoaderListener} on the main thread.<br>
+ * Stopping is cooperative: {@link #cancel(boolean)}, {@link #defer()} and {@link #holdon()} set a flag in the {@link CancellationToken}
+ * which the implementations check while working.
  */
-abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Delivery>> {
+abstract public class Loader {
 
     /**
      * HTTP Date format<br>
@@ -74,6 +90,17 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
     @SuppressLint("SimpleDateFormat")
     public static final DateFormat DF = new java.text.SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", java.util.Locale.US);
     private static final Set<Delivery> NO_DELIVERIES = new HashSet<>(0);
+    /** the period over which the peak throughput is measured [ns] */
+    private static final long PEAK_PERIOD = 1_000_000_000L;
+    /** the Loader has been created but not started yet */
+    public static final int STATE_PENDING = 0;
+    /** the Loader has been started and is working (or waiting for a thread) */
+    public static final int STATE_RUNNING = 1;
+    /** the work is done; the listener has not been informed yet */
+    public static final int STATE_FINISHING = 2;
+    /** the listener has been informed */
+    public static final int STATE_FINISHED = 3;
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
 
     static {
         DF.setTimeZone(java.util.TimeZone.getTimeZone("GMT"));
@@ -136,8 +163,9 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
      * @param contentDisposition Content-Disposition response header
      * @return filename extracted from the header
      */
+    @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
     @Nullable
-    protected static String parseContentDisposition(@Nullable final String contentDisposition) {
+    public static String parseContentDisposition(@Nullable final String contentDisposition) {
         if (contentDisposition == null) return null;
         int pfs = contentDisposition.toLowerCase(java.util.Locale.US).indexOf("filename=\"");
         if (pfs < 0) return null;
@@ -188,14 +216,44 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
 
     /** download id */
     protected final int id;
-    private final Speed speed = new Speed();
+    /** estimates the remaining time */
+    @UiThread private final Speed speed = new Speed();
+    /** estimates the number of bytes transferred per second */
+    @UiThread private final Speed throughput = new Speed();
+    // the following fields are written by the thread doing the work and sampled by the ProgressAggregator on the main thread
+    /** the latest completion value that has not been passed to the listener yet; {@link ProgressAggregator#NONE} if there is none */
+    final AtomicInteger pendingCompletion = new AtomicInteger(ProgressAggregator.NONE);
+    /** the latest recorded duration in ms that has not been passed to the listener yet; -1 if there is none */
+    final AtomicInteger pendingMsRecorded = new AtomicInteger(-1);
+    /** the total duration in ms that belongs to {@link #pendingMsRecorded} */
+    private volatile long msTotal;
+    /** {@code true} if the recorded media is a live stream */
+    private volatile boolean liveStream;
+    /** number of bytes transferred for the current Order */
+    private volatile long bytesDone;
+    /** the time when the first bytes had been transferred, as given by {@link System#nanoTime()}; 0 before that */
+    private volatile long firstByteAt;
+    /** the metrics of the Order that is being fulfilled */
+    @Nullable private volatile TransferMetrics metrics;
+    /** the start of the current period over which the peak throughput is measured, as given by {@link System#nanoTime()}; 0 if none has begun */
+    private long peakPeriodStart;
+    /** the value of {@link #bytesDone} when the current peak throughput period began */
+    private long peakPeriodBytes;
+    /** the highest throughput of the current Order in bytes per second */
+    private float peakThroughput;
+    /** {@code true} once this Loader has been registered with the {@link ProgressAggregator} */
+    final AtomicBoolean aggregated = new AtomicBoolean();
+    /** the latest completion value that has been passed to the listener; negative if none */
+    @UiThread float deliveredCompletion = -1f;
     @Nullable protected Reference<LoaderListener> refListener;
-    /** if set to {@code true}, a stop has been requested via {@link #holdon()} */
-    protected volatile boolean stopRequested;
+    /** tells the work whether to stop */
+    @NonNull private final CancellationToken token = new CancellationToken();
+    private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+    /** the thread that is doing the work */
+    @Nullable private Thread runner;
     @Nullable @Size(min = 1) private Order[] orders;
     /** used when not using okhttp with {@link net.cellar.App.Hal Hal} as its {@link okhttp3.Dns Dns} implementation */
     @Nullable private Mores mores;
-    private volatile boolean deferred;
 
     /**
      * Constructor.
@@ -222,23 +280,58 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
      */
     protected void cleanup() {}
 
+    /**
+     * Asks the loading process to stop and <em>discard</em> the partially downloaded file.
+     * @param mayInterruptIfRunning {@code true} to interrupt the working thread so that blocking operations end early
+     * @return {@code false} if this Loader had been cancelled before
+     */
+    @AnyThread
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        if (!this.token.cancel()) return false;
+        if (mayInterruptIfRunning) interruptRunner();
+        return true;
+    }
+
     /**
      * Sets the {@link #isDeferred() deferred} flag and {@link #cancel(boolean) cancels} the task.
      */
+    @AnyThread
     public final void defer() {
-        this.deferred = true;
-        super.cancel(true);
+        if (this.token.defer()) interruptRunner();
     }
 
-    /** {@inheritDoc}<br><br><hr><br>
-     * The orders that are passed to this method will be available as instance variables via {@link #getOrders()}.
+    /**
+     * Informs the listener about the result of the work.
+     * @param deliveries Deliveries
+     */
+    @UiThread
+    private void finish(@NonNull Set<Delivery> deliveries) {
+        ProgressAggregator.getInstance().remove(this);
+        if (this.refListener != null) {
+            LoaderListener l = this.refListener.get();
+            if (l != null) l.done(this.id, !isCancelled(), deliveries);
+        }
+        cleanup();
+        this.state.set(STATE_FINISHED);
+    }
+
+    /**
+     * @return the {@link CancellationToken} of this Loader
      */
-    @Override
     @NonNull
-    protected final Set<Delivery> doInBackground(@Size(min = 1) final Order... orders) {
-        setOrders(orders);
+    public final CancellationToken getCancellationToken() {
+        return this.token;
+    }
+
+    /**
+     * Fulfils the {@link #getOrders() Orders}.
+     * @return Deliveries
+     */
+    @NonNull
+    @WorkerThread
+    private Set<Delivery> work() {
         if (this.orders == null || this.orders.length == 0) {
-            publishProgress(Progress.COMPLETE);
+            publishCompletion(1f);
             return NO_DELIVERIES;
         }
         final Set<Delivery> deliveries = new HashSet<>(this.orders.length);
@@ -266,19 +359,41 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
                     deliveries.add(new Delivery(order, LoaderService.ERROR_EVIL, null, null));
                 } else {
                     Delivery d;
-                    try {
-                        d = load(order, progress, progressPerOrder);
-                    } catch (Throwable t) {
-                        if (BuildConfig.DEBUG) Log.e(Loader.class.getSimpleName(), t.toString(), t);
-                        d = new Delivery(order, LoaderService.ERROR_OTHER, null, null, t, null);
+                    final TransferMetrics metrics = new TransferMetrics(order.getUrl(), getClass().getSimpleName());
+                    this.metrics = metrics;
+                    for (int attempt = 0; ; attempt++) {
+                        metrics.beginAttempt(attempt);
+                        this.firstByteAt = 0L;
+                        this.bytesDone = 0L;
+                        this.peakPeriodStart = 0L;
+                        this.peakThroughput = 0f;
+                        final long attemptStart = System.nanoTime();
+                        try {
+                            d = load(order, progress, progressPerOrder);
+                        } catch (Throwable t) {
+                            if (BuildConfig.DEBUG) Log.e(Loader.class.getSimpleName(), t.toString(), t);
+                            d = new Delivery(order, LoaderService.ERROR_OTHER, null, null, t, null);
+                        }
+                        final long firstByte = this.firstByteAt;
+                        metrics.finish(d.getRc(), (System.nanoTime() - attemptStart) / 1_000_000L,
+                                firstByte != 0L ? (firstByte - attemptStart) / 1_000_000L : TransferMetrics.UNKNOWN, this.bytesDone, this.peakThroughput);
+                        if (attempt >= RetryPolicy.MAX_RETRIES || isCancelled() || isStopRequested() || !RetryPolicy.isTransient(d)) break;
+                        final long delay = RetryPolicy.delay(d, attempt);
+                        if (delay < 0L) break;
+                        if (BuildConfig.DEBUG) Log.w(Loader.class.getSimpleName(), "Retrying " + order.getUrl() + " in " + delay + " ms after " + d.getRc() + " / " + d.getThrowable());
+                        if (!pause(delay)) break;
                     }
+                    RetryPolicy.done(d);
+                    this.metrics = null;
+                    d.setMetrics(metrics);
+                    MetricsStore.getInstance().add(metrics);
                     deliveries.add(d);
                 }
             }
             progress += progressPerOrder;
-            publishProgress(new Progress(progress));
+            publishCompletion(Math.min(1f, progress));
         }
-        publishProgress(Progress.COMPLETE);
+        publishCompletion(1f);
         return deliveries;
     }
 
@@ -291,13 +406,38 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         return this.orders;
     }
 
+    /**
+     * @return the current state
+     */
+    @State
+    @AnyThread
+    public final int getState() {
+        return this.state.get();
+    }
+
     /**
      * Asks the loading process to stop and <em>retain</em> the partially downloaded file.
      */
     @AnyThread
-    public final synchronized void holdon() {
-        if (this.stopRequested) return;
-        this.stopRequested = true;
+    public final void holdon() {
+        this.token.stop();
+    }
+
+    /**
+     * Interrupts the thread that is doing the work, if there is one.
+     */
+    private void interruptRunner() {
+        synchronized (this.token) {
+            if (this.runner != null) this.runner.interrupt();
+        }
+    }
+
+    /**
+     * @return {@code true} if {@link #cancel(boolean)} or {@link #defer()} have been called
+     */
+    @AnyThread
+    public final boolean isCancelled() {
+        return this.token.isCancelled();
     }
 
     /**
@@ -305,8 +445,25 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
      * If true, this task has already been cancelled.
      * @return true / false
      */
+    @AnyThread
     public final boolean isDeferred() {
-        return this.deferred;
+        return this.token.isDeferred();
+    }
+
+    /**
+     * @return {@code true} if the listener has been informed about the result
+     */
+    @AnyThread
+    public final boolean isFinished() {
+        return this.state.get() == STATE_FINISHED;
+    }
+
+    /**
+     * @return {@code true} if a stop has been requested via {@link #holdon()}
+     */
+    @AnyThread
+    protected final boolean isStopRequested() {
+        return this.token.isStopRequested();
     }
 
     /**
@@ -319,59 +476,35 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
     @NonNull
     abstract Delivery load(@NonNull Order order, @FloatRange(from = 0, to = 1) final float progressBefore, @FloatRange(from = 0, to = 1) final float progressPerOrder);
 
-    /** {@inheritDoc} */
-    @Override
-    protected final void onCancelled(@NonNull Set<Delivery> deliveries) {
-        if (this.refListener != null) {
-            LoaderListener l = this.refListener.get();
-            if (l != null) l.done(this.id, false, deliveries);
-        }
-        cleanup();
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    protected final void onCancelled() {
-        if (BuildConfig.DEBUG) Log.e(getClass().getSimpleName(), "Thou shalt not call onCancelled()!");
-        onCancelled(NO_DELIVERIES);
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    protected final void onPostExecute(@NonNull Set<Delivery> deliveries) {
-        if (this.refListener != null) {
-            LoaderListener l = this.refListener.get();
-            if (l != null) l.done(this.id, true, deliveries);
+    /**
+     * Waits for the given period unless this Loader is cancelled or asked to stop.
+     * @param millis period in ms
+     * @return {@code true} if the period has passed; {@code false} if the wait has been ended prematurely
+     */
+    private boolean pause(long millis) {
+        final long end = System.currentTimeMillis() + millis;
+        for (;;) {
+            if (isCancelled() || isStopRequested()) return false;
+            final long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0L) return true;
+            try {
+                Thread.sleep(Math.min(remaining, 250L));
+            } catch (InterruptedException e) {
+                return false;
+            }
         }
-        cleanup();
     }
 
-    /** {@inheritDoc} */
-    @Override
+    /**
+     * Passes a Progress to the listener.
+     * @param p Progress
+     */
     @UiThread
-    protected final void onProgressUpdate(Progress... values) {
-        if (this.refListener == null || values == null || values.length == 0) return;
+    private void onProgressUpdate(@NonNull Progress p) {
+        if (this.refListener == null || isCancelled()) return;
         final LoaderListener l = this.refListener.get();
         if (l == null) return;
-        final Progress p = values[0];
-        if (p.isLiveStream()) {
-            l.liveStreamDetected(this.id);
-            // don't return, instead continue with progress* callback below
-        }
-        if (p.hasDuration()) {
-            this.speed.calculate(Speed.UNIT_MS, p.getMsRecorded(), p.getMsTotal());
-            l.progressAbsolute(this.id, p.getMsRecorded(), p.getMsTotal(), Math.round(this.speed.remainingSec));
-        } if (p.hasCompletion()) {
-            @FloatRange(from = Progress.VALUE_INVALID, to = 1f)
-            float completion = p.getCompletion();
-            if (completion > 1f) {
-                if (BuildConfig.DEBUG) Log.e(Loader.class.getSimpleName(), "Completion value of " + completion);
-                l.progressAbsolute(this.id, completion, -1L, Math.round(this.speed.remainingSec));
-            } else {
-                this.speed.calculate(Speed.UNIT_FRACTION, completion, 1f);
-                l.progress(this.id, completion, Math.round(this.speed.remainingSec));
-            }
-        } else if (p.hasBuffering()) {
+        if (p.hasBuffering()) {
             l.buffering(this.id, p.getBuffering());
         } else if (p.hasMsg()) {
             //noinspection ConstantConditions
@@ -383,6 +516,145 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         }
     }
 
+    /**
+     * Returns the number of bytes transferred per second, averaged over the recent past.
+     * @return bytes per second
+     */
+    @UiThread
+    public final float getThroughput() {
+        return this.throughput.getSpeed();
+    }
+
+    /**
+     * Returns the time when the first bytes had been transferred.
+     * @return time as given by {@link System#nanoTime()}, 0 if nothing has been transferred yet
+     */
+    @AnyThread
+    public final long getFirstByteAt() {
+        return this.firstByteAt;
+    }
+
+    /**
+     * Returns the metrics of the Order that is being fulfilled.<br>
+     * To be used only by {@link #load(Order, float, float)} implementations.
+     * @return TransferMetrics or {@code null} if no Order is being fulfilled
+     */
+    @Nullable
+    protected final TransferMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Samples the progress made since the previous call and passes it to the listener.
+     * @param now current time as given by {@link SystemClock#elapsedRealtime()}
+     */
+    @UiThread
+    final void sample(long now) {
+        this.throughput.calculate(Speed.UNIT_BYTES, this.bytesDone, 0., now);
+        final LoaderListener l = this.refListener != null ? this.refListener.get() : null;
+        final int ms = this.pendingMsRecorded.getAndSet(-1);
+        if (ms >= 0) {
+            final long total = this.msTotal;
+            this.speed.calculate(Speed.UNIT_MS, ms, total, now);
+            if (l != null) {
+                if (this.liveStream) l.liveStreamDetected(this.id);
+                l.progressAbsolute(this.id, ms, total, Math.round(this.speed.getRemainingSec()));
+            }
+        }
+        final int bits = this.pendingCompletion.getAndSet(ProgressAggregator.NONE);
+        if (bits == ProgressAggregator.NONE) return;
+        final float completion = Float.intBitsToFloat(bits);
+        this.deliveredCompletion = completion;
+        this.speed.calculate(Speed.UNIT_FRACTION, completion, 1., now);
+        if (l != null) l.progress(this.id, completion, Math.round(this.speed.getRemainingSec()));
+    }
+
+    /**
+     * Publishes the number of bytes transferred.<br>
+     * Like {@link #publishCompletion(float)}, this may be called after each read.
+     * @param done number of bytes transferred for the current Order
+     * @param total total number of bytes of the current Order; 0 or less if unknown
+     * @param progressBefore completion before the current Order
+     * @param progressPerOrder share of the current Order in the total completion
+     */
+    @AnyThread
+    protected final void publishBytes(long done, long total, @FloatRange(from = 0f, to = 1f) float progressBefore, @FloatRange(from = 0f, to = 1f) float progressPerOrder) {
+        this.bytesDone = done;
+        if (done > 0L) {
+            final long now = System.nanoTime();
+            if (this.firstByteAt == 0L) this.firstByteAt = now;
+            if (this.peakPeriodStart == 0L) {
+                // the first bytes might have been there before (if the transfer has been resumed)
+                this.peakPeriodStart = now;
+                this.peakPeriodBytes = done;
+            } else if (now - this.peakPeriodStart >= PEAK_PERIOD) {
+                final float bps = (done - this.peakPeriodBytes) * 1_000_000_000f / (now - this.peakPeriodStart);
+                if (bps > this.peakThroughput) this.peakThroughput = bps;
+                this.peakPeriodStart = now;
+                this.peakPeriodBytes = done;
+            }
+        }
+        if (total > 0L) {
+            publishCompletion(progressBefore + (float)((double)done / (double)total) * progressPerOrder);
+        } else {
+            ProgressAggregator.getInstance().track(this);
+        }
+    }
+
+    /**
+     * Publishes the completion of the work.<br>
+     * This may be called as often as desired; the {@link ProgressAggregator} passes only the latest value on,
+     * at most every {@link ProgressAggregator#FLUSH_INTERVAL} ms.
+     * @param completion completion
+     */
+    @AnyThread
+    protected final void publishCompletion(@FloatRange(from = 0f, to = 1f) float completion) {
+        if (completion > 1f) {
+            if (BuildConfig.DEBUG) Log.e(getClass().getSimpleName(), "Completion value of " + completion);
+            return;
+        }
+        this.pendingCompletion.set(Float.floatToIntBits(completion));
+        ProgressAggregator.getInstance().track(this);
+    }
+
+    /**
+     * Publishes the duration of the media recorded so far.<br>
+     * This may be called as often as desired, like {@link #publishCompletion(float)}.
+     * @param ms recorded duration in ms
+     * @param msTotal total duration in ms; -1 if unknown
+     * @param liveStream {@code true} if the media is a live stream
+     */
+    @AnyThread
+    protected final void publishRecorded(int ms, long msTotal, boolean liveStream) {
+        if (ms < 0) return;
+        this.msTotal = msTotal;
+        this.liveStream = liveStream;
+        this.pendingMsRecorded.set(ms);
+        ProgressAggregator.getInstance().track(this);
+    }
+
+    /**
+     * Passes a Progress to the listener on the main thread.<br>
+     * Nothing is posted if there is no listener or if this Loader has been cancelled.
+     * @param p Progress
+     */
+    @AnyThread
+    protected final void publishProgress(@NonNull Progress p) {
+        if (this.refListener == null || this.refListener.get() == null || isCancelled()) return;
+        MAIN.post(() -> onProgressUpdate(p));
+    }
+
+    /**
+     * Changes the file name that an Order will be stored under.<br>
+     * Implementations must use this instead of {@link Order#setDestinationFilename(String)} so that {@link ActiveDestinations} stays up to date.
+     * @param order Order that this Loader is fulfilling
+     * @param filename new file name
+     */
+    @AnyThread
+    protected final void setDestinationFilename(@NonNull Order order, @NonNull String filename) {
+        ActiveDestinations.getInstance().rename(this, order, filename);
+    }
+
     /**
      * Tells the Loader what not to load.
      * @param mores Mores
@@ -396,6 +668,54 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         this.orders = orders;
     }
 
+    /**
+     * Starts the work.<br>
+     * The orders that are passed to this method will be available via {@link #getOrders()}.
+     * @param executor Executor to do the work on
+     * @param orders Orders to fulfil
+     * @return Future that returns the Deliveries once the work has been done, also if this Loader has been cancelled
+     * @throws IllegalStateException if this Loader has been started before
+     */
+    @NonNull
+    @AnyThread
+    public final Future<Set<Delivery>> start(@NonNull Executor executor, @Size(min = 1) final Order... orders) {
+        if (!this.state.compareAndSet(STATE_PENDING, STATE_RUNNING)) {
+            throw new IllegalStateException("Cannot start " + this + " in state " + this.state.get());
+        }
+        setOrders(orders);
+        ActiveDestinations.getInstance().add(this, orders);
+        final FutureTask<Set<Delivery>> future = new FutureTask<>(this::run);
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Does the work on the thread that the Executor provides.
+     * @return Deliveries
+     */
+    @NonNull
+    @WorkerThread
+    private Set<Delivery> run() {
+        synchronized (this.token) {
+            this.runner = Thread.currentThread();
+        }
+        Set<Delivery> deliveries = NO_DELIVERIES;
+        try {
+            if (!isCancelled()) deliveries = work();
+        } finally {
+            synchronized (this.token) {
+                this.runner = null;
+                // the thread goes back to the pool; an interrupt meant for this Loader must not hit the next task
+                Thread.interrupted();
+            }
+            ActiveDestinations.getInstance().remove(this);
+            this.state.set(STATE_FINISHING);
+            final Set<Delivery> result = deliveries;
+            MAIN.post(() -> finish(result));
+        }
+        return deliveries;
+    }
+
     /** {@inheritDoc} */
     @Override
     @NonNull
@@ -403,39 +723,82 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         return getClass().getSimpleName() + " " + this.id + " with orders " + Arrays.toString(this.orders);
     }
 
-    private static class Speed {
-        static final int UNIT_BYTES = 1;
-        static final int UNIT_FRACTION = 2;
-        static final int UNIT_MS = 3;
-        static final int UNIT_UNDEFINED = 0;
+    /**
+     * The states that a Loader passes through.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_PENDING, STATE_RUNNING, STATE_FINISHING, STATE_FINISHED})
+    public @interface State {}
+
+    /**
+     * Estimates a rate of progress and the remaining time.<br>
+     * The rate is an exponentially weighted moving average so that short stalls or bursts do not make the estimate jump.
+     */
+    @VisibleForTesting
+    public static final class Speed {
+        public static final int UNIT_BYTES = 1;
+        public static final int UNIT_FRACTION = 2;
+        public static final int UNIT_MS = 3;
+        public static final int UNIT_UNDEFINED = 0;
+        /** weight of a new measurement */
+        private static final float ALPHA = 0.2f;
+        /** measurements closer to each other than this (in ms) are combined */
+        private static final long MIN_INTERVAL = 250L;
         @SpeedUnit
-        int unit = UNIT_UNDEFINED;
-        /** the speed; its unit depends on {@link #unit}, it can be bytes/ms, ms/ms or fraction/ms */
-        @FloatRange(from = 0f) float speed;
+        private int unit = UNIT_UNDEFINED;
+        /** the speed in units per second; its unit depends on {@link #unit}, it can be bytes/s, ms/s or fraction/s */
+        @FloatRange(from = 0f) private float speed;
         /** estimated remaining loading time in seconds */
-        float remainingSec = Float.MAX_VALUE;
-        /** timestamp of the point when the download started */
-        private long start;
+        private float remainingSec = Float.MAX_VALUE;
         /** the latest measurement */
-        private float latestValue;
+        private double latestValue;
         /** the timestamp of the latest measurement */
         private long latestTimestamp;
+        private boolean hasSpeed;
 
-        void calculate(@SpeedUnit int unit, float value, float target) {
-            long now = System.currentTimeMillis();
-            if (unit != this.unit) {
-                // we should be here exactly once when unit is non-zero for the first time
-                if (this.start == 0L) this.start = now;
+        /**
+         * Adds a measurement.
+         * @param unit the unit of {@code value} and {@code target}
+         * @param value the progress made so far
+         * @param target the value at which the work will be complete; 0 or less if unknown
+         * @param now current time in ms
+         */
+        @VisibleForTesting
+        public void calculate(@SpeedUnit int unit, double value, double target, long now) {
+            if (unit != this.unit || value < this.latestValue) {
+                // the first measurement or a new Order
                 this.unit = unit;
                 this.latestTimestamp = now;
                 this.latestValue = value;
+                this.speed = 0f;
+                this.hasSpeed = false;
+                this.remainingSec = Float.MAX_VALUE;
                 return;
             }
-            long deltaTime = now - this.latestTimestamp;
-            float deltaValue = value - this.latestValue;
-            if (deltaTime == 0L) return;
-            this.speed = deltaValue / (float)deltaTime;
-            this.remainingSec = target > 0f ? ((target - value) / this.speed / 1_000f) : Float.MAX_VALUE;
+            final long deltaTime = now - this.latestTimestamp;
+            if (deltaTime < MIN_INTERVAL) return;
+            final float rate = (float)((value - this.latestValue) * 1_000. / deltaTime);
+            this.speed = this.hasSpeed ? this.speed + ALPHA * (rate - this.speed) : rate;
+            this.hasSpeed = true;
+            this.latestTimestamp = now;
+            this.latestValue = value;
+            this.remainingSec = target > 0. && this.speed > 0f ? (float)((target - value) / this.speed) : Float.MAX_VALUE;
+        }
+
+        /**
+         * @return estimated remaining time in seconds; {@link Float#MAX_VALUE} if unknown
+         */
+        @VisibleForTesting
+        public float getRemainingSec() {
+            return this.remainingSec;
+        }
+
+        /**
+         * @return units per second
+         */
+        @VisibleForTesting
+        public float getSpeed() {
+            return this.speed;
         }
 
         @Retention(RetentionPolicy.SOURCE)
@@ -444,42 +807,17 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
     }
 
     /**
-     * Describes the progress made.
+     * Describes the progress made.<br>
+     * Completion values and recorded durations do not go through this class but are published via
+     * {@link #publishCompletion(float)}, {@link #publishBytes(long, long, float, float)} and {@link #publishRecorded(int, long, boolean)}.
      */
     public static final class Progress {
 
-        public static final Progress COMPLETE = new Progress(1f);
         private static final float VALUE_INVALID = -1f;
 
         @NonNull
         protected static Progress buffering(@FloatRange(from = 0f, to = 100f) float buffer) {
-            return new Progress(-1f, buffer);
-        }
-
-        /**
-         * Generates or reuses a Progress instance bearing a completion value.
-         * @param completion completion value in the 0 to 1 range
-         * @param reuse Progress object to reuse (optional)
-         * @return Progress object
-         */
-        @NonNull
-        protected static Progress completing(@FloatRange(from = 0f, to = 1f) float completion, @Nullable Progress reuse) {
-            if (completion > 1f) Log.e(Loader.class.getSimpleName(), "Completion " + completion + " - from " + new Throwable().getStackTrace()[1]);
-            if (reuse != null) {
-                reuse.completion = completion;
-                return reuse;
-            }
-            return new Progress(completion);
-        }
-
-        @NonNull
-        protected static Progress msRecorded(int ms, long msTotal) {
-            return new Progress(ms, msTotal);
-        }
-
-        @NonNull
-        protected static Progress msRecorded(int ms, long msTotal, boolean liveStream) {
-            return new Progress(ms, msTotal, liveStream);
+            return new Progress(buffer);
         }
 
         @NonNull
@@ -499,39 +837,19 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         @Nullable
         private final String msg;
         private final String resourcename;
-        @FloatRange(from = VALUE_INVALID, to = 1f)
-        private float completion;
-        private boolean liveStream;
         private boolean error;
 
         private Progress(int msRecorded, long msTotal) {
-            this(msRecorded, msTotal, false);
-        }
-
-        private Progress(int msRecorded, long msTotal, boolean liveStream) {
             super();
-            this.completion = VALUE_INVALID;
             this.buffering = VALUE_INVALID;
             this.msRecorded = msRecorded;
             this.msTotal = msTotal;
             this.msg = null;
             this.resourcename = null;
-            this.liveStream = liveStream;
-        }
-
-        private Progress(@FloatRange(from = 0f, to = 1f) float completion) {
-            super();
-            this.completion = completion;
-            this.buffering = VALUE_INVALID;
-            this.msRecorded = 0;
-            this.msTotal = 0L;
-            this.msg = null;
-            this.resourcename = null;
         }
 
-        private Progress(@FloatRange(from = VALUE_INVALID, to = 1f) float completion, float buffering) {
+        private Progress(float buffering) {
             super();
-            this.completion = completion;
             this.buffering = buffering;
             this.msRecorded = 0;
             this.msTotal = 0L;
@@ -540,7 +858,6 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         }
 
         protected Progress(@NonNull String msg, boolean error) {
-            this.completion = VALUE_INVALID;
             this.buffering = VALUE_INVALID;
             this.msRecorded = 0;
             this.msTotal = 0L;
@@ -550,7 +867,6 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
         }
 
         protected Progress(String resourcename) {
-            this.completion = VALUE_INVALID;
             this.buffering = VALUE_INVALID;
             this.msRecorded = 0;
             this.msTotal = 0L;
@@ -562,19 +878,6 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
             return this.buffering;
         }
 
-        @FloatRange(from = VALUE_INVALID, to = 1f)
-        public float getCompletion() {
-            return this.completion;
-        }
-
-        public int getMsRecorded() {
-            return msRecorded;
-        }
-
-        public long getMsTotal() {
-            return msTotal;
-        }
-
         @Nullable
         public String getMsg() {
             return this.msg;
@@ -587,18 +890,6 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
             return this.buffering >= 0f;
         }
 
-        /**
-         * @return true if the {@link #completion} value is &gt;= 0
-         */
-        public boolean hasCompletion() {
-            return this.completion >= 0f;
-        }
-
-        /**
-         * @return {@code true} if the {@link #msRecorded} value is &gt; 0
-         */
-        public boolean hasDuration() {return this.msRecorded > 0;}
-
         public boolean hasMsg() {
             return this.msg != null;
         }
@@ -611,21 +902,15 @@ abstract public class Loader extends AsyncTask<Order, Loader.Progress, Set<Deliv
 
         boolean hasResourceName() {return this.resourcename != null;}
 
-        public boolean isLiveStream() {
-            return liveStream;
-        }
-
         @Override
         @NonNull
         public String toString() {
             return "Progress{" +
-                    "completion=" + completion +
-                    ", buffering=" + buffering +
+                    "buffering=" + buffering +
                     ", msRecorded=" + msRecorded + " ms" +
                     ", msTotal=" + msTotal + " ms" +
                     ", msg='" + msg + '\'' +
                     ", resourcename='" + resourcename + "'" +
-                    ", liveStream=" + liveStream +
                     ", error=" + error +
                     '}';
         }
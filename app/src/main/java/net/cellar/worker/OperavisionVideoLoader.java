@@ -85,7 +85,7 @@ public class OperavisionVideoLoader extends YtVideoLoader {
             } else {
                 in = body.byteStream();
             }
-            while (!isCancelled() && !super.stopRequested) {
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(buffer);
                 if (read <= 0) break;
                 out.write(buffer, 0, read);
@@ -0,0 +1,142 @@
+/*
+ * ProgressAggregator.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.FloatRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Samples the progress that the {@link Loader Loaders} report and passes it on at a fixed rate.<br>
+ * A Loader may {@link Loader#publishCompletion(float) publish} its progress after each read without any cost worth mentioning:
+ * the values are just stored in primitive fields of the Loader; only the latest values are handed to the {@link LoaderListener}
+ * on the main thread every {@link #FLUSH_INTERVAL} ms.<br>
+ * After each flush, the {@link Listener} learns how many downloads are running and how far they have gotten as a whole.
+ */
+public final class ProgressAggregator {
+
+    /** the interval in ms at which progress is passed on (2 Hz) */
+    public static final long FLUSH_INTERVAL = 500L;
+    /** marks the absence of a pending completion value */
+    static final int NONE = Float.floatToIntBits(Float.NaN);
+
+    private static ProgressAggregator instance;
+
+    /**
+     * Returns the singleton instance.
+     * @return ProgressAggregator
+     */
+    @NonNull
+    public static synchronized ProgressAggregator getInstance() {
+        if (instance == null) instance = new ProgressAggregator();
+        return instance;
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** the Loaders that have published a completion value and are still running */
+    private final Set<Loader> loaders = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable flusher = this::flush;
+    @Nullable private Listener listener;
+
+    /**
+     * Private constructor.
+     */
+    private ProgressAggregator() {
+        super();
+    }
+
+    /**
+     * Passes the latest completion values on.
+     */
+    @UiThread
+    private void flush() {
+        this.scheduled.set(false);
+        final long now = SystemClock.elapsedRealtime();
+        int count = 0;
+        float total = 0f;
+        for (Loader loader : this.loaders) {
+            loader.sample(now);
+            final float latest = loader.deliveredCompletion;
+            if (latest >= 0f) {
+                count++;
+                total += Math.min(1f, latest);
+            }
+        }
+        if (this.listener != null) this.listener.summary(count, count > 0 ? total / count : 0f);
+        if (!this.loaders.isEmpty()) schedule();
+    }
+
+    /**
+     * Makes sure that the given Loader is sampled.
+     * @param loader Loader that has published some progress
+     */
+    @AnyThread
+    void track(@NonNull Loader loader) {
+        if (loader.aggregated.compareAndSet(false, true)) {
+            this.loaders.add(loader);
+        }
+        schedule();
+    }
+
+    /**
+     * Forgets a Loader. Any progress that has not been passed on yet is dropped.
+     * @param loader Loader
+     */
+    @UiThread
+    void remove(@NonNull Loader loader) {
+        loader.pendingCompletion.set(NONE);
+        loader.pendingMsRecorded.set(-1);
+        if (!loader.aggregated.get()) return;
+        this.loaders.remove(loader);
+        if (this.listener != null && this.loaders.isEmpty()) this.listener.summary(0, 0f);
+    }
+
+    /**
+     * Makes sure that a flush is coming up.
+     */
+    @AnyThread
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.handler.postDelayed(this.flusher, FLUSH_INTERVAL);
+        }
+    }
+
+    /**
+     * Sets the Listener.
+     * @param listener Listener (set to {@code null} to remove the current one)
+     */
+    @UiThread
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets informed about the overall progress.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the main thread after each flush.
+         * @param running number of running downloads that have reported their completion
+         * @param completion average completion of those downloads
+         */
+        @UiThread
+        void summary(int running, @FloatRange(from = 0f, to = 1f) float completion);
+    }
+}
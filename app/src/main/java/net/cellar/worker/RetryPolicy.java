@@ -0,0 +1,135 @@
+/*
+ * RetryPolicy.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.cellar.LoaderService;
+import net.cellar.model.Delivery;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether a failed {@link Loader#load(net.cellar.model.Order, float, float) load} should be repeated and how long to wait before that.<br>
+ * The delay grows exponentially with the number of consecutive failures for the same host and is randomised ("jitter")
+ * so that several downloads from the same host do not retry in lockstep.
+ * A delay requested by the server via "Retry-After" takes precedence.
+ */
+public final class RetryPolicy {
+
+    /** the delay before the first retry */
+    private static final long BASE_DELAY = 2_000L;
+    /** max. delay derived from the number of failures */
+    private static final long MAX_DELAY = 60_000L;
+    /** max. number of retries per Order */
+    static final int MAX_RETRIES = 3;
+    /** "Retry-After" values larger than this are not honoured - the download fails instead */
+    private static final long MAX_RETRY_AFTER = 5 * 60_000L;
+    /** key: host; value: number of consecutive failures */
+    private static final Map<String, Integer> FAILURES = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the time to wait before the given failed Delivery should be retried.
+     * @param delivery Delivery that {@link #isTransient(Delivery) failed transiently}
+     * @param attempt number of retries made so far for this Order
+     * @return delay in ms or -1 if the Order should not be retried
+     */
+    static long delay(@NonNull Delivery delivery, int attempt) {
+        final String host = delivery.getOrder().getUri().getHost();
+        int failures = attempt + 1;
+        if (host != null) {
+            Integer previous = FAILURES.get(host);
+            failures = Math.max(failures, previous != null ? previous + 1 : 1);
+            FAILURES.put(host, failures);
+        }
+        final long retryAfter = delivery.getRetryAfter();
+        if (retryAfter > MAX_RETRY_AFTER) return -1L;
+        if (retryAfter > 0L) return retryAfter;
+        final long ceiling = Math.min(MAX_DELAY, BASE_DELAY << Math.min(failures - 1, 16));
+        // "equal jitter": at least half of the exponential value
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Records the final outcome of an Order.
+     * @param delivery Delivery
+     */
+    static void done(@NonNull Delivery delivery) {
+        final String host = delivery.getOrder().getUri().getHost();
+        if (host == null) return;
+        final int rc = delivery.getRc();
+        if (rc >= 200 && rc < 400) FAILURES.remove(host);
+    }
+
+    /**
+     * Tells whether the given Delivery failed for a reason that might go away by itself.
+     * @param delivery Delivery
+     * @return true / false
+     */
+    @VisibleForTesting
+    public static boolean isTransient(@NonNull Delivery delivery) {
+        switch (delivery.getRc()) {
+            case LoaderService.ERROR_CANNOT_CONNECT:
+            case LoaderService.ERROR_INTERRUPTED:
+            case 408:   // Request Timeout
+            case 429:   // Too Many Requests
+            case 500:   // Internal Server Error
+            case 502:   // Bad Gateway
+            case 503:   // Service Unavailable
+            case 504:   // Gateway Timeout
+                return true;
+            case LoaderService.ERROR_OTHER:
+                final Throwable t = delivery.getThrowable();
+                // a broken connection (after a successful handshake) or a timeout
+                return t instanceof SocketException
+                        || t instanceof InterruptedIOException
+                        || (t instanceof SSLException && !(t instanceof SSLHandshakeException) && !(t instanceof SSLPeerUnverifiedException));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses the value of a "Retry-After" response header.<br>
+     * See <a href="https://tools.ietf.org/html/rfc7231#section-7.1.3">RFC 7231</a>
+     * @param retryAfter value of the "Retry-After" header, either a number of seconds or a HTTP date
+     * @return delay in ms or 0 if the value is {@code null} or invalid
+     */
+    @VisibleForTesting
+    public static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null) return 0L;
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0L, Long.parseLong(retryAfter) * 1_000L);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            final DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            final Date date = df.parse(retryAfter);
+            return date != null ? Math.max(0L, date.getTime() - System.currentTimeMillis()) : 0L;
+        } catch (Exception ignored) {
+        }
+        return 0L;
+    }
+
+    private RetryPolicy() {
+    }
+}
@@ -25,11 +25,13 @@ import com.jcraft.jsch.SftpException;
 import net.cellar.Ancestry;
 import net.cellar.App;
 import net.cellar.BuildConfig;
+import net.cellar.ContentIndex;
 import net.cellar.LoaderService;
 import net.cellar.auth.AuthManager;
 import net.cellar.model.Credential;
 import net.cellar.model.Delivery;
 import net.cellar.model.Order;
+import net.cellar.model.TransferMetrics;
 import net.cellar.supp.Log;
 import net.cellar.supp.UriUtil;
 import net.cellar.supp.Util;
@@ -53,11 +55,15 @@ import java.util.List;
  */
 public class SftpLoader extends Loader {
 
-    private static final String TAG = "SftpLoader";
+    /** number of read requests that may be outstanding at any time; see {@link ChannelSftp#setBulkRequests(int)} */
+    private static final int BULK_REQUESTS = 64;
+    private static final int BUFFER_SIZE = 65_536;
     private static final int PORT = 22;
+    /** interval between keep-alive messages sent to the server */
+    private static final int SERVER_ALIVE_INTERVAL = 30_000;
+    private static final String TAG = "SftpLoader";
 
     @NonNull private final App app;
-    private Session session;
 
     /**
      * Constructor.
@@ -70,14 +76,6 @@ public class SftpLoader extends Loader {
         this.app = app;
     }
 
-    @Override
-    protected void cleanup() {
-        if (this.session != null) {
-            this.session.disconnect();
-            this.session = null;
-        }
-    }
-
     @NonNull
     @Override
     Delivery load(@NonNull Order order, float progressBefore, float progressPerOrder) {
@@ -122,7 +120,7 @@ public class SftpLoader extends Loader {
         // if the url did not contain credential information or if there was just the user id but no password
         if (credential == null || credential.getPassword() == null) {
             String user = credential != null ? credential.getUserid() : null;
-            credential = Credential.findUsable(AuthManager.getInstance().getCredentials(), host, user);
+            credential = AuthManager.getInstance().findUsable(host, Credential.TYPE_UNKNOWN, user);
             if (credential == null) {
                 return new Delivery(order, 401, destinationFile, null, new Delivery.AuthenticateInfo(AuthManager.SCHEME_SFTP, host, user));
             }
@@ -151,37 +149,53 @@ public class SftpLoader extends Loader {
                 }
             });
         }
-        JSch jsch = new JSch();
+        final SftpSessionPool pool = SftpSessionPool.getInstance();
+        final String key = SftpSessionPool.key(host, port, credential.getUserid(), proxy.toString());
+        SftpSessionPool.Entry pooled = pool.acquire(key);
+        // set to false if the session should not be used again
+        boolean healthy = false;
         Channel channel = null;
         InputStream in = null;
         OutputStream out = null;
+        final TransferMetrics metrics = getMetrics();
+        if (metrics != null) metrics.setProxy(TransferMetrics.describe(proxy));
         try {
-            this.session = jsch.getSession(credential.getUserid(), host, port);
-            if (credential.getPassword() != null) this.session.setPassword(credential.getPassword().toString());
-            this.session.setConfig("StrictHostKeyChecking", "no");
-            this.session.setConfig("PreferredAuthentications", "password");
-            this.session.setConfig("compression.c2s", "zlib,zlib@openssh.com,none");
-            this.session.setConfig("compression.s2c", "zlib,zlib@openssh.com,none");
-            this.session.setConfig("compression_level", "9");
-            //this.session.setConfig("CheckCiphers", "aes128-cbc");
-             if (proxy.type() == Proxy.Type.HTTP) {
-                SocketAddress sa = proxy.address();
-                if (sa instanceof InetSocketAddress) {
-                    InetSocketAddress isa = (InetSocketAddress)sa;
-                    this.session.setProxy(new ProxyHTTP(isa.getHostName(), isa.getPort()));
-                }
-            } else if (proxy.type() == Proxy.Type.SOCKS) {
-                SocketAddress sa = proxy.address();
-                if (sa instanceof InetSocketAddress) {
-                    InetSocketAddress isa = (InetSocketAddress)sa;
-                    //TODO SOCKS4 or SOCKS5
-                    this.session.setProxy(new ProxySOCKS4(isa.getHostName(), isa.getPort()));
+            if (pooled == null) {
+                final Session session = new JSch().getSession(credential.getUserid(), host, port);
+                if (credential.getPassword() != null) session.setPassword(credential.getPassword().toString());
+                session.setConfig("StrictHostKeyChecking", "no");
+                session.setConfig("PreferredAuthentications", "password");
+                session.setConfig("compression.c2s", "zlib,zlib@openssh.com,none");
+                session.setConfig("compression.s2c", "zlib,zlib@openssh.com,none");
+                session.setConfig("compression_level", "9");
+                //session.setConfig("CheckCiphers", "aes128-cbc");
+                if (proxy.type() == Proxy.Type.HTTP) {
+                    SocketAddress sa = proxy.address();
+                    if (sa instanceof InetSocketAddress) {
+                        InetSocketAddress isa = (InetSocketAddress)sa;
+                        session.setProxy(new ProxyHTTP(isa.getHostName(), isa.getPort()));
+                    }
+                } else if (proxy.type() == Proxy.Type.SOCKS) {
+                    SocketAddress sa = proxy.address();
+                    if (sa instanceof InetSocketAddress) {
+                        InetSocketAddress isa = (InetSocketAddress)sa;
+                        //TODO SOCKS4 or SOCKS5
+                        session.setProxy(new ProxySOCKS4(isa.getHostName(), isa.getPort()));
+                    }
                 }
+                session.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
+                // JSch does not tell the phases apart, so this includes the DNS lookup, the proxy negotiation and the SSH handshake
+                final long t = System.nanoTime();
+                session.connect(App.TIMEOUT_CONNECT);
+                if (metrics != null) metrics.addConnect((System.nanoTime() - t) / 1_000_000L);
+                pooled = pool.add(key, session);
             }
-            this.session.connect(App.TIMEOUT_CONNECT);
-            channel = this.session.openChannel("sftp");
+            // several channels can share one session
+            channel = pooled.session.openChannel("sftp");
             channel.connect();
             ChannelSftp c = (ChannelSftp) channel;
+            // keep several read requests in flight instead of waiting for each response before sending the next request
+            c.setBulkRequests(BULK_REQUESTS);
             if (!path.equals(fileName)) {
                 String directory = path.substring(0, path.length() - fileName.length() - 1);
                 if (directory.length() > 0) {
@@ -195,9 +209,11 @@ public class SftpLoader extends Loader {
             final long length = a != null ? a.getSize() : -1L;
             if (BuildConfig.DEBUG && a != null) Log.i(TAG, "getMTime(): " + a.getMTime() + " (" + a.getMtimeString() + ")");
             long skip = 0L;
+            final long mtime = a != null ? a.getMTime() * 1000L : 0L;
             if (destinationFile.isFile()) {
-                String originalHost = Ancestry.getInstance().getHost(destinationFile);
-                if (destinationFile.length() < length && host.equals(originalHost)) {
+                final Ancestry.Record record = Ancestry.getInstance().getRecord(destinationFile);
+                // the modification time and size recorded when the previous attempt started must match the current ones
+                if (destinationFile.length() < length && record != null && record.matches(host, null, mtime, length)) {
                     // incomplete file exists locally
                     skip = destinationFile.length();
                 } else {
@@ -209,21 +225,28 @@ public class SftpLoader extends Loader {
 
             publishProgress(Progress.resourcename(destinationFile.getName()));
 
+            if (metrics != null) metrics.setResumedFrom(skip);
             in = c.get(fileName, null, skip);
+            // the file might be a hard link to another file which must not be modified
+            ContentIndex.detach(destinationFile, skip > 0L);
             out = new FileOutputStream(destinationFile, skip > 0L);
-            final byte[] buf = new byte[length > 0L ? Math.min(16_384, (int)length) : 16_384];
-            long count = 0L;
-            Progress progress = null;
-            for (; ; ) {
+            Ancestry.getInstance().put(destinationFile, new Ancestry.Record(host, null, mtime, length, order.getUrl()));
+            final byte[] buf = new byte[length > 0L ? (int)Math.min(BUFFER_SIZE, length) : BUFFER_SIZE];
+            long count = skip;
+            final Throttle.Lease lease = Throttle.getInstance().lease(host);
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(buf);
                 if (read < 0) break;
                 out.write(buf, 0, read);
+                lease.acquire(read);
                 count += read;
-                if (length <= 0L) continue;
-                progress = Progress.completing((float)count / (float)length, progress);
-                publishProgress(progress);
+                publishBytes(count, length, progressBefore, progressPerOrder);
             }
+            // if the transfer has been interrupted, there may be unanswered read requests which the session is better rid of
+            healthy = !isCancelled() && !isStopRequested();
         } catch (SftpException e) {
+            // the server has refused a request but the session itself is still fine
+            healthy = in == null;
             if (BuildConfig.DEBUG) Log.e(TAG, e.toString(), e);
             String msg = e.toString();
             if (msg.contains("No such file")) return new Delivery(order, 404, null, null, e, null);
@@ -244,10 +267,10 @@ public class SftpLoader extends Loader {
         } finally {
             Util.close(out, in);
             if (channel != null) channel.disconnect();
-            if (this.session != null) {
-                this.session.disconnect();
-                this.session = null;
-            }
+            if (pooled != null) pool.release(pooled, healthy);
+        }
+        if (isCancelled()) {
+            return new Delivery(order, isDeferred() ? LoaderService.ERROR_DEFERRED : LoaderService.ERROR_CANCELLED, destinationFile, null);
         }
         return new Delivery(order, 200, destinationFile, null);
     }
@@ -0,0 +1,249 @@
+/*
+ * SftpSessionPool.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.jcraft.jsch.Session;
+
+import net.cellar.BuildConfig;
+import net.cellar.supp.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps connected SSH {@link Session Sessions} for reuse so that downloads from the same server do not need an SSH handshake each.<br>
+ * Sessions are pooled per host, port, user and proxy. Each Session carries up to {@link #MAX_CHANNELS_PER_SESSION} concurrent sftp channels.<br>
+ * Sessions that have not carried any channel for {@link #IDLE_TIMEOUT} ms are disconnected.
+ */
+public final class SftpSessionPool {
+
+    /** idle Sessions are disconnected after this period */
+    private static final long IDLE_TIMEOUT = 60_000L;
+    /** OpenSSH's MaxSessions defaults to 10 */
+    private static final int MAX_CHANNELS_PER_SESSION = 8;
+    private static final String TAG = "SftpSessionPool";
+    private static SftpSessionPool instance;
+
+    @NonNull
+    public static synchronized SftpSessionPool getInstance() {
+        if (instance == null) instance = new SftpSessionPool();
+        return instance;
+    }
+
+    /**
+     * Builds the key for the given parameters.
+     * @param host server
+     * @param port port
+     * @param user user id
+     * @param proxy proxy description
+     * @return key
+     */
+    @NonNull
+    static String key(@NonNull String host, int port, @NonNull String user, @NonNull String proxy) {
+        return user + '@' + host + ':' + port + ' ' + proxy;
+    }
+
+    /**
+     * Disconnects Sessions on a worker thread.
+     * @param toClose Entries holding the Sessions to disconnect
+     */
+    private static void disconnect(@NonNull final List<Entry> toClose) {
+        if (toClose.isEmpty()) return;
+        if (BuildConfig.DEBUG) Log.i(TAG, "Disconnecting " + toClose.size() + " idle session(s)");
+        new Thread() {
+            @Override
+            public void run() {
+                for (Entry entry : toClose) entry.session.disconnect();
+            }
+        }.start();
+    }
+
+    /** key: see {@link #key(String, int, String, String)} */
+    private final Map<String, List<Entry>> sessions = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable evictor = this::evictExpired;
+    /** whether the {@link #evictor} has been posted; guarded by {@link #sessions} */
+    private boolean evictionScheduled;
+
+    private SftpSessionPool() {
+        super();
+    }
+
+    /**
+     * Hands out a connected Session that can carry another channel.<br>
+     * Each Entry returned here must be passed to {@link #release(Entry, boolean)} eventually.
+     * @param key key
+     * @return Entry or {@code null}
+     */
+    @Nullable
+    Entry acquire(@NonNull String key) {
+        final List<Entry> expired = new ArrayList<>();
+        Entry found = null;
+        final long now = System.currentTimeMillis();
+        synchronized (this.sessions) {
+            final List<Entry> entries = this.sessions.get(key);
+            if (entries != null) {
+                for (Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+                    Entry entry = i.next();
+                    if (!entry.session.isConnected() || (entry.users == 0 && now - entry.idleSince > IDLE_TIMEOUT)) {
+                        i.remove();
+                        expired.add(entry);
+                        continue;
+                    }
+                    if (found == null && entry.users < MAX_CHANNELS_PER_SESSION) {
+                        entry.users++;
+                        found = entry;
+                    }
+                }
+                if (entries.isEmpty()) this.sessions.remove(key);
+            }
+        }
+        for (Entry entry : expired) entry.session.disconnect();
+        if (BuildConfig.DEBUG && found != null) Log.i(TAG, "Reusing session for " + key);
+        return found;
+    }
+
+    /**
+     * Adds a freshly connected Session to the pool. The Session counts as being in use once.
+     * @param key key
+     * @param session connected Session
+     * @return Entry that must be passed to {@link #release(Entry, boolean)} eventually
+     */
+    @NonNull
+    Entry add(@NonNull String key, @NonNull Session session) {
+        final Entry entry = new Entry(key, session);
+        synchronized (this.sessions) {
+            List<Entry> entries = this.sessions.get(key);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                this.sessions.put(key, entries);
+            }
+            entries.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Disconnects all Sessions that are not in use.
+     */
+    @AnyThread
+    public void evictAll() {
+        final List<Entry> toClose = new ArrayList<>();
+        synchronized (this.sessions) {
+            for (Iterator<List<Entry>> i = this.sessions.values().iterator(); i.hasNext(); ) {
+                List<Entry> entries = i.next();
+                for (Iterator<Entry> j = entries.iterator(); j.hasNext(); ) {
+                    Entry entry = j.next();
+                    if (entry.users > 0) continue;
+                    j.remove();
+                    toClose.add(entry);
+                }
+                if (entries.isEmpty()) i.remove();
+            }
+            this.handler.removeCallbacks(this.evictor);
+            this.evictionScheduled = false;
+        }
+        disconnect(toClose);
+    }
+
+    /**
+     * Disconnects the Sessions that have not been in use for longer than {@link #IDLE_TIMEOUT}
+     * and schedules the next run for the remaining idle ones.
+     */
+    @AnyThread
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final List<Entry> toClose = new ArrayList<>();
+        long nextExpiry = Long.MAX_VALUE;
+        synchronized (this.sessions) {
+            this.evictionScheduled = false;
+            for (Iterator<List<Entry>> i = this.sessions.values().iterator(); i.hasNext(); ) {
+                List<Entry> entries = i.next();
+                for (Iterator<Entry> j = entries.iterator(); j.hasNext(); ) {
+                    Entry entry = j.next();
+                    if (entry.users > 0) continue;
+                    if (now - entry.idleSince > IDLE_TIMEOUT || !entry.session.isConnected()) {
+                        j.remove();
+                        entry.retired = true;
+                        toClose.add(entry);
+                    } else {
+                        nextExpiry = Math.min(nextExpiry, entry.idleSince + IDLE_TIMEOUT);
+                    }
+                }
+                if (entries.isEmpty()) i.remove();
+            }
+            if (nextExpiry != Long.MAX_VALUE) scheduleEviction(nextExpiry - now + 1L);
+        }
+        disconnect(toClose);
+    }
+
+    /**
+     * Signals that a channel of the given Session has been closed.
+     * @param entry Entry
+     * @param healthy {@code false} if the Session should not be used again
+     */
+    void release(@NonNull Entry entry, boolean healthy) {
+        boolean disconnect = false;
+        synchronized (this.sessions) {
+            entry.users--;
+            if (!entry.retired && (!healthy || !entry.session.isConnected())) {
+                entry.retired = true;
+                List<Entry> entries = this.sessions.get(entry.key);
+                if (entries != null) {
+                    entries.remove(entry);
+                    if (entries.isEmpty()) this.sessions.remove(entry.key);
+                }
+            }
+            if (entry.users <= 0) {
+                entry.idleSince = System.currentTimeMillis();
+                // a retired Session is disconnected as soon as no other channel is using it any more
+                disconnect = entry.retired;
+                if (!disconnect) scheduleEviction(IDLE_TIMEOUT + 1L);
+            }
+        }
+        if (disconnect) entry.session.disconnect();
+    }
+
+    /**
+     * Posts the {@link #evictor} unless it has been posted already. Must be called while holding the lock on {@link #sessions}.
+     * @param delay delay in ms
+     */
+    private void scheduleEviction(long delay) {
+        if (this.evictionScheduled) return;
+        this.evictionScheduled = true;
+        this.handler.postDelayed(this.evictor, delay);
+    }
+
+    /**
+     * Wraps a connected Session.
+     */
+    static final class Entry {
+        @NonNull private final String key;
+        @NonNull final Session session;
+        /** number of channels currently open */
+        private int users = 1;
+        private long idleSince;
+        /** {@code true} if the Session has been removed from the pool */
+        private boolean retired;
+
+        private Entry(@NonNull String key, @NonNull Session session) {
+            super();
+            this.key = key;
+            this.session = session;
+        }
+    }
+}
@@ -194,7 +194,7 @@ public class SnooVideoLoader extends Loader {
             if (replacementFilename != null) {
                 destinationFile = new File(destinationDir, replacementFilename);
                 destinationFileExistedBefore = destinationFile.isFile();
-                order.setDestinationFilename(replacementFilename);
+                setDestinationFilename(order, replacementFilename);
             }
         }
 
@@ -232,16 +232,12 @@ public class SnooVideoLoader extends Loader {
             in = body.byteStream();
             long totalBytes = 0L;
             final byte[] buffer = new byte[4096];
-            Progress progress = null;
-            while (!isCancelled() && !super.stopRequested) {
+            while (!isCancelled() && !isStopRequested()) {
                 int read = in.read(buffer);
                 if (read <= 0) break;
                 out.write(buffer, 0, read);
-                if (contentLength <= 0L) continue;
-                // publish progress
                 totalBytes += read;
-                progress = Progress.completing(progressBefore + (float) totalBytes / (float) contentLength * progressPerOrder, progress);
-                publishProgress(progress);
+                publishBytes(totalBytes, contentLength, progressBefore, progressPerOrder);
             }
             Util.close(out, in, body);
             if (isCancelled()) {
@@ -121,7 +121,6 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
     private boolean mediaEnded;
     /** {@code true} if libvlc reported an unspecified error */
     private boolean vlcError;
-    private Progress latestCompletion;
 
     /**
      * Constructor.
@@ -170,7 +169,7 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
         File destinationFile = new File(destinationDir, order.getDestinationFilename());
         String alt = Util.suggestAlternativeFilename(destinationFile);
         if (alt != null) {
-            order.setDestinationFilename(alt);
+            setDestinationFilename(order, alt);
             destinationFile = new File(destinationDir, order.getDestinationFilename());
         }
         final String destinationPath = destinationFile.getAbsolutePath();
@@ -223,7 +222,7 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
         }
         mediaPlayer.play();
         boolean interruptedWhilePlaying = false;
-        while (!mediaPlayer.isPlaying() && !super.stopRequested && !this.mediaEnded) {
+        while (!mediaPlayer.isPlaying() && !isStopRequested() && !this.mediaEnded) {
             try {
                 Thread.sleep(500L);
             } catch (InterruptedException e) {
@@ -233,12 +232,12 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
                 return new Delivery(order, this.vlcError ? LoaderService.ERROR_VLC : LoaderService.ERROR_CANCELLED, destinationFile, order.getMime());
             }
         }
-        while (!isCancelled() && !super.stopRequested && !this.mediaEnded) {
+        while (!isCancelled() && !isStopRequested() && !this.mediaEnded) {
             try {
                 Thread.sleep(500L);
             } catch (InterruptedException e) {
                 interruptedWhilePlaying = true;
-                if (BuildConfig.DEBUG && !super.stopRequested && !this.mediaEnded) Log.e(TAG, "While MediaPlayer was playing: " + e.toString());
+                if (BuildConfig.DEBUG && !isStopRequested() && !this.mediaEnded) Log.e(TAG, "While MediaPlayer was playing: " + e.toString());
                 break;
             }
             if (!mediaPlayer.isPlaying()) break;
@@ -263,8 +262,7 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
             float percent = event.getPositionChanged();
             // publish the percentage only if no number of seconds/minutes has ever been published
             if (percent > 0.01f && !this.liveStream && (this.firstTimeChanged == 0L || this.firstTimeChanged == this.latestTimeChanged)) {
-                this.latestCompletion = Progress.completing(this.progressBeforeCurrentOrder + percent * this.progressPerOrder, this.latestCompletion);
-                publishProgress(this.latestCompletion);
+                publishCompletion(this.progressBeforeCurrentOrder + percent * this.progressPerOrder);
             }
         } else if (event.type == MediaPlayer.Event.LengthChanged) {
             this.liveStream = false;
@@ -279,7 +277,7 @@ public class Streamer extends Loader implements MediaPlayer.EventListener {
             this.latestTimeChanged = event.getTimeChanged();
             if (this.firstTimeChanged == 0L && this.latestTimeChanged > 0L) this.firstTimeChanged = this.latestTimeChanged;
             if (this.firstTimeChanged > 0L && this.latestTimeChanged > this.firstTimeChanged && this.latestTimeChanged > previousTimeChanged) {
-                publishProgress(Progress.msRecorded((int)(this.latestTimeChanged - this.firstTimeChanged), this.liveStream ? -1 : this.msTotal, this.liveStream));
+                publishRecorded((int)(this.latestTimeChanged - this.firstTimeChanged), this.liveStream ? -1 : this.msTotal, this.liveStream);
             }
         } else if (event.type == MediaPlayer.Event.EndReached || event.type == MediaPlayer.Event.Stopped) {
             if (BuildConfig.DEBUG) Log.i(TAG, eventToString(event));
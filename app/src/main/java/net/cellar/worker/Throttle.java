@@ -0,0 +1,249 @@
+/*
+ * Throttle.java
+ * Copyright (c) livodeu 2021.
+ * This source code is subject to the license to be found in the file LICENSE.
+ */
+
+package net.cellar.worker;
+
+import android.content.SharedPreferences;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.cellar.App;
+import net.cellar.BuildConfig;
+import net.cellar.net.NetworkChangedReceiver;
+import net.cellar.supp.Log;
+import net.cellar.supp.Util;
+
+import java.io.InterruptedIOException;
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the download speed.<br>
+ * There are three budgets, each of which is a token bucket:
+ * <ol>
+ * <li>a global one shared by all downloads,</li>
+ * <li>one per host,</li>
+ * <li>one per download.</li>
+ * </ol>
+ * A Loader {@link Lease#acquire(int) acquires} the number of bytes it has just read and waits until all three buckets can afford them.<br>
+ * The limits apply only during the hours set via {@link App#PREF_RATE_LIMIT_FROM} and {@link App#PREF_RATE_LIMIT_TO};
+ * while the active network is metered, the global limit is replaced by {@link App#PREF_RATE_LIMIT_METERED}.
+ */
+public final class Throttle implements NetworkChangedReceiver.ConnectivityChangedListener {
+
+    /** the interval in ms at which the time of day and the network are re-evaluated */
+    private static final long CHECK_INTERVAL = 10_000L;
+    /** max. number of hosts to keep a bucket for */
+    private static final int MAX_HOSTS = 64;
+    /** a bucket can hold at least this many bytes so that a single read never exceeds its capacity */
+    private static final long MIN_BURST = 65_536L;
+    private static final String TAG = "Throttle";
+
+    private static Throttle instance;
+
+    /**
+     * Returns the singleton instance.
+     * @return Throttle
+     */
+    @NonNull
+    public static synchronized Throttle getInstance() {
+        if (instance == null) instance = new Throttle();
+        return instance;
+    }
+
+    /**
+     * Tells whether the given hour lies within the given period.
+     * @param hour hour to check
+     * @param from first hour of the period
+     * @param to hour at which the period ends
+     * @return true / false; always true if {@code from} and {@code to} are equal
+     */
+    @VisibleForTesting
+    public static boolean isWithin(@IntRange(from = 0, to = 23) int hour, @IntRange(from = 0, to = 23) int from, @IntRange(from = 0, to = 23) int to) {
+        if (from == to) return true;
+        return from < to ? (hour >= from && hour < to) : (hour >= from || hour < to);
+    }
+
+    private final Bucket global = new Bucket(0L);
+    /** key: host */
+    private final ConcurrentHashMap<String, Bucket> hosts = new ConcurrentHashMap<>();
+    /** configured limits in bytes per second; 0 means unlimited */
+    private volatile long limit, limitMetered, limitHost, limitDownload;
+    @IntRange(from = 0, to = 23) private volatile int from, to;
+    /** the limits currently in effect */
+    private volatile long effectiveHost, effectiveDownload;
+    private volatile long nextCheck;
+
+    /**
+     * Private constructor.
+     */
+    private Throttle() {
+        super();
+    }
+
+    /**
+     * Reads the limits from the preferences.
+     * @param prefs SharedPreferences
+     */
+    @AnyThread
+    public void configure(@NonNull SharedPreferences prefs) {
+        this.limit = readLimit(prefs, App.PREF_RATE_LIMIT);
+        this.limitMetered = readLimit(prefs, App.PREF_RATE_LIMIT_METERED);
+        this.limitHost = readLimit(prefs, App.PREF_RATE_LIMIT_HOST);
+        this.limitDownload = readLimit(prefs, App.PREF_RATE_LIMIT_DOWNLOAD);
+        this.from = prefs.getInt(App.PREF_RATE_LIMIT_FROM, 0);
+        this.to = prefs.getInt(App.PREF_RATE_LIMIT_TO, 0);
+        update();
+    }
+
+    /**
+     * Returns a Lease for one download.
+     * @param host the host that the data comes from
+     * @return Lease
+     */
+    @NonNull
+    public Lease lease(@Nullable String host) {
+        Bucket hostBucket = null;
+        if (host != null) {
+            hostBucket = this.hosts.get(host);
+            if (hostBucket == null) {
+                if (this.hosts.size() >= MAX_HOSTS) this.hosts.clear();
+                hostBucket = new Bucket(this.effectiveHost);
+                Bucket existing = this.hosts.putIfAbsent(host, hostBucket);
+                if (existing != null) hostBucket = existing;
+            }
+        }
+        return new Lease(hostBucket);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onConnectivityChanged(@NonNull NetworkInfo.State old, @NonNull NetworkInfo.State state) {
+        update();
+    }
+
+    /**
+     * Reads a limit given in KB/s.
+     * @param prefs SharedPreferences
+     * @param key preference key
+     * @return limit in bytes per second
+     */
+    private static long readLimit(@NonNull SharedPreferences prefs, @NonNull String key) {
+        return Math.max(0L, Util.parseLong(prefs.getString(key, "0"), 0L)) << 10;
+    }
+
+    /**
+     * Applies the limits that are in effect now.
+     */
+    @AnyThread
+    private void update() {
+        this.nextCheck = SystemClock.elapsedRealtime() + CHECK_INTERVAL;
+        final boolean active = isWithin(Calendar.getInstance().get(Calendar.HOUR_OF_DAY), this.from, this.to);
+        final boolean metered = NetworkChangedReceiver.getInstance().isMetered();
+        final long g;
+        if (!active) g = 0L;
+        else if (metered && this.limitMetered > 0L) g = this.limitMetered;
+        else g = this.limit;
+        this.effectiveHost = active ? this.limitHost : 0L;
+        this.effectiveDownload = active ? this.limitDownload : 0L;
+        if (BuildConfig.DEBUG && g != this.global.getRate()) Log.i(TAG, "Global limit is now " + (g >> 10) + " KB/s" + (metered ? " (metered)" : ""));
+        this.global.setRate(g);
+        for (Bucket b : this.hosts.values()) b.setRate(this.effectiveHost);
+    }
+
+    /**
+     * A token bucket.<br>
+     * The tokens may become negative; the caller then has to wait until the debt has been paid off.
+     * This allows several threads to share a bucket without retrying.
+     */
+    @VisibleForTesting
+    public static final class Bucket {
+        /** bytes per second; 0 means unlimited */
+        private long rate;
+        private double tokens;
+        private long last;
+
+        @VisibleForTesting
+        public Bucket(long rate) {
+            super();
+            this.rate = rate;
+            this.tokens = capacity(rate);
+        }
+
+        private static double capacity(long rate) {
+            return Math.max(MIN_BURST, rate);
+        }
+
+        synchronized long getRate() {
+            return this.rate;
+        }
+
+        synchronized void setRate(long rate) {
+            if (rate == this.rate) return;
+            this.rate = rate;
+            this.tokens = Math.min(this.tokens, capacity(rate));
+        }
+
+        /**
+         * Takes the given number of bytes from this bucket.
+         * @param bytes number of bytes
+         * @param now current time in ms
+         * @return time to wait in ms before the bytes may be used
+         */
+        @VisibleForTesting
+        public synchronized long take(int bytes, long now) {
+            if (this.rate <= 0L) return 0L;
+            if (this.last > 0L && now > this.last) {
+                this.tokens = Math.min(capacity(this.rate), this.tokens + (now - this.last) * this.rate / 1000.0);
+            }
+            this.last = now;
+            this.tokens -= bytes;
+            return this.tokens >= 0. ? 0L : (long)Math.ceil(-this.tokens * 1000.0 / this.rate);
+        }
+    }
+
+    /**
+     * The budget of one download.
+     */
+    public final class Lease {
+
+        @Nullable private final Bucket host;
+        @NonNull private final Bucket own;
+
+        private Lease(@Nullable Bucket host) {
+            super();
+            this.host = host;
+            this.own = new Bucket(Throttle.this.effectiveDownload);
+        }
+
+        /**
+         * Accounts for the given number of bytes and blocks until they fit into all budgets.
+         * @param bytes number of bytes that have just been read
+         * @throws InterruptedIOException if the thread has been interrupted while waiting
+         */
+        public void acquire(int bytes) throws InterruptedIOException {
+            if (bytes <= 0) return;
+            final long now = SystemClock.elapsedRealtime();
+            if (now >= Throttle.this.nextCheck) update();
+            this.own.setRate(Throttle.this.effectiveDownload);
+            long wait = Throttle.this.global.take(bytes, now);
+            if (this.host != null) wait = Math.max(wait, this.host.take(bytes, now));
+            wait = Math.max(wait, this.own.take(bytes, now));
+            if (wait <= 0L) return;
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.toString());
+            }
+        }
+    }
+}
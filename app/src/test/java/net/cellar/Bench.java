@@ -0,0 +1,213 @@
+package net.cellar;
+
+import androidx.annotation.NonNull;
+
+import net.cellar.supp.Util;
+
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.fail;
+
+/**
+ * A minimal microbenchmark harness for the JVM unit tests.<br>
+ * Each benchmark is warmed up first and then measured in several rounds; the median time per operation is compared
+ * with the baseline stored in {@code src/test/resources/benchmark/baseline.properties}.<br>
+ * The benchmarks are skipped unless the Gradle property "benchmark" is given:
+ * <pre>
+ * ./gradlew testDebugUnitTest -Pbenchmark --tests '*Benchmark'          // measure and compare with the baseline
+ * ./gradlew testDebugUnitTest -Pbenchmark=strict --tests '*Benchmark'   // fail if a benchmark is slower than the baseline allows
+ * ./gradlew testDebugUnitTest -Pbenchmark=record --tests '*Benchmark'   // measure and store the results as new baseline
+ * </pre>
+ * The results of the latest run are written to {@code build/reports/benchmark/results.properties}.<br>
+ * The baseline is only meaningful for the machine it has been recorded on, so it must be recorded (and committed) on the reference machine
+ * before the strict mode can serve as a regression gate. Until then, the strict mode reports every benchmark that has no baseline
+ * as skipped, so that neither a pass nor a failure is claimed for it.
+ */
+public final class Bench {
+
+    /** the value of the system property "benchmark" that makes benchmarks fail if they exceed the baseline plus {@link #TOLERANCE} */
+    private static final String MODE_STRICT = "strict";
+    /** the value of the system property "benchmark" that makes the results the new baseline */
+    private static final String MODE_RECORD = "record";
+    /** the number of measurement rounds */
+    private static final int ROUNDS = 10;
+    /** the duration of one measurement round */
+    private static final long ROUND_NS = 200_000_000L;
+    /** the relative deviation from the baseline that is still acceptable */
+    private static final double TOLERANCE = 0.25;
+    /** the duration of the warm-up phase */
+    private static final long WARMUP_NS = 2_000_000_000L;
+    /** receives the results of the operations so that the JIT cannot eliminate them */
+    private static volatile int sink;
+
+    /**
+     * Consumes a result.
+     * @param o result of an operation
+     */
+    private static void consume(Object o) {
+        sink += (o != null ? o.hashCode() : 1);
+    }
+
+    /**
+     * @return {@code true} if benchmarks should be run
+     */
+    public static boolean isEnabled() {
+        final String mode = System.getProperty("benchmark");
+        return mode != null && mode.length() > 0 && !"false".equals(mode);
+    }
+
+    /**
+     * Loads a properties file.
+     * @param file file to load
+     * @return Properties (empty if the file does not exist)
+     */
+    @NonNull
+    private static Properties load(@NonNull File file) {
+        final Properties p = new Properties();
+        if (!file.isFile()) return p;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            p.load(in);
+        } catch (IOException e) {
+            System.err.println("Failed to read " + file + ": " + e);
+        } finally {
+            Util.close(in);
+        }
+        return p;
+    }
+
+    /**
+     * Runs a benchmark.
+     * @param name benchmark name, e.g. "Util.getMime"
+     * @param op operation to measure
+     * @return median time per operation in ns
+     * @throws Exception if the operation fails
+     */
+    public static double run(@NonNull String name, @NonNull Op op) throws Exception {
+        int i = 0;
+        // warm up and estimate the number of operations per round
+        final long warmupStart = System.nanoTime();
+        long ops = 0L;
+        long elapsed;
+        do {
+            for (int k = 0; k < 100; k++) consume(op.run(i++));
+            ops += 100L;
+            elapsed = System.nanoTime() - warmupStart;
+        } while (elapsed < WARMUP_NS);
+        final long opsPerRound = Math.max(1L, ops * ROUND_NS / elapsed);
+        // measure
+        final double[] nsPerOp = new double[ROUNDS];
+        for (int r = 0; r < ROUNDS; r++) {
+            final long start = System.nanoTime();
+            for (long k = 0L; k < opsPerRound; k++) consume(op.run(i++));
+            nsPerOp[r] = (System.nanoTime() - start) / (double) opsPerRound;
+        }
+        Arrays.sort(nsPerOp);
+        final double median = (nsPerOp[ROUNDS / 2 - 1] + nsPerOp[ROUNDS / 2]) / 2.;
+        report(name, median, nsPerOp[0], nsPerOp[ROUNDS - 1]);
+        return median;
+    }
+
+    /**
+     * Stores a result and compares it with the baseline.
+     * @param name benchmark name
+     * @param median median time per operation in ns
+     * @param min fastest round
+     * @param max slowest round
+     */
+    private static synchronized void report(@NonNull String name, double median, double min, double max) {
+        final String mode = System.getProperty("benchmark");
+        final File baselineFile = new File(System.getProperty("benchmark.baseline", "src/test/resources/benchmark/baseline.properties"));
+        final File resultsFile = new File(System.getProperty("benchmark.results", "build/reports/benchmark"), "results.properties");
+        final String value = String.format(Locale.US, "%.1f", median);
+        store(resultsFile, name, value);
+        final Properties baseline = load(baselineFile);
+        final double expected = Util.parseDouble(baseline.getProperty(name), -1.);
+        final StringBuilder msg = new StringBuilder(96).append(name).append(": ").append(value).append(" ns/op")
+                .append(String.format(Locale.US, " (%.1f … %.1f)", min, max));
+        if (expected > 0.) {
+            final double deviation = median / expected - 1.;
+            msg.append(String.format(Locale.US, ", baseline %.1f ns/op (%+.0f%%)", expected, deviation * 100.));
+            if (deviation > TOLERANCE && MODE_STRICT.equals(mode)) {
+                System.out.println(msg);
+                fail(msg + " exceeds the tolerance of " + Math.round(TOLERANCE * 100.) + "%");
+            }
+        } else {
+            msg.append(", no baseline");
+            if (MODE_STRICT.equals(mode)) {
+                System.out.println(msg);
+                // nothing to compare with - this benchmark has not been gated
+                Assume.assumeTrue(msg + " - record a baseline on the reference machine via -Pbenchmark=" + MODE_RECORD, false);
+            }
+        }
+        System.out.println(msg);
+        if (MODE_RECORD.equals(mode)) {
+            store(baselineFile, name, value);
+        }
+    }
+
+    /**
+     * Sets a value in a properties file, keeping the other values.
+     * @param file properties file
+     * @param key key
+     * @param value value
+     */
+    private static void store(@NonNull File file, @NonNull String key, @NonNull String value) {
+        final Properties p = load(file);
+        p.setProperty(key, value);
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Failed to create " + dir);
+            return;
+        }
+        // sorted, so that the baseline file produces readable diffs
+        final TreeMap<String, String> sorted = new TreeMap<>();
+        for (String k : p.stringPropertyNames()) sorted.put(k, p.getProperty(k));
+        final StringBuilder sb = new StringBuilder(1024);
+        sb.append("# median ns per operation, written by ").append(Bench.class.getName()).append('\n');
+        sb.append("# to be recorded on the reference machine via -Pbenchmark=").append(MODE_RECORD).append("; -Pbenchmark=").append(MODE_STRICT).append(" skips benchmarks that are missing here\n");
+        for (String k : sorted.keySet()) sb.append(k).append('=').append(sorted.get(k)).append('\n');
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(sb.toString().getBytes("ISO-8859-1"));
+        } catch (IOException e) {
+            System.err.println("Failed to write " + file + ": " + e);
+        } finally {
+            Util.close(out);
+        }
+    }
+
+    /**
+     * Private constructor.
+     */
+    private Bench() {
+    }
+
+    /**
+     * An operation to measure.
+     */
+    @FunctionalInterface
+    public interface Op {
+
+        /**
+         * Performs the operation once.
+         * @param i invocation counter, to be used to pick an element of the dataset
+         * @return result of the operation, to keep the JIT from eliminating it
+         * @throws Exception if the operation fails
+         */
+        Object run(int i) throws Exception;
+    }
+}
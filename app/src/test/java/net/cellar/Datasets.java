@@ -0,0 +1,180 @@
+package net.cellar;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Provides the data that the benchmarks work on.<br>
+ * Generated data depends on fixed seeds only, so that each run measures the same input.
+ */
+final class Datasets {
+
+    private static final String[] TLDS = new String[] {"com", "net", "org", "de", "fr", "io", "co.uk"};
+    private static final String[] EXTENSIONS = new String[] {"mp4", "mp3", "jpg", "png", "pdf", "zip", "m3u8", "ts", "flac", "txt", "html", "apk", "mkv", "webm", "epub", "ac3", "ape", "vob", ""};
+
+    /**
+     * Generates Content-Disposition header values, some of them percent-encoded, some without file name.
+     * @param n number of values
+     * @return Content-Disposition values
+     */
+    @NonNull
+    static String[] contentDispositions(int n) {
+        final Random r = new Random(47L);
+        final String[] a = new String[n];
+        for (int i = 0; i < n; i++) {
+            final String name = word(r, 4 + r.nextInt(20)) + (r.nextBoolean() ? "%20" + word(r, 5) : "") + '.' + EXTENSIONS[r.nextInt(EXTENSIONS.length - 1)];
+            switch (i % 4) {
+                case 0: a[i] = "attachment; filename=\"" + name + "\""; break;
+                case 1: a[i] = "inline; FileName=\"" + name + "\"; size=" + r.nextInt(10_000_000); break;
+                case 2: a[i] = "attachment; filename=\"" + name + "\"; filename*=UTF-8''" + name; break;
+                default: a[i] = "inline";
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Generates host names.
+     * @param seed seed
+     * @param n number of hosts
+     * @return host names
+     */
+    @NonNull
+    static String[] hosts(long seed, int n) {
+        final Random r = new Random(seed);
+        final String[] a = new String[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = (r.nextInt(3) == 0 ? "www." : "") + word(r, 3 + r.nextInt(12)) + (r.nextBoolean() ? "-" + word(r, 4) : "") + '.' + TLDS[r.nextInt(TLDS.length)];
+        }
+        return a;
+    }
+
+    /**
+     * Generates a master playlist with {@code variants} variant streams and some alternative renditions.
+     * @param variants number of variant streams
+     * @return playlist lines
+     */
+    @NonNull
+    static List<String> masterPlaylist(int variants) {
+        final Random r = new Random(4711L);
+        final List<String> lines = new ArrayList<>(variants * 2 + 8);
+        lines.add("#EXTM3U");
+        lines.add("#EXT-X-VERSION:6");
+        lines.add("#EXT-X-INDEPENDENT-SEGMENTS");
+        lines.add("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud1\",NAME=\"English\",LANGUAGE=\"eng\",DEFAULT=YES,AUTOSELECT=YES,URI=\"https://cdn.example.com/hls/aud1/prog_index.m3u8\"");
+        lines.add("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud1\",NAME=\"Deutsch\",LANGUAGE=\"deu\",DEFAULT=NO,AUTOSELECT=YES,URI=\"https://cdn.example.com/hls/aud2/prog_index.m3u8\"");
+        lines.add("#EXT-X-MEDIA:TYPE=SUBTITLES,GROUP-ID=\"sub1\",NAME=\"English\",LANGUAGE=\"eng\",DEFAULT=YES,AUTOSELECT=YES,FORCED=NO,URI=\"https://cdn.example.com/hls/sub1/prog_index.m3u8\"");
+        for (int i = 0; i < variants; i++) {
+            final int height = 144 * (1 + r.nextInt(15));
+            final int bandwidth = 200_000 + r.nextInt(8_000_000);
+            lines.add(String.format(Locale.US, "#EXT-X-STREAM-INF:BANDWIDTH=%d,AVERAGE-BANDWIDTH=%d,RESOLUTION=%dx%d,FRAME-RATE=%.3f,CODECS=\"avc1.4D40%02X,mp4a.40.2\",AUDIO=\"aud1\",SUBTITLES=\"sub1\"",
+                    bandwidth, bandwidth * 9 / 10, height * 16 / 9, height, r.nextBoolean() ? 25. : 29.97, 0x1e + r.nextInt(8)));
+            lines.add("https://cdn.example.com/hls/v" + i + '/' + word(r, 8) + "/prog_index.m3u8");
+        }
+        return lines;
+    }
+
+    /**
+     * Generates a media playlist with {@code segments} media segments.
+     * @param segments number of segments
+     * @return playlist lines
+     */
+    @NonNull
+    static List<String> mediaPlaylist(int segments) {
+        final List<String> lines = new ArrayList<>(segments * 2 + 8);
+        lines.add("#EXTM3U");
+        lines.add("#EXT-X-TARGETDURATION:10");
+        lines.add("#EXT-X-VERSION:3");
+        lines.add("#EXT-X-MEDIA-SEQUENCE:0");
+        lines.add("#EXT-X-PLAYLIST-TYPE:VOD");
+        for (int i = 0; i < segments; i++) {
+            lines.add("#EXTINF:10.000000,");
+            lines.add("https://cdn.example.com/hls/v1/segment" + i + ".ts");
+        }
+        lines.add("#EXT-X-ENDLIST");
+        return lines;
+    }
+
+    /**
+     * Reads a text resource from {@code src/test/resources}.
+     * @param name resource name
+     * @return non-empty lines that do not start with '#'
+     * @throws IOException if the resource cannot be read
+     */
+    @NonNull
+    static List<String> readLines(@NonNull String name) throws IOException {
+        final InputStream in = Datasets.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) throw new IOException("Resource not found: " + name);
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') continue;
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Generates file extensions, some of them upper case, some unknown.
+     * @param n number of extensions
+     * @return file extensions
+     */
+    @NonNull
+    static String[] tags(int n) {
+        final Random r = new Random(11L);
+        final String[] a = new String[n];
+        for (int i = 0; i < n; i++) {
+            switch (r.nextInt(8)) {
+                case 0: a[i] = word(r, 3); break;
+                case 1: a[i] = EXTENSIONS[r.nextInt(EXTENSIONS.length)].toUpperCase(Locale.US); break;
+                default: a[i] = EXTENSIONS[r.nextInt(EXTENSIONS.length)];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Generates a lower-case word.
+     * @param r Random
+     * @param length word length
+     * @return word
+     */
+    @NonNull
+    static String word(@NonNull Random r, int length) {
+        final char[] c = new char[length];
+        for (int i = 0; i < length; i++) c[i] = (char) ('a' + r.nextInt(26));
+        return new String(c);
+    }
+
+    /**
+     * Writes a file.
+     * @param file file to write
+     * @param data data to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(@NonNull File file, @NonNull byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    /**
+     * Private constructor.
+     */
+    private Datasets() {
+    }
+}
@@ -0,0 +1,62 @@
+package net.cellar;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.preference.PreferenceManager;
+
+import net.cellar.net.EvilBlocker;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the host lookup in {@link EvilBlocker#isEvil(String)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class EvilBlockerBenchmark {
+
+    /** number of hosts in the blacklist; the real one has ca. 70000 */
+    private static final int BLACKLIST_SIZE = 65_536;
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    @Test
+    public void benchIsEvil() throws Exception {
+        final Context ctx = RuntimeEnvironment.getApplication();
+        final String[] evilHosts = Datasets.hosts(1L, BLACKLIST_SIZE);
+        final StringBuilder sb = new StringBuilder(BLACKLIST_SIZE * 24);
+        sb.append("# generated\n127.0.0.1 localhost\n");
+        for (String host : evilHosts) sb.append("0.0.0.0 ").append(host).append('\n');
+        final File blacklist = new File(ctx.getFilesDir(), "black.txt");
+        Datasets.write(blacklist, sb.toString().getBytes(StandardCharsets.UTF_8));
+        // the EvilBlocker prefers a zipped blacklist and loads a new one if there is no zip file
+        new net.lingala.zip4j.ZipFile(blacklist.getAbsolutePath() + ".zip").addFile(blacklist);
+        PreferenceManager.getDefaultSharedPreferences(ctx).edit().putString(App.PREF_BLACKLIST, "https://localhost/black.txt").commit();
+        final EvilBlocker evilBlocker = new EvilBlocker(ctx);
+        // half of the looked-up hosts are on the blacklist
+        final String[] goodHosts = Datasets.hosts(2L, 512);
+        final String[] lookups = new String[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = (i & 1) == 0 ? evilHosts[(i * 61) % BLACKLIST_SIZE] : goodHosts[i >> 1];
+        }
+        assertTrue(evilBlocker.isEvil(lookups[0]));
+        assertFalse(evilBlocker.isEvil("cellar.example"));
+        Bench.run("EvilBlocker.isEvil", i -> evilBlocker.isEvil(lookups[i & 1023]));
+    }
+}
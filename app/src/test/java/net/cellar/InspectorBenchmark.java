@@ -0,0 +1,81 @@
+package net.cellar;
+
+import android.app.Application;
+
+import net.cellar.worker.Inspector;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link Inspector#inspectFile(File, Map)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class InspectorBenchmark {
+
+    /** file headers and the extensions that the Inspector should suggest for them */
+    private static final Object[][] SAMPLES = new Object[][] {
+            {new byte[] {(byte)0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a}, ".png"},
+            {"%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII), ".pdf"},
+            {"ID3\u0003\u0000".getBytes(StandardCharsets.US_ASCII), ".mp3"},
+            {new byte[] {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'}, ".mp4"},
+            {new byte[] {'R', 'I', 'F', 'F', 0x24, 0x08, 0, 0, 'W', 'A', 'V', 'E', 'f', 'm', 't', ' '}, ".wav"},
+            {"OggS".getBytes(StandardCharsets.US_ASCII), ".opus"},
+            {new byte[] {0x1a, 0x45, (byte)0xdf, (byte)0xa3}, ".mkv"},
+            {"fLaC".getBytes(StandardCharsets.US_ASCII), ".flac"},
+            {new byte[] {0x37, 0x7a, (byte)0xbc, (byte)0xaf, 0x27, 0x1c}, ".7z"},
+            {"#EXTM3U\n#EXTINF:10,\n".getBytes(StandardCharsets.US_ASCII), ".m3u"},
+            {"<!DOCTYPE html>\n<html>".getBytes(StandardCharsets.US_ASCII), ".htm"},
+            {new byte[] {(byte)0xff, (byte)0xfb, (byte)0x90, 0x64}, ".mp3"},
+            // no signature
+            {"Just some text without any magic.\n".getBytes(StandardCharsets.US_ASCII), null},
+            {new byte[16], null}
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    @Test
+    public void benchInspectFile() throws Exception {
+        final Random r = new Random(5L);
+        final File[] files = new File[SAMPLES.length];
+        for (int i = 0; i < SAMPLES.length; i++) {
+            // 4 kB of noise, starting with the header
+            final byte[] data = new byte[4096];
+            r.nextBytes(data);
+            final byte[] header = (byte[]) SAMPLES[i][0];
+            System.arraycopy(header, 0, data, 0, header.length);
+            // the files get a neutral extension so that the Inspector has to suggest one
+            files[i] = new File(this.tmp.getRoot(), "sample" + i + ".bin");
+            Datasets.write(files[i], data);
+        }
+        final Map<File, String> suggestions = new HashMap<>();
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(files[i].getName(), SAMPLES[i][1], Inspector.inspectFile(files[i], suggestions));
+        }
+        Bench.run("Inspector.inspectFile", i -> {
+            suggestions.clear();
+            return Inspector.inspectFile(files[i % files.length], suggestions);
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package net.cellar;
+
+import android.app.Application;
+
+import net.cellar.worker.Loader;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures {@link Loader#parseContentDisposition(String)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class LoaderBenchmark {
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    @Test
+    public void benchParseContentDisposition() throws Exception {
+        final String[] contentDispositions = Datasets.contentDispositions(256);
+        Bench.run("Loader.parseContentDisposition", i -> Loader.parseContentDisposition(contentDispositions[i & 255]));
+    }
+}
@@ -0,0 +1,78 @@
+package net.cellar;
+
+import android.app.Application;
+import android.net.Uri;
+
+import net.cellar.model.pl.M3UPlaylist;
+import net.cellar.model.pl.PlaylistItem;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures {@link M3UPlaylist#parseLine(String)} and {@link PlaylistItem#parseExtXStreamInf(String, String)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class PlaylistBenchmark {
+
+    private static final Uri SOURCE = Uri.parse("https://cdn.example.com/hls/master.m3u8");
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    /**
+     * Parses a complete playlist.
+     * @param lines playlist lines
+     * @return M3UPlaylist
+     */
+    private static M3UPlaylist parse(List<String> lines) {
+        final M3UPlaylist playlist = new M3UPlaylist(SOURCE);
+        for (String line : lines) playlist.parseLine(line);
+        return playlist;
+    }
+
+    @Test
+    public void benchParseExtXStreamInf() throws Exception {
+        final List<String> lines = Datasets.masterPlaylist(64);
+        // pairs of #EXT-X-STREAM-INF line and url
+        final String[] inf = new String[64];
+        final String[] url = new String[64];
+        for (int i = 0, j = 0; i < lines.size(); i++) {
+            if (!lines.get(i).startsWith(PlaylistItem.EXTXSTREAMINF)) continue;
+            inf[j] = lines.get(i);
+            url[j++] = lines.get(i + 1);
+        }
+        Bench.run("PlaylistItem.parseExtXStreamInf", i -> PlaylistItem.parseExtXStreamInf(inf[i & 63], url[i & 63]));
+    }
+
+    @Test
+    public void benchParseMasterPlaylist() throws Exception {
+        final List<String> lines = Datasets.masterPlaylist(32);
+        final M3UPlaylist check = parse(lines);
+        assertTrue(check.isMasterPlaylist());
+        assertEquals(32, check.getCount());
+        // one operation is one playlist of 32 variant streams
+        Bench.run("M3UPlaylist.parseLine(master)", i -> parse(lines));
+    }
+
+    @Test
+    public void benchParseMediaPlaylist() throws Exception {
+        final List<String> lines = Datasets.mediaPlaylist(360);
+        final M3UPlaylist check = parse(lines);
+        assertTrue(check.isMediaPlaylist());
+        // one operation is one playlist of 360 segments (one hour)
+        Bench.run("M3UPlaylist.parseLine(media)", i -> parse(lines));
+    }
+}
@@ -0,0 +1,36 @@
+package net.cellar;
+
+import android.app.Application;
+import android.net.Uri;
+
+import net.cellar.supp.UriHandler;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+/**
+ * Measures {@link UriHandler#checkUri(Uri)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class UriHandlerBenchmark {
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    @Test
+    public void benchCheckUri() throws Exception {
+        final List<String> urls = Datasets.readLines("benchmark/urls.txt");
+        final Uri[] uris = new Uri[urls.size()];
+        for (int i = 0; i < uris.length; i++) uris[i] = Uri.parse(urls.get(i));
+        Bench.run("UriHandler.checkUri", i -> UriHandler.checkUri(uris[i % uris.length]));
+    }
+}
@@ -0,0 +1,45 @@
+package net.cellar;
+
+import android.app.Application;
+
+import net.cellar.supp.Util;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+/**
+ * Measures {@link Util#getMime(String, String)} and {@link Util#getMime(File)}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class UtilBenchmark {
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    @Test
+    public void benchGetMimeForFile() throws Exception {
+        final String[] tags = Datasets.tags(256);
+        final File dir = new File(System.getProperty("java.io.tmpdir"));
+        final File[] files = new File[tags.length];
+        for (int i = 0; i < files.length; i++) {
+            // the files do not exist, so each call costs one failed stat()
+            files[i] = new File(dir, "nonexistent" + i + (tags[i].length() > 0 ? '.' + tags[i] : ""));
+        }
+        Bench.run("Util.getMime(File)", i -> Util.getMime(files[i & 255]));
+    }
+
+    @Test
+    public void benchGetMimeForTag() throws Exception {
+        final String[] tags = Datasets.tags(256);
+        Bench.run("Util.getMime(String)", i -> Util.getMime(tags[i & 255], App.MIME_DEFAULT));
+    }
+}
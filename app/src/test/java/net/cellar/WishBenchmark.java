@@ -0,0 +1,68 @@
+package net.cellar;
+
+import android.app.Application;
+import android.net.Uri;
+
+import net.cellar.model.Wish;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link Wish#fromString(String)} and {@link Wish#toString()}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class WishBenchmark {
+
+    @BeforeClass
+    public static void checkEnabled() {
+        Assume.assumeTrue(Bench.isEnabled());
+    }
+
+    /**
+     * @return Wishes made from the urls in the dataset, with varying attributes
+     * @throws Exception if the dataset cannot be read
+     */
+    private static Wish[] makeWishes() throws Exception {
+        final List<String> urls = Datasets.readLines("benchmark/urls.txt");
+        final Random r = new Random(3L);
+        final Wish[] wishes = new Wish[urls.size()];
+        for (int i = 0; i < wishes.length; i++) {
+            final Wish wish = new Wish(Uri.parse(urls.get(i)), r.nextBoolean() ? Datasets.word(r, 12) : null);
+            if (r.nextBoolean()) wish.setMime("video/mp4");
+            if (r.nextBoolean()) wish.setReferer("https://www.example.com/" + Datasets.word(r, 8));
+            wish.setTimestamp(1_600_000_000_000L + r.nextInt(100_000_000));
+            wish.setHeld(r.nextInt(4) == 0);
+            if (r.nextBoolean()) wish.setFileName(Datasets.word(r, 10) + ".mp4");
+            wishes[i] = wish;
+        }
+        return wishes;
+    }
+
+    @Test
+    public void benchFromString() throws Exception {
+        final Wish[] wishes = makeWishes();
+        final String[] strings = new String[wishes.length];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = wishes[i].toString();
+            assertEquals(strings[i], Wish.fromString(strings[i]).toString());
+        }
+        Bench.run("Wish.fromString", i -> Wish.fromString(strings[i % strings.length]));
+    }
+
+    @Test
+    public void benchToString() throws Exception {
+        final Wish[] wishes = makeWishes();
+        Bench.run("Wish.toString", i -> wishes[i % wishes.length].toString());
+    }
+}